@@ -0,0 +1,175 @@
+package net.parallaxed.bluejam;
+
+import java.util.ArrayList;
+
+import net.parallaxed.bluejam.evolution.Island;
+import net.parallaxed.bluejam.evolution.IslandPlayer;
+import net.parallaxed.bluejam.evolution.Topology;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Runs an island model: several populations evolving at once,
+ * each on its own thread, swapping their fittest individuals
+ * every few generations. Islands can be configured differently
+ * (selection, fitness, genotype) through their populations'
+ * parameters, and migration keeps any one motif from taking over
+ * while no single population grows.
+ * 
+ * Listeners are played the fittest individual across all the
+ * islands, once every island has finished another generation.
+ * Feedback works as it does on Evolve; positive feedback sends
+ * the sequence to every island as a migrant.
+ * 
+ * @see Island
+ * @see IslandPlayer
+ * @see Evolve
+ */
+public class Archipelago extends IslandPlayer
+{
+	private final ArrayList<Island> islands = new ArrayList<Island>();
+	
+	private final SequenceParameters _sequenceParameters;
+	private final HeuristicCollection _heuristics;
+	
+	private Topology _topology = Topology.RING;
+	private int _interval = 5;
+	private int _migrants = 2;
+	private int _generations = 25;
+	
+	/**
+	 * Creates an empty archipelago; add islands with addIsland().
+	 * @param sequenceParameters The sequenceParameters every island uses.
+	 * @param heuristics The HeuristicCollection to use, or null.
+	 */
+	public Archipelago(SequenceParameters sequenceParameters, HeuristicCollection heuristics)
+	{
+		if (sequenceParameters == null)
+			throw new IllegalArgumentException("SequenceParameters must not be null.");
+		_sequenceParameters = sequenceParameters;
+		_heuristics = heuristics;
+	}
+	
+	/**
+	 * Adds an island. Its population is returned so its parameters
+	 * can be set before the archipelago is run.
+	 * @param memberCount The number of individuals on the island.
+	 * @return The island's population.
+	 */
+	public Population addIsland(int memberCount)
+	{
+		Population p = new Population(_sequenceParameters, memberCount, _heuristics);
+		islands.add(new Island(p, islands.size()));
+		return p;
+	}
+	
+	/**
+	 * @return The islands, once added.
+	 */
+	public Island[] islands() {
+		return islands.toArray(new Island[islands.size()]);
+	}
+	
+	/**
+	 * @param topology How the islands are connected.
+	 */
+	public void topology(Topology topology) { _topology = topology; }
+	
+	/**
+	 * @param interval Migrate every this many generations (0 for never).
+	 * @param migrants The number of individuals each island sends each neighbour.
+	 */
+	public void migration(int interval, int migrants)
+	{
+		_interval = interval;
+		_migrants = migrants;
+	}
+	
+	/**
+	 * @param generations The number of generations each island runs.
+	 */
+	public void generations(int generations) { _generations = generations; }
+	
+	protected void migrate(NoteSequence notes)
+	{
+		for (Island island : islands)
+			try { island.immigrate(notes.clone()); }
+			catch (CloneNotSupportedException e) { ErrorFeedback.handle(e.getMessage(), e); }
+	}
+	
+	/**
+	 * @return The fittest individual across the islands' last
+	 * mating pools, or null if none has finished a generation.
+	 */
+	public Individual best()
+	{
+		Individual best = null;
+		for (Island island : islands)
+		{
+			Individual i = island.best();
+			if (i != null && (best == null || i.evaluate() > best.evaluate()))
+				best = i;
+		}
+		return best;
+	}
+	
+	/**
+	 * Runs the islands, each on its own thread, and plays the
+	 * best of them to the listeners after every generation.
+	 */
+	public void run()
+	{
+		Island[] all = islands();
+		Thread[] threads = new Thread[all.length];
+		for (int i = 0; i < all.length; i++)
+		{
+			int[] n = _topology.neighbours(i, all.length);
+			Island[] neighbours = new Island[n.length];
+			for (int j = 0; j < n.length; j++)
+				neighbours[j] = all[n[j]];
+			all[i].connect(neighbours);
+			all[i].generations(_generations);
+			all[i].migration(_interval, _migrants);
+			all[i].monitor(_progress);
+			threads[i] = new Thread(all[i], "Island "+i);
+			threads[i].start();
+		}
+		
+		try {
+			play(_generations);
+		}
+		catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+		finally {
+			for (Island island : all)
+				island.stop();
+		}
+		for (Thread t : threads)
+			try { t.join(); }
+			catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+		close();
+	}
+	
+	protected NoteSequence fittest()
+	{
+		NoteSequence play = best().getNoteSequence();
+		// Packed genotypes are played (and fed back) as trees.
+		if (play instanceof NoteArray)
+			play = ((NoteArray) play).toTree();
+		return play;
+	}
+	
+	protected int slowest()
+	{
+		int slowest = Integer.MAX_VALUE;
+		for (Island island : islands)
+			slowest = Math.min(slowest, island.generation());
+		return islands.isEmpty() ? 0 : slowest;
+	}
+	
+	protected boolean finished()
+	{
+		for (Island island : islands)
+			if (island.running())
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,440 @@
+package net.parallaxed.bluejam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.grammar.ModelParser;
+import net.parallaxed.bluejam.grammar.PitchModel;
+import net.parallaxed.bluejam.util.CpuAccount;
+
+/**
+ * Hosts any number of Evolve sessions (one per jam, patch or
+ * performer) on a shared pool of workers, so however many sessions
+ * run, no more evolution cycles run at once than there are workers.
+ *
+ * Each session runs as a task on the service's fork-join pool. It 
+ * spends most of its life waiting on feedback or demand, and while
+ * it waits the pool puts another thread in its place (up to a 
+ * limit), so waiting sessions don't hold on to workers. A session
+ * takes a turn on a worker for each cycle (a generation or a 
+ * steady-state step) and gives it back after. Turns are handed out
+ * first come, first served, and each session has a CPU budget: the
+ * number of workers' worth of time it may use, over time. A session
+ * over budget sits out until it has earned the time back, leaving 
+ * the workers to the others.
+ *
+ * Cycles breed and evaluate on the same pool, across every worker.
+ * Each of their tasks charges its CPU time to the session it's done
+ * for (see CpuAccount), so no work escapes the budget.
+ *
+ * Heuristics and pitch models are read once per directory and
+ * shared, read-only, by every session that asks for them.
+ *
+ * @see Evolve
+ */
+public class EvolutionService
+{
+	private static final String W_MODEL = "WARNING: Unable to load model: ";
+	/**
+	 * The most CPU time (ns) a session can save up while idle, so
+	 * it can't then hold on to a worker for long.
+	 */
+	private static final long MAX_CREDIT = 1000000000L;
+	/**
+	 * The most threads the pool starts in place of waiting sessions.
+	 * Past that, a waiting session keeps its thread.
+	 */
+	private static final int MAX_SPARES = 256;
+
+	private static EvolutionService _instance = null;
+
+	/**
+	 * @return The service shared by every session in this VM, with
+	 * a worker per available processor.
+	 */
+	public static synchronized EvolutionService getInstance()
+	{
+		if (_instance == null)
+			_instance = new EvolutionService(Runtime.getRuntime().availableProcessors());
+		return _instance;
+	}
+
+	private final int _workers;
+	private final ForkJoinPool _forkJoinPool;
+	/**
+	 * Turns on the workers, taken by a session for each cycle.
+	 */
+	private final Semaphore _turns;
+	private final AtomicInteger _threads = new AtomicInteger();
+	private final CopyOnWriteArrayList<Session> _sessions = new CopyOnWriteArrayList<Session>();
+	private final ConcurrentHashMap<String, HeuristicCollection> _heuristics = new ConcurrentHashMap<String, HeuristicCollection>();
+	private final ConcurrentHashMap<String, Map<Pitch, PitchModel>> _models = new ConcurrentHashMap<String, Map<Pitch, PitchModel>>();
+	private final AtomicLong _opened = new AtomicLong();
+
+	/**
+	 * @param workers The number of cycles run at once (at least 1).
+	 */
+	public EvolutionService(int workers)
+	{
+		_workers = Math.max(1, workers);
+		// Fair, so no session waits behind others indefinitely.
+		_turns = new Semaphore(_workers, true);
+		_forkJoinPool = new ForkJoinPool(_workers, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				t.setName("Evolution service worker "+_threads.incrementAndGet());
+				return t;
+			}
+		}, null, false, 0, _workers + MAX_SPARES, 1, new Predicate<ForkJoinPool>() {
+			// Out of spares: block without one.
+			public boolean test(ForkJoinPool pool) { return true; }
+		}, 60, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return The number of cycles run at once.
+	 */
+	public int workers() { return _workers; }
+
+	////// SHARED DATA
+	/**
+	 * Returns the heuristics in a directory (all .heuristic files),
+	 * read the first time they're asked for.
+	 * @param path The directory.
+	 * @return The heuristics, shared between sessions.
+	 */
+	public HeuristicCollection heuristics(String path)
+	{
+		String key = _key(path);
+		HeuristicCollection h = _heuristics.get(key);
+		if (h == null)
+		{
+			h = HeuristicCollection.loadHeuristics(key);
+			if (h == null)
+				return null;
+			HeuristicCollection loaded = _heuristics.putIfAbsent(key, h);
+			if (loaded != null)
+				h = loaded;
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the pitch models in a directory (model-${PITCH}.m),
+	 * read the first time they're asked for. Each is validated as
+	 * it's read, which locks it, so it's never changed after.
+	 * @param path The directory.
+	 * @return The models by pitch, shared between sessions.
+	 */
+	public Map<Pitch, PitchModel> models(String path)
+	{
+		String key = _key(path);
+		Map<Pitch, PitchModel> m = _models.get(key);
+		if (m == null)
+		{
+			HashMap<Pitch, PitchModel> models = new HashMap<Pitch, PitchModel>();
+			File[] files = new File(key).listFiles();
+			if (files != null)
+				for (File f : files)
+				{
+					String name = f.getName();
+					if (name.contains(".m") && name.matches(".*?\\-[ABCDEF]+[sb]?\\..*?"))
+						try {
+							Pitch pitch = Pitch.getPitch(name.substring(name.indexOf('-')+1,name.indexOf('.')));
+							PitchModel model = new ModelParser(f).getModel();
+							model.validateModel();
+							models.put(pitch, model);
+						}
+						catch (Exception e) {
+							ErrorFeedback.warn(W_MODEL+name, e);
+						}
+				}
+			m = _models.putIfAbsent(key, Collections.unmodifiableMap(models));
+			if (m == null)
+				m = _models.get(key);
+		}
+		return m;
+	}
+
+	/**
+	 * Forgets what was read from a directory, so the next session
+	 * to ask reads it again. Sessions already running keep theirs.
+	 * @param path The directory.
+	 */
+	public void refresh(String path)
+	{
+		String key = _key(path);
+		_heuristics.remove(key);
+		_models.remove(key);
+	}
+
+	private static String _key(String path)
+	{
+		try {
+			return new File(path).getCanonicalPath();
+		}
+		catch (IOException e) {
+			return new File(path).getAbsolutePath();
+		}
+	}
+	//////
+
+	////// SESSIONS
+	/**
+	 * Hosts an evolution, with the whole of a worker as its budget.
+	 * @param evolve The evolution, not yet run.
+	 * @return The session; start() it to run the evolution.
+	 */
+	public Session open(Evolve evolve) {
+		return open(evolve, 1.0);
+	}
+
+	/**
+	 * Hosts an evolution.
+	 * @param evolve The evolution, not yet run.
+	 * @param budget The workers' worth of time it may use (0 < x <= workers()).
+	 * @return The session; start() it to run the evolution.
+	 */
+	public Session open(Evolve evolve, double budget)
+	{
+		if (evolve == null)
+			throw new IllegalArgumentException("Evolve must not be null.");
+		if (!(budget > 0 && budget <= _workers))
+			throw new IllegalArgumentException("Budget must be in (0, "+_workers+"].");
+		Session s = new Session(evolve, budget, _opened.incrementAndGet());
+		evolve.session(s);
+		_sessions.add(s);
+		return s;
+	}
+
+	/**
+	 * @return The sessions open.
+	 */
+	public Session[] sessions() {
+		return _sessions.toArray(new Session[0]);
+	}
+
+	/**
+	 * Stops every session.
+	 */
+	public void close()
+	{
+		for (Session s : _sessions)
+			s.close();
+	}
+	//////
+
+	/**
+	 * One Evolve hosted by the service, and its share of the workers.
+	 * It runs as a task on the service's pool; its cycles' work, on
+	 * whichever threads, is charged to the budget.
+	 */
+	public class Session
+	{
+		private final Evolve _evolve;
+		private final double _budget;
+		private final long _id;
+		private ForkJoinTask<?> _task = null;
+
+		/**
+		 * CPU time (ns) the session may spend before it has to wait;
+		 * earned at the budget's rate, spent by cycles.
+		 */
+		private double _credit = 0;
+		private long _earned;
+		private long _cycleStart = 0;
+		private final CpuAccount _account = new CpuAccount();
+
+		private final AtomicLong _cycles = new AtomicLong();
+		private final AtomicLong _cpuNanos = new AtomicLong();
+		private final AtomicLong _queuedNanos = new AtomicLong();
+		private final AtomicLong _throttledNanos = new AtomicLong();
+
+		/**
+		 * Sits out until the session is back within its budget.
+		 */
+		private final ForkJoinPool.ManagedBlocker _throttle = new ForkJoinPool.ManagedBlocker() {
+			public boolean isReleasable()
+			{
+				_earn();
+				return _credit >= 0 || Thread.currentThread().isInterrupted();
+			}
+			public boolean block()
+			{
+				LockSupport.parkNanos(this, (long) (-_credit / _budget));
+				return isReleasable();
+			}
+		};
+
+		/**
+		 * Waits for a turn on a worker, taking it.
+		 */
+		private final ForkJoinPool.ManagedBlocker _turn = new ForkJoinPool.ManagedBlocker() {
+			public boolean isReleasable() {
+				return !_turns.hasQueuedThreads() && _turns.tryAcquire();
+			}
+			public boolean block()
+			{
+				_turns.acquireUninterruptibly();
+				return true;
+			}
+		};
+
+		private Session(Evolve evolve, double budget, long id)
+		{
+			_evolve = evolve;
+			_budget = budget;
+			_id = id;
+			_earned = System.nanoTime();
+		}
+
+		/**
+		 * Runs the evolution as a task on the service's pool. Most of
+		 * its time is spent waiting; it only runs cycles in its turn.
+		 */
+		public synchronized void start()
+		{
+			if (_task != null)
+				return;
+			final long submitted = System.nanoTime();
+			_task = _forkJoinPool.submit(new Runnable() {
+				public void run() {
+					_queuedNanos.addAndGet(System.nanoTime() - submitted);
+					_account.enter();
+					try { _evolve.run(); }
+					finally {
+						_account.exit();
+						_sessions.remove(Session.this);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Stops the evolution, which ends the session.
+		 */
+		public void close() {
+			_evolve.stop();
+		}
+
+		/**
+		 * Waits for the evolution to end.
+		 */
+		public void join() throws InterruptedException
+		{
+			ForkJoinTask<?> t;
+			synchronized (this) { t = _task; }
+			if (t != null)
+				try { t.get(); }
+				catch (ExecutionException e) { ErrorFeedback.handle(e.getMessage(), e); }
+		}
+
+		public Evolve evolve() { return _evolve; }
+
+		/**
+		 * @return The session's number, counting from 1 in the order
+		 * sessions were opened on the service.
+		 */
+		public long id() { return _id; }
+
+		public double budget() { return _budget; }
+
+		/**
+		 * @return The pool the session breeds and evaluates on, 
+		 * shared with the other sessions.
+		 */
+		ForkJoinPool pool() { return _forkJoinPool; }
+
+		////// METRICS
+		/**
+		 * @return The number of cycles run.
+		 */
+		public long cycles() { return _cycles.get(); }
+
+		/**
+		 * @return The CPU time (ns) spent running cycles, on every
+		 * thread they used.
+		 */
+		public long cpuNanos() { return _cpuNanos.get(); }
+
+		/**
+		 * @return The time (ns) spent waiting to start, and for a turn
+		 * on a worker.
+		 */
+		public long queuedNanos() { return _queuedNanos.get(); }
+
+		/**
+		 * @return The time (ns) spent sitting out, over budget.
+		 */
+		public long throttledNanos() { return _throttledNanos.get(); }
+		//////
+
+		/**
+		 * Takes a turn on a worker for a cycle, once the session is
+		 * within its budget. Called by Evolve on the session's task.
+		 */
+		void enter()
+		{
+			_earn();
+			if (_credit < 0)
+			{
+				long start = System.nanoTime();
+				_block(_throttle);
+				_throttledNanos.addAndGet(System.nanoTime() - start);
+			}
+			long start = System.nanoTime();
+			_block(_turn);
+			_queuedNanos.addAndGet(System.nanoTime() - start);
+			_cycleStart = _account.used();
+		}
+
+		/**
+		 * Gives the turn back, and charges the cycle to the budget.
+		 */
+		void exit()
+		{
+			long used = Math.max(0, _account.used() - _cycleStart);
+			_turns.release();
+			_earn();
+			_credit -= used;
+			_cpuNanos.addAndGet(used);
+			_cycles.incrementAndGet();
+		}
+
+		private void _earn()
+		{
+			long now = System.nanoTime();
+			_credit = Math.min(MAX_CREDIT, _credit + (now - _earned) * _budget);
+			_earned = now;
+		}
+	}
+
+	/**
+	 * Waits, letting the pool start a thread in the caller's place.
+	 */
+	private static void _block(ForkJoinPool.ManagedBlocker blocker)
+	{
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,17 +1,32 @@
 package net.parallaxed.bluejam;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import ec.util.MersenneTwisterFast;
 
 import net.parallaxed.bluejam.evolution.IndividualSelector;
-import net.parallaxed.bluejam.evolution.TreeBreeder;
+import net.parallaxed.bluejam.evolution.ParallelEvaluator;
+import net.parallaxed.bluejam.evolution.StrategyRegistry;
+import net.parallaxed.bluejam.evolution.Breeder;
+import net.parallaxed.bluejam.evolution.ReplacementType;
+import net.parallaxed.bluejam.evolution.SteadyState;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.playback.CandidateBuffer;
+import net.parallaxed.bluejam.playback.CandidatePublisher;
+import net.parallaxed.bluejam.playback.Feedback;
 import net.parallaxed.bluejam.playback.Listener;
+import net.parallaxed.bluejam.playback.ListenerFanout;
+import net.parallaxed.bluejam.playback.ListenerQueue;
+import net.parallaxed.bluejam.playback.OverflowPolicy;
 import net.parallaxed.bluejam.playback.Player;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * The evolve class carries out the main evolution cycles and
@@ -27,22 +42,56 @@ import net.parallaxed.bluejam.playback.Player;
  * population "elite", which means they get passed in to 
  * subsequent generations.
  * 
+ * By default each cycle breeds a whole new generation. In 
+ * steady-state mode (see steadyState()) each cycle instead breeds
+ * a few offspring into the population in place, so a candidate is
+ * ready after every small step.
+ * 
+ * When a listener is about to run out of material it can set a
+ * deadline (see deadline()); the next candidate is then bred by
+ * evolveUntil(), which runs as many cycles as fit before the
+ * deadline and plays the best of them on time.
+ * 
+ * With speculate() set, the cycles after the candidate playing
+ * are bred while it's listened to, as if the feedback will be 
+ * neutral; the next candidate is then played as soon as feedback
+ * arrives. Positive feedback discards all but the first of them,
+ * and puts the new elites into the population bred from it.
+ * 
+ * Many evolutions can share the processors through an 
+ * EvolutionService, which runs each cycle on one of its workers.
+ * 
+ * Playback can instead take candidates from a CandidateBuffer (see
+ * buffer()), which the evolution thread fills as it empties, 
+ * parking in between rather than waiting on feedback.
+ * 
  * This class implements the Player interface, a primitive events
- * pattern.
+ * pattern. Listeners are called from a ListenerQueue each, off the
+ * evolution thread, so a slow one doesn't hold up the rest. Feedback
+ * (from any thread) is queued, and taken by the evolution thread
+ * before it next uses the elites.
+ * 
+ * Candidates are also published to Flow subscribers (see 
+ * candidates()), and feedback taken from a Flow publisher (see
+ * feedback()). Evolution runs only as far as subscribers' demand,
+ * parking while nobody wants another: the listeners share a 
+ * subscription (a ListenerFanout), which requests a few candidates
+ * up front and another for each call to feedback().
  * 
  * @see Listener
  * @see Player
+ * @see EvolutionService
  * 
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
 public class Evolve implements Runnable, Player
 {
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
+	private static final String W_FEEDBACK = "WARNING: Feedback publisher failed: ";
+	
 	private HashMap<NoteSequence, Population> played = new HashMap<NoteSequence, Population>();
 	private int playedMemorySize = 10;
 	
-	private ArrayList <Listener> listeners = new ArrayList<Listener>();
 	private ArrayList <NoteSequence> elites = new ArrayList<NoteSequence>();
 	private int maxElites = 10;
 	
@@ -50,14 +99,10 @@ public class Evolve implements Runnable, Player
 	private HeuristicCollection _heuristics = null;
 	private Population population = null;
 	
-	public boolean running = true;
-	private volatile boolean waiting = false;
-	/**
-	 * This is the maximum number of outputs we make before we
-	 * wait on feedback from listeners.
-	 * TODO Optimize for multiple listeners.
-	 */
-	private int listenBufferSize = 5;
+	public volatile boolean running = true;
+	private volatile boolean _paused = false;
+	private final CandidatePublisher _publisher = new CandidatePublisher(null);
+	private final ListenerFanout _fanout = new ListenerFanout();
 	
 	/**
 	 * Keep our track of the properties we need to update in the next
@@ -96,57 +141,347 @@ public class Evolve implements Runnable, Player
 	
 	private double _crossoverProbability = 0.9;
 	
+	/**
+	 * Scores each generation up front when set, otherwise individuals
+	 * are evaluated lazily as selection asks for them.
+	 */
+	private ParallelEvaluator _evaluator = null;
+	
+	/**
+	 * Evolves the population in place when set, otherwise a
+	 * generation at a time.
+	 */
+	private SteadyState _steadyState = null;
+	/**
+	 * Positive feedback received since the last steady-state
+	 * step (or the last speculative cycle), to be put into the 
+	 * population.
+	 */
+	private ArrayList<NoteSequence> _newElites = new ArrayList<NoteSequence>();
+	/**
+	 * Feedback received from listeners and publishers, not yet
+	 * taken by the evolution thread.
+	 */
+	private final ConcurrentLinkedQueue<Feedback> _feedback = new ConcurrentLinkedQueue<Feedback>();
+	
+	/**
+	 * Time (ns) kept back from a deadline for playing the candidate.
+	 */
+	private static final long DEADLINE_MARGIN = 2000000;
+	private static final long NO_DEADLINE = Long.MIN_VALUE;
+	private final AtomicLong _deadline = new AtomicLong(NO_DEADLINE);
+	/**
+	 * How long (ns) a cycle is expected to take: the longest seen
+	 * recently, decaying by an eighth every cycle.
+	 */
+	private long _cycleNanos = 0;
+	/**
+	 * The candidate of the last cycle run.
+	 */
+	private Individual _last = null;
+	private MersenneTwisterFast _mt = null;
+	
+	/**
+	 * Candidates are handed to this, when set, as well as played
+	 * to the listeners.
+	 */
+	private volatile CandidateBuffer _buffer = null;
+	/**
+	 * The longest (ns) the evolution thread parks before checking
+	 * whether it's been stopped or paused.
+	 */
+	private static final long PARK_NANOS = 50000000;
+	private IndividualSelector _selector = null;
+	
+	/**
+	 * The number of cycles bred ahead while waiting on feedback.
+	 */
+	private volatile int _speculate = 0;
+	private final ConcurrentLinkedQueue<Speculation> _ready = new ConcurrentLinkedQueue<Speculation>();
+	private int _committed = 0;
+	private int _discarded = 0;
+	/**
+	 * Puts elites in place of the least fit, after speculation.
+	 */
+	private static final SteadyState ELITISM = new SteadyState(1, ReplacementType.WORST);
+	
+	/**
+	 * The session this evolution is hosted by, if any.
+	 */
+	private EvolutionService.Session _session = null;
+	
+	/**
+	 * Turns steady-state evolution on or off. In steady-state mode
+	 * each cycle (counted as a generation) breeds the given number
+	 * of offspring, which replace individuals picked by the
+	 * ReplacementType; the population is never regrown. Sequences 
+	 * given positive feedback are put into the population once, 
+	 * rather than every generation.
+	 * @param offspring The offspring to breed each cycle, or 0 for generational evolution.
+	 * @param replacement How the individuals offspring replace are picked.
+	 * @see SteadyState
+	 */
+	public void steadyState(int offspring, ReplacementType replacement) {
+		_steadyState = (offspring > 0) ? new SteadyState(offspring, replacement) : null;
+	}
+	
+	/**
+	 * Turns speculative breeding on or off. While waiting on 
+	 * feedback, up to this many cycles (generations, or steady-state
+	 * steps) are bred ahead, assuming the feedback will be neutral,
+	 * and their candidates kept to be played in turn. Limit: 0 <= x < 3
+	 * @param cycles The number of cycles to breed ahead, or 0 to wait.
+	 */
+	public void speculate(int cycles)
+	{
+		if (cycles >= 0 && cycles <= 2)
+			_speculate = cycles;
+	}
+	
+	/**
+	 * The number of cycles bred ahead while waiting on feedback.
+	 */
+	public int speculate() { return _speculate; }
+	
+	/**
+	 * @return The number of speculative candidates played.
+	 */
+	public int committed() { return _committed; }
+	
+	/**
+	 * @return The number of speculative candidates thrown away
+	 * after positive feedback.
+	 */
+	public int discarded() { return _discarded; }
+	
+	/**
+	 * @return The number of candidates bred ahead, waiting on 
+	 * feedback to be played.
+	 */
+	public int bredAhead() { return _ready.size(); }
+	
+	/**
+	 * Asks for the next candidate by the given time, typically when
+	 * the listener's queue is about to run dry. The evolution thread
+	 * stops waiting on feedback, and plays what evolveUntil() breeds
+	 * by then. A cycle already running is finished first.
+	 * @param deadline The System.nanoTime() the candidate is needed by.
+	 * @see SequenceParameters#duration()
+	 */
+	public void deadline(long deadline)
+	{
+		_deadline.set(deadline);
+		_wake();
+	}
+	
+	/**
+	 * Hands candidates to a buffer, which playback polls. The 
+	 * evolution thread then breeds whenever the buffer wants another
+	 * candidate, rather than waiting for feedback, and parks when it
+	 * doesn't. Set before run().
+	 * @param buffer The buffer to fill, or null to wait on feedback.
+	 */
+	public void buffer(CandidateBuffer buffer) {
+		_buffer = buffer;
+	}
+	
+	/**
+	 * Runs evolution cycles (generations, or steady-state steps) for
+	 * as long as another is expected to finish before the deadline,
+	 * and returns the fittest of their candidates. At least one cycle
+	 * is run the first time; after that, if none fits, the last 
+	 * candidate is returned straight away. Nothing is played to the
+	 * listeners, and the cycles don't count as generations.
+	 * 
+	 * Called from the thread running run() when a deadline is set;
+	 * it may also be called directly in place of run().
+	 * @param deadline The System.nanoTime() to return by.
+	 * @return The candidate.
+	 */
+	public NoteSequence evolveUntil(long deadline)
+	{
+		if (_selector == null)
+			_begin();
+		Individual best = null;
+		while (running && (_last == null || System.nanoTime() + _cycleNanos + DEADLINE_MARGIN < deadline))
+		{
+			long start = System.nanoTime();
+			Individual winner = _cycle(false);
+			long took = System.nanoTime() - start;
+			_cycleNanos = Math.max(took, _cycleNanos - (_cycleNanos >> 3));
+			if (best == null || winner.evaluate() > best.evaluate())
+				best = winner;
+		}
+		return _sequence((best == null) ? _last : best);
+	}
+	
+	/**
+	 * Turns parallel evaluation of each generation on or off.
+	 * @param enabled True to score every generation on the fork-join pool before selection.
+	 * @see ParallelEvaluator
+	 */
+	public void parallelEvaluation(boolean enabled) {
+		_evaluator = enabled ? new ParallelEvaluator(_pool()) : null;
+	}
+	
 	/** 
-	 * Adds a listener to this player.
+	 * Adds a listener to this player, behind a ListenerQueue of the
+	 * default capacity, dropping the oldest candidates.
 	 */
 	public void addListener(Listener listener) 
 	{
-		listeners.add(listener);
+		_fanout.add(new ListenerQueue(listener));
+	}
+	
+	/**
+	 * Adds a listener behind a queue of its own.
+	 * @param listener The listener.
+	 * @param capacity The most candidates waiting for it.
+	 * @param overflow What to drop once it's that far behind.
+	 */
+	public void addListener(Listener listener, int capacity, OverflowPolicy overflow)
+	{
+		_fanout.add(new ListenerQueue(listener, capacity, overflow));
+	}
+	
+	/**
+	 * @return The listeners' queues, for their backlog and lag.
+	 */
+	public ListenerQueue[] listeners() {
+		return _fanout.listeners();
+	}
+	
+	/**
+	 * Returns the publisher of candidates. Subscribers are sent
+	 * candidates as they request them, on the evolution thread, 
+	 * and completed when the run ends; evolution waits while none
+	 * of them (nor the listeners) wants another.
+	 * @return The publisher.
+	 */
+	public Flow.Publisher<NoteSequence> candidates() {
+		return _publisher;
+	}
+	
+	/**
+	 * Returns a subscriber for feedback on the candidates, to 
+	 * subscribe to a publisher of it. Feedback received this way
+	 * steers elitism as feedback() does, but doesn't request another
+	 * candidate; subscribers to candidates() request their own.
+	 * @return The subscriber.
+	 */
+	public Flow.Subscriber<Feedback> feedback()
+	{
+		return new Flow.Subscriber<Feedback>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+			public void onNext(Feedback f) {
+				_feedback(f.score, f.notes);
+			}
+			public void onError(Throwable t) {
+				ErrorFeedback.warn(W_FEEDBACK+t.getMessage(), t);
+			}
+			public void onComplete() { }
+		};
 	}
 	
 	/**
 	 * Accepts a positive or negative feedback value (usually
 	 * -1 or 0 or 1), and turns on elitism for that NoteSequence
-	 * making it appear in subsequent generations.
+	 * making it appear in subsequent generations. The listeners
+	 * are sent another candidate for it.
 	 */
 	public void feedback(int feedback, NoteSequence notes)
 	{
-		// Should be garbaged later.			
-		
-		// Hold on to this one.
-		if (feedback == 1) {
-			System.out.println("Recieved positive feedback! Enabling elitism for "+notes.toString());
-			if (elites.size() >= maxElites)
-				elites.remove(0);
-			if (!elites.contains(notes))
-				elites.add(notes);
-		}
-		
-		listenBufferSize++;
-		
-		/**
-		 * Should restart the sleeping evolution thread running this
-		 * object if there is one. 
-		 */
-		synchronized (this) {
-			waiting = false;
-			notify();
+		_feedback(feedback, notes);
+		_fanout.request(1);
+	}
+	
+	private void _feedback(int feedback, NoteSequence notes)
+	{
+		if (notes != null)
+			_feedback.add(new Feedback(feedback, notes));
+	}
+	
+	/**
+	 * Applies the feedback queued since last time. Called on the
+	 * evolution thread only, which owns the elites and the record
+	 * of what's been played.
+	 */
+	private void _takeFeedback()
+	{
+		for (Feedback f = _feedback.poll(); f != null; f = _feedback.poll())
+		{
+			// Should be garbaged later.			
+			
+			// Hold on to this one.
+			if (f.score == 1) {
+				System.out.println("Recieved positive feedback! Enabling elitism for "+f.notes.toString());
+				if (elites.size() >= maxElites)
+					elites.remove(0);
+				if (!elites.contains(f.notes))
+					elites.add(f.notes);
+				if (_steadyState != null || _speculate > 0)
+					_newElites.add(f.notes);
+			}
+			
+			played.remove(f.notes);
 		}
-		played.remove(notes);
 	}
 	
 	/**
-	 * Pauses the evolution from outside this thread.
+	 * Wakes the evolution thread if it's parked waiting for demand.
+	 */
+	private void _wake()
+	{
+		_publisher.wake();
+		CandidateBuffer buffer = _buffer;
+		if (buffer != null)
+			buffer.wake();
+	}
+	
+	/**
+	 * Stops the evolution from outside this thread, waking it if
+	 * it's waiting.
+	 */
+	public void stop()
+	{
+		running = false;
+		_wake();
+	}
+	
+	/**
+	 * Runs cycles in the session's turns, breeding and evaluating on
+	 * the service's pool. Set by the EvolutionService before run().
+	 */
+	void session(EvolutionService.Session session)
+	{
+		_session = session;
+		// Evaluate on the service's pool, charged to the session.
+		if (_evaluator != null)
+			_evaluator = new ParallelEvaluator(_pool());
+	}
+	
+	/**
+	 * @return The service's pool, or the evaluators' if there's no 
+	 * session.
+	 */
+	private ForkJoinPool _pool()
+	{
+		EvolutionService.Session session = _session;
+		return (session == null) ? ParallelEvaluator.getPool() : session.pool();
+	}
+	
+	/**
+	 * Pauses the evolution from outside this thread, or resumes it.
+	 * A deadline is still met while paused.
 	 */
-	public void togglePause() {
-		if (waiting)
-			synchronized (this) {
-				waiting = false;
-				System.out.print("\nPausing...");
-				notify();				
-			}		
-		else
-			waiting = true;
+	public synchronized void togglePause()
+	{
+		_paused = !_paused;
+		if (_paused)
+			System.out.print("\nPausing...");
+		_wake();
 	}
 	
 	
@@ -166,92 +501,297 @@ public class Evolve implements Runnable, Player
 		 * Run evolution cycle.
 		 */
 		try {
-			
-			population.initialize();
-			Class<?> selection = population.getParameters().getSelectionType().eval(); 
-			Method _cons = selection.getMethod("getInstance", new Class[] {});				
-			IndividualSelector _indS =  (IndividualSelector) _cons.invoke(null, new Object[] {});
+			_begin();
 			
 			// TODO Associate this with the genotype			
 			while(running && generations-- > 0) {
-				//populations.add(population);
-				if (waiting || listenBufferSize == 0)
-				{
-					try {
-						synchronized (this) {
-							waiting = true;
-							System.out.println("Evolution waiting for listener...");
-							wait();
-							// Double check we've not been awakened prematurely from togglePause();
-							if(listenBufferSize == 0) {
-								System.out.println("Resumed.");
-								continue;
-							}								
-						}
+				CandidateBuffer buffer = _buffer;
+				if (buffer == null)
+					// Breed ahead while the last candidate is listened to.
+					while (running && !_paused && !_publisher.wanted() 
+							&& _deadline.get() == NO_DEADLINE && _ready.size() < _speculate)
+					{
+						Individual winner = _cycle(false);
+						// Steps breed into the population in place, so 
+						// keep it as it is now to go back to.
+						_ready.add(new Speculation(winner, (_steadyState == null) ? population : population.snapshot()));
 					}
-					catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
-				}
-				
+				_awaitDemand(buffer);
+				if (!running)
+					break;
 				
-				// TODO Make parameters generic.
-				Population p = _indS.select(population, _matingPoolSize);
-				
-				// QUIRKY - Almost 2/3 of the time we select the fittest.
-				Individual winner = (_mt.nextInt(22) < 14) ? p.getFittestIndividual() : p.getRandomIndividual();
-				NoteSequence play = winner.getNoteSequence();
-				
-				// Remove one if we're over budget on retention.
-				if (played.size() > playedMemorySize)
-					played.remove(played.keySet().iterator().next());
-				
-				/*
-				 * Record this, and play it to the listeners.
-				 */
-				played.put(play, population);				
-				for (Listener l : listeners)
-					l.listen(play);
-				
-				// Decrement the listen buffer.
-				listenBufferSize--;
-				try {
-					// Re-insert heuristic individuals before breeding.
-					if (_heuristics != null)
-						for (int i = 0; i < _heuristics.size(); i++) {
-							Individual h = new Individual(p, _heuristics.get(i));
-							h.initialize();
-							p.addIndividual(h);
-						}
-					
-					// Re-insert elites.
-					if (elites.size() > 0)
-						for (NoteSequence n : elites)
-						{
-							Individual elite = null;
-							// This encourages the individual to evolve.
-							if (n instanceof Heuristic)
-								elite = new Individual(n,(Heuristic)n);
-							else
-								elite = new Individual(n,(Heuristic) null);							
-							p.addIndividual(elite);
-						}
-				}
-				catch (IndividualAddException e) {
-					ErrorFeedback.handle(e);
+				// A listener is running out: give it what we can in time.
+				long deadline = _deadline.getAndSet(NO_DEADLINE);
+				if (deadline != NO_DEADLINE)
+				{
+					Individual ready = _commit();
+					_play((ready != null) ? _sequence(ready) : evolveUntil(deadline));
+					continue;
 				}
 				
-				p.memberCount = _memberCount;
-				TreeBreeder pool = new TreeBreeder(_maxBreedCycles,_crossoverProbability);
-				pool.breed(p);
+				Individual ready = _commit();
+				if (ready != null)
+				{
+					_play(_sequence(ready));
+					continue;
+				}
 				
-				population = p;
-				System.gc();
+				_cycle(true);
+				// A collection stops every session's world, not just ours.
+				if (_steadyState == null && _session == null)
+					System.gc();
 			}
 		}
 		catch (Exception e) {
 			ErrorFeedback.handle(e.getMessage(), e);
 		}
-		for (Listener l : listeners)
-			l.listen(null);		
+		CandidateBuffer buffer = _buffer;
+		if (buffer != null)
+			buffer.close();
+		// Ends every subscription (and so every queue), then waits
+		// for the listeners to hear it.
+		_publisher.close();
+		_fanout.await();
+	}
+	
+	/**
+	 * Parks until a candidate is wanted, by the buffer if there is
+	 * one or else by a subscriber, a deadline is set, or the run is
+	 * stopped. Nothing is wanted while paused. On a fork-join pool
+	 * (as a hosted session), the pool may run another thread while
+	 * this one waits.
+	 * @param buffer The buffer, or null.
+	 */
+	private void _awaitDemand(final CandidateBuffer buffer)
+	{
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				public boolean isReleasable() {
+					return !running || _deadline.get() != NO_DEADLINE 
+							|| (!_paused && ((buffer != null) ? buffer.wanted() : _publisher.wanted()));
+				}
+				public boolean block()
+				{
+					if (_paused)
+						LockSupport.parkNanos(Evolve.this, PARK_NANOS);
+					else if (buffer != null)
+						buffer.awaitDemand(PARK_NANOS);
+					else
+						_publisher.awaitDemand(PARK_NANOS);
+					return isReleasable();
+				}
+			});
+		}
+		catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+	}
+	
+	/**
+	 * Starts this thread's random stream and initializes the population.
+	 */
+	private void _begin()
+	{
+		// Start this thread's stream from the master seed, so the
+		// run can be reproduced with RandomSource.seed(). Hosted
+		// sessions each get a stream of their own.
+		EvolutionService.Session session = _session;
+		_mt = RandomSource.begin(RandomSource.key(RandomSource.SESSION, (session == null) ? 0 : session.id(), 0));
+		population.initialize();
+		_selector = StrategyRegistry.getInstance().selector(population.getParameters().getSelectionType());
+	}
+	
+	/**
+	 * Runs one cycle (a generation, or a steady-state step) on a
+	 * worker of the session, if there is one.
+	 * @param play True to play the candidate.
+	 * @return The candidate.
+	 */
+	private Individual _cycle(boolean play)
+	{
+		EvolutionService.Session session = _session;
+		if (session != null)
+			session.enter();
+		try {
+			if (_steadyState == null)
+				return _generation(play);
+			Individual winner = _step(_steadyState);
+			if (play)
+				_play(_sequence(winner));
+			return winner;
+		}
+		finally {
+			if (session != null)
+				session.exit();
+		}
+	}
+	
+	/**
+	 * Runs one generation: selects the mating pool and its winner,
+	 * re-inserts heuristics and elites, and breeds the pool into the
+	 * next population.
+	 * @param play True to play the winner before breeding.
+	 * @return The winner.
+	 */
+	private Individual _generation(boolean play)
+	{
+		// Score the whole generation before selection reads it.
+		ParallelEvaluator evaluator = _evaluator;
+		if (evaluator != null)
+			evaluator.evaluate(population);
+		
+		// TODO Make parameters generic.
+		Population p = _selector.select(population, _matingPoolSize);
+		
+		// QUIRKY - Almost 2/3 of the time we select the fittest.
+		Individual winner = (_mt.nextInt(22) < 14) ? p.getFittestIndividual() : p.getRandomIndividual();
+		_last = winner;
+		if (play)
+		{
+			_play(_sequence(winner));
+		}
+		try {
+			// Re-insert heuristic individuals before breeding.
+			if (_heuristics != null)
+				for (int i = 0; i < _heuristics.size(); i++) {
+					Individual h = new Individual(p, _heuristics.get(i));
+					h.initialize();
+					p.addIndividual(h);
+				}
+			
+			// Re-insert elites.
+			_takeFeedback();
+			if (elites.size() > 0)
+				for (NoteSequence n : elites)
+				{
+					Individual elite = null;
+					// This encourages the individual to evolve.
+					if (n instanceof Heuristic)
+						elite = new Individual(n,(Heuristic)n);
+					else
+						elite = new Individual(n,(Heuristic) null);							
+					p.addIndividual(elite);
+				}
+		}
+		catch (IndividualAddException e) {
+			ErrorFeedback.handle(e);
+		}
+		
+		p.memberCount = _memberCount;
+		_breeder(p).breed(p);
+		
+		population = p;
+		return winner;
+	}
+	
+	/**
+	 * Takes the next candidate bred ahead, if there is one. After
+	 * positive feedback, the rest are thrown away and the population
+	 * goes back to the one bred with the candidate, and the new 
+	 * elites are put into it; in steady-state mode the next step 
+	 * puts them in instead.
+	 * @return The candidate, or null if none was bred ahead.
+	 */
+	private Individual _commit()
+	{
+		Speculation next = _ready.poll();
+		_takeFeedback();
+		if (next != null && _newElites.size() > 0)
+		{
+			_discarded += _ready.size();
+			_ready.clear();
+			population = next.bred;
+			if (_steadyState == null)
+				for (NoteSequence n : _newElites)
+					// This encourages the individual to evolve.
+					ELITISM.replace(population, (n instanceof Heuristic) ? new Individual(n,(Heuristic)n)
+							: new Individual(n,(Heuristic) null));
+		}
+		// Already in the elites, for the generations to come.
+		if (_steadyState == null)
+			_newElites.clear();
+		if (next == null)
+			return null;
+		_committed++;
+		return next.winner;
+	}
+	
+	/**
+	 * @return The individual's notes, as a NoteTree if packed.
+	 */
+	private static NoteSequence _sequence(Individual winner)
+	{
+		NoteSequence play = winner.getNoteSequence();
+		// Packed genotypes are played (and fed back) as trees.
+		if (play instanceof NoteArray)
+			play = ((NoteArray) play).toTree();
+		return play;
+	}
+	
+	/**
+	 * Records a candidate, and plays it to the subscribers that
+	 * want one (the listeners among them).
+	 */
+	private void _play(NoteSequence play)
+	{
+		// Remove one if we're over budget on retention.
+		_takeFeedback();
+		if (played.size() > playedMemorySize)
+			played.remove(played.keySet().iterator().next());
+		
+		played.put(play, population);				
+		CandidateBuffer buffer = _buffer;
+		if (buffer != null)
+			buffer.offer(play);
+		_publisher.submit(play);
+	}
+	
+	/**
+	 * @return A breeder for the population's genotype.
+	 */
+	private Breeder _breeder(Population p) {
+		return p.getParameters().getGenotype().breeder(_maxBreedCycles, _crossoverProbability, _pool());
+	}
+	
+	/**
+	 * Runs one steady-state cycle: puts new elites into the 
+	 * population, and breeds a few offspring into it.
+	 * @return The candidate to play.
+	 */
+	private Individual _step(SteadyState steadyState)
+	{
+		// Score the population once; steps keep the scores up to date.
+		ParallelEvaluator evaluator = _evaluator;
+		if (evaluator != null && population.fitness() == null)
+			evaluator.evaluate(population);
+		
+		_takeFeedback();
+		for (NoteSequence n : _newElites)
+			// This encourages the individual to evolve.
+			steadyState.replace(population, (n instanceof Heuristic) ? new Individual(n,(Heuristic)n)
+					: new Individual(n,(Heuristic) null));
+		_newElites.clear();
+		
+		Individual[] offspring = steadyState.step(population, _breeder(population));
+		
+		// QUIRKY - Almost 2/3 of the time we play the fittest, 
+		// otherwise something new.
+		Individual winner = (_mt.nextInt(22) < 14 || offspring.length == 0) ? population.getFittestIndividual() 
+				: offspring[_mt.nextInt(offspring.length)];
+		_last = winner;
+		return winner;
+	}
+	
+	/**
+	 * A candidate bred ahead, and the population bred with it.
+	 */
+	private static class Speculation
+	{
+		final Individual winner;
+		final Population bred;
+		
+		Speculation(Individual winner, Population bred) {
+			this.winner = winner;
+			this.bred = bred;
+		}
 	}
 	
 	public void setPopulationCount(int memberCount)
@@ -282,5 +822,6 @@ public class Evolve implements Runnable, Player
 		_sequenceParameters = sequenceParameters;	
 		_heuristics = heuristics;
 		population = new Population(_sequenceParameters,populationCount,_heuristics);
+		_publisher.subscribe(_fanout);
 	}
 }
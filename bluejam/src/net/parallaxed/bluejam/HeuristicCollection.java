@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.util.RandomSource;
 import ec.util.MersenneTwisterFast;
 
 /**
@@ -47,8 +48,6 @@ public class HeuristicCollection extends ArrayList<Heuristic>
 	
 	// used by SELECTION_TYPE.EVEN
 	private int _index = 0;
-	// used by SELECTION_TYPE.RANDOM
-	private MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	
 	/**
 	 * Specifies which selection type to use in this collection.
@@ -142,10 +141,13 @@ public class HeuristicCollection extends ArrayList<Heuristic>
 	
 	private Heuristic getRandomHeuristic()
 	{
+		// used by SELECTION_TYPE.RANDOM
+		MersenneTwisterFast _mt = RandomSource.current();
 		return get(_mt.nextInt(size()));
 	}
 
-	private Heuristic getEvenHeuristic()
+	// Synchronized, as collections are shared between sessions.
+	private synchronized Heuristic getEvenHeuristic()
 	{
 		if (_index >= size())
 			_index = 0;
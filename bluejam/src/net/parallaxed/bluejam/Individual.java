@@ -1,9 +1,11 @@
 package net.parallaxed.bluejam;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
+import net.parallaxed.bluejam.evolution.FitnessCache;
+import net.parallaxed.bluejam.evolution.Genotype;
+import net.parallaxed.bluejam.evolution.GenotypeFactory;
 import net.parallaxed.bluejam.evolution.NoteSequenceInitializer;
 import net.parallaxed.bluejam.evolution.IndividualEvaluator;
+import net.parallaxed.bluejam.evolution.StrategyRegistry;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.ParameterException;
 
@@ -138,24 +140,22 @@ public class Individual implements Function
 			}
 			else {
 				try {
-	
-					Class<?> genotype = _popParams.getGenotype().eval();					
-					Constructor<?> _cons = genotype.getConstructor(new Class[] { SequenceParameters.class });
-					_notes = (NoteSequence) _cons.newInstance(new Object[] { _popParams.getSequenceParameters() });
+					// Packed genotypes are grown as trees, then packed.
+					GenotypeFactory genotype = StrategyRegistry.getInstance().genotype(_popParams.getGenotype());
+					_notes = genotype.create(_popParams.getSequenceParameters());
 				}
 				catch (NullPointerException e) { ErrorFeedback.handle(E_PARAMS_GENOTYPE, e); }
 			}
 			
-			Class<?> initializer = _popParams.getInitializationType().eval();
-			Method _cons = initializer.getMethod("getInstance", new Class[] {});
-			// static, we don't care about args.
-			NoteSequenceInitializer n = (NoteSequenceInitializer) _cons.invoke(null, new Object[] {});
+			NoteSequenceInitializer n = StrategyRegistry.getInstance().initializer(_popParams.getInitializationType());
 			if (n == null)
 				throw new NullPointerException(E_PARAMS_INIT);
 			try {
 				n.initialize(_notes, _popParams);
 			}
 			catch (Exception e) { ErrorFeedback.handle(e.getMessage(), e); }
+			if (_popParams.getGenotype() == Genotype.NOTE_ARRAY && _notes instanceof NoteTree)
+				_notes = new NoteArray((NoteTree) _notes);
 		}
 		catch (NullPointerException e) { ErrorFeedback.handle(E_PARAMS_INIT, e); }
 		catch (Exception e) { ErrorFeedback.handle(e.getMessage(), e); }
@@ -172,23 +172,25 @@ public class Individual implements Function
 	/**
 	 * Gives the fitness of this individual or throws an exception
 	 * if the individual is not evaluated yet.
+	 *
+	 * Synchronized, as the same individual may be evaluated from
+	 * more than one worker when a generation is scored in parallel.
+	 * 
+	 * Deterministic evaluators are called through the FitnessCache,
+	 * so an equal tree scored in an earlier generation isn't rescored.
 	 * @return The fitness of the individual
 	 */
-	public double evaluate()
+	public synchronized double evaluate()
 	{
 		try {			
 			if (evaluated)
 				return _fitness;
 			else if (_sequenceEvaluator == null) {
 				// We set this now so the fitness function can unset/ignore it.
-				
-				Class<?> _se = _popParams.getFitnessType().eval();
-				Method _cons = _se.getMethod("getInstance", new Class[] {});
-				// static, we don't care about args.
-				_sequenceEvaluator = (IndividualEvaluator) _cons.invoke(null, new Object[] {});
+				_sequenceEvaluator = StrategyRegistry.getInstance().evaluator(_popParams.getFitnessType());
 			}
 			evaluated = true;
-			return (_fitness = _sequenceEvaluator.evaluate(this));
+			return (_fitness = FitnessCache.getInstance().evaluate(_sequenceEvaluator, this));
 		}
 		catch (Exception e) {  
 			ErrorFeedback.handle("Error evaluating "+toString(), e);
@@ -202,10 +204,18 @@ public class Individual implements Function
 	 * call to evaluate() will re-evaluate the fitness of the
 	 * Individual.
 	 */
-	public void invalidate()
+	public synchronized void invalidate()
 	{
 		evaluated = false;
 	}
+
+	/**
+	 * @return True if the fitness returned by evaluate() is cached.
+	 */
+	public synchronized boolean evaluated()
+	{
+		return evaluated;
+	}
 	
 	/**
 	 * Will create and IndividualParameters instance for this object
@@ -1,6 +1,9 @@
 package net.parallaxed.bluejam;
 import java.io.File;
 import java.util.HashMap;
+import java.util.Map;
+
+import net.parallaxed.bluejam.grammar.PitchModel;
 
 /**
  * The ParameterCollection class is used by BlueJam to specify 
@@ -67,6 +70,7 @@ public class JamParamters
 	private HashMap<String,String> stringParams = new HashMap<String,String>();
 	
 	private ScaledSet _scale = null;
+	private Map<Pitch, PitchModel> _models = null;
 	/**
 	 * Initialises a parameter collection with defaults.
 	 * 
@@ -205,6 +209,13 @@ public class JamParamters
 		_buildScale();
 	}
 	
+	/**
+	 * @return The tempo, in crotchets per minute.
+	 */
+	public int tempo() {
+		return (Integer) getParameter(Config.TEMPO);
+	}
+	
 	/**
 	 * Sets the tempo of this Jam
 	 * @param tempo A BPM value between 1-240
@@ -239,6 +250,21 @@ public class JamParamters
 
 	//////
 	
+	/**
+	 * Hashes the settings that affect how notes are evaluated:
+	 * root pitch, scale, tempo and octave range.
+	 * @return A 64-bit hash of this Jam's settings.
+	 */
+	public long contentHash()
+	{
+		long h = rootPitch().ordinal();
+		h = h * 31 + scale().getClass().getName().hashCode();
+		h = h * 31 + ((Integer) getParameter(Config.TEMPO)).intValue();
+		h = h * 31 + _minOctave;
+		h = h * 31 + _maxOctave;
+		return h;
+	}
+	
 	/**
 	 * Terminals for the current Jam can be pulled from this
 	 * ScaledSet.
@@ -248,7 +274,24 @@ public class JamParamters
 		return _scale;
 	}
 	
+	/**
+	 * Sets the pitch models notes are picked with: the ScaledSet 
+	 * uses the model for the root pitch, in whatever key.
+	 * @param models The models by root pitch, or null for none.
+	 */
+	public void models(Map<Pitch, PitchModel> models)
+	{
+		_models = models;
+		_buildScale();
+	}
+	
+	/**
+	 * Looks up the shared ScaledSet for the settings, so changing
+	 * key is constant-time and allocates nothing.
+	 */
 	private void _buildScale() {
-		_scale = new ScaledSet(rootPitch(),scale(),_minOctave,_maxOctave);
+		Map<Pitch, PitchModel> models = _models;
+		_scale = ScaledSet.getInstance(rootPitch(),scale(),_minOctave,_maxOctave)
+				.withModel((models == null) ? null : models.get(rootPitch()));
 	}
 }
@@ -0,0 +1,138 @@
+package net.parallaxed.bluejam;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the leaves of a NoteTree in order, by walking
+ * the tree with an explicit stack of (node, child index) pairs.
+ * 
+ * Nothing is copied; the iterator is a live view of the tree,
+ * so the tree shouldn't be restructured (swapNotes(), addNotes(),
+ * removeNotes()) while it's being read. Changes to the notes
+ * themselves (pitch, rhythm etc) are fine.
+ * 
+ * The stack is sized for MAX_DEPTH and only grows for deeper
+ * trees, and an iterator can be pointed at another tree with
+ * reset(), so a hot loop can traverse any number of trees
+ * without allocating.
+ * 
+ * @see NoteTree#getNotes()
+ */
+public final class LeafIterator implements Iterator<Note>
+{
+	private NoteTree[] _nodes = new NoteTree[NoteTree.MAX_DEPTH + 1];
+	private int[] _index = new int[NoteTree.MAX_DEPTH + 1];
+	private int _top = -1;
+	/**
+	 * Notes of a child that is neither a NoteTree nor a NoteLeaf.
+	 */
+	private Iterator<Note> _delegate = null;
+	private Note _next = null;
+	
+	/**
+	 * Creates an iterator over the leaves of the given tree.
+	 * @param root The tree to iterate over, or null for none.
+	 */
+	public LeafIterator(NoteTree root) {
+		reset(root);
+	}
+	
+	/**
+	 * Restarts this iterator at the first leaf of the given tree.
+	 * @param root The tree to iterate over, or null for none.
+	 * @return This iterator.
+	 */
+	public LeafIterator reset(NoteTree root)
+	{
+		while (_top >= 0)
+			_nodes[_top--] = null;
+		_delegate = null;
+		if (root != null)
+			_push(root);
+		_advance();
+		return this;
+	}
+	
+	public boolean hasNext() {
+		return _next != null;
+	}
+	
+	public Note next() 
+	{
+		Note n = _next;
+		if (n == null)
+			throw new NoSuchElementException();
+		_advance();
+		return n;
+	}
+	
+	// You cannot modify the tree through this iterator.
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	private void _push(NoteTree node)
+	{
+		if (++_top == _nodes.length)
+		{
+			NoteTree[] nodes = new NoteTree[_nodes.length * 2];
+			int[] index = new int[_index.length * 2];
+			System.arraycopy(_nodes, 0, nodes, 0, _nodes.length);
+			System.arraycopy(_index, 0, index, 0, _index.length);
+			_nodes = nodes;
+			_index = index;
+		}
+		_nodes[_top] = node;
+		_index[_top] = 0;
+	}
+	
+	/**
+	 * Moves _next on to the following leaf, or null at the end.
+	 */
+	private void _advance()
+	{
+		_next = null;
+		if (_delegate != null)
+		{
+			if (_delegate.hasNext())
+			{
+				_next = _delegate.next();
+				return;
+			}
+			_delegate = null;
+		}
+		while (_top >= 0)
+		{
+			NoteTree node = _nodes[_top];
+			int i = _index[_top];
+			if (i >= node.getNumChildren())
+			{
+				_nodes[_top--] = null;
+				continue;
+			}
+			_index[_top] = i + 1;
+			NoteSequence child = node.getChild(i);
+			if (child == null)
+				continue;
+			if (child instanceof NoteLeaf)
+			{
+				_next = (NoteLeaf) child;
+				return;
+			}
+			if (child.getClass() == NoteTree.class)
+			{
+				_push((NoteTree) child);
+				continue;
+			}
+			// Some other kind of sequence, read its own iterator.
+			Iterator<Note> notes = child.getNotes();
+			if (notes.hasNext())
+			{
+				_delegate = notes;
+				_next = notes.next();
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package net.parallaxed.bluejam;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import net.parallaxed.bluejam.exceptions.ValidationException;
+
+/**
+ * A compact genotype: the leaves of a NoteTree, in order, each
+ * packed into a long (see PackedNote). An individual costs one
+ * primitive array rather than a tree of objects, which is what
+ * lets populations run into the tens of thousands.
+ *
+ * The packed notes keep their place in the tree, so the tree can
+ * be rebuilt with toTree() for playback. Evaluators that need the
+ * notes themselves read them from view(), a tree kept only as long
+ * as memory allows, so notes validated once stay validated. Trees
+ * (from TreeParser or an initializer) are packed with the
+ * NoteArray(NoteTree) constructor.
+ *
+ * NoteArrays are bred by ArrayBreeder, which works on the packed
+ * notes directly. They don't support adding or swapping notes,
+ * and the array returned by notes() must not be changed.
+ *
+ * @see net.parallaxed.bluejam.evolution.ArrayBreeder
+ */
+public class NoteArray implements NoteSequence
+{
+	// FNV-1a parameters for contentHash().
+	private static final long HASH_OFFSET = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
+
+	private final long[] _notes;
+	private SequenceParameters _sp;
+	private SoftReference<NoteTree> _view = null;
+	/**
+	 * The content hash, worked out on first use; the notes
+	 * never change.
+	 */
+	private volatile long _hash = 0;
+	private volatile boolean _hashed = false;
+
+	/**
+	 * Constructs an empty NoteArray.
+	 * @param params The parameters to build trees with.
+	 */
+	public NoteArray(SequenceParameters params) {
+		this(new long[0], params);
+	}
+
+	/**
+	 * Wraps an array of packed notes, which must be in order
+	 * and is not copied.
+	 * @param notes The packed notes.
+	 * @param params The parameters to build trees with.
+	 */
+	public NoteArray(long[] notes, SequenceParameters params)
+	{
+		_notes = notes;
+		_sp = params;
+	}
+
+	/**
+	 * Packs the leaves of a tree, placing each by the path taken
+	 * down to it from the tree. (A subtree shared by graft() keeps
+	 * its parent links into the tree it came from, so they can't
+	 * be followed back up.)
+	 * @param tree The tree to pack.
+	 */
+	public NoteArray(NoteTree tree)
+	{
+		_sp = tree.sequenceParameters();
+		NoteLeaf[] leaves = tree.leaves();
+		long[] notes = new long[leaves.length];
+		int packed = _pack(tree, new int[NoteTree.MAX_DEPTH + 1], 0, leaves, notes, 0);
+		_notes = (packed == notes.length) ? notes : Arrays.copyOf(notes, packed);
+	}
+
+	/**
+	 * Packs the leaves below node, in order, into notes.
+	 * @param path The path to node, filled to depth.
+	 * @param i The index of the next note.
+	 * @return The index of the note after the last one packed.
+	 */
+	private static int _pack(NoteTree node, int[] path, int depth, NoteLeaf[] leaves, long[] notes, int i)
+	{
+		for (int slot = 0; slot < node.getNumChildren(); slot++)
+		{
+			NoteSequence child = node.getChild(slot);
+			path[depth] = slot;
+			if (child == null)
+				continue;
+			if (child.getClass() == NoteTree.class)
+				i = _pack((NoteTree) child, path, depth + 1, leaves, notes, i);
+			else if (child instanceof NoteLeaf && i < notes.length)
+			{
+				NoteLeaf leaf = (NoteLeaf) child;
+				long p = PackedNote.place(PackedNote.pack(leaf), depth + 1, PackedNote.position(path, depth + 1));
+				if (i + 1 < leaves.length && leaf.swingPartner() == leaves[i + 1])
+					p = PackedNote.swingNext(p, true);
+				notes[i++] = p;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @return The packed notes, in order. Not to be changed.
+	 */
+	public long[] notes() {
+		return _notes;
+	}
+
+	/**
+	 * @return The number of notes.
+	 */
+	public int length() {
+		return _notes.length;
+	}
+
+	/**
+	 * Rebuilds the tree the notes were packed from (less the
+	 * values worked out on validation).
+	 * @return A new NoteTree.
+	 */
+	public NoteTree toTree()
+	{
+		NoteTree tree = new NoteTree(_sp);
+		NoteLeaf previous = null;
+		boolean swing = false;
+		for (long p : _notes)
+		{
+			NoteLeaf leaf = PackedNote.unpack(p);
+			tree.plant(PackedNote.path(p), leaf);
+			if (swing)
+				previous.swingNote(previous.swingPercent(), leaf);
+			swing = PackedNote.swingNext(p);
+			previous = leaf;
+		}
+		return tree;
+	}
+
+	/**
+	 * Returns a tree of these notes, shared by every caller until
+	 * the garbage collector needs the memory back. It must not be
+	 * changed; use toTree() for a tree of your own.
+	 * @return The tree view of the notes.
+	 */
+	public synchronized NoteTree view()
+	{
+		NoteTree view = (_view == null) ? null : _view.get();
+		if (view == null)
+		{
+			view = toTree();
+			_view = new SoftReference<NoteTree>(view);
+		}
+		return view;
+	}
+	
+	/**
+	 * Hashes the packed notes, which hold the shape of the tree
+	 * as well as what it plays. It's worked out once.
+	 * @return A 64-bit hash of the array's content.
+	 */
+	public long contentHash()
+	{
+		if (_hashed)
+			return _hash;
+		long h = HASH_OFFSET ^ _notes.length;
+		for (long p : _notes)
+			h = (h ^ p) * HASH_PRIME;
+		_hash = h;
+		_hashed = true;
+		return h;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The notes belong to the tree view, so they're evaluated in
+	 * context.
+	 */
+	public Iterator<Note> getNotes() {
+		return view().getNotes();
+	}
+
+	/**
+	 * Not supported, NoteArrays are changed by breeding only.
+	 */
+	public void removeNotes(NoteSequence notes) { }
+
+	/**
+	 * Not supported, NoteArrays are changed by breeding only.
+	 * @return False.
+	 */
+	public boolean swapNotes(NoteSequence swapOut, NoteSequence swapIn) {
+		return false;
+	}
+
+	/**
+	 * Not supported, NoteArrays are changed by breeding only.
+	 * @return False.
+	 */
+	public boolean addNotes(NoteSequence notes) {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void validateNotes() throws ValidationException {
+		view().validateNotes();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public SequenceParameters sequenceParameters() {
+		return _sp;
+	}
+
+	/**
+	 * @param sequenceParameters The parameters to build trees with.
+	 */
+	public synchronized void setSequenceParameters(SequenceParameters sequenceParameters) {
+		_sp = sequenceParameters;
+		_view = null;
+	}
+
+	/**
+	 * @return A NoteArray with a copy of the packed notes.
+	 */
+	public NoteArray clone() {
+		return new NoteArray(_notes.clone(), _sp);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean contains(NoteSequence n) {
+		return n == this;
+	}
+}
@@ -424,8 +424,24 @@ public class NoteLeaf extends Note implements NoteSequence, Cloneable, Terminal,
 				mutable &= ~Mutable.RHYTHM;
 			else
 				lockRhythm();
-		}						
+		}
+		// Mutability decides which crossover points the tree has.
+		if (_parent != null)
+			_parent._invalidate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The trees above this leaf drop their packed notes too.
+	 */
+	protected void invalidate()
+	{
+		super.invalidate();
+		if (_parent != null)
+			_parent._notesChanged();
 	}
+	
 	/**
 	 * This is arbitrary, no validation takes place here.
 	 * 
@@ -471,6 +487,23 @@ public class NoteLeaf extends Note implements NoteSequence, Cloneable, Terminal,
 	}
 	//////
 	
+	/**
+	 * Hashes what this leaf plays: pitch, octave, rhythm, swing
+	 * and rest. Leaves that sound the same hash the same, which
+	 * lets fitness scores be cached by value.
+	 * @return A 64-bit hash of this leaf's musical content.
+	 */
+	public long contentHash()
+	{
+		long h = (pitchClass == null) ? 0 : pitchClass.ordinal() + 1;
+		h = h * 31 + pitchRelative;
+		h = h * 31 + octave();
+		h = h * 31 + ((rhythm == null) ? 0 : rhythm.ordinal() + 1);
+		h = h * 31 + _swingPercent;
+		h = h * 31 + (rest ? 1 : 0);
+		return h;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * NB The proper way to do this would involve a call to super.clone()
@@ -2,7 +2,7 @@ package net.parallaxed.bluejam;
 
 import java.util.Iterator;
 
-import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.util.RandomSource;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.PitchException;
 import net.parallaxed.bluejam.grammar.PitchModel;
@@ -21,6 +21,10 @@ public class NoteLeafSet extends TerminalSet
 {
 	private static final String E_TYPE = "The terminal is of the wrong type";
 	private static final String W_PITCH_NULL = "Warning the pitch on the passed note sequence was null ";
+	/**
+	 * Returned by randomNote() when there's no note to give.
+	 */
+	public static final long NO_NOTE = -1;
 	/**
 	 * Records the minimum range for the octave
 	 */
@@ -50,7 +54,6 @@ public class NoteLeafSet extends TerminalSet
 		return false;
 	}
 	private PitchModel _model = null;
-	private MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	
 	/**
 	 * Constructs a NoteLeafSet constrained by octave range.
@@ -124,7 +127,22 @@ public class NoteLeafSet extends TerminalSet
 	 * 
 	 * @param n The NoteSequence preceding the current note.
 	 */
-	public NoteLeaf getRandom(NoteSequence n)
+	public NoteLeaf getRandom(NoteSequence n) {
+		return _leaf(randomNote(n));
+	}
+	
+	public NoteLeaf getRandom(Note n) {
+		return _leaf(randomNote(n));
+	}
+	
+	/**
+	 * As getRandom(NoteSequence), but returns the pitch class and
+	 * octave of the note packed into a long (see PackedNote), so
+	 * nothing is allocated.
+	 * @param n The NoteSequence preceding the current note.
+	 * @return The packed note, or NO_NOTE.
+	 */
+	public long randomNote(NoteSequence n)
 	{
 		if(_model != null)
 		{
@@ -138,20 +156,40 @@ public class NoteLeafSet extends TerminalSet
 					p = _note.pitchClass();
 			
 			if (p != null)
-				return new NoteLeaf(getRandom(p),_note.octave());
+				return _pack(getRandom(p),_note.octave());
 			
 			ErrorFeedback.handle(W_PITCH_NULL, new PitchException(_note));
-			return null;
+			return NO_NOTE;
 		}
-		return ((NoteLeaf) getRandom()).clone();
+		NoteLeaf t = (NoteLeaf) getRandom();
+		return _pack(t.pitchClass(), t.octave());
 	}
 	
-	public NoteLeaf getRandom(Note n)
+	/**
+	 * As getRandom(Note), packed; see randomNote(NoteSequence).
+	 * @param n The note preceding the current note.
+	 * @return The packed note.
+	 */
+	public long randomNote(Note n)
 	{
 		if (_model != null && n != null)
-			return new NoteLeaf(getRandom(n.pitchClass()),n.octave());
-		else
-			return ((NoteLeaf) getRandom()).clone();
+			return _pack(getRandom(n.pitchClass()),n.octave());
+		NoteLeaf t = (NoteLeaf) getRandom();
+		return _pack(t.pitchClass(), t.octave());
+	}
+	
+	private static long _pack(Pitch pitchClass, int octave) {
+		return PackedNote.octave(PackedNote.pitchClass(0, pitchClass), octave);
+	}
+	
+	/**
+	 * @return A new leaf for a packed note, or null for NO_NOTE.
+	 */
+	private static NoteLeaf _leaf(long p)
+	{
+		if (p == NO_NOTE)
+			return null;
+		return new NoteLeaf(PackedNote.pitchClass(p), PackedNote.octave(p));
 	}
 	
 	/*
@@ -167,7 +205,7 @@ public class NoteLeafSet extends TerminalSet
 				// This note isn't in our model
 				return ((NoteLeaf) getRandom()).pitchClass();
 			
-			double d = _mt.nextDouble();
+			double d = RandomSource.current().nextDouble();
 				
 			for (int c = 0; c< model.length; c++)
 			{
@@ -1,6 +1,7 @@
 package net.parallaxed.bluejam;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
@@ -65,6 +66,9 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	 * MAX_DEPTH for any NoteTree is 8.
 	 */
 	public static final int MAX_DEPTH = 8;
+	// FNV-1a parameters for contentHash().
+	private static final long HASH_OFFSET = 0xcbf29ce484222325L;
+	private static final long HASH_PRIME = 0x100000001b3L;
 	////// EXCEPTIONS
 	private static final String W_NULL_CHILD = "Warning, null child at: ";
 	private static final String E_NODE_NOT_FOUND = "Node not found in this tree: ";
@@ -94,6 +98,24 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	 * node.
 	 */
 	private int _depth = 0;
+	
+	/**
+	 * The leaves under this node in order, built on demand by
+	 * leaves() and dropped whenever this node or one below it
+	 * is restructured.
+	 */
+	private volatile NoteLeaf[] _leaves = null;
+	/**
+	 * The subtrees under this node by depth, built on demand by
+	 * index() and dropped along with _leaves.
+	 */
+	private volatile TreeIndex _index = null;
+	/**
+	 * This node's leaves packed into a NoteArray, built on demand
+	 * by packed() and dropped along with _leaves, or when a leaf
+	 * below changes what it plays.
+	 */
+	private volatile NoteArray _packed = null;
 	/**
 	 * @return The depth at which this NoteTree node exists relative to the root
 	 */
@@ -186,32 +208,390 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	 * {@inheritDoc}
 	 * 
 	 * This determines how the note will be played.
+	 * 
+	 * The root of a tree reads its notes from the array kept
+	 * by leaves(). Other nodes, which are mostly read while the
+	 * tree is being built, walk the tree in place. Either way,
+	 * don't restructure the tree while reading it; take a copy
+	 * with collectNotes() if you need to.
+	 * @see LeafIterator
+	 */
+	public Iterator<Note> getNotes() 
+	{
+		NoteLeaf[] leaves = _leaves;
+		if (leaves == null && _parent == null)
+			leaves = leaves();
+		if (leaves != null)
+			return Arrays.<Note>asList(leaves).iterator();
+		return new LeafIterator(this);
+	}
+	
+	/**
+	 * Returns the leaves under this node, in order. The array is
+	 * built the first time it's asked for and then kept until the
+	 * tree is next restructured, so it's shared by everyone that
+	 * reads the tree in between and must not be modified.
+	 * @return The NoteLeafs under this node, in playing order.
+	 */
+	public NoteLeaf[] leaves()
+	{
+		NoteLeaf[] leaves = _leaves;
+		if (leaves != null)
+			return leaves;
+		ArrayList<NoteLeaf> l = new ArrayList<NoteLeaf>();
+		for (Iterator<Note> i = new LeafIterator(this); i.hasNext(); )
+		{
+			Note n = i.next();
+			if (n instanceof NoteLeaf)
+				l.add((NoteLeaf) n);
+		}
+		return (_leaves = l.toArray(new NoteLeaf[l.size()]));
+	}
+	
+	/**
+	 * Returns the index of the subtrees under this node, which
+	 * is kept until the tree is next restructured.
+	 * @return This node's TreeIndex.
+	 */
+	public TreeIndex index()
+	{
+		TreeIndex index = _index;
+		if (index == null)
+			_index = index = new TreeIndex(this);
+		return index;
+	}
+	
+	/**
+	 * Returns this node's leaves packed into a NoteArray, which is
+	 * kept until a leaf below changes or the tree is restructured,
+	 * so a tree read many times (by the FitnessCache) is packed
+	 * once. It's shared, so it must not be changed.
+	 * @return The packed notes of this node.
+	 */
+	public NoteArray packed()
+	{
+		NoteArray packed = _packed;
+		if (packed == null)
+			_packed = packed = new NoteArray(this);
+		return packed;
+	}
+	
+	/**
+	 * Returns the route from the root to this node, as the index
+	 * of the child taken at each level, so the same node can be
+	 * found in a clone of the tree with nodeAt().
+	 * @return The child indexes from the root down to this node.
+	 */
+	public int[] path()
+	{
+		int levels = 0;
+		for (NoteTree t = this; t._parent instanceof NoteTree && t._parent != t; t = (NoteTree) t._parent)
+			levels++;
+		int[] path = new int[levels];
+		NoteTree child = this;
+		while (levels-- > 0)
+		{
+			NoteTree parent = (NoteTree) child._parent;
+			path[levels] = parent.slotOf(child);
+			child = parent;
+		}
+		return path;
+	}
+	
+	/**
+	 * Follows a path returned by path() down from this node.
+	 * @param path The child indexes to follow.
+	 * @return The node at the end of the path, or null if there isn't one.
+	 */
+	public NoteSequence nodeAt(int[] path)
+	{
+		NoteSequence n = this;
+		for (int slot : path)
+		{
+			if (n == null || n.getClass() != NoteTree.class)
+				return null;
+			NoteTree t = (NoteTree) n;
+			if (slot < 0 || slot >= t.children.length)
+				return null;
+			n = t.children[slot];
+		}
+		return n;
+	}
+	
+	/**
+	 * Exchanges two nodes, usually in different trees, in place:
+	 * each takes the other's slot under the other's parent. Both
+	 * are found through their parent links, so the cost doesn't
+	 * depend on the size of the trees. Depths and cached leaves
+	 * and indexes are updated.
+	 * 
+	 * @param a A NoteTree or NoteLeaf below the root of its tree.
+	 * @param b Another, not above or below a.
+	 * @return False if either node has no parent, or one contains the other.
+	 */
+	public static boolean exchange(NoteSequence a, NoteSequence b)
+	{
+		if (a == b)
+			return false;
+		NoteTree parentA = _parentOf(a);
+		NoteTree parentB = _parentOf(b);
+		if (parentA == null || parentB == null)
+			return false;
+		if (_isAncestorOf(a, parentB) || _isAncestorOf(b, parentA))
+			return false;
+		int slotA = parentA.slotOf(a);
+		int slotB = parentB.slotOf(b);
+		if (slotA < 0 || slotB < 0)
+			return false;
+		parentA._place(slotA, b);
+		parentB._place(slotB, a);
+		return true;
+	}
+	
+	/**
+	 * Builds a new tree that is this one with the node at path
+	 * replaced by subTree, for persistent breeding. Only this node
+	 * and the nodes along the path are copied (shallowly); every
+	 * other subtree, and subTree itself, is shared with the trees
+	 * it came from and keeps its parent link into them.
+	 * 
+	 * Shared nodes belong to more than one tree, so a tree built
+	 * by graft() must not be changed in place (addNotes(),
+	 * swapNotes(), exchange() or setting leaf values); graft it
+	 * again instead.
+	 * 
+	 * @param path The path to the node to replace, see path().
+	 * @param subTree The node to put in its place, at the same depth.
+	 * @return The new tree, or null if there's no node at path to replace.
+	 */
+	public NoteTree graft(int[] path, NoteSequence subTree)
+	{
+		if (path.length == 0 || subTree == null)
+			return null;
+		NoteSequence target = nodeAt(path);
+		if (target == null)
+			return null;
+		if (subTree.getClass() == NoteTree.class && 
+				(target.getClass() != NoteTree.class || ((NoteTree) target)._depth != ((NoteTree) subTree)._depth))
+			return null;
+		
+		NoteTree root = new NoteTree(this, _parent);
+		NoteTree copy = root;
+		for (int level = 0; level < path.length - 1; level++)
+		{
+			NoteTree next = new NoteTree((NoteTree) copy.children[path[level]], copy);
+			copy.children[path[level]] = next;
+			copy = next;
+		}
+		copy.children[path[path.length - 1]] = subTree;
+		
+		// A fresh node (a mutated copy of a leaf) joins this tree.
+		if (subTree.getClass() == NoteTree.class && ((NoteTree) subTree)._parent == null)
+			((NoteTree) subTree)._parent = copy;
+		else if (subTree.getClass() == NoteLeaf.class && ((NoteLeaf) subTree)._parent == null)
+			((NoteLeaf) subTree)._parent = copy;
+		return root;
+	}
+	
+	/**
+	 * Puts a leaf at the end of the given path from this node,
+	 * growing the NoteTrees along the path where there aren't
+	 * any yet. Used to rebuild trees from NoteArrays.
+	 * @param path The path to the leaf, see path().
+	 * @param leaf The leaf to place.
+	 * @return False if the path runs through a leaf, or off the tree.
+	 */
+	boolean plant(int[] path, NoteLeaf leaf)
+	{
+		NoteTree t = this;
+		for (int level = 0; level < path.length; level++)
+		{
+			if (path[level] >= t.children.length)
+				return false;
+			if (level == path.length - 1)
+				break;
+			NoteSequence child = t.children[path[level]];
+			if (child == null)
+				child = t.children[path[level]] = new NoteTree(t);
+			else if (child.getClass() != NoteTree.class)
+				return false;
+			t = (NoteTree) child;
+		}
+		t.children[path[path.length - 1]] = leaf;
+		leaf._parent = t;
+		t._invalidate();
+		return true;
+	}
+	
+	/**
+	 * A shallow copy of source under the given parent, for graft().
+	 * The children are shared with source.
+	 */
+	private NoteTree(NoteTree source, NoteSequence parent)
+	{
+		_parent = parent;
+		_sp = source._sp;
+		_depth = source._depth;
+		children = source.children.clone();
+		_changed = false;
+	}
+	
+	/**
+	 * @return The NoteTree holding n, or null.
+	 */
+	private static NoteTree _parentOf(NoteSequence n)
+	{
+		NoteSequence parent = null;
+		if (n.getClass() == NoteTree.class)
+			parent = ((NoteTree) n)._parent;
+		else if (n.getClass() == NoteLeaf.class)
+			parent = ((NoteLeaf) n)._parent;
+		if (parent != null && parent.getClass() == NoteTree.class)
+			return (NoteTree) parent;
+		return null;
+	}
+	
+	/**
+	 * @return True if node is the ancestor, or is below it.
+	 */
+	private static boolean _isAncestorOf(NoteSequence ancestor, NoteTree node)
+	{
+		NoteSequence n = node;
+		for (int level = 0; n != null && level <= MAX_DEPTH * 2; level++)
+		{
+			if (n == ancestor)
+				return true;
+			if (n.getClass() != NoteTree.class)
+				return false;
+			n = ((NoteTree) n)._parent;
+		}
+		return false;
+	}
+	
+	/**
+	 * Puts n in the given slot of this node, taking it as
+	 * n's parent, and fixes up depths and cached metadata.
+	 */
+	private void _place(int slot, NoteSequence n)
+	{
+		children[slot] = n;
+		if (n.getClass() == NoteTree.class)
+		{
+			NoteTree t = (NoteTree) n;
+			t._parent = this;
+			if (t._depth != _depth + 1)
+				t._setDepth(_depth + 1);
+		}
+		else if (n.getClass() == NoteLeaf.class)
+			((NoteLeaf) n)._parent = this;
+		_invalidate();
+	}
+	
+	/**
+	 * Sets the depth of this node and its subtrees, after it's
+	 * been moved to a different level. The caches depend on
+	 * depth, so they're dropped too.
+	 */
+	private void _setDepth(int depth)
+	{
+		_depth = depth;
+		_changed = false;
+		_leaves = null;
+		_index = null;
+		_packed = null;
+		for (NoteSequence child : children)
+			if (child != null && child.getClass() == NoteTree.class)
+				((NoteTree) child)._setDepth(depth + 1);
+	}
+	
+	/**
+	 * @param child A child of this node.
+	 * @return The index of the child in this node, or -1.
 	 */
-	public Iterator<Note> getNotes()
+	int slotOf(NoteSequence child)
+	{
+		for (int i = 0; i < children.length; i++)
+			if (children[i] == child)
+				return i;
+		return -1;
+	}
+	
+	/**
+	 * Drops the cached leaves and index of this node and every
+	 * node above it, after a change to this node's children
+	 * (or to the mutability of one of its leaves).
+	 */
+	void _invalidate()
+	{
+		NoteSequence n = this;
+		while (n != null && n.getClass() == NoteTree.class)
+		{
+			NoteTree t = (NoteTree) n;
+			t._leaves = null;
+			t._index = null;
+			t._packed = null;
+			if (t._parent == t)
+				break;
+			n = t._parent;
+		}
+	}
+	
+	/**
+	 * Drops the packed notes of this node and every node above
+	 * it, after a leaf below changed what it plays.
+	 */
+	void _notesChanged()
+	{
+		NoteSequence n = this;
+		while (n != null && n.getClass() == NoteTree.class)
+		{
+			NoteTree t = (NoteTree) n;
+			t._packed = null;
+			if (t._parent == t)
+				break;
+			n = t._parent;
+		}
+	}
+	
+	/**
+	 * Copies the notes of this tree, in order, into a new
+	 * NoteCollection, which won't change if the tree does.
+	 * @return A snapshot of the notes in this tree.
+	 */
+	public NoteCollection collectNotes()
 	{
 		NoteCollection n = new NoteCollection();
-		for (int i = 0; i<children.length; i++)
+		for (Iterator<Note> i = getNotes(); i.hasNext(); )
+			n.add(i.next());
+		return n;
+	}
+	
+	/**
+	 * Passes each note of this tree to the visitor, in order,
+	 * without allocating. 
+	 * @param visitor The visitor to receive the notes.
+	 * @return False if the visitor stopped the walk early.
+	 */
+	public boolean walk(NoteVisitor visitor)
+	{
+		for (NoteSequence child : children)
 		{
-			if (children[i] instanceof Terminal) {
-				n.addNotes(children[i]);
+			if (child == null)
+				continue;
+			if (child instanceof NoteLeaf) {
+				if (!visitor.visit((NoteLeaf) child))
+					return false;
 			}
-			if (children[i] instanceof Function) {
-				Iterator<Note> notes = children[i].getNotes();
-				
-				// while loop must be on the outside so the add operation can
-				// continue if it encounters an exception.
-				while (notes.hasNext())
-				{
-					try {
-						n.addNotes((NoteSequence) notes.next());
-					}
-					catch (ClassCastException e) {
-						throw new RuntimeException("GetNotes failed - invalid cast to NoteSequence:" +n.toString());
-					}
-				}
+			else if (child.getClass() == NoteTree.class) {
+				if (!((NoteTree) child).walk(visitor))
+					return false;
 			}
+			else
+				for (Iterator<Note> notes = child.getNotes(); notes.hasNext(); )
+					if (!visitor.visit(notes.next()))
+						return false;
 		}
-		return n.iterator();
+		return true;
 	}
 		
 	public boolean contains(NoteSequence n)
@@ -244,6 +624,12 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	 * 
 	 * swapIn will be converted to a NoteTree if it is not already.
 	 * 
+	 * swapOut is found through its parent link where that leads
+	 * back to this tree, which costs O(depth) rather than a search
+	 * of the tree. To exchange two nodes between trees, as in
+	 * crossover, use exchange(), since after the first half of a
+	 * pair of swapNotes() calls the parent links no longer help.
+	 * 
 	 * @param swapOut The NoteSequence to replace in the tree.
 	 * @param swapIn The new NoteSequence to place in the position of swapIn.
 	 */
@@ -261,15 +647,22 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 				return false;
 		}
 		
+		NoteTree parent = _parentOf(swapOut);
+		if (parent != null && _isAncestorOf(this, parent))
+		{
+			int slot = parent.slotOf(swapOut);
+			if (slot > -1)
+			{
+				parent._place(slot, swapIn);
+				return true;
+			}
+		}
+		
 		for (int i = 0; i < children.length; i++)
 		{
 			if (children[i] == swapOut)
 			{
-				if (swapIn.getClass() == NoteTree.class)	
-					((NoteTree)swapIn)._parent = this;
-				else if (swapIn.getClass() == NoteLeaf.class)
-					((NoteLeaf)swapIn)._parent = this;
-				children[i] = swapIn;
+				_place(i, swapIn);
 				return true;
 			}			
 		}
@@ -300,6 +693,7 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	{		
 		if (_changed)
 			countDepth();
+		_invalidate();
 		// Inexpensive optimization gamble... (find out if we have empty children)
 		int emptySlot = hasEmptyChildren();
 		Iterator<Note> i = notes.getNotes();
@@ -410,6 +804,7 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	{
 		if (childIndex == -1)
 			return false;
+		_invalidate();
 		children[childIndex] = note;
 		((NoteLeaf)note)._parent = this;
 			return true;
@@ -489,6 +884,7 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 			{
 				children[i].removeNotes(notes);
 				children[i] = null;				
+				_invalidate();
 				return;
 			}			
 		}
@@ -501,11 +897,23 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 	/**
 	 * Simply calls validateNotes on all children and ensures
 	 * their rhythms add up to _sp.length whole notes.
+	 * 
+	 * Validation writes to the leaves, so a subtree shared by
+	 * graft() that isn't already valid here is copied into this
+	 * tree first; the trees it's shared with are left alone.
 	 */
 	public void validateNotes() throws ValidationException {
 		for (int i = 0; i < children.length; i++) {
 			if (children[i] != null)
+			{
+				if (_sharedChild(children[i]))
+				{
+					if (_validated(children[i], sequenceParameters()))
+						continue;
+					_unshare(i);
+				}
 				children[i].validateNotes();
+			}
 			else 
 				ErrorFeedback.handle(W_NULL_CHILD+i, new NullNoteException(this));
 		}
@@ -516,6 +924,64 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 		
 	}
 	
+	/**
+	 * @return True if child's parent link leads into another tree,
+	 * as for a subtree shared by graft().
+	 */
+	private boolean _sharedChild(NoteSequence child)
+	{
+		if (child.getClass() == NoteTree.class)
+			return ((NoteTree) child)._parent != this;
+		if (child.getClass() == NoteLeaf.class)
+			return ((NoteLeaf) child)._parent != this;
+		return false;
+	}
+	
+	/**
+	 * Checks, without writing to it, that every leaf below n has
+	 * been validated with the given parameters.
+	 */
+	private static boolean _validated(NoteSequence n, SequenceParameters sp)
+	{
+		if (sp.Changed || n.sequenceParameters() != sp)
+			return false;
+		return _leavesValidated(n);
+	}
+	
+	private static boolean _leavesValidated(NoteSequence n)
+	{
+		if (n.getClass() == NoteLeaf.class)
+			return ((NoteLeaf) n).validated;
+		if (n.getClass() != NoteTree.class)
+			return false;
+		for (NoteSequence child : ((NoteTree) n).children)
+			if (child == null || !_leavesValidated(child))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Replaces the shared child in the given slot with a copy
+	 * belonging to this tree.
+	 */
+	private void _unshare(int slot)
+	{
+		NoteSequence child = children[slot];
+		if (child.getClass() == NoteTree.class)
+		{
+			NoteTree copy = ((NoteTree) child).clone();
+			copy._parent = this;
+			children[slot] = copy;
+		}
+		else
+		{
+			NoteLeaf copy = ((NoteLeaf) child).clone();
+			copy._parent = this;
+			children[slot] = copy;
+		}
+		_invalidate();
+	}
+	
 	//////////////////////////
 	////// EVOLUTION FUNCTIONS
 	////// These methods can be typed because they are only
@@ -667,6 +1133,31 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 				
 				
 	}
+	/**
+	 * Hashes the content of this tree: its shape and the pitch,
+	 * rhythm and swing of every leaf, in order. Trees that play
+	 * the same hash the same, whatever their identity.
+	 * @return A 64-bit hash of the tree's content.
+	 */
+	public long contentHash()
+	{
+		long h = HASH_OFFSET ^ children.length;
+		for (NoteSequence child : children)
+		{
+			long c = 0;
+			if (child == null)
+				c = 0;
+			else if (child.getClass() == NoteTree.class)
+				c = ((NoteTree) child).contentHash();
+			else if (child.getClass() == NoteLeaf.class)
+				c = ~((NoteLeaf) child).contentHash();
+			else
+				c = child.hashCode();
+			h = (h ^ c) * HASH_PRIME;
+		}
+		return h;
+	}
+	
 	/**
 	 * @return The number of children this node has
 	 */
@@ -722,4 +1213,4 @@ public class NoteTree implements NoteSequence, Heuristic, Function, Cloneable
 		}
 		return _nt;	
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
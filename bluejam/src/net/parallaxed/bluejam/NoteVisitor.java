@@ -0,0 +1,18 @@
+package net.parallaxed.bluejam;
+
+/**
+ * Receives the notes of a NoteSequence in playing order, from
+ * NoteTree.walk(). Walking a tree with a visitor doesn't allocate,
+ * so it's the cheapest way to read every note of a tree.
+ * 
+ * @see NoteTree#walk(NoteVisitor)
+ */
+public interface NoteVisitor 
+{
+	/**
+	 * Called once for each note, in order.
+	 * @param note The next note in the sequence.
+	 * @return False to stop the walk, true to carry on.
+	 */
+	public boolean visit(Note note);
+}
@@ -0,0 +1,229 @@
+package net.parallaxed.bluejam;
+
+/**
+ * Packs a NoteLeaf into a single long, for NoteArrays.
+ *
+ * A packed note keeps what the leaf plays (pitch class, relative
+ * pitch, octave, rhythm, swing and rest), its mutability, and
+ * where it sits in the tree: its depth, and its position, which is
+ * the path to it read as a time offset (the bar, then a bit for
+ * each half below it). Positions increase from left to right, so
+ * the notes of a tree packed in order are sorted by position, and
+ * the notes under any node are a contiguous run.
+ *
+ * Values that are worked out on validation (duration, MIDI note
+ * value) aren't kept. Swing partners are kept only as a flag on
+ * the first note of a pair, saying it swings with the next one.
+ *
+ * @see NoteArray
+ */
+public final class PackedNote
+{
+	/**
+	 * Bits of path below the bar, at most one per level of the
+	 * tree under the root's children.
+	 */
+	public static final int PATH_BITS = NoteTree.MAX_DEPTH - 1;
+
+	// Field offsets and widths.
+	private static final int PITCH = 0, PITCH_BITS = 5;
+	private static final int RELATIVE = 5, RELATIVE_BITS = 5;
+	private static final int OCTAVE = 10, OCTAVE_BITS = 4;
+	private static final int RHYTHM = 14, RHYTHM_BITS = 3;
+	private static final int SWING = 17, SWING_BITS = 7;
+	private static final int REST = 24;
+	private static final int MUTABLE = 25, MUTABLE_BITS = 2;
+	private static final int DEPTH = 27, DEPTH_BITS = 4;
+	private static final int POSITION = 31, POSITION_BITS = 16;
+	private static final int SWING_NEXT = 47;
+
+	private static final Pitch[] PITCHES = Pitch.values();
+	private static final Rhythm[] RHYTHMS = Rhythm.values();
+
+	private PackedNote() { }
+
+	/**
+	 * Packs what a leaf plays and its mutability, with no place
+	 * in a tree (see place()).
+	 * @param n The leaf to pack.
+	 * @return The packed note.
+	 */
+	public static long pack(NoteLeaf n)
+	{
+		long p = 0;
+		p = pitchClass(p, n.pitchClass());
+		p = pitchRelative(p, n.pitchRelative());
+		p = _set(p, OCTAVE, OCTAVE_BITS, n.octave() + 2);
+		p = _set(p, RHYTHM, RHYTHM_BITS, (n.rhythm() == null) ? 0 : n.rhythm().ordinal() + 1);
+		p = swingPercent(p, n.swingPercent());
+		p = rest(p, n.rest());
+		return mutable(p, n.mutable());
+	}
+
+	/**
+	 * Builds an unparented leaf from a packed note.
+	 * @param p The packed note.
+	 * @return A new NoteLeaf playing the note.
+	 */
+	public static NoteLeaf unpack(long p)
+	{
+		NoteLeaf n = new NoteLeaf(pitchClass(p), rhythm(p), octave(p));
+		n.pitchRelative = pitchRelative(p);
+		n._swingPercent = swingPercent(p);
+		n.rest = rest(p);
+		n.mutable = mutable(p);
+		return n;
+	}
+
+	/**
+	 * Sets the place of a packed note in its tree.
+	 * @param p The packed note.
+	 * @param depth The depth of the leaf (the length of its path).
+	 * @param position The position of the leaf, see position().
+	 * @return The packed note, placed.
+	 */
+	public static long place(long p, int depth, int position)
+	{
+		p = _set(p, DEPTH, DEPTH_BITS, depth);
+		return _set(p, POSITION, POSITION_BITS, position);
+	}
+
+	/**
+	 * Turns the path to a leaf into its position.
+	 * @param path The path from the root, see NoteTree.path().
+	 * @return The position of the leaf.
+	 */
+	public static int position(int[] path) {
+		return position(path, path.length);
+	}
+
+	/**
+	 * Turns the first depth entries of a path into a position.
+	 * @param path The path from the root, see NoteTree.path().
+	 * @param depth The length of the path to use.
+	 * @return The position of the leaf.
+	 */
+	public static int position(int[] path, int depth)
+	{
+		int position = path[0] << PATH_BITS;
+		for (int level = 1; level < depth; level++)
+			position |= path[level] << (PATH_BITS - level);
+		return position;
+	}
+
+	/**
+	 * Turns the place of a packed note back into its path.
+	 * @param p The packed note.
+	 * @return The path to it from the root.
+	 */
+	public static int[] path(long p)
+	{
+		int depth = depth(p);
+		int position = position(p);
+		int[] path = new int[depth];
+		path[0] = position >>> PATH_BITS;
+		for (int level = 1; level < depth; level++)
+			path[level] = (position >>> (PATH_BITS - level)) & 1;
+		return path;
+	}
+
+	/**
+	 * The positions covered by a node or leaf at the given depth.
+	 * @param depth A depth of at least 1.
+	 * @return The span of the node, in positions.
+	 */
+	public static int span(int depth) {
+		return 1 << (PATH_BITS + 1 - depth);
+	}
+
+	////// FIELDS
+	public static Pitch pitchClass(long p) {
+		int i = _get(p, PITCH, PITCH_BITS);
+		return (i == 0) ? null : PITCHES[i - 1];
+	}
+
+	public static long pitchClass(long p, Pitch pitchClass) {
+		return _set(p, PITCH, PITCH_BITS, (pitchClass == null) ? 0 : pitchClass.ordinal() + 1);
+	}
+
+	public static int pitchRelative(long p) {
+		return _get(p, RELATIVE, RELATIVE_BITS) - 12;
+	}
+
+	/**
+	 * Offsets outside one octave either way are ignored, as they
+	 * are by Note.pitchRelative().
+	 */
+	public static long pitchRelative(long p, int offset) {
+		if (offset > 12 || offset < -12)
+			return p;
+		return _set(p, RELATIVE, RELATIVE_BITS, offset + 12);
+	}
+
+	public static int octave(long p) {
+		return _get(p, OCTAVE, OCTAVE_BITS) - 2;
+	}
+
+	public static long octave(long p, int octave) {
+		return _set(p, OCTAVE, OCTAVE_BITS, octave + 2);
+	}
+
+	public static Rhythm rhythm(long p) {
+		int i = _get(p, RHYTHM, RHYTHM_BITS);
+		return (i == 0) ? null : RHYTHMS[i - 1];
+	}
+
+	public static int swingPercent(long p) {
+		return _get(p, SWING, SWING_BITS);
+	}
+
+	public static long swingPercent(long p, int swingPercent) {
+		return _set(p, SWING, SWING_BITS, Math.max(0, Math.min(100, swingPercent)));
+	}
+
+	public static boolean rest(long p) {
+		return _get(p, REST, 1) != 0;
+	}
+
+	public static long rest(long p, boolean rest) {
+		return _set(p, REST, 1, rest ? 1 : 0);
+	}
+
+	public static byte mutable(long p) {
+		return (byte) _get(p, MUTABLE, MUTABLE_BITS);
+	}
+
+	public static long mutable(long p, byte mutable) {
+		return _set(p, MUTABLE, MUTABLE_BITS, mutable & Mutable.ALL);
+	}
+
+	public static int depth(long p) {
+		return _get(p, DEPTH, DEPTH_BITS);
+	}
+
+	public static int position(long p) {
+		return _get(p, POSITION, POSITION_BITS);
+	}
+
+	/**
+	 * @return True if the note swings with the note after it.
+	 */
+	public static boolean swingNext(long p) {
+		return _get(p, SWING_NEXT, 1) != 0;
+	}
+
+	public static long swingNext(long p, boolean swingNext) {
+		return _set(p, SWING_NEXT, 1, swingNext ? 1 : 0);
+	}
+	//////
+
+	private static int _get(long p, int offset, int bits) {
+		return (int) ((p >>> offset) & ((1L << bits) - 1));
+	}
+
+	private static long _set(long p, int offset, int bits, int value)
+	{
+		long mask = ((1L << bits) - 1) << offset;
+		return (p & ~mask) | (((long) value << offset) & mask);
+	}
+}
@@ -1,11 +1,15 @@
 package net.parallaxed.bluejam;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 import ec.util.MersenneTwisterFast;
 
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.IndividualAddException;
 import net.parallaxed.bluejam.exceptions.ParameterException;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * The population class holds a collection of individuals and
@@ -29,10 +33,15 @@ import net.parallaxed.bluejam.exceptions.ParameterException;
  * it returns a reference to the parent population and continues
  * from there (see documentation on the interfaces). 
  * 
+ * Individuals may be added from many threads at once. Slots are
+ * handed out in order by an atomic cursor (see reserve()), so
+ * adding takes constant time and no locks; a reserved slot reads
+ * as null until it is filled, which iteration skips.
+ * 
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
-public class Population 
+public class Population implements Iterable<Individual>
 {
 	//////
 	private static final String E_SEQUENCE_PARAMETERS_MISSING = "A population cannot be instatiated without SequenceParameters";
@@ -47,14 +56,25 @@ public class Population
 	/**
 	 * Tracks the actual number of members in the population.
 	 */
-	private int _populationSize = 0;
-	public int populationSize() { return _populationSize; }
+	private final AtomicInteger _populationSize = new AtomicInteger();
+	public int populationSize() { return _populationSize.get(); }
+	/**
+	 * The number of slots handed out by reserve().
+	 */
+	private final AtomicInteger _cursor = new AtomicInteger();
 	/**
 	 * An array of fixed length, with a slot for each
 	 * individual in the population.
 	 */
-	public Individual[] populous;
-	
+	public volatile Individual[] populous;
+
+	/**
+	 * Fitness scores stored by a ParallelEvaluator, indexed by
+	 * slot in the populous, or null if the population hasn't
+	 * been scored since it last changed.
+	 */
+	private volatile double[] _fitness = null;
+
 	/**
 	 * A reference to this population's parameters.
 	 */
@@ -76,9 +96,6 @@ public class Population
 	 */
 	protected HeuristicCollection heuristics = null; 
 	
-	// The Mersenne twister random number generator for this population
-	private MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
-	
 	/**
 	 * Constructs a skeleton population given the passed population
 	 * as a template. The constructed population will contain no
@@ -94,6 +111,29 @@ public class Population
 		this.memberCount = p.memberCount;
 		this.heuristics = p.heuristics;
 	}
+	
+	/**
+	 * Copies this population, to go back to later. The copy holds
+	 * the same individuals (which are never changed in place) and
+	 * scores, in slots of its own, so replacing a member of either
+	 * leaves the other as it was.
+	 * @return The copy.
+	 * @see net.parallaxed.bluejam.evolution.SteadyState
+	 */
+	public Population snapshot()
+	{
+		Population p = new Population(this);
+		p._changed = _changed;
+		Individual[] slots = populous;
+		if (slots != null)
+			p.populous = slots.clone();
+		double[] scores = _fitness;
+		if (scores != null)
+			p._fitness = scores.clone();
+		p._cursor.set(_cursor.get());
+		p._populationSize.set(_populationSize.get());
+		return p;
+	}
 	/**
 	 * Constructs a population.
 	 * @param sequenceParameters The sequenceParameters to use in construction.
@@ -164,7 +204,9 @@ public class Population
 		for (Individual i : populous)
 			i.initialize();
 		
-		_populationSize = memberCount;
+		_cursor.set(memberCount);
+		_populationSize.set(memberCount);
+		_fitness = null;
 	}
 	
 	/**
@@ -179,9 +221,98 @@ public class Population
 		return null;
 	}
 	
+	/**
+	 * Returns a random individual, skipping slots that are
+	 * reserved but not yet filled.
+	 * @return A random individual, or null if none could be found.
+	 */
 	public Individual getRandomIndividual() {
-		return populous[_mt.nextInt(_populationSize)];
+		// Drawn from the calling thread's stream.
+		MersenneTwisterFast _mt = RandomSource.current();
+		Individual[] slots = populous;
+		int filled = Math.min(_cursor.get(), slots.length);
+		Individual i = null;
+		for (int tries = 0; i == null && filled > 0 && tries < slots.length; tries++)
+			i = slots[_mt.nextInt(filled)];
+		return i;
+	}
+	
+	/**
+	 * Reserves the next free slot in the populous. Safe to call
+	 * from many threads; each slot is handed out only once.
+	 * @return The index of the slot, or -1 if the population is full.
+	 * @see #setIndividual(int, Individual)
+	 */
+	public int reserve() {
+		return reserve(1);
+	}
+	
+	/**
+	 * Reserves up to count consecutive free slots.
+	 * @param count The number of slots wanted.
+	 * @return The index of the first slot, or -1 if the population is full.
+	 * The number reserved is the lesser of count and the slots left.
+	 */
+	private int reserve(int count)
+	{
+		int capacity = _slots().length;
+		while (true)
+		{
+			int next = _cursor.get();
+			if (next >= capacity)
+				return -1;
+			if (_cursor.compareAndSet(next, Math.min(capacity, next + count)))
+				return next;
+		}
+	}
+	
+	/**
+	 * Fills a slot handed out by reserve().
+	 * @param slot The reserved slot.
+	 * @param i The individual to put in it.
+	 */
+	public void setIndividual(int slot, Individual i)
+	{
+		populous[slot] = i;
+		i.population(this);
+		_changed = true;
+		_fitness = null;
+		// Publishes the slot to threads that read the size.
+		_populationSize.incrementAndGet();
+	}
+	
+	/**
+	 * Replaces the individual in a filled slot, for steady-state
+	 * evolution. Unlike adding, this keeps the stored scores, with
+	 * the new individual's score in place of the old.
+	 * @param slot The slot to replace.
+	 * @param i The individual to put in it.
+	 * @param fitness The fitness of the individual.
+	 * @see net.parallaxed.bluejam.evolution.SteadyState
+	 */
+	public void replaceIndividual(int slot, Individual i, double fitness)
+	{
+		populous[slot] = i;
+		i.population(this);
+		double[] scores = _fitness;
+		if (scores != null && slot < scores.length)
+			scores[slot] = fitness;
+	}
+	
+	/**
+	 * @return The populous, created on first use.
+	 */
+	private Individual[] _slots()
+	{
+		Individual[] slots = populous;
+		if (slots == null)
+			synchronized (this) {
+				if ((slots = populous) == null)
+					populous = slots = new Individual[memberCount];
+			}
+		return slots;
 	}
+
 	/**
 	 * Adds a list of individuals to the population.
 	 * 
@@ -191,31 +322,23 @@ public class Population
 	 */
 	public void addIndividuals(List<Individual> individuals) throws IndividualAddException {
 		
-		if (populous == null)
-			populous = new Individual[memberCount];
-		ArrayList<Integer> empties = getEmptySlots();
-		
 		int indCount = individuals.size();
-		int i;
-		for (i = 0; i < indCount; i++)
-			if (empties.size() > 1)
-				populous[empties.remove(0)] = individuals.get(i);
-			else
-				throw new IndividualAddException(individuals.subList(i, individuals.size()));
+		int first = (indCount > 0) ? reserve(indCount) : -1;
+		int i = 0;
+		if (first > -1)
+			for (int last = Math.min(first + indCount, populous.length); first + i < last; i++)
+				setIndividual(first + i, individuals.get(i));
 		
-		_changed = true;
-		_populationSize += i; 
+		if (i < indCount)
+			throw new IndividualAddException(individuals.subList(i, indCount));
 	}
 	
 	public void addIndividual(Individual i) throws IndividualAddException {
 		
-		int index = getEmptySlot();
+		int index = reserve();
 		if (index > -1)
 		{
-			populous[index] = i;
-			i.population(this);
-			_populationSize++;
-			_changed = true;
+			setIndividual(index, i);
 			return;
 		}
 		throw new IndividualAddException(i);			
@@ -228,40 +351,85 @@ public class Population
 	 */
 	public ArrayList<Integer> getEmptySlots() {
 		ArrayList<Integer> empties = new ArrayList<Integer>();
+		Individual[] slots = _slots();
 		
-		for (int i = 0; i< populous.length; i++)
-			if (populous[i] == null)
+		for (int i = 0; i< slots.length; i++)
+			if (slots[i] == null)
 				empties.add(i);
 		empties.trimToSize();
 		return empties;
 	}
 	
-	private int getEmptySlot()
+	/**
+	 * Iterates over the individuals in the population in slot
+	 * order, skipping empty slots. Individuals added during
+	 * iteration may or may not be seen.
+	 */
+	public Iterator<Individual> iterator()
 	{
-		if (populous == null)
-		{
-			populous = new Individual[memberCount];
-			return 0;
-		}
+		final Individual[] slots = (populous == null) ? new Individual[0] : populous;
+		return new Iterator<Individual>() {
+			private int _next = _advance(0);
+			
+			private int _advance(int i) {
+				while (i < slots.length && slots[i] == null)
+					i++;
+				return i;
+			}
+			
+			public boolean hasNext() {
+				return _next < slots.length;
+			}
 			
-		for (int i = 0; i< populous.length; i++)
-			if (populous[i] == null)
+			public Individual next() {
+				if (_next >= slots.length)
+					throw new NoSuchElementException();
+				Individual i = slots[_next];
+				_next = _advance(_next + 1);
 				return i;
-		return -1;
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 	
 	public Individual getFittestIndividual()
 	{
+		double[] scores = _fitness;
 		Individual fittest = populous[0];
-		for (int i = 0; i < _populationSize; i++)
+		if (scores != null)
 		{
-			if (populous[i] == null)
-				continue;
-			if (populous[i].evaluate() > fittest.evaluate())
-				fittest = populous[i];
+			int best = -1;
+			for (int i = 0; i < populous.length && i < scores.length; i++)
+				if (populous[i] != null && (best < 0 || scores[i] > scores[best]))
+					best = i;
+			return (best < 0) ? fittest : populous[best];
 		}
+		for (Individual i : this)
+			if (fittest == null || i.evaluate() > fittest.evaluate())
+				fittest = i;
 		return fittest;
 	}
+
+	/**
+	 * Returns the scores stored by the last up-front evaluation,
+	 * indexed by slot in the populous.
+	 * @return The stored scores, or null if not scored since the last change.
+	 * @see net.parallaxed.bluejam.evolution.ParallelEvaluator
+	 */
+	public double[] fitness() {
+		return _fitness;
+	}
+
+	/**
+	 * Stores the fitness scores for this population.
+	 * @param scores Scores indexed by slot in the populous.
+	 */
+	public void fitness(double[] scores) {
+		_fitness = scores;
+	}
 	
 	/**
 	 * TODO Some method to copy out references to the mating pool
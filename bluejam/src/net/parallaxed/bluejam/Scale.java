@@ -126,7 +126,7 @@ public abstract class Scale {
 		
 		public static final Scale getInstance()
 		{
-			if (_instance != null)
+			if (_instance == null)
 				_instance = new MINOR();
 			return _instance;
 		}
@@ -151,7 +151,7 @@ public abstract class Scale {
 		
 		public static final Scale getInstance()
 		{
-			if (_instance != null)
+			if (_instance == null)
 				_instance = new MAJOR();
 			return _instance;
 		}
@@ -1,6 +1,12 @@
 package net.parallaxed.bluejam;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
 import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.grammar.PitchModel;
+import net.parallaxed.bluejam.util.RandomSource;
 
 
 /**
@@ -9,18 +15,92 @@ import ec.util.MersenneTwisterFast;
  * of octaves. A set of the chromatic notes in that scale 
  * can also be produced.
  * 
+ * Sets for every root pitch and octave range of each scale are
+ * built once, when the class is loaded, and shared: getInstance()
+ * reads them from a table, without locking, so changing key 
+ * allocates nothing. Shared sets can't be changed; a set with a
+ * model is another shared set (see withModel()), also found without
+ * locking. Notes are picked from them with randomNote(), packed, or
+ * getRandom(), as new leaves, so the set's own leaves are never 
+ * handed out.
+ * 
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
 public class ScaledSet extends NoteLeafSet
 {
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
+	private static final String E_IMMUTABLE = "Shared ScaledSets can't be changed; use withModel() for a model.";
+	
 	/**
 	 * This array describes pitch classes. Pitch classes encapsulate
 	 * enharmonic notes and divide the pitches into orders of 12,
 	 * which can then be used to calculate the given scale.
 	 */
-	public Pitch[][] pitchClass = new Pitch[12][];
+	private static final Pitch[][] PITCH_CLASSES = new Pitch[][] {
+		{ Pitch.A }, { Pitch.As, Pitch.Bb }, { Pitch.B }, { Pitch.C },
+		{ Pitch.Cs, Pitch.Db }, { Pitch.D }, { Pitch.Ds, Pitch.Eb }, { Pitch.E },
+		{ Pitch.F }, { Pitch.Fs, Pitch.Gb }, { Pitch.G }, { Pitch.Gs, Pitch.Ab } };
+	
+	/**
+	 * The octaves a JamParamters' range can span; sets for ranges 
+	 * within them are kept.
+	 */
+	private static final int OCTAVES = 10;
+	private static final int PITCHES = Pitch.values().length;
+	/**
+	 * The scales there are.
+	 */
+	private static final Scale[] SCALES = new Scale[] { 
+		Scale.BLUES.getInstance(), Scale.MINOR.getInstance(), Scale.MAJOR.getInstance() };
+	/**
+	 * The shared sets of each scale (as in SCALES), indexed by root
+	 * pitch and range; null for a scale that can't be built.
+	 */
+	private static final ScaledSet[][] _sets = new ScaledSet[SCALES.length][];
+	
+	static {
+		// Every root of every scale, in every range.
+		for (int s = 0; s < SCALES.length; s++)
+			try {
+				ScaledSet[] sets = new ScaledSet[PITCHES * OCTAVES * OCTAVES];
+				for (Pitch[] pitchClass : PITCH_CLASSES)
+					for (int min = 0; min < OCTAVES; min++)
+						for (int max = min; max < OCTAVES; max++)
+							sets[_index(pitchClass[0], min, max)] = new ScaledSet(pitchClass[0], SCALES[s], min, max)._freeze();
+				_sets[s] = sets;
+			}
+			catch (RuntimeException e) {
+				// Not implemented yet (only the blues is).
+			}
+	}
+	
+	private static int _index(Pitch rootPitch, int minOctave, int maxOctave) {
+		return (rootPitch.ordinal() * OCTAVES + minOctave) * OCTAVES + maxOctave;
+	}
+	
+	/**
+	 * Returns the shared set of a scale. A set outside the table 
+	 * (an octave range beyond it, or a scale or root that couldn't
+	 * be built) is built every time it's asked for.
+	 * @param rootPitch The root pitch of the scale
+	 * @param scale The scale to use for generating notes
+	 * @param minOctave The lower 8ve limit
+	 * @param maxOctave The upper 8ve limit.
+	 * @return The set, which can't be changed.
+	 */
+	public static ScaledSet getInstance(Pitch rootPitch, Scale scale, int minOctave, int maxOctave)
+	{
+		if (minOctave >= 0 && maxOctave < OCTAVES && minOctave <= maxOctave)
+			for (int s = 0; s < SCALES.length; s++)
+				if (SCALES[s] == scale && _sets[s] != null)
+				{
+					ScaledSet set = _sets[s][_index(rootPitch, minOctave, maxOctave)];
+					if (set != null)
+						return set;
+				}
+		return new ScaledSet(rootPitch, scale, minOctave, maxOctave)._freeze();
+	}
+	
 	private int _octaveChangeProbability = 20;
 	/**
 	 * If we're at the cusp of the next octave, here's the
@@ -31,6 +111,7 @@ public class ScaledSet extends NoteLeafSet
 	 */
 	public void octaveChangeProbability(int probability)
 	{
+		_mutate();
 		if (probability >= 0 && probability <= 100)
 			_octaveChangeProbability = probability;
 	}
@@ -46,9 +127,22 @@ public class ScaledSet extends NoteLeafSet
 	// Pitch 6 - at the cusp.
 	private Pitch VI = null;
 	
+	private boolean _frozen = false;
+	/**
+	 * The set without a model, and its copies with one. The copies
+	 * are replaced, never changed, as one is added.
+	 */
+	private final ScaledSet _base;
+	private final AtomicReference<ScaledSet[]> _withModel = new AtomicReference<ScaledSet[]>(new ScaledSet[0]);
+	/**
+	 * The model a copy picks notes with.
+	 */
+	private PitchModel _bound = null;
+	
 	/**
 	 * Constructs a set of all notes of the right pitch over
-	 * a given octave range and scale.
+	 * a given octave range and scale. Unlike those returned by
+	 * getInstance(), the set can be changed.
 	 * 
 	 * Limits are always exclusive, so for Pitch.A on octaves 3-5
 	 * will include A3, and all subsequent notes up to A6 (but not A6).
@@ -62,39 +156,95 @@ public class ScaledSet extends NoteLeafSet
 	{
 		this.pitch = rootPitch;
 		this.scale = scale;
+		_base = this;
 		setRange(minOctave,maxOctave);
-		pitchClass[0] = new Pitch[1];
-		pitchClass[0][0] = Pitch.A;
-		pitchClass[1] = new Pitch[2];
-		pitchClass[1][0] = Pitch.As;
-		pitchClass[1][1] = Pitch.Bb;
-		pitchClass[2] = new Pitch[1];
-		pitchClass[2][0] = Pitch.B;
-		pitchClass[3] = new Pitch[1];
-		pitchClass[3][0] = Pitch.C;
-		pitchClass[4] = new Pitch[2];
-		pitchClass[4][0] = Pitch.Cs;
-		pitchClass[4][1] = Pitch.Db;
-		pitchClass[5] = new Pitch[1];
-		pitchClass[5][0] = Pitch.D;
-		pitchClass[6] = new Pitch[2];
-		pitchClass[6][0] = Pitch.Ds;
-		pitchClass[6][1] = Pitch.Eb;
-		pitchClass[7] = new Pitch[1];
-		pitchClass[7][0] = Pitch.E;
-		pitchClass[8] = new Pitch[1];
-		pitchClass[8][0] = Pitch.F;
-		pitchClass[9] = new Pitch[2];
-		pitchClass[9][0] = Pitch.Fs;
-		pitchClass[9][1] = Pitch.Gb;
-		pitchClass[10] = new Pitch[1];
-		pitchClass[10][0] = Pitch.G;
-		pitchClass[11] = new Pitch[2];
-		pitchClass[11][0] = Pitch.Gs;
-		pitchClass[11][1] = Pitch.Ab;
 		generateNotes();
 	}
 	
+	/**
+	 * Copies a shared set, with a model.
+	 */
+	private ScaledSet(ScaledSet base, PitchModel model) throws Exception
+	{
+		pitch = base.pitch;
+		scale = base.scale;
+		VI = base.VI;
+		_base = base;
+		minOctave = base.minOctave;
+		maxOctave = base.maxOctave;
+		for (Terminal t : base)
+			add(t);
+		super.setModel(model);
+		_bound = model;
+		_frozen = true;
+	}
+	
+	private ScaledSet _freeze()
+	{
+		_frozen = true;
+		return this;
+	}
+	
+	/**
+	 * Returns the shared set with the same notes as this one, 
+	 * picking them with the given model.
+	 * @param model The model, or null for none.
+	 * @return The set, which can't be changed.
+	 */
+	public ScaledSet withModel(PitchModel model)
+	{
+		if (model == null)
+			return _base._frozen ? _base : this;
+		AtomicReference<ScaledSet[]> copies = _base._withModel;
+		while (true)
+		{
+			ScaledSet[] sets = copies.get();
+			for (ScaledSet set : sets)
+				if (set._bound == model)
+					return set;
+			ScaledSet[] more = Arrays.copyOf(sets, sets.length + 1);
+			try {
+				more[sets.length] = new ScaledSet(_base, model);
+			}
+			catch (Exception e) { 
+				ErrorFeedback.handle(e.getMessage(), e);
+				return null;
+			}
+			if (copies.compareAndSet(sets, more))
+				return more[sets.length];
+		}
+	}
+	
+	/**
+	 * Refuses changes to a shared set.
+	 */
+	private void _mutate()
+	{
+		if (_frozen)
+			ErrorFeedback.handle(E_IMMUTABLE, new UnsupportedOperationException(E_IMMUTABLE));
+	}
+	
+	@Override
+	public boolean add(Terminal t)
+	{
+		_mutate();
+		return super.add(t);
+	}
+	
+	@Override
+	public void setRange(int minOctave, int maxOctave)
+	{
+		_mutate();
+		super.setRange(minOctave, maxOctave);
+	}
+	
+	@Override
+	public void setModel(PitchModel model) throws Exception
+	{
+		_mutate();
+		super.setModel(model);
+	}
+	
 	/**
 	 * This generates the notes of the given scale and adds
 	 * them to the set.
@@ -104,6 +254,7 @@ public class ScaledSet extends NoteLeafSet
 		if ((this.scale == null) || (this.pitch == null))
 			return;
 		
+		Pitch[][] pitchClass = PITCH_CLASSES;
 		int[] stepSize = scale.eval();
 		
 		// discover which pitch is the root pitch
@@ -148,19 +299,21 @@ public class ScaledSet extends NoteLeafSet
 	}
 	
 	@Override
-	public NoteLeaf getRandom(NoteSequence n)
+	public long randomNote(NoteSequence n)
 	{
-		NoteLeaf note = super.getRandom(n);
-		if (note == null)
-			return null;
+		long note = super.randomNote(n);
+		if (note == NO_NOTE)
+			return NO_NOTE;
+		MersenneTwisterFast _mt = RandomSource.current();
 		
-		if (note.pitchClass() == pitch)
+		Pitch p = PackedNote.pitchClass(note);
+		if (p == pitch)
 			if (_mt.nextInt(100) < _octaveChangeProbability)
-				note.octave(note.octave()-1);
+				note = PackedNote.octave(note, PackedNote.octave(note)-1);
 
-		if (note.pitchClass() == VI)
+		if (p == VI)
 			if (_mt.nextInt(100) < _octaveChangeProbability)
-				note.octave(note.octave()+1);
+				note = PackedNote.octave(note, PackedNote.octave(note)+1);
 		
 		return note;			
 	}
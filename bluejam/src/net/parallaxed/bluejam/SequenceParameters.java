@@ -66,6 +66,19 @@ public class SequenceParameters
 	 * @return The time signature of the sequence in string "x/y" format
 	 */
 	public String timeSignature() { return _timeSignature; }
+	
+	/**
+	 * The time a sequence takes to play at the Jam's tempo. As in
+	 * Note.evaluateRhythm(), the tempo counts crotchets.
+	 * @return The duration in milliseconds, or 0 if no Jam is set.
+	 */
+	public double duration()
+	{
+		if (Jam == null)
+			return 0;
+		return length * 4 * 60000d / Jam.tempo();
+	}
+	
 	/**
 	 * Initializes a set of SequenceParameters with the passed JamParameters 
 	 * @param jam The JamParameters defining rootPitch, scale, etc.
@@ -3,7 +3,7 @@ package net.parallaxed.bluejam;
 import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Iterator;
-import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * Wraps an ArrayList to provide set-like functionality 
@@ -14,7 +14,6 @@ import ec.util.MersenneTwisterFast;
  */
 public abstract class TerminalSet extends AbstractSet<Terminal>
 {
-	private static MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	private ArrayList<Terminal> terminals = new ArrayList<Terminal>();
 	
 	/**
@@ -29,7 +28,7 @@ public abstract class TerminalSet extends AbstractSet<Terminal>
 	 * @return A random terminal from the set.
 	 */
 	public Terminal getRandom() {
-		return terminals.get(_mt.nextInt(terminals.size()));
+		return terminals.get(RandomSource.current().nextInt(terminals.size()));
 	}
 	
 	/**
@@ -0,0 +1,295 @@
+package net.parallaxed.bluejam;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Counts of the nodes under a NoteTree node, by depth (and so by
+ * accepted rhythm), for picking crossover and mutation points.
+ * 
+ * Each node's index is built from its children's, and kept until
+ * the node is next restructured, so after a change only the nodes
+ * above it are recounted. Subtrees shared between persistent trees
+ * (see NoteTree.graft()) share their indexes too.
+ * 
+ * Points are drawn uniformly by walking down from the indexed node,
+ * choosing each child in proportion to its counts, which takes a
+ * step per level rather than a search of the tree. Draws return the
+ * path to the point from the indexed node (see NoteTree.nodeAt()).
+ * 
+ * A node is free when every leaf under it is fully mutable. The
+ * crossover points are the highest free nodes, as returned by
+ * NoteTree.getCrossoverReferences(): just the root, when nothing
+ * in the tree is locked. Leaves are never crossover points.
+ * 
+ * @see NoteTree#index()
+ */
+public final class TreeIndex 
+{
+	private static final int FREE = 0;
+	private static final int POINTS = 1;
+	
+	private final NoteTree _node;
+	private final int _depth;
+	private final boolean _free;
+	/**
+	 * Free nodes and crossover points under (and including) this
+	 * node, indexed by depth - _depth.
+	 */
+	private final int[][] _counts = new int[2][];
+	private final int[] _totals = new int[2];
+	private final int _mutableLeaves;
+	
+	/**
+	 * Builds the index of the given node from its children's.
+	 * @param node The node to index.
+	 */
+	TreeIndex(NoteTree node)
+	{
+		_node = node;
+		_depth = node.depth();
+		int numChildren = node.getNumChildren();
+		
+		boolean free = true;
+		int mutableLeaves = 0;
+		int levels = 1;
+		for (int i = 0; i < numChildren; i++)
+		{
+			NoteSequence child = node.getChild(i);
+			if (child == null)
+				continue;
+			if (child.getClass() == NoteTree.class)
+			{
+				TreeIndex c = ((NoteTree) child).index();
+				free &= c._free;
+				mutableLeaves += c._mutableLeaves;
+				levels = Math.max(levels, c._depth - _depth + c._counts[FREE].length);
+			}
+			else if (child.getClass() == NoteLeaf.class)
+			{
+				byte mutable = ((NoteLeaf) child).mutable();
+				if ((mutable & Mutable.ALL) != Mutable.ALL)
+					free = false;
+				if ((mutable & Mutable.ALL) != Mutable.NONE)
+					mutableLeaves++;
+			}
+		}
+		_free = free;
+		_mutableLeaves = mutableLeaves;
+		
+		_counts[FREE] = new int[levels];
+		_counts[POINTS] = new int[free ? 1 : levels];
+		if (free)
+		{
+			_counts[FREE][0] = 1;
+			_counts[POINTS][0] = 1;
+		}
+		for (int i = 0; i < numChildren; i++)
+		{
+			NoteSequence child = node.getChild(i);
+			if (child == null || child.getClass() != NoteTree.class)
+				continue;
+			TreeIndex c = ((NoteTree) child).index();
+			_add(FREE, c);
+			if (!free)
+				_add(POINTS, c);
+		}
+		for (int kind = FREE; kind <= POINTS; kind++)
+			for (int n : _counts[kind])
+				_totals[kind] += n;
+	}
+	
+	private void _add(int kind, TreeIndex child)
+	{
+		int[] from = child._counts[kind];
+		int offset = child._depth - _depth;
+		for (int d = 0; d < from.length; d++)
+			_counts[kind][offset + d] += from[d];
+	}
+	
+	private int _count(int kind, int depth)
+	{
+		int d = depth - _depth;
+		if (d < 0 || d >= _counts[kind].length)
+			return 0;
+		return _counts[kind][d];
+	}
+	
+	/**
+	 * @return True if every leaf under the node is fully mutable.
+	 */
+	public boolean free() {
+		return _free;
+	}
+	
+	/**
+	 * @return The number of crossover points under the node.
+	 */
+	public int crossoverPoints() {
+		return _totals[POINTS];
+	}
+	
+	/**
+	 * @param depth A depth in the tree.
+	 * @return The number of crossover points at that depth.
+	 */
+	public int crossoverPoints(int depth) {
+		return _count(POINTS, depth);
+	}
+	
+	/**
+	 * @param depth A depth in the tree.
+	 * @return The number of free nodes at that depth.
+	 */
+	public int freeSubTrees(int depth) {
+		return _count(FREE, depth);
+	}
+	
+	/**
+	 * @return The number of leaves under the node that can be mutated.
+	 */
+	public int mutableLeaves() {
+		return _mutableLeaves;
+	}
+	
+	/**
+	 * @param mt The random stream to draw from.
+	 * @return The path to a random crossover point, or null if there are none.
+	 */
+	public int[] randomCrossoverPoint(MersenneTwisterFast mt)
+	{
+		if (_totals[POINTS] == 0)
+			return null;
+		return _find(POINTS, mt.nextInt(_totals[POINTS]), 0);
+	}
+	
+	/**
+	 * Draws a free node at the given depth, for swapping with
+	 * another node at that depth.
+	 * @param depth The depth to draw from (at least 1, since the root can't be swapped).
+	 * @param mt The random stream to draw from.
+	 * @return The path to the node, or null if there are none.
+	 */
+	public int[] randomFreeSubTree(int depth, MersenneTwisterFast mt)
+	{
+		int count = _count(FREE, depth);
+		if (depth < 1 || count == 0)
+			return null;
+		return _find(FREE, depth, mt.nextInt(count), 0);
+	}
+	
+	/**
+	 * Draws any free node below the root, this node included.
+	 * @param mt The random stream to draw from.
+	 * @return The path to the node, or null if there are none.
+	 */
+	public int[] randomFreeSubTree(MersenneTwisterFast mt)
+	{
+		int from = Math.max(1, _depth);
+		int total = 0;
+		for (int depth = from; depth < _depth + _counts[FREE].length; depth++)
+			total += _count(FREE, depth);
+		if (total == 0)
+			return null;
+		int r = mt.nextInt(total);
+		int depth = from;
+		while (r >= _count(FREE, depth))
+			r -= _count(FREE, depth++);
+		return _find(FREE, depth, r, 0);
+	}
+	
+	/**
+	 * @param mt The random stream to draw from.
+	 * @return The path to a random leaf that can be mutated, or null if there are none.
+	 */
+	public int[] randomMutableLeaf(MersenneTwisterFast mt)
+	{
+		if (_mutableLeaves == 0)
+			return null;
+		return _findLeaf(mt.nextInt(_mutableLeaves), 0);
+	}
+	
+	/**
+	 * Finds the r'th crossover point, in order.
+	 */
+	private int[] _find(int kind, int r, int level)
+	{
+		if (kind == POINTS && _free)
+			return new int[level];
+		for (int i = 0; i < _node.getNumChildren(); i++)
+		{
+			NoteSequence child = _node.getChild(i);
+			if (child == null || child.getClass() != NoteTree.class)
+				continue;
+			TreeIndex c = ((NoteTree) child).index();
+			if (r < c._totals[kind])
+			{
+				int[] path = c._find(kind, r, level + 1);
+				path[level] = i;
+				return path;
+			}
+			r -= c._totals[kind];
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the r'th node of a kind at the given depth, in order.
+	 */
+	private int[] _find(int kind, int depth, int r, int level)
+	{
+		if (depth == _depth)
+			return new int[level];
+		for (int i = 0; i < _node.getNumChildren(); i++)
+		{
+			NoteSequence child = _node.getChild(i);
+			if (child == null || child.getClass() != NoteTree.class)
+				continue;
+			TreeIndex c = ((NoteTree) child).index();
+			int count = c._count(kind, depth);
+			if (r < count)
+			{
+				int[] path = c._find(kind, depth, r, level + 1);
+				path[level] = i;
+				return path;
+			}
+			r -= count;
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the r'th mutable leaf, in order.
+	 */
+	private int[] _findLeaf(int r, int level)
+	{
+		for (int i = 0; i < _node.getNumChildren(); i++)
+		{
+			NoteSequence child = _node.getChild(i);
+			if (child == null)
+				continue;
+			if (child.getClass() == NoteLeaf.class)
+			{
+				if ((((NoteLeaf) child).mutable() & Mutable.ALL) == Mutable.NONE)
+					continue;
+				if (r-- == 0)
+				{
+					int[] path = new int[level + 1];
+					path[level] = i;
+					return path;
+				}
+			}
+			else if (child.getClass() == NoteTree.class)
+			{
+				TreeIndex c = ((NoteTree) child).index();
+				if (r < c._mutableLeaves)
+				{
+					int[] path = c._findLeaf(r, level + 1);
+					path[level] = i;
+					return path;
+				}
+				r -= c._mutableLeaves;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,398 @@
+package net.parallaxed.bluejam.evolution;
+
+import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.Mutable;
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.PackedNote;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.exceptions.BreedException;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.playback.MIDI;
+import net.parallaxed.bluejam.util.RandomSource;
+
+/**
+ * Breeds NoteArrays (Genotype.NOTE_ARRAY), working on the packed
+ * notes directly, with the same operators as the TreeBreeder.
+ *
+ * A node of the tree is a run of notes sharing the node's position
+ * prefix, so subtree crossover swaps runs between two arrays: a
+ * free node (every note under it fully mutable) picked in the first
+ * parent, for a free node at the same depth in the second, moving
+ * the swapped notes to their new positions. Mutation changes one
+ * packed note. Children are new arrays; parents are never changed.
+ *
+ * Individuals that aren't NoteArrays (re-inserted heuristics and
+ * elites) are packed before they're bred.
+ *
+ * @see NoteArray
+ * @see TreeBreeder
+ */
+public class ArrayBreeder implements Breeder {
+
+	//////
+	/**
+	 * @return The maximum number of times we run breeding functions over any single or pair of individuals.
+	 */
+	public int maxBreedCycles() { return _maxBreedCycles; }
+	private int _maxBreedCycles = 5;
+	private Population p = null;
+	/**
+	 * Sets the maximum number of times we run a breeding
+	 * process for each Individual pair. Default = 5.
+	 *
+	 * @param cycles The number of times to runs
+	 */
+	public void maxBreedCycles(int cycles) {
+		if (cycles > 0 && cycles < 50)
+			_maxBreedCycles = cycles;
+	}
+
+	/**
+	 * @return  A value between 0 and 1 for the probability of doing crossover on the individual.
+	 */
+	public double crossoverProbability() { return _crossoverProbability; }
+	private double _crossoverProbability = 0.9;
+	/**
+	 * Sets the probability of crossover (between 0 an 1). The inverse
+	 * of this value sets the probability for mutation.
+	 *
+	 * @param probability A value between 0-1 (inclusive).
+	 */
+	public void crossoverProbability(double probability) {
+		if (probability <= 1 && probability >= 0)
+			_crossoverProbability = probability;
+	}
+	//////
+
+	/**
+	 * Instantiates an ArrayBreeder trivially.
+	 */
+	public ArrayBreeder() {}
+	/**
+	 * Instantiates an ArrayBreeder with the passed parameters.
+	 * @param maxBreedCycles
+	 * @param crossoverProbability
+	 */
+	public ArrayBreeder(int maxBreedCycles, double crossoverProbability)
+	{
+		_maxBreedCycles = maxBreedCycles;
+		_crossoverProbability = crossoverProbability;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Loops rather than recursing as the TreeBreeder does, since
+	 * array populations can be large.
+	 */
+	public void breed(Population population)
+	{
+		MersenneTwisterFast _mt = RandomSource.current();
+		p = population;
+		while (population.populationSize() < population.memberCount)
+		{
+			int c = 0;
+			Individual i1 = null;
+			// Try a few times to get it right
+			while (i1 == null && c++ < 5)
+				i1 = population.getRandomIndividual();
+
+			if (i1 == null)
+			{
+				ErrorFeedback.handle("ERROR: Population is returning null members - discontinuing", new BreedException(population));
+				return;
+			}
+
+			// Make sure we get a different reference.
+			Individual i2 = i1;
+			while (i2 == i1)
+				i2 = population.getRandomIndividual();
+
+			int numCycles = _mt.nextInt(_maxBreedCycles);
+			if (numCycles == 0)
+				numCycles++;
+
+			while (numCycles-- > 0)
+			{
+				if (_mt.nextDouble() < _crossoverProbability)
+					crossover(i1,i2);
+				else
+					mutate((_mt.nextBoolean() ? i1 : i2));
+			}
+		}
+	}
+
+	/**
+	 * Crosses two arrays of packed notes over.
+	 *
+	 * @param notes1 The notes of the first parent.
+	 * @param notes2 The notes of the second parent.
+	 * @return The notes of the two children, or null if no compatible points were found.
+	 */
+	public long[][] recombine(long[] notes1, long[] notes2)
+	{
+		MersenneTwisterFast _mt = RandomSource.current();
+		int maxAttempts = 3;
+		int freeNotes = 0;
+		for (long n : notes1)
+			if (PackedNote.mutable(n) == Mutable.ALL && PackedNote.depth(n) > 1)
+				freeNotes++;
+		
+		for (int attempts = 0; attempts < maxAttempts && freeNotes > 0; attempts++)
+		{
+			// Pick a free node above a random free note.
+			int pick = _mt.nextInt(freeNotes);
+			int i = 0;
+			for (; i < notes1.length; i++)
+				if (PackedNote.mutable(notes1[i]) == Mutable.ALL && PackedNote.depth(notes1[i]) > 1 && pick-- == 0)
+					break;
+			int leafDepth = PackedNote.depth(notes1[i]);
+			
+			// The nodes above the note are free down from the highest
+			// free one; take one below the bar where there's room, as
+			// the TreeBreeder gets greedy.
+			int highest = leafDepth;
+			while (highest > 1 && _run(notes1, i, highest - 1) != null)
+				highest--;
+			if (highest == leafDepth)
+				continue;
+			int lowest = Math.max(highest, Math.min(2, leafDepth - 1));
+			int depth = lowest + _mt.nextInt(leafDepth - lowest);
+			int[] run = _run(notes1, i, depth);
+			int from1 = run[0], to1 = run[1];
+			int span = PackedNote.span(depth);
+			int start1 = PackedNote.position(notes1[i]) & ~(span - 1);
+
+			// Any free node at the same depth in the second parent.
+			int[] match = _randomFreeNode(notes2, depth, _mt);
+			if (match == null)
+				continue;
+			int from2 = match[0], to2 = match[1];
+			int start2 = PackedNote.position(notes2[from2]) & ~(span - 1);
+
+			return new long[][] {
+					_splice(notes1, from1, to1, notes2, from2, to2, start1 - start2),
+					_splice(notes2, from2, to2, notes1, from1, to1, start2 - start1)
+			};
+		}
+		return null;
+	}
+
+	/**
+	 * @return The run [from, to) of notes under the node at the given depth above notes[i], or null if it isn't free.
+	 */
+	private static int[] _run(long[] notes, int i, int depth)
+	{
+		int span = PackedNote.span(depth);
+		int start = PackedNote.position(notes[i]) & ~(span - 1);
+		int from = i, to = i + 1;
+		while (from > 0 && PackedNote.position(notes[from - 1]) >= start)
+			from--;
+		while (to < notes.length && PackedNote.position(notes[to]) < start + span)
+			to++;
+		return _free(notes, from, to, depth) ? new int[] { from, to } : null;
+	}
+	
+	/**
+	 * @return True if the notes [from, to) are fully mutable, and all lie below the given depth.
+	 */
+	private static boolean _free(long[] notes, int from, int to, int depth)
+	{
+		for (int i = from; i < to; i++)
+			if (PackedNote.depth(notes[i]) <= depth || PackedNote.mutable(notes[i]) != Mutable.ALL)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Picks one of the free nodes at the given depth uniformly,
+	 * in a single pass over the notes.
+	 * @return The run [from, to) of notes under the node, or null if there are none.
+	 */
+	private static int[] _randomFreeNode(long[] notes, int depth, MersenneTwisterFast _mt)
+	{
+		int span = PackedNote.span(depth);
+		int found = 0;
+		int[] chosen = null;
+		int i = 0;
+		while (i < notes.length)
+		{
+			if (PackedNote.depth(notes[i]) <= depth)
+			{
+				i++;
+				continue;
+			}
+			int start = PackedNote.position(notes[i]) & ~(span - 1);
+			int from = i;
+			while (i < notes.length && PackedNote.position(notes[i]) < start + span)
+				i++;
+			if (_free(notes, from, i, depth) && _mt.nextInt(++found) == 0)
+				chosen = new int[] { from, i };
+		}
+		return chosen;
+	}
+
+	/**
+	 * @return A copy of notes with [from, to) replaced by donor[donorFrom, donorTo), moved by shift positions.
+	 */
+	private static long[] _splice(long[] notes, int from, int to, long[] donor, int donorFrom, int donorTo, int shift)
+	{
+		int length = donorTo - donorFrom;
+		long[] child = new long[from + length + (notes.length - to)];
+		System.arraycopy(notes, 0, child, 0, from);
+		for (int i = 0; i < length; i++)
+		{
+			long n = donor[donorFrom + i];
+			child[from + i] = PackedNote.place(n, PackedNote.depth(n), PackedNote.position(n) + shift);
+		}
+		System.arraycopy(notes, to, child, from + length, notes.length - to);
+		return child;
+	}
+
+	private void crossover(Individual i1, Individual i2)
+	{
+		NoteArray na1 = _packed(i1);
+		NoteArray na2 = _packed(i2);
+		if (na1 == null || na2 == null)
+			return;
+		long[][] children = recombine(na1.notes(), na2.notes());
+		if (children == null)
+		{
+			ErrorFeedback.handle("WARNING: No compatible crossover points found for "+na1.toString()+" and " +na2.toString()+"." , new BreedException());
+			return;
+		}
+		try {
+			p.addIndividual(new Individual(new NoteArray(children[0], na1.sequenceParameters()), i1.getHeuristic()));
+			p.addIndividual(new Individual(new NoteArray(children[1], na2.sequenceParameters()), i2.getHeuristic()));
+		}
+		catch (IndividualAddException e) {
+			// population full - ignore this.
+		}
+	}
+
+	/**
+	 * Mutates a copy of one of the individual's notes, with the
+	 * operators of TreeBreeder. If no operator applies, the notes
+	 * are reproduced, as a new Individual sharing them.
+	 */
+	private void mutate(Individual i)
+	{
+		MersenneTwisterFast _mt = RandomSource.current();
+		NoteArray na = _packed(i);
+		if (na == null)
+			return;
+		long[] notes = na.notes();
+		try {
+			int mutableNotes = 0;
+			for (long n : notes)
+				if ((PackedNote.mutable(n) & Mutable.ALL) != Mutable.NONE)
+					mutableNotes++;
+			if (mutableNotes > 0)
+			{
+				int pick = _mt.nextInt(mutableNotes);
+				int index = 0;
+				for (; index < notes.length; index++)
+					if ((PackedNote.mutable(notes[index]) & Mutable.ALL) != Mutable.NONE && pick-- == 0)
+						break;
+				long[] child = notes.clone();
+				if (mutate(child, index, _mt))
+				{
+					p.addIndividual(new Individual(new NoteArray(child, na.sequenceParameters()), i.getHeuristic()));
+					return;
+				}
+			}
+			p.addIndividual(new Individual(na, i.getHeuristic()));
+		}
+		catch (IndividualAddException e) {
+
+		}
+	}
+
+	/**
+	 * Applies a random mutation operator to notes[index], in place.
+	 * @param notes The packed notes.
+	 * @param index The note to mutate.
+	 * @return False if no operator could be applied.
+	 */
+	public boolean mutate(long[] notes, int index, MersenneTwisterFast _mt)
+	{
+		long n = notes[index];
+		byte mutable = PackedNote.mutable(n);
+		int maxAttempts = 3;
+		for (int attempts = 0; attempts < maxAttempts; attempts++)
+		{
+			int mutClass = _mt.nextInt(2);
+			if (mutClass == 0 && (Mutable.PITCH & mutable) != 0)
+			{
+				// Up or down a whole note.
+				int step = _mt.nextBoolean() ? 2 : -2;
+				Pitch pitch = PackedNote.pitchClass(n);
+				int octave = PackedNote.octave(n);
+				long m = n;
+				if (pitch == Pitch.R)
+					m = PackedNote.pitchRelative(n, PackedNote.pitchRelative(n) + step);
+				else if (pitch != null && octave >= -1)
+				{
+					// Steps past B or C carry into the next octave, and
+					// turn back at the ends of the MIDI range.
+					int number = (octave + 1) * 12 + MIDI.position(pitch) + step;
+					if (number < 0 || number > 127)
+						number -= 2 * step;
+					m = PackedNote.pitchClass(n, MIDI.numberToNote(number).pitchClass());
+					m = PackedNote.octave(m, number / 12 - 1);
+				}
+				if (m != n)
+				{
+					notes[index] = m;
+					return true;
+				}
+				continue;
+			}
+			if (mutClass == 1 && (Mutable.RHYTHM & mutable) != 0)
+			{
+				switch (_mt.nextInt(3)) {
+					// Swing remove, from both notes of the pair.
+					case 0:
+						int first = (index > 0 && PackedNote.swingNext(notes[index - 1])) ? index - 1 : index;
+						int last = Math.min(first + 1, notes.length - 1);
+						long before = notes[first], beforeLast = notes[last];
+						if (PackedNote.swingNext(notes[first]) && first + 1 < notes.length)
+							notes[first + 1] = PackedNote.swingPercent(notes[first + 1], 0);
+						notes[first] = PackedNote.swingNext(PackedNote.swingPercent(notes[first], 0), false);
+						if (first != index)
+							notes[index] = PackedNote.swingPercent(notes[index], 0);
+						// Nothing was swung, so try another operator.
+						if (notes[first] == before && notes[last] == beforeLast)
+							continue;
+						return true;
+					case 1:
+						notes[index] = PackedNote.rest(n, !PackedNote.rest(n));
+						return true;
+					case 2:
+						// Adding notes isn't supported (see TreeBreeder),
+						// so try another operator.
+						continue;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The individual's notes as a NoteArray, packing them if they're a tree.
+	 */
+	private static NoteArray _packed(Individual i)
+	{
+		NoteSequence notes = i.getNoteSequence();
+		if (notes instanceof NoteArray)
+			return (NoteArray) notes;
+		if (notes instanceof NoteTree)
+			return new NoteArray((NoteTree) notes);
+		return null;
+	}
+}
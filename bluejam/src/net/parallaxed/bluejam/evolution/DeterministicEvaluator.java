@@ -0,0 +1,26 @@
+package net.parallaxed.bluejam.evolution;
+
+/**
+ * An IndividualEvaluator whose score depends only on the content
+ * of the individual's notes, its heuristic and the Jam, so equal
+ * trees always score the same. Scores from such evaluators are
+ * shared between individuals through the FitnessCache.
+ * 
+ * @see FitnessCache
+ */
+public interface DeterministicEvaluator extends IndividualEvaluator {
+	
+	/**
+	 * Evaluators that are only deterministic in some configurations
+	 * (e.g. FitnessContour with fixed nodes) return false otherwise.
+	 * @return True if evaluate() currently gives repeatable scores.
+	 */
+	public boolean deterministic();
+	
+	/**
+	 * Identifies the evaluator's current configuration, so scores
+	 * computed under one configuration aren't reused under another.
+	 * @return A number that changes when the configuration does.
+	 */
+	public long configuration();
+}
@@ -0,0 +1,162 @@
+package net.parallaxed.bluejam.evolution;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A roulette wheel over a set of weights, kept as a Fenwick
+ * (binary indexed) tree of their sums, so that finding the index
+ * under a point on the wheel and taking an index off the wheel
+ * both take logarithmic time. Selecting without replacement costs
+ * O(log n) a winner, rather than a pass over the population.
+ *
+ * The wheel is built in linear time, and may be rebuilt over new
+ * weights of the same length without allocating.
+ *
+ * @see SelectProportional
+ * @see SelectStochasticUniversal
+ */
+public final class FenwickWheel
+{
+	private final double[] _weights;
+	// _tree[i] is the sum of the weights of indices i - (i & -i) to i - 1.
+	private final double[] _tree;
+	// The highest power of two no greater than the size.
+	private final int _top;
+	private int _left = 0;
+
+	/**
+	 * @param size The number of weights on the wheel.
+	 */
+	public FenwickWheel(int size)
+	{
+		_weights = new double[size];
+		_tree = new double[size + 1];
+		int top = 1;
+		while (top <= size >> 1)
+			top <<= 1;
+		_top = top;
+	}
+
+	/**
+	 * Puts the given weights on the wheel. Negative and NaN
+	 * weights count as zero.
+	 * @param weights The weights, one per index.
+	 * @return False if no weight is positive, or they add up to
+	 * infinity, and nothing can be drawn.
+	 */
+	public boolean build(double[] weights)
+	{
+		_left = 0;
+		for (int i = 0; i < _weights.length; i++)
+			if ((_weights[i] = (weights[i] > 0) ? weights[i] : 0) > 0)
+				_left++;
+		_sum();
+		double total = total();
+		return total > 0 && !Double.isInfinite(total);
+	}
+
+	/**
+	 * @return The number of indices with weight left on the wheel.
+	 */
+	public int left() {
+		return _left;
+	}
+
+	/**
+	 * @return The sum of the weights left on the wheel.
+	 */
+	public double total() {
+		return prefix(_weights.length - 1);
+	}
+
+	/**
+	 * @param i An index on the wheel.
+	 * @return The sum of the weights of indices 0 to i, the end of
+	 * the slice of the wheel under i.
+	 */
+	public double prefix(int i)
+	{
+		double sum = 0;
+		for (int j = i + 1; j > 0; j -= j & -j)
+			sum += _tree[j];
+		return sum;
+	}
+
+	/**
+	 * Takes an index off the wheel, by setting its weight to zero.
+	 * @param i The index to take off.
+	 */
+	public void remove(int i)
+	{
+		double weight = _weights[i];
+		if (weight == 0)
+			return;
+		_weights[i] = 0;
+		_left--;
+		for (int j = i + 1; j < _tree.length; j += j & -j)
+			_tree[j] -= weight;
+	}
+
+	/**
+	 * Finds the index whose slice of the wheel holds the point,
+	 * i.e. the first whose prefix() is greater than it.
+	 * @param point A point from 0 to total().
+	 * @return The index, or -1 if no weight is left.
+	 */
+	public int find(double point)
+	{
+		if (_left == 0)
+			return -1;
+		int i = _descend(point);
+		if (i < _weights.length && _weights[i] > 0)
+			return i;
+		// The sums have drifted from taking weights off; add
+		// them up again.
+		_sum();
+		i = _descend(Math.min(point, total()));
+		if (i < _weights.length && _weights[i] > 0)
+			return i;
+		i = _weights.length - 1;
+		while (_weights[i] == 0)
+			i--;
+		return i;
+	}
+
+	/**
+	 * Spins the wheel.
+	 * @param mt The random number generator to draw with.
+	 * @return An index, drawn in proportion to its weight, or -1
+	 * if no weight is left.
+	 */
+	public int draw(MersenneTwisterFast mt) {
+		return find(mt.nextDouble() * total());
+	}
+
+	/**
+	 * @return The first index whose prefix() is greater than point,
+	 * or the size of the wheel if there's none.
+	 */
+	private int _descend(double point)
+	{
+		int i = 0;
+		for (int step = _top; step > 0; step >>= 1)
+			if (i + step < _tree.length && _tree[i + step] <= point)
+				point -= _tree[i += step];
+		return i;
+	}
+
+	/**
+	 * Builds the tree of sums over the weights, in linear time.
+	 */
+	private void _sum()
+	{
+		for (int i = 1; i < _tree.length; i++)
+			_tree[i] = _weights[i - 1];
+		for (int i = 1; i < _tree.length; i++)
+		{
+			int parent = i + (i & -i);
+			if (parent < _tree.length)
+				_tree[parent] += _tree[i];
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.PopulationParameters;
+
+/**
+ * Caches the scores of deterministic evaluators by the content of
+ * the NoteTree (or NoteArray) evaluated, rather than by Individual.
+ * 
+ * Every generation rebuilds its individuals (re-inserted heuristics,
+ * elites, clones from crossover), so the same tree is often scored
+ * many times over. Scores are keyed by the evaluator and its
+ * configuration, the content hash of the tree and its heuristic,
+ * and the Jam in force, and survive from one generation to the next.
+ * Each score is stored with the packed notes it was computed for,
+ * and the Jam and heuristic hashes, so a key that collides with
+ * another sequence's is recomputed rather than trusted.
+ * 
+ * The cache is bounded; once full, the least recently used scores
+ * are evicted. It's split into stripes, each with its own lock, so
+ * a ParallelEvaluator's workers rarely wait on each other.
+ * 
+ * Evaluators that aren't DeterministicEvaluators, or say they aren't
+ * deterministic at the moment, and sequences that aren't NoteTrees
+ * or NoteArrays, are passed straight through.
+ */
+public class FitnessCache 
+{
+	public static final int DEFAULT_CAPACITY = 8192;
+	private static final int STRIPES = 16;
+	private static final long HASH_PRIME = 0x100000001b3L;
+	
+	private static FitnessCache _instance = null;
+	
+	/**
+	 * @return The cache shared by all individuals.
+	 */
+	public static synchronized FitnessCache getInstance()
+	{
+		if (_instance == null)
+			_instance = new FitnessCache(DEFAULT_CAPACITY);
+		return _instance;
+	}
+	
+	private final Stripe[] _stripes = new Stripe[STRIPES];
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	
+	/**
+	 * Creates a cache holding at most capacity scores.
+	 * @param capacity The number of scores to keep.
+	 */
+	public FitnessCache(int capacity)
+	{
+		for (int i = 0; i < STRIPES; i++)
+			_stripes[i] = new Stripe();
+		capacity(capacity);
+	}
+	
+	/**
+	 * Evaluates the individual with the given evaluator, reusing
+	 * a cached score for an equal tree where there is one.
+	 * @param evaluator The evaluator to score the individual with.
+	 * @param individual The individual to score.
+	 * @return The fitness of the individual.
+	 */
+	public double evaluate(IndividualEvaluator evaluator, Individual individual)
+	{
+		if (!(evaluator instanceof DeterministicEvaluator))
+			return evaluator.evaluate(individual);
+		DeterministicEvaluator d = (DeterministicEvaluator) evaluator;
+		NoteSequence notes = individual.getNoteSequence();
+		if (!d.deterministic() || notes == null)
+			return evaluator.evaluate(individual);
+		// Trees keep their packed notes until they change.
+		NoteArray packed;
+		if (notes.getClass() == NoteTree.class)
+			packed = ((NoteTree) notes).packed();
+		else if (notes.getClass() == NoteArray.class)
+			packed = (NoteArray) notes;
+		else
+			return evaluator.evaluate(individual);
+		
+		long jam = _jamHash(individual);
+		long heuristic = _heuristicHash(individual);
+		Long key = key(d, packed.contentHash(), jam, heuristic);
+		Stripe s = _stripes[(int) (key ^ (key >>> 32)) & (STRIPES - 1)];
+		Score cached;
+		synchronized (s) {
+			cached = s.get(key);
+		}
+		if (cached != null && cached.matches(d, packed.notes(), jam, heuristic))
+		{
+			_hits.incrementAndGet();
+			return cached.fitness;
+		}
+		_misses.incrementAndGet();
+		double fitness = evaluator.evaluate(individual);
+		synchronized (s) {
+			s.put(key, new Score(d, packed.notes(), jam, heuristic, fitness));
+		}
+		return fitness;
+	}
+	
+	/**
+	 * Builds the cache key for evaluating a sequence.
+	 * @param evaluator The evaluator scoring the sequence.
+	 * @param contentHash The content hash of the sequence.
+	 * @param jam The content hash of the Jam in force, or 0.
+	 * @param heuristic The hash of the individual's heuristic, or 0.
+	 * @return The key to cache the score under.
+	 */
+	protected long key(DeterministicEvaluator evaluator, long contentHash, long jam, long heuristic)
+	{
+		long h = evaluator.getClass().getName().hashCode();
+		h = (h ^ evaluator.configuration()) * HASH_PRIME;
+		h = (h ^ contentHash) * HASH_PRIME;
+		h = (h ^ jam) * HASH_PRIME;
+		return (h ^ heuristic) * HASH_PRIME;
+	}
+	
+	private static long _jamHash(Individual individual)
+	{
+		PopulationParameters params = individual.getParameters();
+		JamParamters jam = null;
+		if (params != null && params.getSequenceParameters() != null)
+			jam = params.getSequenceParameters().Jam;
+		return (jam == null) ? 0 : jam.contentHash();
+	}
+	
+	private static long _heuristicHash(Individual individual)
+	{
+		Heuristic heuristic = individual.getHeuristic();
+		if (heuristic instanceof NoteTree)
+			return ((NoteTree) heuristic).packed().contentHash();
+		if (heuristic != null)
+			return System.identityHashCode(heuristic);
+		return 0;
+	}
+	
+	/**
+	 * Sets the number of scores to keep. Any excess is evicted
+	 * as new scores are added.
+	 * @param capacity The number of scores to keep (at least one per stripe).
+	 */
+	public void capacity(int capacity)
+	{
+		int perStripe = Math.max(1, capacity / STRIPES);
+		for (Stripe s : _stripes)
+			synchronized (s) {
+				s.capacity = perStripe;
+			}
+	}
+	
+	/**
+	 * @return The number of scores currently cached.
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe s : _stripes)
+			synchronized (s) {
+				size += s.size();
+			}
+		return size;
+	}
+	
+	/**
+	 * Discards every cached score and resets the counters.
+	 */
+	public void clear()
+	{
+		for (Stripe s : _stripes)
+			synchronized (s) {
+				s.clear();
+			}
+		_hits.set(0);
+		_misses.set(0);
+	}
+	
+	/**
+	 * @return The number of evaluations answered from the cache.
+	 */
+	public long hits() {
+		return _hits.get();
+	}
+	
+	/**
+	 * @return The number of evaluations that had to be computed.
+	 */
+	public long misses() {
+		return _misses.get();
+	}
+	
+	/**
+	 * A cached score, and what it was computed for.
+	 */
+	private static final class Score
+	{
+		final Class<?> evaluator;
+		final long configuration;
+		final long[] notes;
+		final long jam;
+		final long heuristic;
+		final double fitness;
+		
+		Score(DeterministicEvaluator evaluator, long[] notes, long jam, long heuristic, double fitness)
+		{
+			this.evaluator = evaluator.getClass();
+			this.configuration = evaluator.configuration();
+			this.notes = notes;
+			this.jam = jam;
+			this.heuristic = heuristic;
+			this.fitness = fitness;
+		}
+		
+		boolean matches(DeterministicEvaluator evaluator, long[] notes, long jam, long heuristic)
+		{
+			return this.evaluator == evaluator.getClass()
+				&& this.configuration == evaluator.configuration()
+				&& this.jam == jam && this.heuristic == heuristic
+				&& Arrays.equals(this.notes, notes);
+		}
+	}
+	
+	/**
+	 * One lock's worth of the cache, in access order, dropping
+	 * its least recently used entry when over capacity.
+	 */
+	private static class Stripe extends LinkedHashMap<Long, Score>
+	{
+		private static final long serialVersionUID = 1L;
+		int capacity = 1;
+		
+		Stripe() {
+			super(16, 0.75f, true);
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<Long, Score> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -6,11 +6,13 @@ import ec.util.MersenneTwisterFast;
 
 import net.parallaxed.bluejam.Individual;
 import net.parallaxed.bluejam.Note;
+import net.parallaxed.bluejam.NoteArray;
 import net.parallaxed.bluejam.NoteSequence;
 import net.parallaxed.bluejam.NoteTree;
 import net.parallaxed.bluejam.PopulationParameters;
 import net.parallaxed.bluejam.evolution.NoteContext.Contour;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * Computes a fitness value for the contour of the 
@@ -19,24 +21,66 @@ import net.parallaxed.bluejam.exceptions.ErrorFeedback;
  * This is optimised to work with NoteTree, but will
  * return a value for sequences that are not NoteTrees.
  * 
+ * By default the two nodes compared are picked at random on
+ * each evaluation. Fixing them with fixNodes() makes the score
+ * a function of the tree alone, so it can be cached.
+ * 
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
-public class FitnessContour implements IndividualEvaluator {
-	
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
+public class FitnessContour implements DeterministicEvaluator {
 	
 	private static FitnessContour _instance = null;
+	/**
+	 * The fixed pair of root children to compare, packed into
+	 * one field so they're always read together, or -1 if
+	 * they're picked at random.
+	 */
+	private volatile long _fixedNodes = -1;
 	
 	private FitnessContour() {	}
 	
-	public static FitnessContour getInstance()
+	public static synchronized FitnessContour getInstance()
 	{
 		if (_instance == null)
 			_instance = new FitnessContour();
 		return _instance;
 	}
 	
+	/**
+	 * Always compares the same two children of the root, clamped
+	 * to the number of children a tree has.
+	 * @param first The index of the first child.
+	 * @param second The index of the second child.
+	 */
+	public void fixNodes(int first, int second)
+	{
+		if (first < 0 || second < 0)
+			return;
+		_fixedNodes = ((long) first << 32) | second;
+	}
+	
+	/**
+	 * Goes back to comparing two random children of the root.
+	 */
+	public void randomNodes() {
+		_fixedNodes = -1;
+	}
+	
+	/**
+	 * @return True if the compared nodes are fixed.
+	 */
+	public boolean deterministic() {
+		return _fixedNodes != -1;
+	}
+	
+	/**
+	 * @return The fixed node pair, or -1.
+	 */
+	public long configuration() {
+		return _fixedNodes;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -57,18 +101,31 @@ public class FitnessContour implements IndividualEvaluator {
 		
 		// Get two random nodes for contour checking.
 		// Picks one of root[0-sequenceLength] (i.e. two of nodes under the root].
+		if (notes.getClass() == NoteArray.class)
+			notes = ((NoteArray) notes).view();
 		if (notes.getClass() == NoteTree.class)
 		{
 			try {
 				nodes = new NoteSequence[2];
 				NoteTree _nt = (NoteTree) notes;
-				int firstNode = _mt.nextInt(_nt.getNumChildren());
-				int secondNode = _mt.nextInt(_nt.getNumChildren());			
+				int children = _nt.getNumChildren();
+				int firstNode, secondNode;
+				long fixed = _fixedNodes;
+				if (fixed != -1)
+				{
+					firstNode = Math.min((int) (fixed >>> 32), children - 1);
+					secondNode = Math.min((int) fixed, children - 1);
+				}
+				else
+				{
+					MersenneTwisterFast _mt = RandomSource.current();
+					firstNode = _mt.nextInt(children);
+					secondNode = _mt.nextInt(children);
+					// Select a different random node if it's the same.
+					while (secondNode == firstNode && children > 1)
+						secondNode = _mt.nextInt(children);
+				}
 				nodes[0] =  _nt.getChild(firstNode);
-			
-				// Select a different random node if it's the same.
-				while (secondNode == firstNode)
-					secondNode = _mt.nextInt(_nt.getNumChildren());
 				nodes[1] =  _nt.getChild(secondNode);
 				
 				
@@ -5,6 +5,7 @@ import net.parallaxed.bluejam.Individual;
 import net.parallaxed.bluejam.Note;
 import net.parallaxed.bluejam.NoteCollection;
 import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
 
 /**
  * Implements a measure of fitness by comparing the result
@@ -30,7 +31,7 @@ import net.parallaxed.bluejam.NoteSequence;
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
-public class FitnessDistance implements IndividualEvaluator {
+public class FitnessDistance implements DeterministicEvaluator {
 	
 	private static FitnessDistance _instance = null;
 	/**
@@ -53,6 +54,21 @@ public class FitnessDistance implements IndividualEvaluator {
 		return _instance;
 	}
 	
+	/**
+	 * The score depends only on the notes and the heuristic.
+	 * @return true
+	 */
+	public boolean deterministic() {
+		return true;
+	}
+	
+	/**
+	 * @return The DistanceThreshold in use.
+	 */
+	public long configuration() {
+		return DistanceThreshold;
+	}
+	
 	/**
 	 * Compare each note in the Sequence property for property.
 	 * 
@@ -68,12 +84,19 @@ public class FitnessDistance implements IndividualEvaluator {
 		NoteSequence _notes = individual.getNoteSequence();
 		NoteSequence _heuristic = (NoteSequence) individual.getHeuristic();
 		Iterator<Note> notes = _notes.getNotes();
-		Iterator<Note> hNotes = _heuristic.getNotes();
 		int score = 0;
 		
-		NoteCollection heuristicNotes = new NoteCollection();
-		while (hNotes.hasNext())
-			heuristicNotes.add(hNotes.next());
+		// Heuristic trees keep their leaves, shared by every
+		// individual built from them.
+		Note[] heuristicNotes;
+		if (_heuristic.getClass() == NoteTree.class)
+			heuristicNotes = ((NoteTree) _heuristic).leaves();
+		else
+		{
+			NoteCollection hNotes = new NoteCollection();
+			hNotes.addNotes(_heuristic);
+			heuristicNotes = hNotes.toArray(new Note[hNotes.size()]);
+		}
 		
 		int window = 0;
 		if (DistanceThreshold % 2 == 0)
@@ -96,9 +119,9 @@ public class FitnessDistance implements IndividualEvaluator {
 			{
 				if (window < 0)
 					continue;
-				if (window >= heuristicNotes.size())
+				if (window >= heuristicNotes.length)
 					continue;
-				n[i++] = heuristicNotes.get(window);				
+				n[i++] = heuristicNotes[window];				
 			}
 						
 			Note sequenceNote = notes.next();
@@ -11,6 +11,7 @@ import net.parallaxed.bluejam.NoteSequence;
 
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.playback.MIDI;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * This class selects a random fitness method to apply.
@@ -31,8 +32,6 @@ public class FitnessInterval implements IndividualEvaluator {
 	 */
 	public static int BackoffPercent = 20;
 	
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
-	
 	private FitnessInterval() {	}
 	
 	/**
@@ -56,6 +55,7 @@ public class FitnessInterval implements IndividualEvaluator {
 	public double evaluate(Individual individual)	
 	{
 		NoteSequence notes = individual.getNoteSequence();
+		MersenneTwisterFast _mt = RandomSource.current();
 		
 		try {
 			// TODO REWORK This is dirty and inefficient.
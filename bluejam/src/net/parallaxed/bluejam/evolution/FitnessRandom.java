@@ -2,6 +2,7 @@ package net.parallaxed.bluejam.evolution;
 
 import ec.util.MersenneTwisterFast;
 import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * Picks a random fitness evaluation method and returns
@@ -14,7 +15,6 @@ import net.parallaxed.bluejam.Individual;
  */
 public class FitnessRandom implements IndividualEvaluator {
 	private static FitnessRandom _instance = null;
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	private static final IndividualEvaluator[] _evaluators =  
 	{ 	FitnessContour.getInstance(),
 		FitnessDistance.getInstance(),
@@ -32,6 +32,7 @@ public class FitnessRandom implements IndividualEvaluator {
 	}
 	
 	public double evaluate(Individual individual)	{
+		MersenneTwisterFast _mt = RandomSource.current();
 		return _evaluators[_mt.nextInt(_evaluators.length)].evaluate(individual);
 	}
 }
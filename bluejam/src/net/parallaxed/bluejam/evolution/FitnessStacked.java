@@ -1,6 +1,8 @@
 package net.parallaxed.bluejam.evolution;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import net.parallaxed.bluejam.Individual;
 
@@ -29,16 +31,18 @@ import net.parallaxed.bluejam.Individual;
 public class FitnessStacked implements IndividualEvaluator {
 	
 	private static FitnessStacked _instance = null;
-	private volatile ArrayList<Individual> _measured = new ArrayList<Individual>();
+	// Individuals may be evaluated concurrently by a ParallelEvaluator.
+	private final Set<Individual> _measured = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Individual, Boolean>()));
 	private FitnessInterval _fi = FitnessInterval.getInstance();
 	private FitnessDistance _fd = FitnessDistance.getInstance();
 	private FitnessContour _fc = FitnessContour.getInstance();	
+	private FitnessCache _cache = FitnessCache.getInstance();
 	private FitnessStacked() {	}
 	
 	/**
 	 * @return An instance of FitnessStacked.
 	 */
-	public static FitnessStacked getInstance()
+	public static synchronized FitnessStacked getInstance()
 	{
 		if (_instance == null)
 			_instance = new FitnessStacked();
@@ -49,9 +53,8 @@ public class FitnessStacked implements IndividualEvaluator {
 	 * {@inheritDoc}
 	 */
 	public double evaluate(Individual individual)	{
-		if (!_measured.contains(individual))
+		if (_measured.add(individual))
 		{
-			_measured.add(individual);
 			// This call is crucial - invalidate it so we can
 			// get called again later.
 			individual.invalidate();
@@ -63,9 +66,9 @@ public class FitnessStacked implements IndividualEvaluator {
 		
 		double _distanceFitness = -1;
 		if (individual.getHeuristic() != null)
-			_fd.evaluate(individual);
+			_cache.evaluate(_fd, individual);
 		
-		double _contourFitness = _fc.evaluate(individual);
+		double _contourFitness = _cache.evaluate(_fc, individual);
 		_measured.remove(individual);
 		// Return a combined weighted fitness for the individual.
 		if (_distanceFitness != -1) 
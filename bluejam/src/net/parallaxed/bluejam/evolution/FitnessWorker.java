@@ -0,0 +1,184 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+
+/**
+ * The worker process of a RemoteEvaluator: scores batches of
+ * individuals read from standard input with the registered evaluator
+ * for a fitness type, and writes the scores to standard output.
+ * 
+ * A batch is its id, a count and that many individuals; each is
+ * written as its Jam and sequence parameters, its notes (packed),
+ * and its heuristic's notes if it has one. The reply is the id,
+ * the count and a score for each, NaN where evaluation failed.
+ * Anything the evaluators print goes to standard error.
+ * 
+ * <pre>java net.parallaxed.bluejam.evolution.FitnessWorker STACKED</pre>
+ * 
+ * @see RemoteEvaluator
+ */
+public final class FitnessWorker
+{
+	private FitnessWorker() { }
+	
+	/**
+	 * @param args The name of the FitnessType to evaluate with.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		FitnessType type = FitnessType.valueOf(args[0]);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		// ErrorFeedback prints to System.out; keep the replies clean.
+		System.setOut(System.err);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		HashMap<Long, SequenceParameters> parameters = new HashMap<Long, SequenceParameters>();
+		
+		while (true)
+		{
+			int id;
+			try { id = in.readInt(); }
+			catch (EOFException e) { return; }
+			int count = in.readInt();
+			double[] scores = new double[count];
+			for (int i = 0; i < count; i++)
+			{
+				Individual individual = read(in, type, parameters);
+				try {
+					scores[i] = ParallelEvaluator.score(individual);
+				}
+				catch (RuntimeException e) {
+					scores[i] = Double.NaN;
+				}
+			}
+			out.writeInt(id);
+			out.writeInt(count);
+			for (double s : scores)
+				out.writeDouble(s);
+			out.flush();
+		}
+	}
+	
+	/**
+	 * @return True if the individual can be written by write().
+	 */
+	static boolean portable(Individual individual)
+	{
+		NoteSequence notes = individual.getNoteSequence();
+		Heuristic h = individual.getHeuristic();
+		return (notes instanceof NoteTree || notes instanceof NoteArray)
+			&& (h == null || h instanceof NoteTree)
+			&& individual.getParameters() != null 
+			&& individual.getParameters().getSequenceParameters() != null
+			&& individual.getParameters().getSequenceParameters().Jam != null;
+	}
+	
+	/**
+	 * Writes a portable individual.
+	 */
+	static void write(DataOutputStream out, Individual individual) throws IOException
+	{
+		SequenceParameters sp = individual.getParameters().getSequenceParameters();
+		JamParamters jam = sp.Jam;
+		out.writeByte(jam.rootPitch().ordinal());
+		out.writeUTF(jam.scale().getClass().getName());
+		out.writeInt((Integer) jam.getParameter(JamParamters.Config.TEMPO));
+		out.writeByte(jam.minOctave());
+		out.writeByte(jam.maxOctave());
+		out.writeInt(sp.length);
+		out.writeUTF(sp.timeSignature());
+		
+		NoteSequence notes = individual.getNoteSequence();
+		out.writeBoolean(notes instanceof NoteArray);
+		_write(out, MigrationProtocol.pack(notes));
+		Heuristic h = individual.getHeuristic();
+		if (h == null)
+			out.writeInt(-1);
+		else
+			_write(out, MigrationProtocol.pack(h));
+	}
+	
+	/**
+	 * Reads an individual written by write().
+	 * @param parameters Parameters already read, by their content, so
+	 * individuals of one Jam share them.
+	 */
+	static Individual read(DataInputStream in, FitnessType type, HashMap<Long, SequenceParameters> parameters) throws IOException
+	{
+		Pitch pitch = Pitch.values()[in.readByte()];
+		String scale = in.readUTF();
+		int tempo = in.readInt();
+		int minOctave = in.readByte();
+		int maxOctave = in.readByte();
+		int length = in.readInt();
+		String timeSignature = in.readUTF();
+		
+		long key = (((pitch.ordinal() * 31L + scale.hashCode()) * 31 + tempo) * 31 + minOctave) * 31 + maxOctave;
+		key = (key * 31 + length) * 31 + timeSignature.hashCode();
+		SequenceParameters sp = parameters.get(key);
+		if (sp == null)
+		{
+			JamParamters jam = new JamParamters(pitch, _scale(scale), tempo);
+			jam.setRange(minOctave, maxOctave);
+			sp = new SequenceParameters(jam);
+			sp.length = length;
+			sp.timeSignature(timeSignature);
+			parameters.put(key, sp);
+		}
+		
+		boolean asArray = in.readBoolean();
+		NoteArray notes = new NoteArray(_read(in, in.readInt()), sp);
+		int heuristic = in.readInt();
+		NoteTree h = (heuristic < 0) ? null : new NoteArray(_read(in, heuristic), sp).toTree();
+		
+		PopulationParameters params = new PopulationParameters();
+		try {
+			params.setParameter(PopulationParameters.SEQUENCE, sp);
+			params.setParameter(PopulationParameters.FITNESS_TYPE, type);
+			params.setParameter(PopulationParameters.GENOTYPE, asArray ? Genotype.NOTE_ARRAY : Genotype.NOTE_TREE);
+		}
+		catch (Exception e) { throw new IOException(e.getMessage(), e); }
+		return new Individual(asArray ? notes : notes.toTree(), params, h);
+	}
+	
+	private static void _write(DataOutputStream out, long[] notes) throws IOException
+	{
+		out.writeInt(notes.length);
+		for (long n : notes)
+			out.writeLong(n);
+	}
+	
+	private static long[] _read(DataInputStream in, int count) throws IOException
+	{
+		long[] notes = new long[count];
+		for (int i = 0; i < count; i++)
+			notes[i] = in.readLong();
+		return notes;
+	}
+	
+	private static Scale _scale(String name) throws IOException
+	{
+		try {
+			return (Scale) Class.forName(name).getMethod("getInstance").invoke(null);
+		}
+		catch (Exception e) { throw new IOException("Unknown scale "+name, e); }
+	}
+}
@@ -1,5 +1,8 @@
 package net.parallaxed.bluejam.evolution;
 
+import java.util.concurrent.ForkJoinPool;
+
+import net.parallaxed.bluejam.NoteArray;
 import net.parallaxed.bluejam.NoteTree;
 
 /**
@@ -16,7 +19,20 @@ public enum Genotype {
 	/**
 	 * The default genome implementation.
 	 */
-	NOTE_TREE(NoteTree.class);
+	NOTE_TREE(NoteTree.class),
+	/**
+	 * NoteTrees bred persistently: children share every subtree
+	 * they didn't change with their parents, and only the path
+	 * to the change is copied (see NoteTree.graft()). Trees are
+	 * never changed once bred, so mutation works on copies too.
+	 */
+	PERSISTENT_TREE(NoteTree.class),
+	/**
+	 * Leaves packed into a primitive array (see NoteArray), bred
+	 * by ArrayBreeder. Individuals are grown as NoteTrees by the
+	 * initializers, then packed.
+	 */
+	NOTE_ARRAY(NoteArray.class);
 	
 	private Class<?> _genotypeImpl = null;
 	
@@ -42,4 +58,18 @@ public enum Genotype {
 	public Class<?> eval() {
 		return _genotypeImpl;
 	}
+	
+	/**
+	 * Returns a breeder for populations of this genotype.
+	 * @param maxBreedCycles The most breed cycles to run.
+	 * @param crossoverProbability The probability of crossover.
+	 * @param pool The pool trees are bred on (arrays are bred in place).
+	 * @return An ArrayBreeder for NOTE_ARRAY, else a TreeBreeder.
+	 */
+	public Breeder breeder(int maxBreedCycles, double crossoverProbability, ForkJoinPool pool)
+	{
+		if (this == NOTE_ARRAY)
+			return new ArrayBreeder(maxBreedCycles, crossoverProbability);
+		return new TreeBreeder(maxBreedCycles, crossoverProbability, pool);
+	}
 }
@@ -0,0 +1,18 @@
+package net.parallaxed.bluejam.evolution;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.SequenceParameters;
+
+/**
+ * Creates the empty NoteSequences that individuals of a Genotype
+ * are initialized into.
+ *
+ * @see StrategyRegistry
+ */
+public interface GenotypeFactory {
+	/**
+	 * @param params The parameters of the individual's population.
+	 * @return A new, empty sequence for an initializer to fill.
+	 */
+	public NoteSequence create(SequenceParameters params);
+}
@@ -8,12 +8,14 @@ import net.parallaxed.bluejam.Note;
 import net.parallaxed.bluejam.NoteLeaf;
 import net.parallaxed.bluejam.NoteSequence;
 import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.PackedNote;
 import net.parallaxed.bluejam.PopulationParameters;
 import net.parallaxed.bluejam.Rhythm;
 import net.parallaxed.bluejam.ScaledSet;
 import net.parallaxed.bluejam.SequenceParameters;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.SequenceException;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * This form of the grow algorithm psuedorandomly selects 
@@ -29,7 +31,6 @@ public class InitializeGrow implements NoteSequenceInitializer {
 	private static final String E_TYPE_ERROR = "This class expects note sequences of type NoteTree";
 	private static final int REST_PROPORTION = 5;
 	private static final RhythmInitializer rhythmInitializer = RhythmInitializer.getInstance();
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	private static InitializeGrow _instance = null; 
 
 	/*
@@ -53,8 +54,9 @@ public class InitializeGrow implements NoteSequenceInitializer {
 	 */
 	public void initialize(NoteSequence notes, PopulationParameters params)
 	{		
-		if (params.getGenotype() != Genotype.NOTE_TREE)
-			ErrorFeedback.handle(new Exception("This class uses NoteTrees. The specified Genotype must match Genotype.NOTE_TREE"));
+		// Packed genotypes are grown as trees too (see Individual).
+		if (notes.getClass() != NoteTree.class)
+			ErrorFeedback.handle(new Exception("This class uses NoteTrees. The specified Genotype must be a NoteTree genotype"));
 		
 		
 		Iterator<Note> i = notes.getNotes();
@@ -77,6 +79,7 @@ public class InitializeGrow implements NoteSequenceInitializer {
 	private void _fromHeuristic(NoteSequence notes, PopulationParameters params) {		
 		
 		try { 
+			MersenneTwisterFast _mt = RandomSource.current();
 			SequenceParameters _sp = params.getSequenceParameters();
 			ScaledSet s = params.getSequenceParameters().Jam.getScaledSet();
 			NoteTree _nt = (NoteTree) notes;
@@ -159,16 +162,18 @@ public class InitializeGrow implements NoteSequenceInitializer {
 						{
 							// TODO FIX Dynamically change reference node.
 							
-							nl = s.getRandom(_refNote);
+							// Picked packed, so the leaf is made once.
+							long note = s.randomNote(_refNote);
+							int octave = PackedNote.octave(note);
 							
 							// Correct the octave if anything went wrong.
-							if (nl.octave() < -1)
-								nl.octave(workingOctave);
+							if (octave < -1)
+								octave = workingOctave;
 							else
-								workingOctave = nl.octave();
+								workingOctave = octave;
 							
 							// Apply rhythm
-							nl.rhythm(r);
+							nl = new NoteLeaf(PackedNote.pitchClass(note), r, octave);
 							
 							// Maybe rest the note
 							if (_mt.nextInt(100) < REST_PROPORTION)  
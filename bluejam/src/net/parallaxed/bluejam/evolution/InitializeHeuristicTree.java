@@ -6,6 +6,7 @@ import net.parallaxed.bluejam.Note;
 import net.parallaxed.bluejam.NoteLeaf;
 import net.parallaxed.bluejam.NoteSequence;
 import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.PackedNote;
 import net.parallaxed.bluejam.Pitch;
 import net.parallaxed.bluejam.PopulationParameters;
 import net.parallaxed.bluejam.ScaledSet;
@@ -52,7 +53,7 @@ public class InitializeHeuristicTree implements NoteSequenceInitializer {
 	public void initialize(NoteSequence notes, PopulationParameters params)
 	{
 		if (notes.getClass() != NoteTree.class)
-			ErrorFeedback.handle(new Exception("This class uses NoteTrees. The specified Genotype must match Genotype.NOTE_TREE"));
+			ErrorFeedback.handle(new Exception("This class uses NoteTrees. The specified Genotype must be a NoteTree genotype"));
 		
 		NoteTree nt = (NoteTree) notes;
 		NoteSequence[] ns = nt.getIncompleteReferences();
@@ -77,7 +78,7 @@ public class InitializeHeuristicTree implements NoteSequenceInitializer {
 				
 				if (s != null && refNote != null) {
 					nl.octave(refNote.octave());
-					nl.pitchClass(s.getRandom(refNote).pitchClass());
+					nl.pitchClass(PackedNote.pitchClass(s.randomNote(refNote)));
 				}
 				try {
 					ntI.addNotes(nl);
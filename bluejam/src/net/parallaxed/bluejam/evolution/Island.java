@@ -0,0 +1,217 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.util.RandomSource;
+
+/**
+ * Evolves one population of an island model, generation by 
+ * generation, on its own thread. Each island is configured by
+ * its population's parameters, so islands may select and score
+ * their individuals differently.
+ * 
+ * Every few generations the fittest of the mating pool are copied
+ * to the island's neighbours. Migrants arrive in a lock-free queue,
+ * and join the mating pool at the start of the next generation;
+ * islands never wait on each other. Islands in other processes
+ * are reached through an IslandNode.
+ * 
+ * @see net.parallaxed.bluejam.Archipelago
+ */
+public class Island implements Runnable, MigrationTarget
+{
+	private static final String W_MIGRANT = "WARNING: Unable to copy a migrant: ";
+	
+	private volatile Population _population;
+	private final int _index;
+	private final ConcurrentLinkedQueue<NoteSequence> _inbox = new ConcurrentLinkedQueue<NoteSequence>();
+	private final AtomicInteger _generation = new AtomicInteger();
+	private volatile Individual _best = null;
+	private volatile boolean _running = true;
+	
+	private MigrationTarget[] _neighbours = new MigrationTarget[0];
+	private int _generations = 25;
+	private int _matingPoolSize = 15;
+	private int _maxBreedCycles = 10;
+	private double _crossoverProbability = 0.9;
+	private int _interval = 5;
+	private int _migrants = 2;
+	/**
+	 * Told when a generation is done, if set.
+	 */
+	private Object _monitor = null;
+	
+	/**
+	 * @param population The island's population, initialized on run() if empty.
+	 * @param index The index of the island, naming its random stream.
+	 */
+	public Island(Population population, int index)
+	{
+		_population = population;
+		_index = index;
+	}
+	
+	////// CONFIGURATION
+	/**
+	 * @param neighbours The islands (or IslandNodes) this one sends migrants to.
+	 */
+	public void connect(MigrationTarget[] neighbours) { _neighbours = neighbours; }
+	
+	/**
+	 * @param generations The number of generations to run.
+	 */
+	public void generations(int generations) { _generations = generations; }
+	
+	/**
+	 * Sets the breeding parameters, as on Evolve.
+	 */
+	public void breeding(int matingPoolSize, int maxBreedCycles, double crossoverProbability)
+	{
+		_matingPoolSize = matingPoolSize;
+		_maxBreedCycles = maxBreedCycles;
+		_crossoverProbability = crossoverProbability;
+	}
+	
+	/**
+	 * @param interval Send migrants every this many generations (0 for never).
+	 * @param migrants The number of individuals sent to each neighbour.
+	 */
+	public void migration(int interval, int migrants)
+	{
+		_interval = interval;
+		_migrants = migrants;
+	}
+	
+	/**
+	 * @param monitor An object to notifyAll() on after every generation.
+	 */
+	public void monitor(Object monitor) { _monitor = monitor; }
+	//////
+	
+	/**
+	 * @return The island's current population.
+	 */
+	public Population population() { return _population; }
+	
+	/**
+	 * @return The number of generations completed.
+	 */
+	public int generation() { return _generation.get(); }
+	
+	/**
+	 * @return The fittest of the last mating pool, or null before the first.
+	 */
+	public Individual best() { return _best; }
+	
+	/**
+	 * @return True until the island has run its generations, or is stopped.
+	 */
+	public boolean running() { return _running; }
+	
+	/**
+	 * Stops the island at the end of its current generation.
+	 */
+	public void stop() { _running = false; }
+	
+	/**
+	 * Queues a sequence to join the island's next mating pool.
+	 * Safe to call from any thread.
+	 * @param notes The migrant, which must not be changed afterwards.
+	 */
+	public void immigrate(NoteSequence notes) {
+		_inbox.offer(notes);
+	}
+	
+	/**
+	 * Runs the island's generations.
+	 */
+	public void run()
+	{
+		try {
+			RandomSource.begin(RandomSource.key(RandomSource.ISLAND, _index, 0));
+			if (_population.populationSize() == 0)
+				_population.initialize();
+			IndividualSelector selector = StrategyRegistry.getInstance().selector(_population.getParameters().getSelectionType());
+			
+			while (_running && _generation.get() < _generations)
+			{
+				Population p = selector.select(_population, _matingPoolSize);
+				_best = p.getFittestIndividual();
+				
+				int g = _generation.get() + 1;
+				if (_interval > 0 && g % _interval == 0)
+					_emigrate(p);
+				
+				// Migrants join the mating pool.
+				try {
+					NoteSequence n;
+					while ((n = _inbox.poll()) != null)
+						p.addIndividual((n instanceof Heuristic) ? new Individual(n, (Heuristic) n) 
+								: new Individual(n, (Heuristic) null));
+				}
+				catch (IndividualAddException e) {
+					// Pool full: the rest are dropped.
+					_inbox.clear();
+				}
+				
+				p.memberCount = _population.memberCount;
+				p.getParameters().getGenotype().breeder(_maxBreedCycles, _crossoverProbability, ParallelEvaluator.getPool()).breed(p);
+				_population = p;
+				_generation.incrementAndGet();
+				_signal();
+			}
+		}
+		catch (Exception e) {
+			ErrorFeedback.handle(e.getMessage(), e);
+		}
+		finally {
+			_running = false;
+			_signal();
+		}
+	}
+	
+	/**
+	 * Sends copies of the fittest of the pool to each neighbour.
+	 */
+	private void _emigrate(Population pool)
+	{
+		int count = Math.min(_migrants, pool.populationSize());
+		boolean[] taken = new boolean[pool.populous.length];
+		for (int m = 0; m < count; m++)
+		{
+			int best = -1;
+			for (int i = 0; i < taken.length; i++)
+			{
+				Individual ind = pool.getIndividual(i);
+				if (ind != null && !taken[i] && (best < 0 || ind.evaluate() > pool.getIndividual(best).evaluate()))
+					best = i;
+			}
+			if (best < 0)
+				return;
+			taken[best] = true;
+			for (MigrationTarget neighbour : _neighbours)
+				try {
+					neighbour.immigrate(pool.getIndividual(best).getNoteSequence().clone());
+				}
+				catch (CloneNotSupportedException e) {
+					ErrorFeedback.warn(W_MIGRANT+e.getMessage(), e);
+				}
+		}
+	}
+	
+	private void _signal()
+	{
+		Object monitor = _monitor;
+		if (monitor != null)
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+	}
+}
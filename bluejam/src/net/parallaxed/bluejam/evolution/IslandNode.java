@@ -0,0 +1,160 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Runs an Island in this process as one of the islands of a
+ * MigrationHub, which may be in another. 
+ * 
+ * The island's emigrants are sent to the hub, which relays them
+ * to the island's neighbours; migrants from the hub join the
+ * island's inbox as if they came from a local island. After every
+ * generation the island's fittest individual is reported to the
+ * hub, and when the island has run its generations the node says
+ * so and disconnects.
+ * 
+ * @see MigrationProtocol
+ * @see MigrationHub
+ */
+public class IslandNode implements Runnable, MigrationTarget
+{
+	private static final String E_CONNECT = "Unable to reach the migration hub at ";
+	private static final String W_FRAME = "WARNING: Ignoring a bad frame from the migration hub: ";
+	/**
+	 * How often (ms) the island's progress is checked.
+	 */
+	private static final long POLL = 20;
+	
+	private final Island _island;
+	private final SocketAddress _hub;
+	private volatile MigrationChannel _channel = null;
+	
+	/**
+	 * @param island The island to run; its population should be set up.
+	 * @param hub The address of the hub, as from MigrationProtocol.address().
+	 */
+	public IslandNode(Island island, SocketAddress hub)
+	{
+		_island = island;
+		_hub = hub;
+	}
+	
+	/**
+	 * @return The island run by this node.
+	 */
+	public Island island() { return _island; }
+	
+	/**
+	 * Sends an emigrant to the hub.
+	 * {@inheritDoc}
+	 */
+	public void immigrate(NoteSequence notes)
+	{
+		MigrationChannel channel = _channel;
+		if (channel != null)
+			channel.send(MigrationProtocol.migrant(notes));
+	}
+	
+	/**
+	 * Connects to the hub, then runs the island on a thread of its
+	 * own until it has finished, relaying migrants both ways.
+	 */
+	public void run()
+	{
+		Selector selector = null;
+		MigrationChannel channel = null;
+		Thread thread = null;
+		try {
+			SocketChannel socket = (_hub instanceof InetSocketAddress) ? SocketChannel.open()
+					: SocketChannel.open(StandardProtocolFamily.UNIX);
+			try { socket.connect(_hub); }
+			catch (IOException e) { throw new IOException(E_CONNECT+MigrationProtocol.format(_hub), e); }
+			
+			selector = Selector.open();
+			channel = new MigrationChannel(socket);
+			channel.register(selector);
+			channel.send(MigrationProtocol.hello());
+			_channel = channel;
+			
+			_island.connect(new MigrationTarget[] { this });
+			thread = new Thread(_island, "IslandNode");
+			thread.start();
+			
+			int reported = 0;
+			boolean done = false;
+			while (true)
+			{
+				selector.select(POLL);
+				for (SelectionKey key : selector.selectedKeys())
+				{
+					if (key.isValid() && key.isReadable())
+						for (ByteBuffer frame : channel.read())
+							_receive(frame);
+				}
+				selector.selectedKeys().clear();
+				
+				// Read running() first, so the last generation is reported.
+				boolean running = _island.running();
+				int generation = _island.generation();
+				Individual best = _island.best();
+				if (generation > reported && best != null)
+				{
+					channel.send(MigrationProtocol.best(generation, best.evaluate(), best.getNoteSequence()));
+					reported = generation;
+				}
+				if (!running && !done)
+				{
+					channel.send(MigrationProtocol.done(generation));
+					done = true;
+				}
+				channel.flush();
+				if (done && !channel.pending())
+					break;
+			}
+		}
+		catch (Exception e) {
+			ErrorFeedback.handle(e.getMessage(), e);
+		}
+		finally {
+			_channel = null;
+			_island.stop();
+			if (channel != null)
+				channel.close();
+			if (selector != null)
+				try { selector.close(); }
+				catch (IOException e) { }
+			if (thread != null)
+				try { thread.join(); }
+				catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+		}
+	}
+	
+	/**
+	 * Handles a frame from the hub.
+	 */
+	private void _receive(ByteBuffer frame)
+	{
+		try {
+			if (frame.get() != MigrationProtocol.MIGRANT)
+				return;
+			PopulationParameters params = _island.population().getParameters();
+			_island.immigrate(MigrationProtocol.sequence(frame, params.getSequenceParameters(), 
+					params.getGenotype() == Genotype.NOTE_ARRAY));
+		}
+		catch (RuntimeException e) {
+			ErrorFeedback.warn(W_FRAME+e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.util.concurrent.Flow;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.playback.CandidatePublisher;
+import net.parallaxed.bluejam.playback.Listener;
+import net.parallaxed.bluejam.playback.ListenerFanout;
+import net.parallaxed.bluejam.playback.ListenerQueue;
+import net.parallaxed.bluejam.playback.Player;
+
+/**
+ * Plays the best of several islands, once every island has 
+ * finished another generation, as far as subscribers' demand goes.
+ * Archipelago (islands in this process) and MigrationHub (islands
+ * in others) differ only in how they run the islands and hear of
+ * their progress.
+ * 
+ * Listeners share a subscription to the candidates, as on Evolve.
+ * Positive feedback sends the sequence to every island as a migrant.
+ * 
+ * @see net.parallaxed.bluejam.Archipelago
+ * @see MigrationHub
+ */
+public abstract class IslandPlayer implements Runnable, Player
+{
+	public volatile boolean running = true;
+	/**
+	 * Notified whenever an island progresses, and whenever another
+	 * candidate is requested.
+	 */
+	protected final Object _progress = new Object();
+	private final CandidatePublisher _publisher = new CandidatePublisher(new Runnable() {
+		public void run() { progressed(); }
+	});
+	private final ListenerFanout _fanout = new ListenerFanout();
+	
+	protected IslandPlayer() {
+		_publisher.subscribe(_fanout);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void addListener(Listener listener) {
+		_fanout.add(new ListenerQueue(listener));
+	}
+	
+	/**
+	 * Returns the publisher of candidates; subscribers are sent the
+	 * best of each generation they request, on the playing thread.
+	 * @return The publisher.
+	 */
+	public Flow.Publisher<NoteSequence> candidates() {
+		return _publisher;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void feedback(int feedback, NoteSequence notes)
+	{
+		if (feedback == 1)
+			migrate(notes);
+		_fanout.request(1);
+	}
+	
+	/**
+	 * Sends a sequence given positive feedback to every island.
+	 */
+	protected abstract void migrate(NoteSequence notes);
+	
+	/**
+	 * @return The fewest generations any island has finished.
+	 * Called holding _progress.
+	 */
+	protected abstract int slowest();
+	
+	/**
+	 * @return True once no island will finish another generation.
+	 * Called holding _progress.
+	 */
+	protected abstract boolean finished();
+	
+	/**
+	 * @return The fittest sequence the islands last reported.
+	 */
+	protected abstract NoteSequence fittest();
+	
+	/**
+	 * Wakes the playing thread to look at the islands again.
+	 */
+	protected void progressed()
+	{
+		synchronized (_progress) {
+			_progress.notifyAll();
+		}
+	}
+	
+	/**
+	 * Plays the fittest sequence after each generation, once every
+	 * island has finished it and a candidate is wanted, until the
+	 * islands are finished or we're stopped.
+	 * @param generations The most generations to play.
+	 */
+	protected final void play(int generations) throws InterruptedException
+	{
+		for (int played = 0; running && played < generations; played++)
+		{
+			synchronized (_progress) {
+				while (running && (slowest() <= played || !_publisher.wanted()))
+				{
+					if (slowest() <= played && finished())
+						break;
+					_progress.wait();
+				}
+				if (!running || slowest() <= played)
+					break;
+			}
+			_publisher.submit(fittest());
+		}
+	}
+	
+	/**
+	 * Ends every subscription, and waits for the listeners to hear it.
+	 */
+	protected final void close()
+	{
+		_publisher.close();
+		_fanout.await();
+	}
+}
@@ -0,0 +1,128 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.parallaxed.bluejam.NoteSequence;
+
+/**
+ * One non-blocking connection of the migration protocol, driven
+ * by the selector thread of a MigrationHub or IslandNode.
+ * 
+ * Frames can be queued with send() from any thread; the selector
+ * thread writes them out with flush(), and reads whole frames in
+ * with read().
+ */
+final class MigrationChannel
+{
+	final SocketChannel channel;
+	private final ConcurrentLinkedQueue<ByteBuffer> _out = new ConcurrentLinkedQueue<ByteBuffer>();
+	private ByteBuffer _in = ByteBuffer.allocate(4096);
+	private SelectionKey _key = null;
+	
+	////// The hub's view of a node.
+	int id = -1;
+	volatile int generation = 0;
+	volatile double fitness = Double.NEGATIVE_INFINITY;
+	volatile NoteSequence best = null;
+	volatile boolean done = false;
+	//////
+	
+	MigrationChannel(SocketChannel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * Registers the channel with the selector thread's selector.
+	 */
+	void register(Selector selector) throws IOException
+	{
+		channel.configureBlocking(false);
+		_key = channel.register(selector, SelectionKey.OP_READ, this);
+	}
+	
+	/**
+	 * Queues a frame and wakes the selector thread to write it.
+	 */
+	void send(ByteBuffer frame)
+	{
+		_out.offer(frame);
+		SelectionKey key = _key;
+		if (key != null)
+			key.selector().wakeup();
+	}
+	
+	/**
+	 * @return True if frames are waiting to be written.
+	 */
+	boolean pending() {
+		return !_out.isEmpty();
+	}
+	
+	/**
+	 * Writes as much of the queue as the socket takes, and asks
+	 * to be told when it can take more.
+	 */
+	void flush() throws IOException
+	{
+		ByteBuffer b;
+		while ((b = _out.peek()) != null)
+		{
+			channel.write(b);
+			if (b.hasRemaining())
+				break;
+			_out.poll();
+		}
+		if (_key.isValid())
+			_key.interestOps(_out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+	
+	/**
+	 * Reads what's available.
+	 * @return The whole frames read, each positioned at its type.
+	 * @throws IOException If the peer closed the connection or broke the protocol.
+	 */
+	List<ByteBuffer> read() throws IOException
+	{
+		if (channel.read(_in) < 0)
+			throw new IOException("Connection closed");
+		ArrayList<ByteBuffer> frames = new ArrayList<ByteBuffer>(1);
+		_in.flip();
+		while (_in.remaining() >= 4)
+		{
+			int length = _in.getInt(_in.position());
+			if (length < 1 || length > MigrationProtocol.MAX_FRAME)
+				throw new IOException("Bad frame length: "+length);
+			if (_in.remaining() < 4 + length)
+			{
+				// Make room for the rest of the frame.
+				if (4 + length > _in.capacity())
+				{
+					ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+					bigger.put(_in);
+					_in = bigger;
+					return frames;
+				}
+				break;
+			}
+			byte[] frame = new byte[length];
+			_in.position(_in.position() + 4);
+			_in.get(frame);
+			frames.add(ByteBuffer.wrap(frame));
+		}
+		_in.compact();
+		return frames;
+	}
+	
+	void close()
+	{
+		try { channel.close(); }
+		catch (IOException e) { }
+	}
+}
@@ -0,0 +1,328 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Connects islands running in other processes (see IslandNode),
+ * over TCP or a Unix domain socket, and plays the best of them
+ * to its listeners, as Archipelago does for islands in this one.
+ * 
+ * Nodes are numbered in the order they say hello, and migrants
+ * are relayed between them by the hub's topology, without being
+ * decoded. One selector thread serves every connection.
+ * 
+ * Listeners are played the fittest sequence reported by any node,
+ * once every node has reported another generation. Positive
+ * feedback sends the sequence to every node as a migrant.
+ * 
+ * @see MigrationProtocol
+ * @see IslandPlayer
+ * @see net.parallaxed.bluejam.Archipelago
+ */
+public class MigrationHub extends IslandPlayer
+{
+	private static final String W_NODE = "WARNING: Dropped a migration node: ";
+	private static final String W_EXTRA = "WARNING: Refused a migration node, all islands are connected.";
+	
+	private final SocketAddress _address;
+	private final SequenceParameters _sequenceParameters;
+	private final MigrationChannel[] _nodes;
+	private final AtomicLong _relayed = new AtomicLong();
+	
+	private Topology _topology = Topology.RING;
+	private ServerSocketChannel _server = null;
+	private Selector _selector = null;
+	private int _hellos = 0;
+	
+	/**
+	 * @param address The address to listen on (port 0 picks one).
+	 * @param sequenceParameters The parameters to play reported sequences with.
+	 * @param islands The number of nodes to wait for.
+	 */
+	public MigrationHub(SocketAddress address, SequenceParameters sequenceParameters, int islands)
+	{
+		if (sequenceParameters == null)
+			throw new IllegalArgumentException("SequenceParameters must not be null.");
+		_address = address;
+		_sequenceParameters = sequenceParameters;
+		_nodes = new MigrationChannel[islands];
+	}
+	
+	/**
+	 * @param topology How the nodes' islands are connected.
+	 */
+	public void topology(Topology topology) { _topology = topology; }
+	
+	/**
+	 * Starts listening, so nodes can be started before run().
+	 * Called by run() if need be.
+	 */
+	public synchronized void bind() throws IOException
+	{
+		if (_server != null)
+			return;
+		_server = MigrationProtocol.server(_address);
+		_server.bind(_address);
+		_server.configureBlocking(false);
+		_selector = Selector.open();
+		_server.register(_selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	/**
+	 * @return The address bound, with the port picked if any.
+	 */
+	public SocketAddress address() throws IOException {
+		return _server.getLocalAddress();
+	}
+	
+	/**
+	 * @return The number of migrants relayed between nodes.
+	 */
+	public long relayed() { return _relayed.get(); }
+	
+	protected void migrate(NoteSequence notes)
+	{
+		synchronized (_progress) {
+			for (MigrationChannel node : _nodes)
+				if (node != null && !node.done)
+					node.send(MigrationProtocol.migrant(notes));
+		}
+	}
+	
+	/**
+	 * @return The fittest sequence the nodes last reported, or null
+	 * if none has reported a generation.
+	 */
+	public NoteSequence best()
+	{
+		MigrationChannel best = null;
+		synchronized (_progress) {
+			for (MigrationChannel node : _nodes)
+				if (node != null && node.best != null && (best == null || node.fitness > best.fitness))
+					best = node;
+		}
+		return (best == null) ? null : best.best;
+	}
+	
+	/**
+	 * Serves the nodes, and plays the best of them to the listeners
+	 * after every generation, until every node is done.
+	 */
+	public void run()
+	{
+		Thread thread = null;
+		try {
+			bind();
+			thread = new Thread(new Runnable() {
+				public void run() { _serve(); }
+			}, "MigrationHub");
+			thread.start();
+			play(Integer.MAX_VALUE);
+		}
+		catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+		catch (IOException e) { ErrorFeedback.handle(e.getMessage(), e); }
+		finally {
+			running = false;
+			if (_selector != null)
+				_selector.wakeup();
+		}
+		if (thread != null)
+			try { thread.join(); }
+			catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+		close();
+	}
+	
+	/**
+	 * The selector thread: accepts nodes, reads their frames and
+	 * writes what's queued for them.
+	 */
+	private void _serve()
+	{
+		try {
+			while (running)
+			{
+				_selector.select();
+				for (SelectionKey key : _selector.selectedKeys())
+				{
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+					{
+						SocketChannel socket = _server.accept();
+						if (socket != null)
+							new MigrationChannel(socket).register(_selector);
+						continue;
+					}
+					MigrationChannel node = (MigrationChannel) key.attachment();
+					try {
+						if (key.isReadable())
+							for (ByteBuffer frame : node.read())
+								_receive(node, frame);
+						if (key.isValid() && key.isWritable())
+							node.flush();
+					}
+					catch (IOException e) {
+						if (!node.done)
+							ErrorFeedback.warn(W_NODE+e.getMessage(), e);
+						_drop(node);
+					}
+					catch (RuntimeException e) {
+						// A malformed payload; only its node is dropped.
+						ErrorFeedback.warn(W_NODE+e, e);
+						_drop(node);
+					}
+				}
+				_selector.selectedKeys().clear();
+				// Frames queued from other threads since.
+				for (SelectionKey key : _selector.keys())
+					if (key.isValid() && key.attachment() != null && ((MigrationChannel) key.attachment()).pending())
+						try { ((MigrationChannel) key.attachment()).flush(); }
+						catch (IOException e) { _drop((MigrationChannel) key.attachment()); }
+			}
+		}
+		catch (IOException e) { ErrorFeedback.handle(e.getMessage(), e); }
+		finally {
+			running = false;
+			for (SelectionKey key : _selector.keys())
+				if (key.attachment() != null)
+					((MigrationChannel) key.attachment()).close();
+			try { _server.close(); _selector.close(); }
+			catch (IOException e) { }
+			progressed();
+		}
+	}
+	
+	/**
+	 * Handles a frame from a node.
+	 */
+	private void _receive(MigrationChannel node, ByteBuffer frame) throws IOException
+	{
+		byte type = frame.get();
+		if (node.id < 0 && type != MigrationProtocol.HELLO)
+			throw new IOException("Expected HELLO, got "+type);
+		switch (type)
+		{
+			case MigrationProtocol.HELLO:
+				if (node.id >= 0)
+					break;
+				if (_hellos == _nodes.length)
+				{
+					ErrorFeedback.warn(W_EXTRA, new IOException(W_EXTRA));
+					node.close();
+					return;
+				}
+				_join(node);
+				break;
+			case MigrationProtocol.MIGRANT:
+				// Relayed as is, without decoding it.
+				frame.rewind();
+				for (int n : _topology.neighbours(node.id, _nodes.length))
+				{
+					MigrationChannel neighbour = _nodes[n];
+					if (neighbour == null || neighbour.done)
+						continue;
+					ByteBuffer out = ByteBuffer.allocate(4 + frame.remaining());
+					out.putInt(frame.remaining()).put(frame.duplicate()).flip();
+					neighbour.send(out);
+					_relayed.incrementAndGet();
+				}
+				break;
+			case MigrationProtocol.BEST:
+				int generation = frame.getInt();
+				double fitness = frame.getDouble();
+				node.best = MigrationProtocol.sequence(frame, _sequenceParameters, false);
+				node.fitness = fitness;
+				_progress(node, generation, false);
+				break;
+			case MigrationProtocol.DONE:
+				_progress(node, frame.getInt(), true);
+				break;
+			default:
+				throw new IOException("Unknown frame type "+type);
+		}
+	}
+	
+	private void _progress(MigrationChannel node, int generation, boolean done)
+	{
+		synchronized (_progress) {
+			node.generation = Math.max(node.generation, generation);
+			node.done |= done;
+			progressed();
+		}
+	}
+	
+	/**
+	 * Drops a node. One that hadn't said hello yet still takes the
+	 * next slot, as done, so the hub doesn't wait for it forever.
+	 */
+	private void _drop(MigrationChannel node)
+	{
+		node.close();
+		if (node.id < 0 && _hellos < _nodes.length)
+			_join(node);
+		_progress(node, 0, true);
+	}
+	
+	/**
+	 * Numbers a node and gives it the next slot.
+	 */
+	private void _join(MigrationChannel node)
+	{
+		synchronized (_progress) {
+			node.id = _hellos++;
+			_nodes[node.id] = node;
+			_progress.notifyAll();
+		}
+	}
+	
+	protected NoteSequence fittest() {
+		return best();
+	}
+	
+	/**
+	 * @return The fewest generations any node has reported; 0 until
+	 * every node has connected.
+	 */
+	protected int slowest()
+	{
+		int slowest = Integer.MAX_VALUE;
+		for (MigrationChannel node : _nodes)
+			if (node == null)
+				return 0;
+			else if (!node.done)
+				slowest = Math.min(slowest, node.generation);
+		if (slowest == Integer.MAX_VALUE)
+		{
+			// Every node is done; play up to the furthest.
+			slowest = 0;
+			for (MigrationChannel node : _nodes)
+				slowest = Math.max(slowest, node.generation);
+		}
+		return slowest;
+	}
+	
+	/**
+	 * @return True once every node has connected and is done.
+	 */
+	protected boolean finished()
+	{
+		if (!running)
+			return true;
+		for (MigrationChannel node : _nodes)
+			if (node == null || !node.done)
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,156 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.SequenceParameters;
+
+/**
+ * The binary protocol islands in different processes migrate
+ * over, through a MigrationHub.
+ * 
+ * Every message is a frame: a 4-byte length (of the rest of the
+ * frame), a 1-byte type, and the payload, all big-endian.
+ * Sequences are sent as their packed notes (see PackedNote): a
+ * 4-byte count and then 8 bytes a note.
+ * 
+ * <pre>
+ * HELLO    (node to hub)   -
+ * MIGRANT  (both ways)     sequence
+ * BEST     (node to hub)   generation (int), fitness (double), sequence
+ * DONE     (node to hub)   generation (int)
+ * </pre>
+ * 
+ * @see MigrationHub
+ * @see IslandNode
+ */
+public final class MigrationProtocol
+{
+	public static final byte HELLO = 1;
+	public static final byte MIGRANT = 2;
+	public static final byte BEST = 3;
+	public static final byte DONE = 4;
+	
+	/**
+	 * The longest frame accepted; longer ones close the connection.
+	 */
+	public static final int MAX_FRAME = 1 << 20;
+	
+	/**
+	 * The length and type at the head of every frame.
+	 */
+	static final int HEADER = 5;
+	
+	private MigrationProtocol() { }
+	
+	////// FRAMES
+	public static ByteBuffer hello() {
+		return _frame(HELLO, 0).flip();
+	}
+	
+	public static ByteBuffer migrant(NoteSequence notes)
+	{
+		long[] packed = pack(notes);
+		return _sequence(_frame(MIGRANT, 4 + 8 * packed.length), packed).flip();
+	}
+	
+	public static ByteBuffer best(int generation, double fitness, NoteSequence notes)
+	{
+		long[] packed = pack(notes);
+		ByteBuffer b = _frame(BEST, 4 + 8 + 4 + 8 * packed.length);
+		b.putInt(generation).putDouble(fitness);
+		return _sequence(b, packed).flip();
+	}
+	
+	public static ByteBuffer done(int generation) {
+		return _frame(DONE, 4).putInt(generation).flip();
+	}
+	//////
+	
+	/**
+	 * @param notes A NoteTree or NoteArray.
+	 * @return Its notes, packed.
+	 */
+	public static long[] pack(NoteSequence notes)
+	{
+		if (notes instanceof NoteArray)
+			return ((NoteArray) notes).notes();
+		return new NoteArray((NoteTree) notes).notes();
+	}
+	
+	/**
+	 * Reads a sequence from a frame's payload.
+	 * @param payload The payload, positioned at the sequence.
+	 * @param params The sequence parameters to give it.
+	 * @param asArray True for a NoteArray, false for a NoteTree.
+	 * @return The sequence.
+	 */
+	public static NoteSequence sequence(ByteBuffer payload, SequenceParameters params, boolean asArray)
+	{
+		int count = payload.getInt();
+		if (count < 0 || (long) count * 8 > payload.remaining())
+			throw new IllegalArgumentException("Bad note count: "+count);
+		long[] notes = new long[count];
+		payload.asLongBuffer().get(notes);
+		payload.position(payload.position() + 8 * count);
+		NoteArray array = new NoteArray(notes, params);
+		return asArray ? array : array.toTree();
+	}
+	
+	/**
+	 * Parses an address given as host:port, or unix:path for a
+	 * Unix domain socket.
+	 */
+	public static SocketAddress address(String address)
+	{
+		if (address.startsWith("unix:"))
+			return UnixDomainSocketAddress.of(address.substring(5));
+		int colon = address.lastIndexOf(':');
+		return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+	}
+	
+	/**
+	 * Formats an address so address() can parse it.
+	 */
+	public static String format(SocketAddress address)
+	{
+		if (address instanceof InetSocketAddress)
+		{
+			InetSocketAddress inet = (InetSocketAddress) address;
+			return inet.getHostString()+":"+inet.getPort();
+		}
+		return "unix:"+((UnixDomainSocketAddress) address).getPath();
+	}
+	
+	/**
+	 * Opens a server channel of the address's family.
+	 */
+	static ServerSocketChannel server(SocketAddress address) throws IOException
+	{
+		if (address instanceof InetSocketAddress)
+			return ServerSocketChannel.open();
+		return ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	}
+	
+	private static ByteBuffer _frame(byte type, int payload)
+	{
+		ByteBuffer b = ByteBuffer.allocate(HEADER + payload);
+		return b.putInt(1 + payload).put(type);
+	}
+	
+	private static ByteBuffer _sequence(ByteBuffer b, long[] notes)
+	{
+		b.putInt(notes.length);
+		for (long n : notes)
+			b.putLong(n);
+		return b;
+	}
+}
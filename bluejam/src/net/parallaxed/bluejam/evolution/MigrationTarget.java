@@ -0,0 +1,20 @@
+package net.parallaxed.bluejam.evolution;
+
+import net.parallaxed.bluejam.NoteSequence;
+
+/**
+ * Somewhere an Island can send its migrants: another island in
+ * the same JVM, or a connection to islands in other processes.
+ * 
+ * @see Island
+ * @see IslandNode
+ */
+public interface MigrationTarget {
+	/**
+	 * Takes a migrant. Called from the sending island's thread,
+	 * so implementations must be safe to call from any thread,
+	 * and must not block.
+	 * @param notes The migrant, which must not be changed afterwards.
+	 */
+	public void immigrate(NoteSequence notes);
+}
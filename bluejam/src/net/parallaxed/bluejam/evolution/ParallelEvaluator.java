@@ -0,0 +1,169 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.util.CpuAccount;
+import net.parallaxed.bluejam.util.RandomSource;
+
+/**
+ * Scores a whole generation up front by spreading the calls to
+ * Individual.evaluate() over a fork-join pool.
+ *
+ * The scores are cached by each Individual, and a copy indexed by
+ * population slot is stored on the Population, so selection only
+ * reads the stored values afterwards.
+ *
+ * Individuals are fully evaluated; evaluators that need more than
+ * one pass (FitnessStacked) are called until the individual reports
+ * itself as evaluated.
+ *
+ * Each slot is evaluated on its own random stream, keyed by the
+ * evaluation round and the slot, so scores don't depend on how the
+ * work is split between threads.
+ *
+ * Each task charges its CPU time to the account of the thread that
+ * asked for the evaluation, if it has one, so a pool can be shared
+ * by work done for many.
+ *
+ * When the population's fitness type is registered to a
+ * RemoteEvaluator, the generation is sent to its worker processes
+ * in batches first.
+ *
+ * @see Population#fitness()
+ */
+public class ParallelEvaluator
+{
+	/**
+	 * The number of individuals a task evaluates itself before
+	 * it splits the work in two.
+	 */
+	private static final int THRESHOLD = 2;
+
+	/**
+	 * The most calls to evaluate() we'll make on one individual.
+	 */
+	private static final int MAX_PASSES = 3;
+
+	private static ForkJoinPool _pool = null;
+
+	/**
+	 * Returns the pool shared by evaluators created without one,
+	 * sized to the number of available processors.
+	 * @return The shared ForkJoinPool.
+	 */
+	public static synchronized ForkJoinPool getPool()
+	{
+		if (_pool == null)
+			_pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return _pool;
+	}
+
+	private final ForkJoinPool _forkJoinPool;
+	/**
+	 * Counts calls to evaluate(), naming the random streams used.
+	 */
+	private long _round = 0;
+
+	/**
+	 * Creates an evaluator running on the shared pool.
+	 */
+	public ParallelEvaluator() {
+		this(getPool());
+	}
+
+	/**
+	 * Creates an evaluator running on the given pool.
+	 * @param pool The pool to run evaluation tasks on.
+	 */
+	public ParallelEvaluator(ForkJoinPool pool) {
+		_forkJoinPool = pool;
+	}
+
+	/**
+	 * Evaluates every individual in the population, storing
+	 * the scores on the population.
+	 *
+	 * @param population The population to score.
+	 * @return The scores, indexed by population slot (0 for empty slots).
+	 */
+	public double[] evaluate(Population population)
+	{
+		Individual[] members = population.populous;
+		if (members == null)
+			return new double[0];
+		double[] scores = new double[members.length];
+		IndividualEvaluator e = StrategyRegistry.getInstance().evaluator(population.getParameters().getFitnessType());
+		if (e instanceof RemoteEvaluator)
+			((RemoteEvaluator) e).prefetch(members);
+		_forkJoinPool.invoke(new EvaluateTask(members, scores, _round++, 0, members.length, CpuAccount.current()));
+		population.fitness(scores);
+		return scores;
+	}
+
+	/**
+	 * Evaluates an individual until its score is final.
+	 * @param individual The individual to evaluate.
+	 * @return The fitness of the individual.
+	 */
+	public static double score(Individual individual)
+	{
+		double fitness = individual.evaluate();
+		for (int pass = 1; !individual.evaluated() && pass < MAX_PASSES; pass++)
+			fitness = individual.evaluate();
+		return fitness;
+	}
+
+	/**
+	 * Evaluates the slots [from, to) of the populous, splitting
+	 * in half until the range is under THRESHOLD.
+	 */
+	private static class EvaluateTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final Individual[] _members;
+		private final double[] _scores;
+		private final long _round;
+		private final int _from;
+		private final int _to;
+		private final CpuAccount _account;
+
+		EvaluateTask(Individual[] members, double[] scores, long round, int from, int to, CpuAccount account)
+		{
+			_members = members;
+			_scores = scores;
+			_round = round;
+			_from = from;
+			_to = to;
+			_account = account;
+		}
+
+		protected void compute()
+		{
+			if (_to - _from <= THRESHOLD)
+			{
+				long start = (_account == null) ? 0 : CpuAccount.time();
+				for (int i = _from; i < _to; i++)
+				{
+					if (_members[i] == null)
+						continue;
+					RandomSource.enter(RandomSource.key(RandomSource.EVALUATION, _round, i));
+					try {
+						_scores[i] = score(_members[i]);
+					}
+					finally {
+						RandomSource.exit();
+					}
+				}
+				if (_account != null)
+					_account.charge(start);
+				return;
+			}
+			int mid = (_from + _to) >>> 1;
+			invokeAll(new EvaluateTask(_members, _scores, _round, _from, mid, _account),
+					new EvaluateTask(_members, _scores, _round, mid, _to, _account));
+		}
+	}
+}
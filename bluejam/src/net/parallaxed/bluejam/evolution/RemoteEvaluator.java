@@ -0,0 +1,370 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Scores individuals in a pool of worker processes (FitnessWorker),
+ * so a slow or crashing fitness function can't stall or take down
+ * the process that's playing.
+ * 
+ * Register one in place of the built-in evaluator for its type:
+ * <pre>
+ * StrategyRegistry.getInstance().register(FitnessType.STACKED,
+ *     new RemoteEvaluator(FitnessType.STACKED, 2, 500));
+ * </pre>
+ * 
+ * A ParallelEvaluator hands the whole generation to prefetch(),
+ * which splits it into batches over the workers, with several
+ * batches in flight on each; the scores are then picked up by
+ * Individual.evaluate(). Individuals evaluated one at a time are
+ * sent as batches of one.
+ * 
+ * Batches are written to a worker by a thread of its own, so one
+ * that stops reading can't hold up the threads submitting. The
+ * batches of a prefetch() share one timeout.
+ * 
+ * Scores that don't arrive within the timeout, or that a worker
+ * fails to compute, are computed in this process by the built-in
+ * evaluator instead. A worker that times out or dies is killed,
+ * and started again when next needed. Workers run evaluators in
+ * their default configuration.
+ * 
+ * @see FitnessWorker
+ */
+public class RemoteEvaluator implements DeterministicEvaluator
+{
+	private static final String W_WORKER = "WARNING: Fitness worker failed, evaluating in process: ";
+	/**
+	 * The most individuals sent to a worker in one batch.
+	 */
+	private static final int BATCH = 16;
+	
+	private final FitnessType _type;
+	private final IndividualEvaluator _local;
+	private final long _timeout;
+	private final Worker[] _workers;
+	private final AtomicInteger _next = new AtomicInteger();
+	private final Map<Individual, Double> _prefetched = Collections.synchronizedMap(new IdentityHashMap<Individual, Double>());
+	private final AtomicLong _remote = new AtomicLong();
+	private final AtomicLong _fallbacks = new AtomicLong();
+	
+	/**
+	 * @param type The fitness type the workers evaluate.
+	 * @param workers The number of worker processes.
+	 * @param timeout How long (ms) to wait for a batch's scores.
+	 */
+	public RemoteEvaluator(FitnessType type, int workers, long timeout)
+	{
+		_type = type;
+		// The built-in evaluator, whatever is registered.
+		_local = new StrategyRegistry().evaluator(type);
+		_timeout = timeout;
+		_workers = new Worker[Math.max(1, workers)];
+		for (int i = 0; i < _workers.length; i++)
+			_workers[i] = new Worker();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public double evaluate(Individual individual)
+	{
+		Double score = _prefetched.remove(individual);
+		if (score != null)
+			return score;
+		if (FitnessWorker.portable(individual))
+		{
+			double[] scores = _await(_submit(new Individual[] { individual }), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout));
+			if (scores != null && !Double.isNaN(scores[0]))
+				return scores[0];
+		}
+		_fallbacks.incrementAndGet();
+		return _local.evaluate(individual);
+	}
+	
+	/**
+	 * Scores the individuals not yet evaluated in the workers, in
+	 * batches, keeping the scores for Individual.evaluate() to pick
+	 * up. Returns once every batch has been answered, or the timeout
+	 * (for them all) has run out.
+	 * @param members The individuals to score; null entries are skipped.
+	 */
+	public void prefetch(Individual[] members)
+	{
+		// Scores nobody picked up are stale.
+		_prefetched.clear();
+		ArrayList<Individual> pending = new ArrayList<Individual>(members.length);
+		for (Individual i : members)
+			if (i != null && !i.evaluated() && FitnessWorker.portable(i))
+				pending.add(i);
+		
+		ArrayList<Individual[]> batches = new ArrayList<Individual[]>();
+		ArrayList<CompletableFuture<double[]>> replies = new ArrayList<CompletableFuture<double[]>>();
+		int size = Math.max(1, Math.min(BATCH, (pending.size() + _workers.length - 1) / _workers.length));
+		for (int from = 0; from < pending.size(); from += size)
+		{
+			Individual[] batch = pending.subList(from, Math.min(pending.size(), from + size)).toArray(new Individual[0]);
+			batches.add(batch);
+			replies.add(_submit(batch));
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout);
+		for (int b = 0; b < batches.size(); b++)
+		{
+			double[] scores = _await(replies.get(b), deadline);
+			if (scores == null)
+				continue;
+			Individual[] batch = batches.get(b);
+			for (int i = 0; i < batch.length; i++)
+				if (!Double.isNaN(scores[i]))
+					_prefetched.put(batch[i], scores[i]);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean deterministic() {
+		return (_local instanceof DeterministicEvaluator) && ((DeterministicEvaluator) _local).deterministic();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public long configuration() {
+		return (_local instanceof DeterministicEvaluator) ? ((DeterministicEvaluator) _local).configuration() : 0;
+	}
+	
+	/**
+	 * @return The number of scores computed by the workers.
+	 */
+	public long remote() { return _remote.get(); }
+	
+	/**
+	 * @return The number of scores computed in this process instead.
+	 */
+	public long fallbacks() { return _fallbacks.get(); }
+	
+	/**
+	 * Starts the worker processes now, rather than on first use,
+	 * so the first batches don't wait on the JVMs starting.
+	 */
+	public void start() throws IOException
+	{
+		for (Worker w : _workers)
+			w.start();
+	}
+	
+	/**
+	 * Stops the worker processes. They're started again if the
+	 * evaluator is used afterwards.
+	 */
+	public void close()
+	{
+		for (Worker w : _workers)
+			w.kill();
+	}
+	
+	/**
+	 * Sends a batch to the next worker.
+	 */
+	private CompletableFuture<double[]> _submit(Individual[] batch)
+	{
+		Worker w = _workers[(_next.getAndIncrement() & Integer.MAX_VALUE) % _workers.length];
+		return w.submit(batch);
+	}
+	
+	/**
+	 * @param deadline When to give up, by System.nanoTime().
+	 * @return The batch's scores, or null if it timed out or failed.
+	 */
+	private double[] _await(CompletableFuture<double[]> reply, long deadline)
+	{
+		try {
+			double[] scores = reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			_remote.addAndGet(scores.length);
+			return scores;
+		}
+		catch (Exception e) {
+			if (e instanceof TimeoutException)
+				for (Worker w : _workers)
+					w.killIfWaiting(reply);
+			reply.cancel(false);
+			ErrorFeedback.warn(W_WORKER+e, e);
+			return null;
+		}
+	}
+	
+	/**
+	 * One worker, started on demand. Batches are queued as they're
+	 * submitted and answered in any order; a thread per process
+	 * writes them, and another reads the replies.
+	 */
+	private class Worker
+	{
+		private Connection _connection = null;
+		
+		synchronized void start() throws IOException
+		{
+			if (_connection == null || !_connection.process.isAlive())
+				_connection = new Connection();
+		}
+		
+		synchronized CompletableFuture<double[]> submit(Individual[] batch)
+		{
+			CompletableFuture<double[]> reply = new CompletableFuture<double[]>();
+			try {
+				start();
+				_connection.send(batch, reply);
+			}
+			catch (IOException e) {
+				reply.completeExceptionally(e);
+				kill();
+			}
+			return reply;
+		}
+		
+		/**
+		 * Kills the worker if it owes the given reply.
+		 */
+		synchronized void killIfWaiting(CompletableFuture<double[]> reply)
+		{
+			if (_connection != null && _connection.inFlight.containsValue(reply))
+				kill();
+		}
+		
+		synchronized void kill()
+		{
+			if (_connection != null)
+			{
+				_connection.close();
+				_connection = null;
+			}
+		}
+	}
+	
+	/**
+	 * A worker process and the batches it has in flight.
+	 */
+	private class Connection implements Runnable
+	{
+		final Process process;
+		final ConcurrentHashMap<Integer, CompletableFuture<double[]>> inFlight = 
+			new ConcurrentHashMap<Integer, CompletableFuture<double[]>>();
+		private final LinkedBlockingQueue<byte[]> _outbox = new LinkedBlockingQueue<byte[]>();
+		private final Thread _writer;
+		private int _ids = 0;
+		
+		Connection() throws IOException
+		{
+			String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+			process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), 
+					FitnessWorker.class.getName(), _type.name())
+				.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			Thread reader = new Thread(this, "FitnessWorker reader");
+			reader.setDaemon(true);
+			reader.start();
+			_writer = new Thread(new Runnable() {
+				public void run() { _write(); }
+			}, "FitnessWorker writer");
+			_writer.setDaemon(true);
+			_writer.start();
+		}
+		
+		/**
+		 * Encodes a batch and queues it for the writer; called with
+		 * the Worker locked. Never blocks on the worker.
+		 */
+		void send(Individual[] batch, CompletableFuture<double[]> reply) throws IOException
+		{
+			int id = _ids++;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(id);
+			out.writeInt(batch.length);
+			for (Individual i : batch)
+				FitnessWorker.write(out, i);
+			inFlight.put(id, reply);
+			_outbox.add(bytes.toByteArray());
+		}
+		
+		/**
+		 * Kills the process, which fails the batches in flight, and
+		 * stops the writer.
+		 */
+		void close()
+		{
+			process.destroyForcibly();
+			_writer.interrupt();
+		}
+		
+		/**
+		 * The writer thread: writes queued batches until the worker
+		 * is killed or stops reading.
+		 */
+		private void _write()
+		{
+			OutputStream out = process.getOutputStream();
+			try {
+				while (true)
+				{
+					out.write(_outbox.take());
+					// Flush only once the queue's drained.
+					if (_outbox.isEmpty())
+						out.flush();
+				}
+			}
+			catch (IOException e) { close(); }
+			catch (InterruptedException e) { }
+		}
+		
+		/**
+		 * Completes batches as the worker answers them, and fails
+		 * the rest when it exits.
+		 */
+		public void run()
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+			try {
+				while (true)
+				{
+					int id = in.readInt();
+					double[] scores = new double[in.readInt()];
+					for (int i = 0; i < scores.length; i++)
+						scores[i] = in.readDouble();
+					CompletableFuture<double[]> reply = inFlight.remove(id);
+					if (reply != null)
+						reply.complete(scores);
+				}
+			}
+			catch (IOException e) {
+				close();
+				for (Integer id : inFlight.keySet())
+				{
+					CompletableFuture<double[]> reply = inFlight.remove(id);
+					if (reply != null)
+						reply.completeExceptionally(e);
+				}
+			}
+		}
+	}
+}
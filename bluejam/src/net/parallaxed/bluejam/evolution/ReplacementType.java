@@ -0,0 +1,18 @@
+package net.parallaxed.bluejam.evolution;
+
+/**
+ * An enum of the ways a steady-state step picks the individuals
+ * its offspring replace.
+ * @see SteadyState
+ */
+public enum ReplacementType {
+	/**
+	 * The least fit individual in the population.
+	 */
+	WORST,
+	/**
+	 * The loser of a small tournament: the least fit of a few
+	 * individuals drawn at random.
+	 */
+	TOURNAMENT;
+}
@@ -9,6 +9,7 @@ import net.parallaxed.bluejam.NoteSequence;
 import net.parallaxed.bluejam.NoteTree;
 import net.parallaxed.bluejam.PopulationParameters;
 import net.parallaxed.bluejam.Rhythm;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * Initializes Rhythm and other contextual properties for a passed 
@@ -46,8 +47,6 @@ public class RhythmInitializer implements NoteSequenceInitializer {
 	private final int _maxSwingProbability = 70;
 	private final int _minSwingProbability = 20;
 	private final int _swingAmount = 10;
-
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	
 	/**
 	 * Do NOT READ directly from this variable, use rhythmProbability
@@ -103,6 +102,7 @@ public class RhythmInitializer implements NoteSequenceInitializer {
 	 */
 	public void initialize(NoteSequence notes, PopulationParameters params)
 	{
+		MersenneTwisterFast _mt = RandomSource.current();
 		NoteContext _notes = null;
 		if (_notes == null)
 			_notes = new NoteContext(params.getSequenceParameters());
@@ -148,6 +148,7 @@ public class RhythmInitializer implements NoteSequenceInitializer {
 	 */
 	public void initialize(NoteTree notes, PopulationParameters params)
 	{
+		MersenneTwisterFast _mt = RandomSource.current();
 		NoteContext _notes = null;
 		if (_notes == null)
 			_notes = new NoteContext(params.getSequenceParameters());
@@ -186,7 +187,7 @@ public class RhythmInitializer implements NoteSequenceInitializer {
 	{	
 		// TODO Further Work: Base this on context.
 		
-		double rand = _mt.nextDouble();
+		double rand = RandomSource.current().nextDouble();
 		int index = 0;
 		for (double d : rhythmProbability)
 			if (rand > d)
@@ -1,58 +1,68 @@
 package net.parallaxed.bluejam.evolution;
 
-import java.util.ArrayList;
-
 import ec.util.MersenneTwisterFast;
-import net.parallaxed.bluejam.Individual;
-import net.parallaxed.bluejam.Population;
-import net.parallaxed.bluejam.exceptions.ErrorFeedback;
-import net.parallaxed.bluejam.exceptions.IndividualAddException;
 
 /**
  * Implements a proportional (Roulette Wheel) selection algorithm
  * 
+ * The wheel is a FenwickWheel built over the fitness values once
+ * per selection. Each winner is taken off the wheel as it's drawn,
+ * so no spin lands on a winner, and each takes O(log n) time.
+ * 
+ * @see FenwickWheel
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
-public class SelectProportional implements IndividualSelector {
+public class SelectProportional extends SelectSampled {
 	
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
+	private static SelectProportional _instance = null;
 	
-	public Population select(Population pop, int numberOfIndividuals) {
-		int size = pop.populationSize();
-		double[] probabilities = new double[size];
-		double[] fitness = new double[size];
-		double totalFitness = 0;
-		for (Individual i : pop.populous) {
-			double indFitness = i.evaluate();			
-			totalFitness += indFitness;			
-		}
-		for (int i = 0; i < size; i++)		
-			probabilities[i] = fitness[i] / totalFitness;
+	protected SelectProportional() {}
+	
+	/**
+	 * @return An instance of SelectProportional
+	 */
+	public static synchronized SelectProportional getInstance() {
+		if (_instance == null)
+			_instance = new SelectProportional();
+		return _instance;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public int[] select(double[] fitness, int numberOfIndividuals, MersenneTwisterFast mt)
+	{
+		double[] weights = weights(fitness);
+		int[] winners = new int[Math.min(numberOfIndividuals, weights.length)];
+		boolean[] won = new boolean[weights.length];
+		FenwickWheel wheel = new FenwickWheel(weights.length);
 		
-		Population skeleton = new Population(pop);
-		ArrayList<Integer> winners = new ArrayList<Integer>();
-		outer:
-		while (numberOfIndividuals > 0)
+		int selected = 0;
+		boolean spinnable = wheel.build(weights);
+		while (selected < winners.length)
 		{
-			double random = _mt.nextDouble();
-		
-			for (int i = 0; i < size; i++)
-				if (random > probabilities[i])
-					continue;
-				else
-					try { 
-						if (!winners.contains(i))
-						{
-							skeleton.addIndividual(pop.getIndividual(i));
-							winners.add(i);
-							numberOfIndividuals--; 
-						}
-					}
-					catch (IndividualAddException e) { ErrorFeedback.handle(e); continue outer; }			
+			if (!spinnable || wheel.left() == 0)
+			{
+				// Everyone left has nothing on the wheel.
+				fillUniform(won, winners, selected, mt);
+				break;
+			}
+			int i = wheel.draw(mt);
+			wheel.remove(i);
+			won[i] = true;
+			winners[selected++] = i;
 		}
-		return skeleton;
+		return winners;
 	}
 	
+	/**
+	 * The weight of each member on the wheel.
+	 * @param fitness The fitness of each member.
+	 * @return A new array of weights, which may be changed.
+	 */
+	protected double[] weights(double[] fitness) {
+		return fitness.clone();
+	}
 
 }
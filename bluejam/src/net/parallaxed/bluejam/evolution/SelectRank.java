@@ -0,0 +1,98 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.util.Arrays;
+
+/**
+ * Implements linear rank selection: a roulette wheel on which each
+ * individual is weighted by its rank in the population rather
+ * than by its fitness, so a few outstanding individuals can't
+ * take over the mating pool, and small differences in fitness
+ * still count when the scores are bunched together.
+ * 
+ * Ranks are found by sorting a copy of the fitness values once
+ * per selection; equal scores share the mean of their ranks.
+ * 
+ * @see SelectProportional
+ */
+public class SelectRank extends SelectProportional {
+	
+	/**
+	 * The expected number of times the best individual would be
+	 * drawn, were individuals drawn with replacement (1 to 2).
+	 * The worst is weighted 2 - PRESSURE.
+	 */
+	public static final double PRESSURE = 1.5;
+	
+	private static SelectRank _instance = null;
+	
+	protected SelectRank() {}
+	
+	/**
+	 * @return An instance of SelectRank
+	 */
+	public static synchronized SelectRank getInstance() {
+		if (_instance == null)
+			_instance = new SelectRank();
+		return _instance;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Weights each member linearly by its rank, from 2 - PRESSURE
+	 * for the worst to PRESSURE for the best.
+	 */
+	protected double[] weights(double[] fitness)
+	{
+		int n = fitness.length;
+		double[] sorted = new double[n];
+		// NaNs sort last; rank them as the worst instead.
+		for (int i = 0; i < n; i++)
+			sorted[i] = Double.isNaN(fitness[i]) ? Double.NEGATIVE_INFINITY : fitness[i];
+		Arrays.sort(sorted);
+		
+		double[] weights = new double[n];
+		double step = (n > 1) ? 2 * (PRESSURE - 1) / (n - 1) : 0;
+		for (int i = 0; i < n; i++)
+		{
+			double f = Double.isNaN(fitness[i]) ? Double.NEGATIVE_INFINITY : fitness[i];
+			double rank = (_lowest(sorted, f) + _highest(sorted, f)) / 2.0;
+			weights[i] = (2 - PRESSURE) + step * rank;
+		}
+		return weights;
+	}
+	
+	/**
+	 * @return The index of the first occurrence of f in sorted.
+	 */
+	private static int _lowest(double[] sorted, double f)
+	{
+		int lo = 0, hi = sorted.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < f)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * @return The index of the last occurrence of f in sorted.
+	 */
+	private static int _highest(double[] sorted, double f)
+	{
+		int lo = 0, hi = sorted.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] <= f)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo - 1;
+	}
+}
@@ -0,0 +1,74 @@
+package net.parallaxed.bluejam.evolution;
+
+import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.util.RandomSource;
+
+/**
+ * The common ground of the selectors that sample a population by
+ * fitness. Each individual is evaluated once into an array of
+ * fitness values, the subclass draws the indices of the winners
+ * from it, and the winners are added to the skeleton population.
+ *
+ * As with SelectTournament, no individual is selected twice, so at
+ * most as many individuals as there are members are selected.
+ */
+public abstract class SelectSampled implements IndividualSelector {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Population select(Population pop, int numberOfIndividuals)
+	{
+		double[] fitness = new double[pop.memberCount];
+		for (int i = 0; i < fitness.length; i++)
+			fitness[i] = pop.getIndividual(i).evaluate();
+		
+		int[] winners = select(fitness, numberOfIndividuals, RandomSource.current());
+		Population skeleton = new Population(pop);
+		try {
+			for (int i : winners)
+				skeleton.addIndividual(pop.getIndividual(i));
+		}
+		catch (IndividualAddException e) { ErrorFeedback.handle(e.getMessage(), e); }
+		return skeleton;
+	}
+	
+	/**
+	 * Selects distinct members from an array of fitness values.
+	 * 
+	 * @param fitness The fitness of each member, by index.
+	 * @param numberOfIndividuals The number of members to select.
+	 * @param mt The random number generator to draw with.
+	 * @return The indices of the selected members.
+	 */
+	public abstract int[] select(double[] fitness, int numberOfIndividuals, MersenneTwisterFast mt);
+	
+	/**
+	 * Fills the rest of the winners uniformly from the members
+	 * not yet selected, for when none of them has any weight left.
+	 * @param won Which members are already selected.
+	 * @param winners The winners, filled from index selected on.
+	 * @param selected The number of winners so far.
+	 * @param mt The random number generator to draw with.
+	 */
+	protected static void fillUniform(boolean[] won, int[] winners, int selected, MersenneTwisterFast mt)
+	{
+		int[] rest = new int[won.length - selected];
+		int n = 0;
+		for (int i = 0; i < won.length; i++)
+			if (!won[i])
+				rest[n++] = i;
+		// Partial Fisher-Yates over the members left.
+		while (selected < winners.length)
+		{
+			int j = mt.nextInt(n);
+			int i = rest[j];
+			rest[j] = rest[--n];
+			won[i] = true;
+			winners[selected++] = i;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package net.parallaxed.bluejam.evolution;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Implements stochastic universal sampling (Baker, 1987): one spin
+ * of a roulette wheel with as many equally spaced pointers as
+ * there are individuals to select, so each is selected close to
+ * its expected number of times, in one pass over the population.
+ * 
+ * Individuals under more than one pointer are selected once, and
+ * the wheel is spun again over the rest for the places left over,
+ * until the mating pool is full.
+ * 
+ * The wheel is a FenwickWheel, so each pointer finds its individual,
+ * and skips past the rest of its slice, in O(log n) time, and the
+ * winners are taken off it for the next spin in O(log n) each.
+ * 
+ * @see FenwickWheel
+ * @see SelectProportional
+ */
+public class SelectStochasticUniversal extends SelectSampled {
+	
+	private static SelectStochasticUniversal _instance = null;
+	
+	protected SelectStochasticUniversal() {}
+	
+	/**
+	 * @return An instance of SelectStochasticUniversal
+	 */
+	public static final synchronized SelectStochasticUniversal getInstance() {
+		if (_instance == null)
+			_instance = new SelectStochasticUniversal();
+		return _instance;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public int[] select(double[] fitness, int numberOfIndividuals, MersenneTwisterFast mt)
+	{
+		int n = fitness.length;
+		int[] winners = new int[Math.min(numberOfIndividuals, n)];
+		boolean[] won = new boolean[n];
+		FenwickWheel wheel = new FenwickWheel(n);
+		boolean spinnable = wheel.build(fitness);
+		int selected = 0;
+		while (selected < winners.length)
+		{
+			double total = wheel.total();
+			if (!spinnable || wheel.left() == 0 || !(total > 0))
+			{
+				fillUniform(won, winners, selected, mt);
+				break;
+			}
+			// The pointers are at start + k * step.
+			int spun = selected;
+			double step = total / (winners.length - selected);
+			double start = mt.nextDouble() * step;
+			for (int k = 0; start + k * step < total && selected < winners.length; k++)
+			{
+				int i = wheel.find(start + k * step);
+				if (i < 0 || won[i])
+					break;
+				won[i] = true;
+				winners[selected++] = i;
+				// Skip the other pointers over its slice.
+				double end = wheel.prefix(i);
+				k = Math.max(k, (int) Math.ceil((end - start) / step) - 1);
+				while (start + (k + 1) * step < end)
+					k++;
+			}
+			// Off the wheel for the next spin (rounding may have
+			// left a pointer off the end).
+			for (int w = spun; w < selected; w++)
+				wheel.remove(winners[w]);
+		}
+		return winners;
+	}
+}
@@ -1,14 +1,12 @@
 package net.parallaxed.bluejam.evolution;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import ec.util.MersenneTwisterFast;
 import net.parallaxed.bluejam.Individual;
 import net.parallaxed.bluejam.Population;
 import net.parallaxed.bluejam.PopulationParameters;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * Performs a variant of tournament selection. Unlike the classic 
@@ -27,22 +25,28 @@ import net.parallaxed.bluejam.exceptions.IndividualAddException;
  * 
  * This will still work on fitness methods other than FitnessStacked.
  * 
+ * Each individual is evaluated once, into an array of fitness
+ * values, and the tournaments are run over indices into it by
+ * select(double[], ...). Competitors are drawn without replacement
+ * by a partial Fisher-Yates shuffle of an array of the members yet
+ * to win, which is kept between tournaments, and winners are moved
+ * out of it, so no tournament allocates, searches a list or draws
+ * twice. Equal scores are broken in draw order.
+ * 
  * @see FitnessStacked
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
 public class SelectTournament implements IndividualSelector {
 	
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	private static SelectTournament _instance = null;
-	
 
 	private SelectTournament() {} 
 	
 	/**
 	 * @return An instance of SelectTournament
 	 */
-	public static final SelectTournament getInstance() {
+	public static final synchronized SelectTournament getInstance() {
 		if (_instance == null)
 			_instance = new SelectTournament();
 		return _instance;
@@ -58,34 +62,22 @@ public class SelectTournament implements IndividualSelector {
 	 */
 	public Population select(Population pop, int numberOfIndividuals) {
 		int tournamentSize = 15;
-		// TODO Throw exception?
-		if (tournamentSize * numberOfIndividuals > pop.memberCount)
-			;
-		ArrayList<Individual> winners = new ArrayList<Individual>(numberOfIndividuals);
 		PopulationParameters popParams = pop.getParameters();
 		Integer _pressure = popParams.getSelectionPressure();
 		
 		if (_pressure != null && _pressure > 1 && _pressure < pop.memberCount)
 			tournamentSize = _pressure;
 		
-		int firstRoundKnockouts = tournamentSize/2;
-		while (winners.size() < numberOfIndividuals)
-		{
-			// Sets up the tournament by selecting competitors.
-			ArrayList<Individual> competitors = setUp(pop, winners, tournamentSize);
-			// Knock out competitors using negative, fitness-proportional selection. 
-			round1(competitors, firstRoundKnockouts);
-			
-			// Standard TS : May the best fitness win...
-			winners.addAll(round2(competitors));
-		}
+		double[] fitness = new double[pop.memberCount];
+		for (int i = 0; i < fitness.length; i++)
+			fitness[i] = pop.getIndividual(i).evaluate();
 		
+		int[] winners = select(fitness, numberOfIndividuals, tournamentSize, RandomSource.current());
 		Population skeleton = new Population(pop);
 		
 		try {
-			int i = 0;
-			while (i < numberOfIndividuals)
-				skeleton.addIndividual(winners.get(i++));
+			for (int i : winners)
+				skeleton.addIndividual(pop.getIndividual(i));
 		}
 		catch (IndividualAddException e) {
 			// do nothing.
@@ -96,149 +88,181 @@ public class SelectTournament implements IndividualSelector {
 	}
 	
 	/**
-	 * Tournament set up. We add tournamentSize individuals from
-	 * population into a List of competitors.
-	 * @param population The population conducting the tournament.
-	 * @param winners So we can check the same individuals don't compete again.
-	 * @param tournamentSize The number of competitors in the tournament.
-	 * @return A list of competitors for this tournament.
+	 * Runs tournaments over an array of fitness values until
+	 * enough winners are selected. No member wins twice, so at
+	 * most fitness.length winners are returned.
+	 * 
+	 * @param fitness The fitness of each member, by index.
+	 * @param numberOfIndividuals The number of winners to select.
+	 * @param tournamentSize The number of competitors in each tournament.
+	 * @param mt The random number generator to draw with.
+	 * @return The indices of the winners, in the order they won.
+	 */
+	public int[] select(double[] fitness, int numberOfIndividuals, int tournamentSize, MersenneTwisterFast mt)
+	{
+		int members = fitness.length;
+		int[] winners = new int[Math.min(numberOfIndividuals, members)];
+		int[] competitors = new int[Math.max(1, Math.min(tournamentSize, members))];
+		// The members yet to win are pool[0, live); where[m] is
+		// the place of member m in pool.
+		int[] pool = new int[members];
+		int[] where = new int[members];
+		for (int m = 0; m < members; m++)
+			pool[m] = where[m] = m;
+		
+		int selected = 0, live = members;
+		while (selected < winners.length)
+		{
+			int size = Math.min(competitors.length, live);
+			setUp(pool, where, live, competitors, size, mt);
+			// Knock out competitors using negative, fitness-proportional selection. 
+			size = round1(fitness, competitors, size, size/2, mt);
+			// Standard TS : May the best fitness win...
+			int before = selected;
+			selected = round2(fitness, competitors, size, winners, selected);
+			// The winners can't be drawn again.
+			for (int w = before; w < selected; w++)
+				_swap(pool, where, where[winners[w]], --live);
+		}
+		return winners;
+	}
+	
+	/**
+	 * Tournament set up. Draws size of the members yet to win,
+	 * by shuffling them to the front of the pool.
+	 * @param pool The members, those yet to win first.
+	 * @param where The place of each member in the pool.
+	 * @param live The number of members yet to win.
+	 * @param competitors Filled with the competitors, in draw order.
+	 * @param size The number of competitors to draw.
+	 * @param mt The random number generator to draw with.
 	 */
-	private ArrayList<Individual> setUp(Population population, ArrayList<Individual> winners, int tournamentSize)
+	private void setUp(int[] pool, int[] where, int live, int[] competitors, int size, MersenneTwisterFast mt)
 	{
-		ArrayList<Individual> competitors =  new ArrayList<Individual>();		
-		// Get the competitors.
-		int i = tournamentSize;
-		while (i > 0)
+		for (int i = 0; i < size; i++)
 		{
-			Individual randomInd = population.getIndividual(_mt.nextInt(population.memberCount));
-			// Is this contender not in the tournament?
-			if (!competitors.contains(randomInd) && !winners.contains(randomInd))
-				i--;
-			else
-				// Can't the same tournament twice! Find another.
-				continue;
-			competitors.add(randomInd);
+			_swap(pool, where, i, i + mt.nextInt(live - i));
+			competitors[i] = pool[i];
 		}
-		return competitors;
+	}
+	
+	/**
+	 * Swaps the members at places i and j of the pool.
+	 */
+	private static void _swap(int[] pool, int[] where, int i, int j)
+	{
+		int m = pool[i];
+		pool[i] = pool[j];
+		pool[j] = m;
+		where[pool[i]] = i;
+		where[m] = j;
 	}
 	
 	/**
 	 * Round 1 performs a negative selection favouring the worst
-	 * individuals. A total of <i>firstRoundKnockouts</i> individuals are
-	 * selected and the passed competitors list is whittled down.
+	 * individuals. A total of <i>knockouts</i> competitors are
+	 * selected and removed from the front of the competitors array,
+	 * keeping the survivors in draw order.
+	 * 
+	 * Each competitor is weighted by the total score less its own,
+	 * and knocked out competitors are drawn without replacement.
+	 * If there are at least as many zero scores as knockouts, the
+	 * first of them drawn are knocked out instead.
 	 * 
-	 * @param competitors The competitors in the tournament
-	 * @param firstRoundKnockouts The number of competitors to knock out in the first round.
+	 * @param fitness The fitness of each member.
+	 * @param competitors The competitors in the tournament.
+	 * @param size The number of competitors.
+	 * @param knockouts The number of competitors to knock out.
+	 * @param mt The random number generator to draw with.
+	 * @return The number of competitors left.
 	 */
-	protected void round1(ArrayList<Individual> competitors, int firstRoundKnockouts) {
-		// Proportional knockout - Round 1.
-		int i = 0;
-		int competitorCount = competitors.size();
-		double[] scores = new double[competitorCount];
+	protected int round1(double[] fitness, int[] competitors, int size, int knockouts, MersenneTwisterFast mt)
+	{
 		double scoreTotal = 0;
-		// Track the number of individuals with score 0.
 		int zeroScores = 0;
-		for (i = 0; i < competitorCount; i++) {
-			scores[i] = competitors.get(i).evaluate();
-			scoreTotal += scores[i];
-			if (scores[i] == 0)
+		for (int i = 0; i < size; i++)
+		{
+			double score = fitness[competitors[i]];
+			scoreTotal += score;
+			if (score == 0)
 				zeroScores++;
 		}
 		
-		double[] probabilities = new double[competitorCount];
-		double probabilityTotal = 0;
-		for (i = 0; i < scores.length; i++)	{
-			// Invert the meaning of the score.
-			probabilities[i] = scoreTotal - scores[i];
-			probabilityTotal += probabilities[i];			
-		}
-		
-		// Sum up the probability matrix
-		// This does the ordering automatically.
-		for (i = 0; i < probabilities.length; i++)
+		if (zeroScores >= knockouts)
 		{
-			probabilities[i] = probabilities[i] / probabilityTotal;
-			if (i > 0)
-				probabilities[i] = probabilities[i] + probabilities[i-1];
+			for (int i = 0; i < size && knockouts > 0; i++)
+				if (fitness[competitors[i]] == 0)
+				{
+					size = _remove(competitors, size, i--);
+					knockouts--;
+				}
+			return size;
 		}
 		
-		// TODO Worst case - all have zero
-
-		ArrayList<Individual> KOs = new ArrayList<Individual>(firstRoundKnockouts);
-		
-		if (zeroScores < firstRoundKnockouts)
+		// The weights of the competitors left in.
+		double weightTotal = size * scoreTotal - scoreTotal;
+		while (knockouts-- > 0)
 		{
-			while (KOs.size() < firstRoundKnockouts)
-			{	
-				// +1 allows us to capture 0 scores.
-				double rand = _mt.nextDouble();				
-				i = 0;
-				// TODO FIX: This is not stable where we have identical scores. 
-				// Find where our randomly generated number belongs in the ordered list (selection)
-				for (double probability : probabilities)				
-					if (rand > probability)
-						i++;
-					else
-						break;
-				// Get knocked out individual.
-				Individual KO = competitors.get(i);
-				// We have our knockout - make sure it's not already in there.
-				if (!KOs.contains(KO))
-					KOs.add(KO);				
-			}
-		}
-		else
-		{
-			i = 0;
-			for (double score: scores)
+			int i = 0;
+			if (weightTotal > 0)
 			{
-				if (KOs.size() < firstRoundKnockouts)
-				{
-					if (score == 0)
-						KOs.add(competitors.get(i));
-					continue;
-				}
-				// We've filled the knockouts.
-				break;
+				double rand = mt.nextDouble() * weightTotal;
+				// The last competitor takes any rounding error.
+				for (; i < size - 1; i++)
+					if ((rand -= scoreTotal - fitness[competitors[i]]) < 0)
+						break;
 			}
+			weightTotal -= scoreTotal - fitness[competitors[i]];
+			size = _remove(competitors, size, i);
 		}
-		competitors.removeAll(KOs);
+		return size;
 	}
 	
 	/**
-	 * Further compares the fitness of the individuals.
+	 * Further compares the fitness of the competitors, and
+	 * takes the best two (or one, if one is left) as winners. 
+	 * Of equal scores, the competitor drawn first wins.
 	 * 
 	 * This method is designed for FitnessStacked, but can still
 	 * work on other fitness Functions - just becomes a 
 	 * regular TournamentSelection from here on in (fittest one wins).
 	 * 
 	 * @see FitnessStacked
+	 * @param fitness The fitness of each member.
 	 * @param competitors The competitors.
-	 * @return The winners.
+	 * @param size The number of competitors.
+	 * @param winners The winners so far, added to.
+	 * @param selected The number of winners so far.
+	 * @return The number of winners after this tournament.
 	 */
-	protected ArrayList<Individual> round2(ArrayList<Individual> competitors)
+	protected int round2(double[] fitness, int[] competitors, int size, int[] winners, int selected)
 	{
-		ArrayList<Individual> winners = new ArrayList<Individual>(2);
-		int competitorCount = competitors.size();
-		double[] scores = new double[competitorCount];
-		HashMap<Double, Individual> scoreMap = new HashMap<Double, Individual>();
-		int i = 0;
-		
-		for (i = 0; i < competitorCount; i++ )
+		int first = -1, second = -1;
+		for (int i = 0; i < size; i++)
 		{
-			Individual competitor =  competitors.get(i);
-			scores[i] = competitor.evaluate();
-			scoreMap.put(scores[i],competitor);
-		}
-		
-		Arrays.sort(scores);
-		i = scores.length;
-		while (i-- > scores.length - 2) {
-			winners.add(scoreMap.get(scores[i]));			
+			int c = competitors[i];
+			if (first < 0 || fitness[c] > fitness[first]) {
+				second = first;
+				first = c;
+			}
+			else if (second < 0 || fitness[c] > fitness[second])
+				second = c;
 		}
-		competitors.removeAll(winners);
-		return winners;
-		
+		if (first > -1 && selected < winners.length)
+			winners[selected++] = first;
+		if (second > -1 && selected < winners.length)
+			winners[selected++] = second;
+		return selected;
+	}
+	
+	/**
+	 * Removes the competitor at index i, keeping the order of the rest.
+	 * @return The number of competitors left.
+	 */
+	private static int _remove(int[] competitors, int size, int i)
+	{
+		System.arraycopy(competitors, i + 1, competitors, i, size - i - 1);
+		return size - 1;
 	}
 
 }
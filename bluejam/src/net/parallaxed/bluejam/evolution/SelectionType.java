@@ -18,7 +18,15 @@ public enum SelectionType {
 	/**
 	 * A Tournament-based Selection selection Algorithm
 	 */
-	TOURNAMENT(SelectTournament.class);
+	TOURNAMENT(SelectTournament.class),
+	/**
+	 * A proportional selection algorithm over linear ranks
+	 */
+	RANK(SelectRank.class),
+	/**
+	 * Stochastic universal sampling
+	 */
+	STOCHASTIC_UNIVERSAL(SelectStochasticUniversal.class);
 	
 	private Class<?> _impl = null;
 	
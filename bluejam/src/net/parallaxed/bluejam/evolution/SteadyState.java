@@ -0,0 +1,205 @@
+package net.parallaxed.bluejam.evolution;
+
+import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.util.RandomSource;
+
+/**
+ * Evolves a population in place, a few offspring at a time,
+ * rather than a generation at a time.
+ * 
+ * Each step picks two parents by tournament, breeds a handful
+ * of offspring from them with the population's Breeder, and
+ * puts each offspring in place of an individual chosen by the
+ * ReplacementType. The population, its stored scores and its
+ * individuals' cached fitness all carry over from step to step;
+ * only the offspring are evaluated. Offspring are always new
+ * individuals, even if the breeder passed a parent through.
+ * 
+ * Steps run on the calling thread's random stream, and aren't
+ * meant to be run on the same population from two threads.
+ * 
+ * @see ReplacementType
+ */
+public class SteadyState
+{
+	/**
+	 * The size of the tournaments parents and losers are picked
+	 * by, unless the population's selection pressure says otherwise.
+	 */
+	private static final int TOURNAMENT_SIZE = 3;
+	
+	private final int _offspring;
+	private final ReplacementType _replacement;
+	
+	/**
+	 * @param offspring The number of offspring bred each step (at least 1).
+	 * @param replacement How the individuals they replace are picked.
+	 */
+	public SteadyState(int offspring, ReplacementType replacement)
+	{
+		_offspring = Math.max(1, offspring);
+		_replacement = (replacement == null) ? ReplacementType.WORST : replacement;
+	}
+	
+	/**
+	 * @return The number of offspring bred each step.
+	 */
+	public int offspring() { return _offspring; }
+	
+	/**
+	 * @return How the individuals offspring replace are picked.
+	 */
+	public ReplacementType replacement() { return _replacement; }
+	
+	/**
+	 * Runs one step on a full population.
+	 * 
+	 * @param population The population to evolve.
+	 * @param breeder The breeder to breed offspring with.
+	 * @return The offspring, now in the population.
+	 */
+	public Individual[] step(Population population, Breeder breeder)
+	{
+		MersenneTwisterFast _mt = RandomSource.current();
+		double[] scores = scores(population);
+		
+		int size = _tournamentSize(population);
+		int first = _tournament(scores, size, _mt, true, -1);
+		int second = _tournament(scores, size, _mt, true, first);
+		Individual[] parents = new Individual[] { 
+				population.getIndividual(first), population.getIndividual(second) };
+		
+		// Breed into a small population of the parents.
+		Population brood = new Population(population);
+		brood.memberCount = parents.length + _offspring;
+		try {
+			for (Individual i : parents)
+				brood.addIndividual(i);
+		}
+		catch (IndividualAddException e) { ErrorFeedback.handle(e); }
+		breeder.breed(brood);
+		for (Individual i : parents)
+			i.population(population);
+		
+		Individual[] offspring = new Individual[brood.populationSize() - parents.length];
+		for (int i = 0; i < offspring.length; i++)
+		{
+			offspring[i] = _distinct(brood.getIndividual(parents.length + i), parents);
+			replace(population, offspring[i]);
+		}
+		return offspring;
+	}
+	
+	/**
+	 * Puts an individual in the population in place of one
+	 * picked by the ReplacementType, for example an elite.
+	 * @param population The population to put it in.
+	 * @param individual The individual to put in it.
+	 * @return The slot it was put in.
+	 */
+	public int replace(Population population, Individual individual)
+	{
+		double[] scores = scores(population);
+		int slot = (_replacement == ReplacementType.WORST) ? _worst(scores)
+				: _tournament(scores, _tournamentSize(population), RandomSource.current(), false, -1);
+		// Scored as a member of the population.
+		individual.population(population);
+		population.replaceIndividual(slot, individual, ParallelEvaluator.score(individual));
+		return slot;
+	}
+	
+	/**
+	 * @return The offspring, or if it's one of the parents, a new
+	 * individual of a copy of its notes (NoteArrays, which never
+	 * change, are shared), so it can't replace its own parent.
+	 */
+	private static Individual _distinct(Individual offspring, Individual[] parents)
+	{
+		for (Individual parent : parents)
+			if (offspring == parent)
+			{
+				NoteSequence notes = offspring.getNoteSequence();
+				try {
+					if (notes != null && !(notes instanceof NoteArray))
+						notes = notes.clone();
+				}
+				catch (CloneNotSupportedException e) { ErrorFeedback.handle(e); }
+				return new Individual(notes, offspring.getHeuristic());
+			}
+		return offspring;
+	}
+	
+	/**
+	 * Returns the population's stored scores, scoring every
+	 * individual first if there are none.
+	 * @param population A full population.
+	 * @return The scores, indexed by slot.
+	 */
+	public static double[] scores(Population population)
+	{
+		double[] scores = population.fitness();
+		if (scores != null && scores.length == population.populous.length)
+			return scores;
+		scores = new double[population.populous.length];
+		for (int i = 0; i < scores.length; i++)
+		{
+			Individual ind = population.getIndividual(i);
+			scores[i] = (ind == null) ? Double.NaN : ParallelEvaluator.score(ind);
+		}
+		population.fitness(scores);
+		return scores;
+	}
+	
+	/**
+	 * @param population The population.
+	 * @return The size of the tournaments run over the population.
+	 */
+	private static int _tournamentSize(Population population)
+	{
+		PopulationParameters params = population.getParameters();
+		Integer pressure = (params == null) ? null : params.getSelectionPressure();
+		if (pressure != null && pressure > 1 && pressure < population.memberCount)
+			return pressure;
+		return TOURNAMENT_SIZE;
+	}
+	
+	/**
+	 * Draws size slots and returns the fittest (or the least fit).
+	 * Empty slots never win, and never lose.
+	 * @param exclude A slot to draw around, or -1.
+	 */
+	private static int _tournament(double[] scores, int size, MersenneTwisterFast _mt, boolean fittest, int exclude)
+	{
+		int best = -1;
+		// Redraws count towards the limit, so this ends.
+		for (int draws = 0, drawn = 0; drawn < size && draws < 4 * size; draws++)
+		{
+			int c = _mt.nextInt(scores.length);
+			if ((c == exclude && scores.length > 1) || Double.isNaN(scores[c]))
+				continue;
+			drawn++;
+			if (best < 0 || (fittest ? scores[c] > scores[best] : scores[c] < scores[best]))
+				best = c;
+		}
+		return (best < 0) ? _worst(scores) : best;
+	}
+	
+	/**
+	 * @return The slot of the least fit individual.
+	 */
+	private static int _worst(double[] scores)
+	{
+		int worst = 0;
+		for (int i = 1; i < scores.length; i++)
+			if (scores[i] < scores[worst] || Double.isNaN(scores[worst]))
+				worst = i;
+		return worst;
+	}
+}
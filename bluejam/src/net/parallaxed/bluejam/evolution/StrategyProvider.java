@@ -0,0 +1,19 @@
+package net.parallaxed.bluejam.evolution;
+
+/**
+ * Plugs third-party strategies into the StrategyRegistry.
+ *
+ * Implementations are found with java.util.ServiceLoader: list the
+ * class in META-INF/services/net.parallaxed.bluejam.evolution.StrategyProvider
+ * on the classpath, and give it a public no-argument constructor.
+ *
+ * @see StrategyRegistry
+ */
+public interface StrategyProvider {
+	/**
+	 * Registers implementations with the registry, in place of
+	 * the built-in ones for the types given.
+	 * @param registry The registry to register with.
+	 */
+	public void register(StrategyRegistry registry);
+}
@@ -0,0 +1,181 @@
+package net.parallaxed.bluejam.evolution;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Resolves the strategies named in PopulationParameters (fitness,
+ * initialization and selection types, and genotypes) to the
+ * instances that implement them.
+ *
+ * Each type is resolved once, on first use, and the instance kept,
+ * so individuals look their strategies up without reflection. The
+ * built-in implementations are the singletons named by the types'
+ * eval(); StrategyProviders found by ServiceLoader are loaded when
+ * the registry is created, and may register their own in place of
+ * any of them.
+ *
+ * @see StrategyProvider
+ */
+public final class StrategyRegistry
+{
+	private static final String W_PROVIDER = "WARNING: Unable to load strategy provider: ";
+
+	private static StrategyRegistry _instance = null;
+
+	/**
+	 * @return The registry used by individuals and Evolve.
+	 */
+	public static synchronized StrategyRegistry getInstance()
+	{
+		if (_instance == null)
+		{
+			_instance = new StrategyRegistry();
+			_instance.loadProviders(StrategyRegistry.class.getClassLoader());
+		}
+		return _instance;
+	}
+
+	private final AtomicReferenceArray<IndividualEvaluator> _evaluators =
+		new AtomicReferenceArray<IndividualEvaluator>(FitnessType.values().length);
+	private final AtomicReferenceArray<NoteSequenceInitializer> _initializers =
+		new AtomicReferenceArray<NoteSequenceInitializer>(InitializationType.values().length);
+	private final AtomicReferenceArray<IndividualSelector> _selectors =
+		new AtomicReferenceArray<IndividualSelector>(SelectionType.values().length);
+	private final AtomicReferenceArray<GenotypeFactory> _genotypes =
+		new AtomicReferenceArray<GenotypeFactory>(Genotype.values().length);
+
+	/**
+	 * Creates a registry of the built-in strategies only.
+	 */
+	public StrategyRegistry() { }
+
+	/**
+	 * Lets every StrategyProvider visible to the class loader
+	 * register its strategies.
+	 * @param loader The class loader to look for providers with.
+	 */
+	public void loadProviders(ClassLoader loader)
+	{
+		try {
+			for (StrategyProvider provider : ServiceLoader.load(StrategyProvider.class, loader))
+				provider.register(this);
+		}
+		catch (Error e) {
+			// ServiceConfigurationError, or a provider failing to link.
+			ErrorFeedback.warn(W_PROVIDER+e.getMessage(), e);
+		}
+	}
+
+	////// REGISTRATION
+	public void register(FitnessType type, IndividualEvaluator evaluator) {
+		_evaluators.set(type.ordinal(), evaluator);
+	}
+
+	public void register(InitializationType type, NoteSequenceInitializer initializer) {
+		_initializers.set(type.ordinal(), initializer);
+	}
+
+	public void register(SelectionType type, IndividualSelector selector) {
+		_selectors.set(type.ordinal(), selector);
+	}
+
+	public void register(Genotype type, GenotypeFactory factory) {
+		_genotypes.set(type.ordinal(), factory);
+	}
+	//////
+
+	////// LOOKUP
+	/**
+	 * @param type A fitness type.
+	 * @return The evaluator for the type, or null if there isn't one.
+	 */
+	public IndividualEvaluator evaluator(FitnessType type)
+	{
+		IndividualEvaluator e = _evaluators.get(type.ordinal());
+		if (e == null)
+		{
+			switch (type) {
+				case STACKED: e = FitnessStacked.getInstance(); break;
+				case RANDOM: e = FitnessRandom.getInstance(); break;
+				case INTERVAL: e = FitnessInterval.getInstance(); break;
+				case CONTOUR: e = FitnessContour.getInstance(); break;
+				case DISTANCE: e = FitnessDistance.getInstance(); break;
+			}
+			if (!_evaluators.compareAndSet(type.ordinal(), null, e))
+				e = _evaluators.get(type.ordinal());
+		}
+		return e;
+	}
+
+	/**
+	 * @param type An initialization type.
+	 * @return The initializer for the type, or null if there isn't one.
+	 */
+	public NoteSequenceInitializer initializer(InitializationType type)
+	{
+		NoteSequenceInitializer i = _initializers.get(type.ordinal());
+		if (i == null)
+		{
+			switch (type) {
+				case RANDOM: i = InitializeRandom.getInstance(); break;
+				case GROW: i = InitializeGrow.getInstance(); break;
+				case HEURISTIC: i = InitializeHeuristicTree.getInstance(); break;
+			}
+			if (!_initializers.compareAndSet(type.ordinal(), null, i))
+				i = _initializers.get(type.ordinal());
+		}
+		return i;
+	}
+
+	/**
+	 * @param type A selection type.
+	 * @return The selector for the type, or null if there isn't one.
+	 */
+	public IndividualSelector selector(SelectionType type)
+	{
+		IndividualSelector s = _selectors.get(type.ordinal());
+		if (s == null)
+		{
+			switch (type) {
+				case PROPORTIONAL: s = SelectProportional.getInstance(); break;
+				case TOURNAMENT: s = SelectTournament.getInstance(); break;
+				case RANK: s = SelectRank.getInstance(); break;
+				case STOCHASTIC_UNIVERSAL: s = SelectStochasticUniversal.getInstance(); break;
+			}
+			if (!_selectors.compareAndSet(type.ordinal(), null, s))
+				s = _selectors.get(type.ordinal());
+		}
+		return s;
+	}
+
+	/**
+	 * @param type A genotype.
+	 * @return The factory for the genotype, or null if there isn't one.
+	 */
+	public GenotypeFactory genotype(Genotype type)
+	{
+		GenotypeFactory g = _genotypes.get(type.ordinal());
+		if (g == null)
+		{
+			// The built-in genotypes are all grown as NoteTrees;
+			// NoteArrays are packed from the tree afterwards.
+			g = TREE;
+			if (!_genotypes.compareAndSet(type.ordinal(), null, g))
+				g = _genotypes.get(type.ordinal());
+		}
+		return g;
+	}
+	//////
+
+	private static final GenotypeFactory TREE = new GenotypeFactory() {
+		public NoteSequence create(SequenceParameters params) {
+			return new NoteTree(params);
+		}
+	};
+}
@@ -0,0 +1,35 @@
+package net.parallaxed.bluejam.evolution;
+
+/**
+ * An enum of the ways islands can be connected for migration.
+ * @see Island
+ */
+public enum Topology {
+	/**
+	 * Each island sends migrants to the next, and the last to
+	 * the first.
+	 */
+	RING,
+	/**
+	 * Each island sends migrants to every other.
+	 */
+	FULL;
+	
+	/**
+	 * @param island The index of an island.
+	 * @param islands The number of islands.
+	 * @return The indices of the islands it sends migrants to.
+	 */
+	public int[] neighbours(int island, int islands)
+	{
+		if (islands < 2)
+			return new int[0];
+		if (this == RING)
+			return new int[] { (island + 1) % islands };
+		int[] all = new int[islands - 1];
+		for (int i = 0, j = 0; i < islands; i++)
+			if (i != island)
+				all[j++] = i;
+		return all;
+	}
+}
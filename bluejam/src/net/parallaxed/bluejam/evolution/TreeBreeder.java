@@ -1,4 +1,7 @@
 package net.parallaxed.bluejam.evolution;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import ec.util.MersenneTwisterFast;
 import net.parallaxed.bluejam.Individual;
 import net.parallaxed.bluejam.Mutable;
@@ -7,14 +10,13 @@ import net.parallaxed.bluejam.NoteSequence;
 import net.parallaxed.bluejam.NoteTree;
 import net.parallaxed.bluejam.Population;
 import net.parallaxed.bluejam.PopulationParameters;
-import net.parallaxed.bluejam.Rhythm;
-
 import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.TreeIndex;
 import net.parallaxed.bluejam.exceptions.BreedException;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
-import net.parallaxed.bluejam.exceptions.IndividualAddException;
-import net.parallaxed.bluejam.exceptions.SequenceException;
 import net.parallaxed.bluejam.playback.MIDI;
+import net.parallaxed.bluejam.util.CpuAccount;
+import net.parallaxed.bluejam.util.RandomSource;
 
 /**
  * TreeBreeder is the default implementation of the Breeder
@@ -25,13 +27,23 @@ import net.parallaxed.bluejam.playback.MIDI;
  * there may be more than one breeder available at any
  * one time.
  * 
+ * A generation is bred in one go: the free slots of the population
+ * are reserved, and a mating pair planned for every two of them,
+ * up front. The pairs are then bred in batches on a fork-join
+ * pool, each on its own random stream keyed by the generation and
+ * the pair, and their children written straight into the slots
+ * reserved for them. Parents are never changed; children are
+ * copies (or grafts, for persistent trees) of them, so the pairs
+ * can share parents safely, and the generation comes out the same
+ * however many threads breed it. Each task charges its CPU time to
+ * the account of the thread breeding, if it has one.
+ * 
  * TODO Check working implementation of other NoteSequence representations.
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
 public class TreeBreeder implements Breeder {
 
-	private static final MersenneTwisterFast _mt = net.parallaxed.bluejam.util.MersenneTwisterFast.getInstance();
 	//////
 	/**
 	 * @return The maximum number of times we run breeding functions over any single or pair of individuals. 
@@ -39,6 +51,12 @@ public class TreeBreeder implements Breeder {
 	public int maxBreedCycles() { return _maxBreedCycles; }
 	private int _maxBreedCycles = 5;
 	private Population p = null;
+	/**
+	 * The number of pairs a task breeds itself before it splits
+	 * the work in two.
+	 */
+	private static final int THRESHOLD = 8;
+	private final ForkJoinPool _forkJoinPool;
 	/**
 	 * Sets the maximum number of times we run a breeding 
 	 * process for each Individual pair. Default = 5.
@@ -73,16 +91,29 @@ public class TreeBreeder implements Breeder {
 	/**
 	 * Instantiates a TreeBuilder trivially.
 	 */
-	public TreeBreeder() {}
+	public TreeBreeder() {
+		_forkJoinPool = ParallelEvaluator.getPool();
+	}
 	/**
 	 * Instantiates a TreeBreeder with the passed parameters.
 	 * @param maxBreedCycles 
 	 * @param crossoverProbability
 	 */
 	public TreeBreeder(int maxBreedCycles, double crossoverProbability) 
+	{
+		this(maxBreedCycles, crossoverProbability, ParallelEvaluator.getPool());
+	}
+	/**
+	 * Instantiates a TreeBreeder breeding on the given pool.
+	 * @param maxBreedCycles 
+	 * @param crossoverProbability
+	 * @param pool The pool to run breeding tasks on.
+	 */
+	public TreeBreeder(int maxBreedCycles, double crossoverProbability, ForkJoinPool pool) 
 	{
 		_maxBreedCycles = maxBreedCycles;
 		_crossoverProbability = crossoverProbability;
+		_forkJoinPool = pool;
 	}
 	
 	/**
@@ -90,61 +121,161 @@ public class TreeBreeder implements Breeder {
 	 */
 	public void breed(Population population)
 	{
+		MersenneTwisterFast _mt = RandomSource.current();
 		p = population; 
 		/*
 		 * So, population gets passed in.
 		 * 
-		 * From there, we select two random/arbitrary individuals, 
-		 * get their crossover points.
+		 * The individuals in it are the parents. We reserve the
+		 * rest of the slots, and pick two random parents for
+		 * every two slots.
 		 * 
-		 * Probability of Mutation/Crossover kicks in.
-		 * We decide randomly how many cycles to do on this individual (1 < x < MAX)
+		 * For each pair, probability of Mutation/Crossover kicks in.
+		 * We decide randomly how many cycles to do on the pair (1 < x < MAX)
 		 * 
-		 * Pick two random crossover points at the same level
+		 * Crossover picks two random crossover points at the same level
 		 * If none exist at the same level (or in a compatible level), we
-		 * abandon and try again.
+		 * abandon and carry on.
 		 *  
-		 * Add the new individual to the population
-		 * 
-		 * Keep going UNTIL we max out the population.
+		 * The pair's two children go into its two slots, which
+		 * fills the population.
 		 */
-		int c = 0;
-		Individual i1 = null;
-		// Try a few times to get it right
-		while (i1 == null && c++ < 5)
-			i1 = population.getRandomIndividual();
+		int parentCount = 0;
+		Individual[] parents = new Individual[population.populationSize()];
+		for (Individual i : population)
+			if (parentCount < parents.length)
+				parents[parentCount++] = i;
 		
-		if (i1 == null)
+		if (parentCount == 0)
 		{
 			ErrorFeedback.handle("ERROR: Population is returning null members - discontinuing", new BreedException(population));
 			return;
 		}
 		
-		// Make sure we get a different reference.
-		Individual i2 = i1;
+		int[] slots = new int[population.memberCount];
+		int slotCount = 0, slot;
+		while (slotCount < slots.length && (slot = population.reserve()) > -1)
+			slots[slotCount++] = slot;
 		
-		while (i2 == i1)
-			i2 = population.getRandomIndividual();
+		// Plan the pairs, making sure each gets two different parents.
+		int pairs = (slotCount + 1) / 2;
+		Individual[] mates = new Individual[2 * pairs];
+		for (int i = 0; i < pairs; i++)
+		{
+			int a = _mt.nextInt(parentCount);
+			int b = a;
+			while (b == a && parentCount > 1)
+				b = _mt.nextInt(parentCount);
+			mates[2 * i] = parents[a];
+			mates[2 * i + 1] = parents[b];
+		}
+		
+		// Names this generation's streams.
+		long generation = _mt.nextLong();
+		_forkJoinPool.invoke(new BreedTask(generation, mates, slots, slotCount, 0, pairs, CpuAccount.current()));
+	}
+	
+	/**
+	 * Breeds the pairs [from, to), splitting in half until the
+	 * range is under THRESHOLD.
+	 */
+	private final class BreedTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final long _generation;
+		private final Individual[] _mates;
+		private final int[] _slots;
+		private final int _slotCount, _from, _to;
+		private final CpuAccount _account;
+
+		BreedTask(long generation, Individual[] mates, int[] slots, int slotCount, int from, int to, CpuAccount account)
+		{
+			_generation = generation;
+			_mates = mates;
+			_slots = slots;
+			_slotCount = slotCount;
+			_from = from;
+			_to = to;
+			_account = account;
+		}
+
+		protected void compute()
+		{
+			if (_to - _from <= THRESHOLD)
+			{
+				long start = (_account == null) ? 0 : CpuAccount.time();
+				for (int pair = _from; pair < _to; pair++)
+				{
+					RandomSource.enter(RandomSource.key(RandomSource.BREEDING, _generation, pair));
+					try {
+						_mate(_mates[2 * pair], _mates[2 * pair + 1], 2 * pair, _slots, _slotCount);
+					}
+					finally {
+						RandomSource.exit();
+					}
+				}
+				if (_account != null)
+					_account.charge(start);
+				return;
+			}
+			int mid = (_from + _to) >>> 1;
+			invokeAll(new BreedTask(_generation, _mates, _slots, _slotCount, _from, mid, _account),
+					new BreedTask(_generation, _mates, _slots, _slotCount, mid, _to, _account));
+		}
+	}
+	
+	/**
+	 * Breeds a pair of parents for a few cycles, and puts their
+	 * children in the slots reserved for them. A child that no
+	 * cycle changed is its parent, reproduced as a new Individual.
+	 * 
+	 * @param i1 The first parent.
+	 * @param i2 The second parent.
+	 * @param first The index in slots of the pair's first slot.
+	 * @param slots The reserved slots.
+	 * @param slotCount The number of reserved slots.
+	 */
+	private void _mate(Individual i1, Individual i2, int first, int[] slots, int slotCount)
+	{
+		MersenneTwisterFast _mt = RandomSource.current();
+		Individual[] parents = new Individual[] { i1, i2 };
+		NoteTree[] children = new NoteTree[2];
 		
 		// How many cycles will we do?
 		int numCycles = _mt.nextInt(_maxBreedCycles);
 		if (numCycles == 0)
 			numCycles++;
 		
-		while (numCycles-- > 0)
-		{
-			// Are we going to crossover?			
-			if (_mt.nextDouble() < _crossoverProbability)
-				crossover(i1,i2);
-			else
-				// Select one individual randomly for mutation.
-				mutate((_mt.nextBoolean() ? i1 : i2));
+		try {
+			while (numCycles-- > 0)
+			{
+				// Are we going to crossover?			
+				if (_mt.nextDouble() < _crossoverProbability)
+					crossover(parents, children);
+				else
+					// Select one child randomly for mutation.
+					mutate(parents, children, (_mt.nextBoolean() ? 0 : 1));
+			}
 		}
-		
-		// Repeat until we're full.
-		if (population.populationSize() < population.memberCount)
-			 breed(population);
+		catch (ClassCastException e) {
 			
+		}
+		
+		for (int c = 0; c < 2 && first + c < slotCount; c++)
+			p.setIndividual(slots[first + c], (children[c] == null) ? _reproduce(parents[c]) 
+					: new Individual(children[c], parents[c].getHeuristic()));
+	}
+	
+	/**
+	 * @return A new individual of the parent's notes. A persistent
+	 * tree is shared, as it's never changed; any other is cloned.
+	 */
+	private Individual _reproduce(Individual parent)
+	{
+		NoteSequence notes = parent.getNoteSequence();
+		if (notes instanceof NoteTree && !_persistent(parent))
+			notes = ((NoteTree) notes).clone();
+		return new Individual(notes, parent.getHeuristic());
 	}
 	
 	/**
@@ -159,115 +290,127 @@ public class TreeBreeder implements Breeder {
 	 * @param nt2 The note tree to combine with.
 	 */
 	public void recombine(NoteTree nt1, NoteTree nt2) {
-		try { _crossover(nt1, nt2); }
-		catch (SequenceException e) { ErrorFeedback.handle(e); }
+		_crossover(nt1, nt2);
 	}
 	
 	/**
-	 * Performs a greedy search for all crossover points on a 
-	 * note tree.
+	 * Picks a crossover point in each tree, at the same depth
+	 * (so accepting the same rhythm), from the trees' indexes.
+	 * 
+	 * @return The paths to the point in nt1 and the point in nt2, or null if none were found.
 	 */
-	private NoteSequence greedySelect(NoteTree selectedPoint) {
-		NoteSequence[] subTrees = selectedPoint.getSubTrees();
-		if (subTrees.length < 1)
-			return selectedPoint;
-		return subTrees[_mt.nextInt(subTrees.length)]; 
-	}
-		
-	private NoteTree[] _crossover(NoteTree nt1, NoteTree nt2) throws SequenceException
+	private int[][] _selectPoints(NoteTree nt1, NoteTree nt2)
 	{
-				
-		// getCrossoverReferences always returns the minimal set of
-		// points, we can get greedy later if this is too small.
-		NoteSequence[] pointSet1 = nt1.getCrossoverReferences();
-		NoteSequence[] pointSet2 = nt2.getCrossoverReferences();
+		MersenneTwisterFast _mt = RandomSource.current();
+		// The crossover points are the minimal set of points,
+		// we can get greedy later if this is too small.
+		TreeIndex index1 = nt1.index();
+		TreeIndex index2 = nt2.index();
 		
 		int maxAttempts = 3;
 		
 		for (int attempts = 0; attempts < maxAttempts; attempts++ )
 		{
-			NoteSequence selectedPoint = pointSet1[_mt.nextInt(pointSet1.length)];
-
-			Rhythm acceptedRhythm = null;
-			if (selectedPoint.getClass() == NoteTree.class)
-				acceptedRhythm  = ((NoteTree)selectedPoint).acceptedRhythm();
-			// TODO FIX THIS FOR NOTE LEAVES
-			else if (selectedPoint.getClass() == NoteLeaf.class)
-			;	//acceptedRhythm = ((NoteLeaf) selectedPoint)
-			
-			if (acceptedRhythm == null)
-				continue;
+			int[] selectedPath = index1.randomCrossoverPoint(_mt);
+			if (selectedPath == null)
+				return null;
+			NoteTree selectedPoint = (NoteTree) nt1.nodeAt(selectedPath);
 			
 			// Check the node we picked isn't too far up the tree
-			int selectedPointRhythm = acceptedRhythm.eval();
-			if (selectedPointRhythm <= 2)					
-				// getGreedy
-				selectedPoint = greedySelect((NoteTree) selectedPoint);
-			
-			NoteTree matchingPoint = null;
-			
-			int i = 0;
-
-			// Find a point in pointSet2 with the same Rhythm or less.
-			while (matchingPoint == null && i < pointSet2.length)
+			// (i.e. it accepts a minim or longer), and if it is,
+			// get greedy and pick something underneath it.
+			if (selectedPoint.depth() <= 1)
 			{
-				NoteTree point = (NoteTree) pointSet2[i++];
-				Rhythm pointRhythm = point.acceptedRhythm();
-				
-				if (pointRhythm.eval() == selectedPointRhythm)
-					matchingPoint = point;
-				
-				if (pointRhythm.eval() < selectedPointRhythm)
+				int[] below = selectedPoint.index().randomFreeSubTree(_mt);
+				if (below != null)
 				{
-					int depth = selectedPointRhythm / pointRhythm.eval();
-					// Dirty c-style.
-					// Search down the leftmost branch if there is a point
-					// we can use - DO NOT SWAP NULL CHILDREN!!!
-					while ((point = (NoteTree)point.getChild(i)) != null && --depth > 0) ;
+					int[] path = new int[selectedPath.length + below.length];
+					System.arraycopy(selectedPath, 0, path, 0, selectedPath.length);
+					System.arraycopy(below, 0, path, selectedPath.length, below.length);
+					selectedPath = path;
+					selectedPoint = (NoteTree) nt1.nodeAt(path);
 				}
-				
-				if (matchingPoint != null)
-					break;
-				// If we're here, we didn't find one, so lets move on
-			}
-			// Check again
-			if (matchingPoint != null)
-			{
-				nt1.swapNotes(selectedPoint, matchingPoint);
-				nt2.swapNotes(matchingPoint, selectedPoint);
-
-				return new NoteTree[] { nt1, nt2 };
 			}
+			// The root can't be swapped.
+			if (selectedPoint.depth() < 1)
+				continue;
+			
+			int[] matchingPath = index2.randomFreeSubTree(selectedPoint.depth(), _mt);
+			if (matchingPath != null)
+				return new int[][] { selectedPath, matchingPath };
 		}
+		return null;
+	}
+		
+	private NoteTree[] _crossover(NoteTree nt1, NoteTree nt2)
+	{
+		int[][] points = _selectPoints(nt1, nt2);
+		if (points != null && NoteTree.exchange(nt1.nodeAt(points[0]), nt2.nodeAt(points[1])))
+			return new NoteTree[] { nt1, nt2 };
 		ErrorFeedback.handle("WARNING: No compatible crossover points found for "+nt1.toString()+" and " +nt2.toString()+"." , new BreedException());		
 		return null;
 	}
 	
-	private void crossover(Individual i1, Individual i2)
+	/**
+	 * @return True if the population breeds persistent trees.
+	 */
+	private boolean _persistent(Individual i)
 	{
-		try {
-			NoteTree nt1 = ((NoteTree) i1.getNoteSequence()).clone();			
-			NoteTree nt2 = ((NoteTree) i2.getNoteSequence()).clone();
-			
-			NoteTree[] children = _crossover(nt1, nt2);
-			// Failed to do crossover on the children.
-			if (children == null)
-				return;
-			
-			// Add the new individuals to the population
-			p.addIndividual(new Individual(nt1,i1.getHeuristic()));
-			p.addIndividual(new Individual(nt2,i2.getHeuristic()));
-			
-		}
-		catch (ClassCastException e) {
-			
-		}
-		catch (SequenceException e) {
-			ErrorFeedback.handle("WARNING: Crossover failed on "+i1.toString()+" and "+i2.toString()+".", e);
+		PopulationParameters popParams = i.getParameters();
+		return popParams != null && popParams.getGenotype() == Genotype.PERSISTENT_TREE;
+	}
+	
+	/**
+	 * @return The tree of the child c, which is its parent's until changed.
+	 */
+	private static NoteTree _tree(Individual[] parents, NoteTree[] children, int c)
+	{
+		if (children[c] != null)
+			return children[c];
+		return (NoteTree) parents[c].getNoteSequence();
+	}
+	
+	/**
+	 * Crosses the pair's children over. Children that are still
+	 * their parents are copied first; persistent trees are grafted.
+	 */
+	private void crossover(Individual[] parents, NoteTree[] children)
+	{
+		NoteTree nt1 = _tree(parents, children, 0);
+		NoteTree nt2 = _tree(parents, children, 1);
+		
+		// Pick the points on the trees, whose indexes are kept
+		// for as long as they're bred from.
+		int[][] points = _selectPoints(nt1, nt2);
+		// Failed to do crossover on the children.
+		if (points == null)
+		{
+			ErrorFeedback.handle("WARNING: No compatible crossover points found for "+nt1.toString()+" and " +nt2.toString()+"." , new BreedException());
+			return;
 		}
-		catch (IndividualAddException e) {
-			// population full - ignore this.
+		if (_persistent(parents[0]))
+		{
+			// The children share all but the path to the swapped
+			// subtrees with their parents.
+			NoteTree child1 = nt1.graft(points[0], nt2.nodeAt(points[1]));
+			NoteTree child2 = nt2.graft(points[1], nt1.nodeAt(points[0]));
+			if (child1 == null || child2 == null)
+				return;
+			children[0] = child1;
+			children[1] = child2;
+			return;
 		}
+		// Find the same points in the copies.
+		if (children[0] == null)
+			nt1 = nt1.clone();
+		if (children[1] == null)
+			nt2 = nt2.clone();
+		NoteSequence point1 = nt1.nodeAt(points[0]);
+		NoteSequence point2 = nt2.nodeAt(points[1]);
+		if (point1 == null || point2 == null || !NoteTree.exchange(point1, point2))
+			return;
+		children[0] = nt1;
+		children[1] = nt2;
 	}
 	
 	/*
@@ -280,11 +423,13 @@ public class TreeBreeder implements Breeder {
 	 * 
 	 * TODO Factor out mutation operators
 	 */
-	private void mutate(Individual i)
+	private void mutate(Individual[] parents, NoteTree[] children, int c)
 	{
 		// What shall we do?
-		NoteLeaf[] mutationRefs = ((NoteTree)i.getNoteSequence()).getMutationReferences();
-		NoteLeaf nl = mutationRefs[_mt.nextInt(mutationRefs.length)];
+		MersenneTwisterFast _mt = RandomSource.current();
+		Individual i = parents[c];
+		NoteTree notes = _tree(parents, children, c);
+		int[] leafPath = notes.index().randomMutableLeaf(_mt);
 		PopulationParameters popParams = i.getParameters();
 		SequenceParameters sp = null;
 				
@@ -292,6 +437,29 @@ public class TreeBreeder implements Breeder {
 			sp = popParams.getSequenceParameters();
 		//ScaledSet scale = sp.Jam.getScaledSet();
 		
+		if (leafPath == null)
+			return;
+		if (_persistent(i))
+		{
+			// Mutate a copy of the leaf, in a copy of the path to it.
+			NoteLeaf nl = ((NoteLeaf) notes.nodeAt(leafPath)).clone();
+			if (_mutate(nl, sp, _mt))
+				children[c] = notes.graft(leafPath, nl);
+			return;
+		}
+		// The parent is left as it is.
+		if (children[c] == null)
+			notes = notes.clone();
+		if (_mutate((NoteLeaf) notes.nodeAt(leafPath), sp, _mt))
+			children[c] = notes;
+	}
+	
+	/**
+	 * Applies a random mutation operator to the leaf.
+	 * @return False if no operator could be applied.
+	 */
+	private boolean _mutate(NoteLeaf nl, SequenceParameters sp, MersenneTwisterFast _mt)
+	{
 		int maxAttempts = 3;
 		for (int attempts = 0; attempts < maxAttempts; attempts++)
 		{
@@ -305,14 +473,14 @@ public class TreeBreeder implements Breeder {
 				if (nl.isRelative())
 				{
 					nl.pitchRelative((_mt.nextBoolean() ? nl.pitchRelative() + 2 : nl.pitchRelative()-2) );
-					return;
+					return true;
 				}
 				else {
 					float noteNum = MIDI.noteToNumber(nl);
 					noteNum += (_mt.nextBoolean() ? 2 : -2);
 					// TODO Fix this across octaves.
 					nl.pitchClass(MIDI.numberToNote(noteNum).pitchClass());
-					return;
+					return true;
 				}
 			}			
 			if (mutClass == 1 && (Mutable.RHYTHM & nl.mutable()) != 0)
@@ -323,10 +491,10 @@ public class TreeBreeder implements Breeder {
 					// Swing remove
 					case 0:
 						nl.swingNote(0, null);
-						return;						
+						return true;						
 					case 1: 
 						nl.toggleRest();
-						return;
+						return true;
 						// Add rest/new pitch.
 					case 2: 
 						// This shouldn't happen... but just in case.
@@ -335,15 +503,10 @@ public class TreeBreeder implements Breeder {
 						// TODO Find out why this breaks everything
 						// Rhythm is added automatically.
 						//nl.addNotes(scale.getRandom((Note)nl));
-						return;					
+						return true;					
 				}			
 			}
 		}
-		try {
-			p.addIndividual(i);
-		}
-		catch (IndividualAddException e) {
-			
-		}		
+		return false;
 	}
 }
@@ -30,9 +30,24 @@ public class ErrorFeedback
 		handle(e);
 	}
 	
+	/**
+	 * Prints out a warning, and its cause, and carries on; the
+	 * cause is never rethrown, whatever its type.
+	 * 
+	 * @param message The warning to display
+	 * @param cause The causing exception or error, or null
+	 */
+	public static void warn(String message, Throwable cause)
+	{
+		System.out.println(message+"\r\n");
+		if (cause != null)
+			System.out.println("Caused by: "+cause+"\r\n");
+	}
+	
 	/**
 	 * Handles regular exceptions. Some get error
-	 * messages printed, some get silenced.
+	 * messages printed, some get silenced; the rest are
+	 * rethrown. Use warn() for anything that shouldn't be.
 	 * 
 	 * @param e The exception to handle.
 	 */
@@ -47,8 +62,6 @@ public class ErrorFeedback
 			return;
 		if (e.getClass() == ValidationException.class)
 			return;
-		if (e.getMessage().matches("(?i).*?WARNING.*"))
-			return;
 		
 		throw new RuntimeException(e);
 	}
@@ -6,8 +6,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 
+import net.parallaxed.bluejam.EvolutionService;
 import net.parallaxed.bluejam.Evolve;
 import net.parallaxed.bluejam.HeuristicCollection;
 import net.parallaxed.bluejam.Note;
@@ -16,16 +18,14 @@ import net.parallaxed.bluejam.JamParamters;
 import net.parallaxed.bluejam.Pitch;
 import net.parallaxed.bluejam.PopulationParameters;
 import net.parallaxed.bluejam.Scale;
-import net.parallaxed.bluejam.ScaledSet;
 import net.parallaxed.bluejam.SequenceParameters;
 import net.parallaxed.bluejam.TreeParser;
 import net.parallaxed.bluejam.JamParamters.Config;
 import net.parallaxed.bluejam.evolution.HeuristicSelectionType;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.ParameterException;
-import net.parallaxed.bluejam.exceptions.ValidationException;
-import net.parallaxed.bluejam.grammar.ModelParser;
 import net.parallaxed.bluejam.grammar.PitchModel;
+import net.parallaxed.bluejam.playback.CandidateBuffer;
 import net.parallaxed.bluejam.playback.Listener;
 import net.parallaxed.bluejam.playback.MIDI;
 
@@ -62,9 +62,16 @@ import com.cycling74.max.MaxObject;
  */
 public class Configure extends MaxObject implements Executable, Listener
 {
-	private static QueueLoader _queueLoader = null;
+	/**
+	 * The most sequences queued for playback, and the number the
+	 * evolution keeps ready.
+	 */
+	private static final int BUFFER_DEPTH = 5;
+	private static final int BUFFER_PREFETCH = 2;
+	private static final String CONFIG_DIR = "./extra/bluejam/config/";
 	
 	private Evolve evolution = null;
+	private EvolutionService.Session _session = null;
 	private int populationSize = 50;
 	private PopulationParameters popParams = null;
 	
@@ -85,7 +92,7 @@ public class Configure extends MaxObject implements Executable, Listener
 	private boolean _changed = false;
 	
 	private HeuristicCollection hCollection = new HeuristicCollection();
-	private HashMap<Pitch, PitchModel> models = new HashMap<Pitch, PitchModel>();
+	private Map<Pitch, PitchModel> models = new HashMap<Pitch, PitchModel>();
 	private int _currentSequenceFeedback = 0;
 	private Note play = null;
 	private NoteSequence _activeNotes = null; 
@@ -93,8 +100,7 @@ public class Configure extends MaxObject implements Executable, Listener
 	
 //	private Iterator<Note> _sequenceBuffer = null;
 	private volatile ArrayList<NoteSequence> _played = new ArrayList<NoteSequence>();
-	private volatile ArrayList<NoteSequence> _activeNS = new ArrayList<NoteSequence>();
-	private volatile ArrayList<Iterator<Note>> _queue = new ArrayList<Iterator<Note>>();
+	private volatile CandidateBuffer _buffer = new CandidateBuffer(BUFFER_DEPTH, BUFFER_PREFETCH);
 	private JamParamters _config = new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120);
 	double offset = 0d;
 	
@@ -104,7 +110,6 @@ public class Configure extends MaxObject implements Executable, Listener
 	 */
 	public Configure()
 	{
-		_queueLoader = new QueueLoader(this);
 		_config = new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120);
 		File f = new File(".");
 		try {
@@ -181,14 +186,10 @@ public class Configure extends MaxObject implements Executable, Listener
 		if (n != null) {
 			n.sequenceParameters().Jam = _config;
 			n.sequenceParameters().Changed = _changed;
-			try { 
-				n.validateNotes();
-				_activeNS.add(n);
-				_queue.add(n.getNotes());
-			}
-			catch (ValidationException e) {
-				ErrorFeedback.handle(e.getMessage(), e);
-			}
+			// Evolved candidates are put in the buffer (validated) by
+			// the evolution itself.
+			if (evolution == null)
+				_buffer.offer(n);
 			//n.sequenceParameters().Changed = _changed = false;
 		}
 		// Have we started yet?
@@ -198,7 +199,7 @@ public class Configure extends MaxObject implements Executable, Listener
 	
 
 	/**
-	 * Checks a loaded NoteSequence in available in _queue, and
+	 * Checks a loaded NoteSequence in available in _buffer, and
 	 * sets up the play() function to read the contents of 
 	 * _currentSequence (an iterator over _activeNotes).
 	 */
@@ -214,12 +215,13 @@ public class Configure extends MaxObject implements Executable, Listener
 			 * TODO Deal intelligently with buffer underruns.
 			 */
 			_activeNotes = null;
-			post("Queue Size: "+_queue.size());
+			post("Queue Size: "+_buffer.fill());
 			
-			if (_queue.size() > 0)
+			NoteSequence next = _buffer.poll();
+			if (next != null)
 			{
-				_currentSequence = _queue.remove(0);
-				_activeNotes = _activeNS.remove(0);
+				_activeNotes = next;
+				_currentSequence = next.getNotes();
 			}
 							
 			// If the queue is null - replay the last buffer in single file mode
@@ -243,17 +245,26 @@ public class Configure extends MaxObject implements Executable, Listener
 					//System.out.println("Detected change.");
 					_activeNotes.validateNotes();
 					_currentSequence = _activeNotes.getNotes();
-					// We need to re-evaluate the queue with the changed parameters.
-					if (_queue.size() > 0)
-						new Thread(_queueLoader,"ReEvalauteQueue").start();
+					// Sequences queued since the change were validated with it;
+					// once those from before have played, we're up to date.
+					if (_buffer.fill() == 0)
+						_activeNotes.sequenceParameters().Changed = _changed = false;
 				}
 				//System.out.println("Scale Pitch: "+_activeNotes.sequenceParameters().Jam.rootPitch().toString());
 				ready = true;
 				if (evolution != null)
+				{
 					outlet(2,evolution.generations());
+					// Nothing queued behind this one: the next has to be
+					// bred in the time this one takes to play.
+					if (_buffer.fill() == 0)
+						evolution.deadline(System.nanoTime() + (long) (_activeNotes.sequenceParameters().duration() * 1000000));
+				}
 			}
 			else {
 				// buffer underrun :(
+				if (evolution != null)
+					evolution.deadline(System.nanoTime());
 				ErrorFeedback.handle("Buffer Underrun", new Exception());
 			}
 		}
@@ -273,8 +284,9 @@ public class Configure extends MaxObject implements Executable, Listener
 		listen(file);
 	}
 	/**
-	 * Kickstarts the evolution process by re-reading the
-	 * config directory and restarting the evolution thread.
+	 * Kickstarts the evolution process, hosting the evolution on
+	 * the shared EvolutionService. The config directory is read
+	 * once, by whichever object boots first; the rest share it.
 	 * FIXME Test the default config location picks up correctly on other platforms
 	 */
 	private void bootEvolution() {
@@ -283,44 +295,24 @@ public class Configure extends MaxObject implements Executable, Listener
 			/*
 			 * Collect heuristics and models.
 			 */
-			File dir = new File("./extra/bluejam/config/");
-			
-			System.out.println("Looking for heuristics in: "+ dir.getCanonicalPath());
-			File[] files = dir.listFiles();
-			
-			for (File f : files)
-			{
-				String name = f.getName();
-				if (name.contains(".m"))
-				{
-					if (name.matches(".*?\\-[ABCDEF]+[sb]?\\..*?"))
-					{
-						String p = name.substring(name.indexOf('-')+1,name.indexOf('.'));
-						Pitch pitch = Pitch.getPitch(p);
-						models.put(pitch, new ModelParser(f).getModel());
-						System.out.println("Found and loaded: "+name);
-					}
-				}
-				if (name.contains(".heuristic"))
-					if (f.canRead())
-					{
-						hCollection.add(new TreeParser(f).getNoteTree());
-						System.out.println("Found and loaded: "+name);
-					}
-			}
+			EvolutionService service = EvolutionService.getInstance();
+			hCollection = service.heuristics(CONFIG_DIR);
+			models = service.models(CONFIG_DIR);
+			System.out.println("Found "+hCollection.size()+" heuristics and "+models.size()+" models.");
 			/*
 			 * Plug in to sequence parameters.
 			 */
 //			//_config = new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120);
 			SequenceParameters _sp = new SequenceParameters(_config);
 			
-			ScaledSet s = _config.getScaledSet();
-			//s.setModel(models.get(Pitch.C));
-			s.setModel(models.get(_config.rootPitch()));
+			// The model for each key is picked up as it changes.
+			_config.models(models);
 			evolution = new Evolve(_sp,populationSize,hCollection);	
 			popParams = evolution.getPopulationParameters();
+			evolution.buffer(_buffer);
 			evolution.addListener(this);
-			new Thread(evolution,"Evolution").start();
+			_session = service.open(evolution);
+			_session.start();
 		}
 		catch (Exception e) {
 			ErrorFeedback.handle(e.getMessage(), e);
@@ -382,8 +374,9 @@ public class Configure extends MaxObject implements Executable, Listener
 	 */
 	public void reload()
 	{
-		if (evolution != null)
-			evolution.running = false;
+		if (_session != null)
+			_session.close();
+		_session = null;
 		evolution = null;
 		hCollection = new HeuristicCollection();
 		models = new HashMap<Pitch, PitchModel>();
@@ -393,8 +386,7 @@ public class Configure extends MaxObject implements Executable, Listener
 		_currentSequence = null;
 		
 		_played = new ArrayList<NoteSequence>();
-		_activeNS = new ArrayList<NoteSequence>();
-		_queue = new ArrayList<Iterator<Note>>();
+		_buffer = new CandidateBuffer(BUFFER_DEPTH, BUFFER_PREFETCH);
 		if (singleFileMode)
 			loadfile(filename);
 			
@@ -554,35 +546,4 @@ public class Configure extends MaxObject implements Executable, Listener
 		}			
 	}
 	
-	/**
-	 * Re-evaluates everything in the current queue in a separate thread.
-	 * @author Ciarn Rowe (csr2@kent.ac.uk)
-	 *
-	 */
-	private static class QueueLoader implements Runnable 
-	{
-		Configure current;
-		private QueueLoader(Configure c) {
-			current = c;
-		}
-		/**
-		 * Executes the QueueLoader.
-		 */
-		public void run() {
-			System.out.println("Re-evaluating queue.");
-			current._queue.clear();
-			for (NoteSequence n : current._activeNS)
-			{
-				try { 
-					n.validateNotes();
-					current._queue.add(n.getNotes());
-				}
-				catch (ValidationException e) {
-					ErrorFeedback.handle(e);
-				}
-			}
-			current._activeNotes.sequenceParameters().Changed = current._changed = false;
-		}
-	}
-	
 }
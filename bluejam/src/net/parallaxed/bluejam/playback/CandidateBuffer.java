@@ -0,0 +1,216 @@
+package net.parallaxed.bluejam.playback;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+import net.parallaxed.bluejam.exceptions.ValidationException;
+
+/**
+ * A bounded handoff of candidates from one producer (a Player,
+ * such as Evolve) to any number of consumers (playback), without
+ * locks.
+ * 
+ * Candidates are validated as they're offered, so whatever a
+ * consumer polls is ready to play. The buffer holds at most depth
+ * candidates; the producer is asked for more (see awaitDemand())
+ * whenever fewer than prefetch are waiting, so candidates aren't
+ * bred far ahead of being heard and feedback still steers them.
+ * 
+ * The producer parks, rather than waiting on a monitor, while no
+ * candidate is wanted; consumers wake it as they take them. The 
+ * time it spends parked, the fill, and the polls that found the
+ * buffer empty are kept as metrics.
+ * 
+ * @see net.parallaxed.bluejam.Evolve#buffer(CandidateBuffer)
+ */
+public class CandidateBuffer
+{
+	private final AtomicReferenceArray<NoteSequence> _slots;
+	private final int _mask;
+	private final int _depth;
+	private final int _prefetch;
+	/**
+	 * The next index to poll; advanced by consumers with CAS.
+	 */
+	private final AtomicLong _head = new AtomicLong();
+	/**
+	 * The next index to offer; only the producer writes it.
+	 */
+	private final AtomicLong _tail = new AtomicLong();
+	private volatile Thread _producer = null;
+	private volatile boolean _closed = false;
+	
+	private final AtomicLong _stallNanos = new AtomicLong();
+	private final AtomicLong _underruns = new AtomicLong();
+	private final AtomicLong _offered = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+	
+	/**
+	 * @param depth The most candidates held.
+	 * @param prefetch The number of candidates to keep ready (at most depth).
+	 */
+	public CandidateBuffer(int depth, int prefetch)
+	{
+		if (depth < 1)
+			throw new IllegalArgumentException("Depth must be at least 1.");
+		int size = Integer.highestOneBit(depth);
+		if (size < depth)
+			size <<= 1;
+		_slots = new AtomicReferenceArray<NoteSequence>(size);
+		_mask = size - 1;
+		_depth = depth;
+		_prefetch = Math.max(1, Math.min(prefetch, depth));
+	}
+	
+	////// PRODUCER
+	/**
+	 * Validates a candidate and adds it to the buffer. Only one
+	 * thread may offer.
+	 * @param n The candidate.
+	 * @return False if it failed validation, or the buffer is full.
+	 */
+	public boolean offer(NoteSequence n)
+	{
+		try {
+			n.validateNotes();
+		}
+		catch (ValidationException e) {
+			_rejected.incrementAndGet();
+			ErrorFeedback.handle(e.getMessage(), e);
+			return false;
+		}
+		long tail = _tail.get();
+		if (tail - _head.get() >= _depth)
+			return false;
+		_slots.lazySet((int) tail & _mask, n);
+		// Publishes the slot to consumers.
+		_tail.set(tail + 1);
+		_offered.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * @return True if fewer than prefetch candidates are waiting.
+	 */
+	public boolean wanted() {
+		return fill() < _prefetch;
+	}
+	
+	/**
+	 * Parks the producer until a candidate is wanted, the buffer is
+	 * closed or woken, or the time is up.
+	 * @param nanos The most time to park for.
+	 * @return True if a candidate is wanted.
+	 */
+	public boolean awaitDemand(long nanos)
+	{
+		if (wanted())
+			return true;
+		_producer = Thread.currentThread();
+		long start = System.nanoTime();
+		long end = start + nanos;
+		for (long left = nanos; left > 0 && !wanted() && !_closed; left = end - System.nanoTime())
+		{
+			LockSupport.parkNanos(this, left);
+			if (Thread.interrupted())
+				break;
+		}
+		_stallNanos.addAndGet(System.nanoTime() - start);
+		return wanted();
+	}
+	
+	/**
+	 * Wakes the producer if it's parked in awaitDemand().
+	 */
+	public void wake()
+	{
+		Thread producer = _producer;
+		if (producer != null)
+			LockSupport.unpark(producer);
+	}
+	
+	/**
+	 * Marks the end of the candidates; consumers may still poll
+	 * those waiting.
+	 */
+	public void close()
+	{
+		_closed = true;
+		wake();
+	}
+	//////
+	
+	////// CONSUMERS
+	/**
+	 * Takes the oldest candidate. Safe from any number of threads.
+	 * @return The candidate, or null if none is waiting (an underrun,
+	 * unless the buffer is closed).
+	 */
+	public NoteSequence poll()
+	{
+		while (true)
+		{
+			long head = _head.get();
+			if (head >= _tail.get())
+			{
+				if (!_closed)
+					_underruns.incrementAndGet();
+				return null;
+			}
+			// The producer can't reuse the slot until head moves past
+			// it, so n is only stale if the CAS fails. Slots keep their
+			// last candidate until they're reused.
+			NoteSequence n = _slots.get((int) head & _mask);
+			if (_head.compareAndSet(head, head + 1))
+			{
+				if (wanted())
+					wake();
+				return n;
+			}
+		}
+	}
+	
+	/**
+	 * @return True once closed and emptied.
+	 */
+	public boolean finished() {
+		return _closed && fill() == 0;
+	}
+	//////
+	
+	////// METRICS
+	/**
+	 * @return The number of candidates waiting.
+	 */
+	public int fill() {
+		return (int) Math.max(0, _tail.get() - _head.get());
+	}
+	
+	public int depth() { return _depth; }
+	
+	public int prefetch() { return _prefetch; }
+	
+	/**
+	 * @return The time (ns) the producer has spent parked.
+	 */
+	public long stallNanos() { return _stallNanos.get(); }
+	
+	/**
+	 * @return The number of polls that found nothing to play.
+	 */
+	public long underruns() { return _underruns.get(); }
+	
+	/**
+	 * @return The number of candidates accepted.
+	 */
+	public long offered() { return _offered.get(); }
+	
+	/**
+	 * @return The number of candidates that failed validation.
+	 */
+	public long rejected() { return _rejected.get(); }
+	//////
+}
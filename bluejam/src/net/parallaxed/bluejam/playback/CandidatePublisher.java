@@ -0,0 +1,200 @@
+package net.parallaxed.bluejam.playback;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Publishes a Player's candidates to Flow subscribers, each as far
+ * as its demand goes.
+ * 
+ * A subscriber requests as many candidates as it can play; each
+ * one submitted is delivered to every subscriber with outstanding
+ * demand, and passes the others by. The producer asks wanted() 
+ * before breeding another, and is told (through the Runnable given,
+ * or by being unparked from awaitDemand()) whenever a subscriber
+ * requests more, so it breeds only what will be heard. Delivery is on the producer's thread, so stages that
+ * filter or record candidates need no threads of their own; a slow
+ * subscriber should hand them off, as ListenerQueue does.
+ * 
+ * A subscriber throwing from onNext() is cancelled, with a warning.
+ * 
+ * @see net.parallaxed.bluejam.Evolve#candidates()
+ */
+public class CandidatePublisher implements Flow.Publisher<NoteSequence>
+{
+	private static final String W_SUBSCRIBER = "WARNING: Subscriber failed, cancelling: ";
+	
+	private final CopyOnWriteArrayList<Subscription> _subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final Runnable _onDemand;
+	private volatile Thread _producer = null;
+	private volatile boolean _closed = false;
+	
+	/**
+	 * @param onDemand Run whenever a subscriber requests more, or null.
+	 */
+	public CandidatePublisher(Runnable onDemand) {
+		_onDemand = onDemand;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void subscribe(Flow.Subscriber<? super NoteSequence> subscriber)
+	{
+		if (subscriber == null)
+			throw new NullPointerException("Subscriber must not be null.");
+		Subscription s = new Subscription(subscriber);
+		subscriber.onSubscribe(s);
+		if (_closed)
+		{
+			subscriber.onComplete();
+			return;
+		}
+		// Added once subscribed, so onNext() never comes first.
+		_subscriptions.add(s);
+		if (s._demand.get() > 0)
+			_demand();
+	}
+	
+	////// PRODUCER
+	/**
+	 * @return True if any subscriber has requested a candidate it
+	 * hasn't been sent.
+	 */
+	public boolean wanted()
+	{
+		for (Subscription s : _subscriptions)
+			if (s._demand.get() > 0)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Parks the producer until a candidate is wanted, the publisher
+	 * is closed or woken, or the time is up.
+	 * @param nanos The most time to park for.
+	 * @return True if a candidate is wanted.
+	 */
+	public boolean awaitDemand(long nanos)
+	{
+		if (wanted())
+			return true;
+		_producer = Thread.currentThread();
+		long end = System.nanoTime() + nanos;
+		for (long left = nanos; left > 0 && !wanted() && !_closed; left = end - System.nanoTime())
+		{
+			LockSupport.parkNanos(this, left);
+			if (Thread.interrupted())
+				break;
+		}
+		return wanted();
+	}
+	
+	/**
+	 * Wakes the producer if it's parked in awaitDemand().
+	 */
+	public void wake()
+	{
+		Thread producer = _producer;
+		if (producer != null)
+			LockSupport.unpark(producer);
+	}
+	
+	/**
+	 * Sends a candidate to every subscriber that wants one. Only
+	 * one thread may submit.
+	 * @param n The candidate.
+	 * @return The number of subscribers it was sent to.
+	 */
+	public int submit(NoteSequence n)
+	{
+		int sent = 0;
+		for (Subscription s : _subscriptions)
+			if (s._take())
+			{
+				try {
+					s._subscriber.onNext(n);
+					sent++;
+				}
+				catch (RuntimeException e) {
+					s.cancel();
+					ErrorFeedback.warn(W_SUBSCRIBER+e.getMessage(), e);
+				}
+			}
+		return sent;
+	}
+	
+	/**
+	 * Completes every subscription; there will be no more candidates.
+	 */
+	public void close()
+	{
+		_closed = true;
+		wake();
+		for (Subscription s : _subscriptions)
+		{
+			_subscriptions.remove(s);
+			s._subscriber.onComplete();
+		}
+	}
+	
+	/**
+	 * @return The number of live subscriptions.
+	 */
+	public int subscribers() { return _subscriptions.size(); }
+	//////
+	
+	private void _demand()
+	{
+		if (_onDemand != null)
+			_onDemand.run();
+		wake();
+	}
+	
+	private class Subscription implements Flow.Subscription
+	{
+		private final Flow.Subscriber<? super NoteSequence> _subscriber;
+		private final AtomicLong _demand = new AtomicLong();
+		
+		Subscription(Flow.Subscriber<? super NoteSequence> subscriber) {
+			_subscriber = subscriber;
+		}
+		
+		public void request(long n)
+		{
+			if (n <= 0)
+			{
+				cancel();
+				_subscriber.onError(new IllegalArgumentException("Requested "+n+" candidates."));
+				return;
+			}
+			// Capped at Long.MAX_VALUE, meaning unbounded.
+			for (long d = _demand.get(); !_demand.compareAndSet(d, (d + n < 0) ? Long.MAX_VALUE : d + n); d = _demand.get())
+				;
+			if (_subscriptions.contains(this))
+				_demand();
+		}
+		
+		public void cancel()
+		{
+			_subscriptions.remove(this);
+			_demand.set(0);
+		}
+		
+		/**
+		 * Takes one from the demand, if there is any.
+		 */
+		private boolean _take()
+		{
+			for (long d = _demand.get(); d > 0; d = _demand.get())
+				if (d == Long.MAX_VALUE || _demand.compareAndSet(d, d - 1))
+					return true;
+			return false;
+		}
+	}
+}
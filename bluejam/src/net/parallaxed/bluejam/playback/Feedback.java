@@ -0,0 +1,31 @@
+package net.parallaxed.bluejam.playback;
+
+import net.parallaxed.bluejam.NoteSequence;
+
+/**
+ * A piece of feedback on a candidate, as sent to the Subscriber
+ * returned by Evolve.feedback(): the same pair of values passed
+ * to Player.feedback().
+ * 
+ * @see net.parallaxed.bluejam.Evolve#feedback()
+ * @see Player#feedback(int, NoteSequence)
+ */
+public final class Feedback
+{
+	/**
+	 * The perceived quality of the candidate (most simply -1, 0 or +1).
+	 */
+	public final int score;
+	/**
+	 * The candidate fed back on.
+	 */
+	public final NoteSequence notes;
+	
+	public Feedback(int score, NoteSequence notes)
+	{
+		if (notes == null)
+			throw new IllegalArgumentException("NoteSequence must not be null.");
+		this.score = score;
+		this.notes = notes;
+	}
+}
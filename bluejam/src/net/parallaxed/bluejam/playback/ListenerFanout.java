@@ -0,0 +1,89 @@
+package net.parallaxed.bluejam.playback;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Subscribes a Player's listeners to its candidates, as one
+ * subscriber: each candidate is queued for every listener.
+ * 
+ * Demand comes from the listeners' feedback. WINDOW candidates are
+ * requested up front, so there's something to listen to before 
+ * any feedback, and the player requests one more (see request())
+ * for each piece of feedback it's given. A player only breeds as
+ * far as that.
+ * 
+ * @see CandidatePublisher
+ * @see ListenerQueue
+ */
+public class ListenerFanout implements Flow.Subscriber<NoteSequence>
+{
+	/**
+	 * The candidates requested before any feedback.
+	 */
+	public static final int WINDOW = 5;
+	
+	private final CopyOnWriteArrayList<ListenerQueue> _listeners = new CopyOnWriteArrayList<ListenerQueue>();
+	private volatile Flow.Subscription _subscription = null;
+	
+	/**
+	 * Adds a listener, behind a queue of its own.
+	 * @param listener The listener's queue.
+	 */
+	public void add(ListenerQueue listener) {
+		_listeners.add(listener);
+	}
+	
+	/**
+	 * @return The listeners' queues, for their backlog and lag.
+	 */
+	public ListenerQueue[] listeners() {
+		return _listeners.toArray(new ListenerQueue[0]);
+	}
+	
+	public void onSubscribe(Flow.Subscription subscription)
+	{
+		_subscription = subscription;
+		subscription.request(WINDOW);
+	}
+	
+	public void onNext(NoteSequence n)
+	{
+		for (ListenerQueue l : _listeners)
+			l.listen(n);
+	}
+	
+	public void onError(Throwable t) {
+		onComplete();
+	}
+	
+	public void onComplete()
+	{
+		for (ListenerQueue l : _listeners)
+			l.listen(null);
+	}
+	
+	/**
+	 * Requests more candidates for the listeners.
+	 * @param n The number wanted.
+	 */
+	public void request(long n)
+	{
+		Flow.Subscription s = _subscription;
+		if (s != null)
+			s.request(n);
+	}
+	
+	/**
+	 * Waits for every listener to hear the end of the run.
+	 */
+	public void await()
+	{
+		for (ListenerQueue l : _listeners)
+			try { l.await(); }
+			catch (InterruptedException e) { ErrorFeedback.handle("Interrupted.", e); }
+	}
+}
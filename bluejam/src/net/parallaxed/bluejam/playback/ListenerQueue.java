@@ -0,0 +1,203 @@
+package net.parallaxed.bluejam.playback;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.exceptions.ErrorFeedback;
+
+/**
+ * Delivers candidates to a listener off the player's thread.
+ * 
+ * listen() only queues the candidate; it's passed on to the 
+ * listener by a dispatch thread from a small shared pool, one at
+ * a time and in order. A slow listener only falls behind itself:
+ * once its queue is full, candidates are dropped by the queue's
+ * OverflowPolicy. The null that ends a run is never dropped.
+ * 
+ * The backlog, the candidates delivered and dropped, and the lag
+ * between a candidate being queued and heard are kept as metrics.
+ * 
+ * @see net.parallaxed.bluejam.Evolve#addListener(Listener, int, OverflowPolicy)
+ */
+public class ListenerQueue implements Listener
+{
+	public static final int DEFAULT_CAPACITY = 8;
+	private static final String W_LISTENER = "WARNING: Listener failed: ";
+	
+	private static ExecutorService _dispatch = null;
+	
+	/**
+	 * @return The pool listeners are called on; its threads are
+	 * daemons, created as needed.
+	 */
+	private static synchronized ExecutorService dispatch()
+	{
+		if (_dispatch == null)
+			_dispatch = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger _threads = new AtomicInteger();
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Listener dispatch "+_threads.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return _dispatch;
+	}
+	
+	private final Listener _listener;
+	private final int _capacity;
+	private final OverflowPolicy _overflow;
+	private final ConcurrentLinkedQueue<Entry> _queue = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger _backlog = new AtomicInteger();
+	/**
+	 * Set while a dispatch thread is draining the queue.
+	 */
+	private final AtomicBoolean _scheduled = new AtomicBoolean();
+	private final CountDownLatch _ended = new CountDownLatch(1);
+	
+	private final AtomicLong _delivered = new AtomicLong();
+	private final AtomicLong _dropped = new AtomicLong();
+	private volatile long _lagNanos = 0;
+	private final AtomicLong _maxLagNanos = new AtomicLong();
+	
+	/**
+	 * A queue of DEFAULT_CAPACITY, dropping the oldest candidates.
+	 * @param listener The listener to deliver to.
+	 */
+	public ListenerQueue(Listener listener) {
+		this(listener, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+	}
+	
+	/**
+	 * @param listener The listener to deliver to.
+	 * @param capacity The most candidates waiting for the listener.
+	 * @param overflow What to drop when it's full.
+	 */
+	public ListenerQueue(Listener listener, int capacity, OverflowPolicy overflow)
+	{
+		_listener = listener;
+		_overflow = overflow;
+		_capacity = (overflow == OverflowPolicy.COALESCE) ? 1 : Math.max(1, capacity);
+	}
+	
+	/**
+	 * @return The listener delivered to.
+	 */
+	public Listener listener() {
+		return _listener;
+	}
+	
+	/**
+	 * Queues a candidate (or the end of the run, for null) for the
+	 * listener, without waiting.
+	 */
+	public void listen(NoteSequence n)
+	{
+		if (n != null && _overflow == OverflowPolicy.DROP_NEWEST && _backlog.get() >= _capacity)
+		{
+			_dropped.incrementAndGet();
+			return;
+		}
+		_queue.offer(new Entry(n));
+		// Over capacity: drop the oldest (never the end).
+		if (_backlog.incrementAndGet() > _capacity && n != null)
+		{
+			Entry oldest = _queue.poll();
+			if (oldest != null)
+			{
+				_backlog.decrementAndGet();
+				_dropped.incrementAndGet();
+			}
+		}
+		_schedule();
+	}
+	
+	/**
+	 * Waits for the end of the run (a null) to be delivered.
+	 */
+	public void await() throws InterruptedException {
+		_ended.await();
+	}
+	
+	////// METRICS
+	/**
+	 * @return The number of candidates waiting for the listener.
+	 */
+	public int backlog() { return Math.max(0, _backlog.get()); }
+	
+	public long delivered() { return _delivered.get(); }
+	
+	public long dropped() { return _dropped.get(); }
+	
+	/**
+	 * @return The time (ns) the last candidate delivered had waited.
+	 */
+	public long lagNanos() { return _lagNanos; }
+	
+	/**
+	 * @return The longest time (ns) a candidate has waited.
+	 */
+	public long maxLagNanos() { return _maxLagNanos.get(); }
+	//////
+	
+	private void _schedule()
+	{
+		if (_scheduled.compareAndSet(false, true))
+			dispatch().execute(new Runnable() {
+				public void run() { _drain(); }
+			});
+	}
+	
+	/**
+	 * Delivers what's queued, then lets the next listen() schedule
+	 * another drain.
+	 */
+	private void _drain()
+	{
+		while (true)
+		{
+			Entry e = _queue.poll();
+			if (e == null)
+			{
+				_scheduled.set(false);
+				// Anything queued after the poll, before the flag was
+				// cleared, would otherwise wait for the next listen().
+				if (_queue.isEmpty() || !_scheduled.compareAndSet(false, true))
+					return;
+				continue;
+			}
+			_backlog.decrementAndGet();
+			long lag = System.nanoTime() - e.queued;
+			_lagNanos = lag;
+			for (long max = _maxLagNanos.get(); lag > max && !_maxLagNanos.compareAndSet(max, lag); max = _maxLagNanos.get())
+				;
+			try {
+				_listener.listen(e.notes);
+			}
+			catch (RuntimeException x) {
+				ErrorFeedback.warn(W_LISTENER+x.getMessage(), x);
+			}
+			if (e.notes == null)
+				_ended.countDown();
+			else
+				_delivered.incrementAndGet();
+		}
+	}
+	
+	private static class Entry
+	{
+		final NoteSequence notes;
+		final long queued = System.nanoTime();
+		
+		Entry(NoteSequence notes) {
+			this.notes = notes;
+		}
+	}
+}
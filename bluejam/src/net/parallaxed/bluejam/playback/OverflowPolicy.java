@@ -0,0 +1,24 @@
+package net.parallaxed.bluejam.playback;
+
+/**
+ * An enum of what a ListenerQueue does with a candidate when its
+ * listener is too far behind to take it.
+ * @see ListenerQueue
+ */
+public enum OverflowPolicy {
+	/**
+	 * Drop the oldest candidate waiting, so the listener hears the
+	 * latest ones.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Drop the new candidate, so the listener hears those it was
+	 * already waiting on.
+	 */
+	DROP_NEWEST,
+	/**
+	 * Keep only the latest candidate, whatever the queue's capacity;
+	 * a slow listener always hears the newest.
+	 */
+	COALESCE;
+}
@@ -0,0 +1,111 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Rhythm;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.playback.CandidateBuffer;
+import junit.framework.TestCase;
+
+public class CandidateBufferTest extends TestCase {
+
+	private static NoteSequence[] candidates(int count) throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		long[] notes = new NoteArray(TreeFixture.fill(new NoteTree(sp), 0, Rhythm.CROTCHET)).notes();
+		NoteSequence[] candidates = new NoteSequence[count];
+		for (int c = 0; c < count; c++)
+			candidates[c] = new NoteArray(notes, sp);
+		return candidates;
+	}
+
+	public void testBounds() throws Exception
+	{
+		NoteSequence[] c = candidates(4);
+		CandidateBuffer buffer = new CandidateBuffer(3, 2);
+		assertTrue(buffer.wanted());
+		assertTrue(buffer.offer(c[0]));
+		assertTrue(buffer.offer(c[1]));
+		assertFalse(buffer.wanted());
+		assertFalse(buffer.awaitDemand(1000000));
+		assertTrue(buffer.stallNanos() > 0);
+		assertTrue(buffer.offer(c[2]));
+		assertFalse(buffer.offer(c[3]));
+		assertEquals(3, buffer.fill());
+
+		assertSame(c[0], buffer.poll());
+		assertSame(c[1], buffer.poll());
+		assertTrue(buffer.wanted());
+		assertTrue(buffer.offer(c[3]));
+		assertSame(c[2], buffer.poll());
+		assertSame(c[3], buffer.poll());
+		assertNull(buffer.poll());
+		assertEquals(1, buffer.underruns());
+		assertEquals(4, buffer.offered());
+
+		buffer.close();
+		assertTrue(buffer.finished());
+		assertNull(buffer.poll());
+		assertEquals(1, buffer.underruns());
+	}
+
+	/**
+	 * One producer, three consumers: every candidate is taken once,
+	 * and each consumer sees them in order.
+	 */
+	public void testConsumers() throws Exception
+	{
+		final NoteSequence[] c = candidates(2000);
+		final IdentityHashMap<NoteSequence, Integer> index = new IdentityHashMap<NoteSequence, Integer>();
+		for (int i = 0; i < c.length; i++)
+			index.put(c[i], i);
+		final CandidateBuffer buffer = new CandidateBuffer(8, 4);
+		final AtomicIntegerArray taken = new AtomicIntegerArray(c.length);
+		final boolean[] ordered = { true, true, true };
+
+		Thread[] consumers = new Thread[3];
+		for (int t = 0; t < consumers.length; t++)
+		{
+			final int id = t;
+			consumers[t] = new Thread() {
+				public void run() {
+					int last = -1;
+					while (!buffer.finished())
+					{
+						NoteSequence n = buffer.poll();
+						if (n == null)
+						{
+							Thread.yield();
+							continue;
+						}
+						int i = index.get(n);
+						taken.incrementAndGet(i);
+						if (i <= last)
+							ordered[id] = false;
+						last = i;
+					}
+				}
+			};
+			consumers[t].start();
+		}
+		for (NoteSequence n : c)
+		{
+			while (!buffer.awaitDemand(1000000))
+				;
+			assertTrue(buffer.offer(n));
+		}
+		buffer.close();
+		for (Thread t : consumers)
+			t.join();
+
+		for (int i = 0; i < c.length; i++)
+			assertEquals(1, taken.get(i));
+		for (boolean o : ordered)
+			assertTrue(o);
+		assertEquals(0, buffer.fill());
+	}
+}
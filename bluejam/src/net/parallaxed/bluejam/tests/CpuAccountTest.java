@@ -0,0 +1,68 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.parallaxed.bluejam.util.CpuAccount;
+import junit.framework.TestCase;
+
+public class CpuAccountTest extends TestCase {
+
+	/**
+	 * Spins for a while.
+	 */
+	private static long spin()
+	{
+		long x = 0;
+		long end = System.nanoTime() + 50000000;
+		while (System.nanoTime() < end)
+			x += x * 31 + 7;
+		return x;
+	}
+
+	/**
+	 * A leaf task, charging its account as the pool's tasks do.
+	 */
+	private static class Spin extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final CpuAccount _account = CpuAccount.current();
+		volatile long result;
+
+		protected void compute()
+		{
+			long start = CpuAccount.time();
+			result = spin();
+			_account.charge(start);
+		}
+	}
+
+	public void testCharge() throws Exception
+	{
+		final CpuAccount account = new CpuAccount();
+		account.enter();
+		try {
+			assertSame(account, CpuAccount.current());
+			long before = account.used();
+			// Run on a pool thread: charged by the task.
+			ForkJoinPool pool = new ForkJoinPool(1);
+			pool.invoke(new Spin());
+			pool.shutdown();
+			long used = account.used() - before;
+			assertTrue(used > 10000000);
+
+			// Run by the owner: measured once, not charged again.
+			before = account.used();
+			long start = CpuAccount.time();
+			new Spin().compute();
+			long own = CpuAccount.time() - start;
+			used = account.used() - before;
+			assertTrue(used >= own);
+			assertTrue(used < own + own / 2 + 5000000);
+		}
+		finally {
+			account.exit();
+		}
+		assertNull(CpuAccount.current());
+	}
+}
@@ -0,0 +1,44 @@
+package net.parallaxed.bluejam.tests;
+
+import net.parallaxed.bluejam.Evolve;
+import net.parallaxed.bluejam.HeuristicCollection;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+import junit.framework.TestCase;
+
+public class DeadlineTest extends TestCase {
+
+	/**
+	 * Scheduling noise allowed past a deadline, in ns.
+	 */
+	private static final long SLACK = 20000000;
+
+	public void testDuration()
+	{
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		// Four bars of four crotchets at two a second.
+		assertEquals(8000.0, sp.duration(), 1e-9);
+		sp.Jam.tempo(240);
+		assertEquals(4000.0, sp.duration(), 1e-9);
+		assertEquals(0.0, new SequenceParameters().duration());
+	}
+
+	public void testEvolveUntil() throws Exception
+	{
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		Evolve evolve = new Evolve(sp, 50, HeuristicCollection.loadHeuristics("conf"));
+		// The first call always runs a cycle.
+		assertNotNull(evolve.evolveUntil(System.nanoTime()));
+
+		for (long budget : new long[] { 0, 5000000, 100000000 })
+		{
+			long deadline = System.nanoTime() + budget;
+			NoteSequence n = evolve.evolveUntil(deadline);
+			assertNotNull(n);
+			assertTrue("Late by "+(System.nanoTime() - deadline)+"ns", System.nanoTime() < deadline + SLACK);
+		}
+	}
+}
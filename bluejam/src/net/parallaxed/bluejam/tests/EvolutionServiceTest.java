@@ -0,0 +1,158 @@
+package net.parallaxed.bluejam.tests;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import net.parallaxed.bluejam.EvolutionService;
+import net.parallaxed.bluejam.Evolve;
+import net.parallaxed.bluejam.HeuristicCollection;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.grammar.PitchModel;
+import junit.framework.TestCase;
+
+public class EvolutionServiceTest extends TestCase {
+
+	/**
+	 * Wants every candidate.
+	 */
+	private static final Flow.Subscriber<NoteSequence> GREEDY = new Flow.Subscriber<NoteSequence>() {
+		public void onSubscribe(Flow.Subscription s) { s.request(Long.MAX_VALUE); }
+		public void onNext(NoteSequence n) { }
+		public void onError(Throwable t) { }
+		public void onComplete() { }
+	};
+
+	public void testShared()
+	{
+		EvolutionService service = new EvolutionService(1);
+		HeuristicCollection h = service.heuristics("conf");
+		assertNotNull(h);
+		assertTrue(h.size() > 0);
+		assertSame(h, service.heuristics("./conf/"));
+		Map<Pitch, PitchModel> m = service.models("conf");
+		assertNotNull(m.get(Pitch.C));
+		assertSame(m, service.models("conf"));
+		service.refresh("conf");
+		assertNotSame(h, service.heuristics("conf"));
+	}
+
+	private static Evolve evolve(EvolutionService service, int generations)
+	{
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		Evolve evolve = new Evolve(sp, 50, service.heuristics("conf"));
+		evolve.generations(generations);
+		evolve.candidates().subscribe(GREEDY);
+		return evolve;
+	}
+
+	public void testSessions() throws Exception
+	{
+		EvolutionService service = new EvolutionService(1);
+		EvolutionService.Session first = service.open(evolve(service, 8));
+		EvolutionService.Session second = service.open(evolve(service, 8));
+		EvolutionService.Session third = service.open(evolve(service, 8));
+		assertEquals(3, service.sessions().length);
+		try {
+			service.open(evolve(service, 1), 0);
+			fail();
+		}
+		catch (IllegalArgumentException e) { }
+		// No more than the workers there are.
+		try {
+			service.open(evolve(service, 1), 2);
+			fail();
+		}
+		catch (IllegalArgumentException e) { }
+
+		for (EvolutionService.Session s : service.sessions())
+			s.start();
+		for (EvolutionService.Session s : new EvolutionService.Session[] { first, second, third })
+		{
+			s.join();
+			assertEquals(8, s.cycles());
+			assertTrue(s.cpuNanos() > 0);
+			assertEquals(0, s.throttledNanos());
+		}
+		assertEquals(0, service.sessions().length);
+		// One worker between three: they queued for it.
+		assertTrue(first.queuedNanos() + second.queuedNanos() + third.queuedNanos() > 0);
+	}
+
+	/**
+	 * Sessions set up alike still play different candidates.
+	 */
+	public void testIndependent() throws Exception
+	{
+		EvolutionService service = new EvolutionService(2);
+		List<List<Long>> hashes = new ArrayList<List<Long>>();
+		EvolutionService.Session[] sessions = new EvolutionService.Session[2];
+		for (int i = 0; i < sessions.length; i++)
+		{
+			final List<Long> played = Collections.synchronizedList(new ArrayList<Long>());
+			hashes.add(played);
+			Evolve evolve = evolve(service, 5);
+			evolve.candidates().subscribe(new Flow.Subscriber<NoteSequence>() {
+				public void onSubscribe(Flow.Subscription s) { s.request(Long.MAX_VALUE); }
+				public void onNext(NoteSequence n) { played.add(((NoteTree) n).contentHash()); }
+				public void onError(Throwable t) { }
+				public void onComplete() { }
+			});
+			// A budget of both workers.
+			sessions[i] = service.open(evolve, 2);
+		}
+		for (EvolutionService.Session s : sessions)
+			s.start();
+		for (EvolutionService.Session s : sessions)
+			s.join();
+		assertEquals(5, hashes.get(0).size());
+		assertEquals(5, hashes.get(1).size());
+		assertFalse(hashes.get(0).equals(hashes.get(1)));
+	}
+
+	public void testBudget() throws Exception
+	{
+		EvolutionService service = new EvolutionService(1);
+		Evolve evolve = evolve(service, 100);
+		// Breeds and evaluates on the service's pool.
+		evolve.parallelEvaluation(true);
+		EvolutionService.Session quarter = service.open(evolve, 0.25);
+		OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+		long cpu = os.getProcessCpuTime();
+		long start = System.nanoTime();
+		quarter.start();
+		quarter.join();
+		long wall = System.nanoTime() - start;
+		cpu = os.getProcessCpuTime() - cpu;
+		// It sat out, keeping (within a cycle) to its share.
+		assertTrue(quarter.throttledNanos() > 0);
+		assertEquals(100, quarter.cycles());
+		assertTrue(quarter.cpuNanos() / 10 + 0.25 * wall > quarter.cpuNanos());
+		// Its pool's work was charged too: a good part of what the
+		// process spent, the rest being the VM compiling and collecting.
+		assertTrue(quarter.cpuNanos() > cpu / 10);
+	}
+
+	public void testClose() throws Exception
+	{
+		EvolutionService service = new EvolutionService(2);
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		// Waits on feedback that never comes.
+		EvolutionService.Session s = service.open(new Evolve(sp, 50, service.heuristics("conf")));
+		s.start();
+		Thread.sleep(500);
+		service.close();
+		s.join();
+		assertEquals(0, service.sessions().length);
+	}
+}
@@ -0,0 +1,83 @@
+package net.parallaxed.bluejam.tests;
+
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.DeterministicEvaluator;
+import net.parallaxed.bluejam.evolution.FitnessCache;
+import net.parallaxed.bluejam.evolution.FitnessContour;
+import junit.framework.TestCase;
+
+public class FitnessCacheTest extends TestCase {
+	
+	PopulationParameters _pp = null;
+	
+	protected void setUp() throws Exception
+	{
+		_pp = new PopulationParameters();
+		_pp.setParameter(PopulationParameters.SEQUENCE, 
+				new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120)));
+	}
+	
+	public void testContentHash() throws Exception
+	{
+		assertEquals(TreeFixture.fullTree(0).contentHash(), TreeFixture.fullTree(0).contentHash());
+		assertFalse(TreeFixture.fullTree(0).contentHash() == TreeFixture.fullTree(1).contentHash());
+	}
+	
+	/**
+	 * Equal trees in different individuals share one score.
+	 */
+	public void testHitsAcrossIndividuals() throws Exception
+	{
+		FitnessCache _cache = new FitnessCache(64);
+		FitnessContour _fc = FitnessContour.getInstance();
+		_fc.fixNodes(0, 1);
+		try {
+			double first = _cache.evaluate(_fc, new Individual(TreeFixture.fullTree(0), _pp));
+			double second = _cache.evaluate(_fc, new Individual(TreeFixture.fullTree(0), _pp));
+			assertEquals(first, second);
+			assertEquals(1, _cache.misses());
+			assertEquals(1, _cache.hits());
+			
+			_cache.evaluate(_fc, new Individual(TreeFixture.fullTree(1), _pp));
+			assertEquals(2, _cache.misses());
+		}
+		finally {
+			_fc.randomNodes();
+		}
+		// Random node choice isn't cached.
+		_cache.evaluate(_fc, new Individual(TreeFixture.fullTree(0), _pp));
+		assertEquals(1, _cache.hits());
+		assertEquals(2, _cache.size());
+	}
+	
+	/**
+	 * A key shared by two different trees doesn't hand one
+	 * tree's score to the other.
+	 */
+	public void testCollision() throws Exception
+	{
+		FitnessCache _cache = new FitnessCache(64) {
+			protected long key(DeterministicEvaluator evaluator, long contentHash, long jam, long heuristic) {
+				return 0;
+			}
+		};
+		FitnessContour _fc = FitnessContour.getInstance();
+		_fc.fixNodes(0, 1);
+		try {
+			_cache.evaluate(_fc, new Individual(TreeFixture.fullTree(0), _pp));
+			_cache.evaluate(_fc, new Individual(TreeFixture.fullTree(1), _pp));
+			assertEquals(0, _cache.hits());
+			assertEquals(2, _cache.misses());
+			_cache.evaluate(_fc, new Individual(TreeFixture.fullTree(1), _pp));
+			assertEquals(1, _cache.hits());
+		}
+		finally {
+			_fc.randomNodes();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.parallaxed.bluejam.Evolve;
+import net.parallaxed.bluejam.HeuristicCollection;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.playback.CandidatePublisher;
+import net.parallaxed.bluejam.playback.Feedback;
+import junit.framework.TestCase;
+
+public class FlowTest extends TestCase {
+
+	/**
+	 * Requests candidates by hand, and records what it's sent.
+	 */
+	private static class Recorder implements Flow.Subscriber<NoteSequence>
+	{
+		final LinkedBlockingQueue<NoteSequence> heard = new LinkedBlockingQueue<NoteSequence>();
+		volatile Flow.Subscription subscription = null;
+		volatile boolean complete = false;
+		volatile Throwable error = null;
+
+		public void onSubscribe(Flow.Subscription s) { subscription = s; }
+		public void onNext(NoteSequence n) { heard.add(n); }
+		public void onError(Throwable t) { error = t; }
+		public void onComplete() { complete = true; }
+	}
+
+	public void testPublisher()
+	{
+		final AtomicInteger demanded = new AtomicInteger();
+		CandidatePublisher p = new CandidatePublisher(new Runnable() {
+			public void run() { demanded.incrementAndGet(); }
+		});
+		NoteSequence n = new NoteTree(new SequenceParameters());
+		Recorder a = new Recorder(), b = new Recorder();
+		p.subscribe(a);
+		p.subscribe(b);
+		assertFalse(p.wanted());
+		assertEquals(0, p.submit(n));
+		assertFalse(p.awaitDemand(1000000));
+
+		a.subscription.request(2);
+		assertTrue(p.wanted());
+		assertTrue(p.awaitDemand(1000000));
+		assertEquals(1, demanded.get());
+		assertEquals(1, p.submit(n));
+		assertEquals(1, p.submit(n));
+		assertEquals(0, p.submit(n));
+		assertEquals(2, a.heard.size());
+		assertEquals(0, b.heard.size());
+
+		// Bad requests cancel.
+		b.subscription.request(0);
+		assertTrue(b.error instanceof IllegalArgumentException);
+		assertEquals(1, p.subscribers());
+
+		p.subscribe(new Flow.Subscriber<NoteSequence>() {
+			public void onSubscribe(Flow.Subscription s) { s.request(1); }
+			public void onNext(NoteSequence n) { throw new IllegalStateException("Broken subscriber."); }
+			public void onError(Throwable t) { }
+			public void onComplete() { }
+		});
+		assertEquals(2, p.subscribers());
+		assertEquals(0, p.submit(n));
+		assertEquals(1, p.subscribers());
+
+		p.close();
+		assertTrue(a.complete);
+		assertEquals(0, p.subscribers());
+		Recorder late = new Recorder();
+		p.subscribe(late);
+		assertTrue(late.complete);
+	}
+
+	public void testDemand() throws Exception
+	{
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		Evolve evolve = new Evolve(sp, 50, HeuristicCollection.loadHeuristics("conf"));
+		evolve.generations(20);
+		Recorder r = new Recorder();
+		evolve.candidates().subscribe(r);
+		SubmissionPublisher<Feedback> feedback = new SubmissionPublisher<Feedback>();
+		feedback.subscribe(evolve.feedback());
+		Thread t = new Thread(evolve);
+		t.start();
+
+		// The listeners' share (with none listening) is played first.
+		Thread.sleep(1000);
+		assertEquals(0, r.heard.size());
+
+		r.subscription.request(3);
+		NoteSequence last = null;
+		for (int i = 0; i < 3; i++)
+		{
+			last = r.heard.poll(10, TimeUnit.SECONDS);
+			assertNotNull(last);
+		}
+		// No more than was asked for.
+		Thread.sleep(500);
+		assertEquals(0, r.heard.size());
+		feedback.submit(new Feedback(1, last));
+
+		r.subscription.request(1);
+		assertNotNull(r.heard.poll(10, TimeUnit.SECONDS));
+
+		evolve.running = false;
+		r.subscription.request(1);
+		t.join(10000);
+		assertFalse(t.isAlive());
+		assertTrue(r.complete);
+		feedback.close();
+	}
+}
@@ -8,7 +8,6 @@ import net.parallaxed.bluejam.JamParamters;
 import net.parallaxed.bluejam.Pitch;
 import net.parallaxed.bluejam.Population;
 import net.parallaxed.bluejam.Scale;
-import net.parallaxed.bluejam.ScaledSet;
 import net.parallaxed.bluejam.SequenceParameters;
 import net.parallaxed.bluejam.TreeParser;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
@@ -46,8 +45,7 @@ public class HeuristicTest extends TestCase {
 			SequenceParameters _sp = new SequenceParameters(
 					new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120)
 				);
-			ScaledSet s = _sp.Jam.getScaledSet();
-			s.setModel(models.get(Pitch.C));
+			_sp.Jam.models(models);
 			Population p = new Population(_sp,50,hCollection);
 			p.initialize();
 			assertTrue(p.getIndividual(0).getHeuristic() != null);
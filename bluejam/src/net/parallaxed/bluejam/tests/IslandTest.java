@@ -0,0 +1,64 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import net.parallaxed.bluejam.Archipelago;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.FitnessType;
+import net.parallaxed.bluejam.evolution.Island;
+import net.parallaxed.bluejam.evolution.SelectionType;
+import net.parallaxed.bluejam.evolution.Topology;
+import net.parallaxed.bluejam.playback.Listener;
+import junit.framework.TestCase;
+
+public class IslandTest extends TestCase {
+
+	public void testTopology()
+	{
+		assertTrue(Arrays.equals(new int[] { 0 }, Topology.RING.neighbours(3, 4)));
+		assertTrue(Arrays.equals(new int[] { 0, 1, 3 }, Topology.FULL.neighbours(2, 4)));
+		assertEquals(0, Topology.FULL.neighbours(0, 1).length);
+	}
+
+	/**
+	 * Two islands selecting differently, migrating every generation.
+	 */
+	public void testArchipelago() throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		final Archipelago a = new Archipelago(sp, null);
+		SelectionType[] selection = { SelectionType.TOURNAMENT, SelectionType.RANK };
+		for (int island = 0; island < selection.length; island++)
+		{
+			Population p = a.addIsland(30);
+			p.setParameter(PopulationParameters.SELECTION_TYPE, selection[island]);
+			p.setParameter(PopulationParameters.FITNESS_TYPE, FitnessType.INTERVAL);
+			TreeFixture.populate(p, sp, 30, island);
+		}
+		a.generations(6);
+		a.migration(1, 2);
+		a.topology(Topology.FULL);
+
+		final ArrayList<NoteSequence> played = new ArrayList<NoteSequence>();
+		a.addListener(new Listener() {
+			public void listen(NoteSequence n) {
+				if (n == null)
+					return;
+				played.add(n);
+				a.feedback(0, n);
+			}
+		});
+		a.run();
+
+		assertEquals(6, played.size());
+		for (Island island : a.islands()) {
+			assertEquals(6, island.generation());
+			assertFalse(island.running());
+		}
+		assertNotNull(a.best());
+	}
+}
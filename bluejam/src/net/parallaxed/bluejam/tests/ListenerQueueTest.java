@@ -0,0 +1,118 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.playback.Listener;
+import net.parallaxed.bluejam.playback.ListenerQueue;
+import net.parallaxed.bluejam.playback.OverflowPolicy;
+import junit.framework.TestCase;
+
+public class ListenerQueueTest extends TestCase {
+
+	/**
+	 * Records what it hears, once let go.
+	 */
+	private static class Blocked implements Listener
+	{
+		final CountDownLatch go = new CountDownLatch(1);
+		final ArrayList<NoteSequence> heard = new ArrayList<NoteSequence>();
+
+		public void listen(NoteSequence n)
+		{
+			try { go.await(); }
+			catch (InterruptedException e) { }
+			synchronized (heard) { heard.add(n); }
+		}
+	}
+
+	private static NoteSequence[] candidates(int count)
+	{
+		SequenceParameters sp = new SequenceParameters();
+		NoteSequence[] c = new NoteSequence[count];
+		for (int i = 0; i < count; i++)
+			c[i] = new NoteTree(sp);
+		return c;
+	}
+
+	public void testOrder() throws Exception
+	{
+		NoteSequence[] c = candidates(5);
+		Blocked b = new Blocked();
+		ListenerQueue q = new ListenerQueue(b);
+		long start = System.nanoTime();
+		for (NoteSequence n : c)
+			q.listen(n);
+		q.listen(null);
+		// The producer isn't held up by a listener that hasn't returned.
+		assertTrue(System.nanoTime() - start < 100000000L);
+		assertSame(b, q.listener());
+		b.go.countDown();
+		q.await();
+		assertEquals(c.length + 1, b.heard.size());
+		for (int i = 0; i < c.length; i++)
+			assertSame(c[i], b.heard.get(i));
+		assertNull(b.heard.get(c.length));
+		assertEquals(c.length, q.delivered());
+		assertEquals(0, q.dropped());
+		assertEquals(0, q.backlog());
+		assertTrue(q.maxLagNanos() >= q.lagNanos());
+		assertTrue(q.maxLagNanos() > 0);
+	}
+
+	private static Blocked overflow(OverflowPolicy policy, NoteSequence[] c) throws Exception
+	{
+		Blocked b = new Blocked();
+		ListenerQueue q = new ListenerQueue(b, 2, policy);
+		// Wait for the first to be taken, so the rest queue up behind it.
+		q.listen(c[0]);
+		while (q.backlog() > 0)
+			Thread.sleep(1);
+		for (int i = 1; i < c.length; i++)
+			q.listen(c[i]);
+		q.listen(null);
+		b.go.countDown();
+		q.await();
+		assertEquals(b.heard.size() - 1, q.delivered());
+		assertEquals(c.length - q.delivered(), q.dropped());
+		assertSame(c[0], b.heard.get(0));
+		assertNull(b.heard.get(b.heard.size() - 1));
+		return b;
+	}
+
+	public void testOverflow() throws Exception
+	{
+		NoteSequence[] c = candidates(6);
+
+		Blocked b = overflow(OverflowPolicy.DROP_OLDEST, c);
+		assertEquals(4, b.heard.size());
+		assertSame(c[4], b.heard.get(1));
+		assertSame(c[5], b.heard.get(2));
+
+		b = overflow(OverflowPolicy.DROP_NEWEST, c);
+		assertEquals(4, b.heard.size());
+		assertSame(c[1], b.heard.get(1));
+		assertSame(c[2], b.heard.get(2));
+
+		b = overflow(OverflowPolicy.COALESCE, c);
+		assertEquals(3, b.heard.size());
+		assertSame(c[5], b.heard.get(1));
+	}
+
+	public void testFailingListener() throws Exception
+	{
+		ListenerQueue q = new ListenerQueue(new Listener() {
+			public void listen(NoteSequence n) {
+				if (n != null)
+					throw new IllegalStateException("Broken listener.");
+			}
+		});
+		q.listen(candidates(1)[0]);
+		q.listen(null);
+		q.await();
+		assertEquals(1, q.delivered());
+	}
+}
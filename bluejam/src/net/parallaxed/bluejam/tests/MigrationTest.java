@@ -0,0 +1,176 @@
+package net.parallaxed.bluejam.tests;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.FitnessType;
+import net.parallaxed.bluejam.evolution.Island;
+import net.parallaxed.bluejam.evolution.IslandNode;
+import net.parallaxed.bluejam.evolution.MigrationHub;
+import net.parallaxed.bluejam.evolution.MigrationProtocol;
+import net.parallaxed.bluejam.evolution.Topology;
+import net.parallaxed.bluejam.playback.Listener;
+import junit.framework.TestCase;
+
+public class MigrationTest extends TestCase {
+
+	private static final int GENERATIONS = 6;
+
+	/**
+	 * Runs one island as a node of the hub at args[0]; args[1] is
+	 * the island's index. Started in its own JVM by the tests.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		int index = Integer.parseInt(args[1]);
+		Population p = new Population(sp, 30, null);
+		p.setParameter(PopulationParameters.FITNESS_TYPE, FitnessType.INTERVAL);
+		TreeFixture.populate(p, sp, 30, index);
+		Island island = new Island(p, index);
+		island.generations(GENERATIONS);
+		island.migration(1, 2);
+		new IslandNode(island, MigrationProtocol.address(args[0])).run();
+	}
+
+	public void testFrames() throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		NoteTree nt = TreeFixture.tree(sp, 3, 0);
+		ByteBuffer frame = MigrationProtocol.best(7, 0.25, nt);
+		assertEquals(frame.remaining() - 4, frame.getInt());
+		assertEquals(MigrationProtocol.BEST, frame.get());
+		assertEquals(7, frame.getInt());
+		assertEquals(0.25, frame.getDouble());
+		NoteSequence back = MigrationProtocol.sequence(frame, sp, true);
+		assertFalse(frame.hasRemaining());
+		assertEquals(new NoteArray(nt).contentHash(), ((NoteArray) back).contentHash());
+
+		assertEquals(new InetSocketAddress("localhost", 4000), MigrationProtocol.address("localhost:4000"));
+		assertEquals("unix:/tmp/hub", MigrationProtocol.format(MigrationProtocol.address("unix:/tmp/hub")));
+	}
+
+	/**
+	 * A node sending a malformed sequence is dropped, and the hub
+	 * goes on serving the others.
+	 */
+	public void testBadFrame() throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		final MigrationHub hub = new MigrationHub(new InetSocketAddress("localhost", 0), sp, 2);
+		hub.bind();
+		Thread thread = new Thread(new Runnable() {
+			public void run() { hub.run(); }
+		});
+		thread.start();
+
+		SocketChannel bad = SocketChannel.open(hub.address());
+		_send(bad, MigrationProtocol.hello());
+		// A note count whose size overflows an int.
+		ByteBuffer frame = ByteBuffer.allocate(4 + 1 + 4 + 8 + 4);
+		frame.putInt(1 + 4 + 8 + 4).put(MigrationProtocol.BEST).putInt(1).putDouble(0.5).putInt(1 << 29).flip();
+		_send(bad, frame);
+
+		SocketChannel good = SocketChannel.open(hub.address());
+		_send(good, MigrationProtocol.hello());
+		_send(good, MigrationProtocol.best(1, 0.25, TreeFixture.tree(sp, 3, 0)));
+		_send(good, MigrationProtocol.done(1));
+
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertNotNull(hub.best());
+		bad.close();
+		good.close();
+	}
+
+	/**
+	 * A node that dies before saying hello counts as done, so the
+	 * hub doesn't wait for it.
+	 */
+	public void testDeadBeforeHello() throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		final MigrationHub hub = new MigrationHub(new InetSocketAddress("localhost", 0), sp, 2);
+		hub.bind();
+		Thread thread = new Thread(new Runnable() {
+			public void run() { hub.run(); }
+		});
+		thread.start();
+
+		SocketChannel.open(hub.address()).close();
+
+		SocketChannel good = SocketChannel.open(hub.address());
+		_send(good, MigrationProtocol.hello());
+		_send(good, MigrationProtocol.best(1, 0.25, TreeFixture.tree(sp, 3, 0)));
+		_send(good, MigrationProtocol.done(1));
+
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertNotNull(hub.best());
+		good.close();
+	}
+
+	private static void _send(SocketChannel channel, ByteBuffer frame) throws Exception
+	{
+		while (frame.hasRemaining())
+			channel.write(frame);
+	}
+
+	public void testTcp() throws Exception {
+		_run(new InetSocketAddress("localhost", 0));
+	}
+
+	public void testUnixSocket() throws Exception
+	{
+		File socket = new File(System.getProperty("java.io.tmpdir"), "migration-test-"+ProcessHandle.current().pid());
+		socket.delete();
+		try { _run(UnixDomainSocketAddress.of(socket.getPath())); }
+		finally { socket.delete(); }
+	}
+
+	/**
+	 * Two islands, each in its own JVM, migrating every generation.
+	 */
+	private void _run(SocketAddress address) throws Exception
+	{
+		final MigrationHub hub = new MigrationHub(address, TreeFixture.sequenceParameters(), 2);
+		hub.topology(Topology.RING);
+		hub.bind();
+		String at = MigrationProtocol.format(hub.address());
+
+		Process[] nodes = new Process[2];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = new ProcessBuilder(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java",
+					"-cp", System.getProperty("java.class.path"), MigrationTest.class.getName(), at, ""+i)
+				.inheritIO().start();
+
+		final ArrayList<NoteSequence> played = new ArrayList<NoteSequence>();
+		hub.addListener(new Listener() {
+			public void listen(NoteSequence n) {
+				if (n == null)
+					return;
+				played.add(n);
+				hub.feedback(0, n);
+			}
+		});
+		hub.run();
+
+		for (Process node : nodes)
+			assertEquals(0, node.waitFor());
+		assertEquals(GENERATIONS, played.size());
+		assertTrue(played.get(0) instanceof NoteTree);
+		assertTrue(hub.relayed() > 0);
+		assertNotNull(hub.best());
+	}
+}
@@ -0,0 +1,173 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.Arrays;
+
+import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.Mutable;
+import net.parallaxed.bluejam.NoteArray;
+import net.parallaxed.bluejam.NoteLeaf;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.PackedNote;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Rhythm;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.ArrayBreeder;
+import net.parallaxed.bluejam.util.RandomSource;
+import junit.framework.TestCase;
+
+public class NoteArrayTest extends TestCase {
+
+	public void testPackNote()
+	{
+		NoteLeaf nl = new NoteLeaf(Pitch.R, Rhythm.QUAVER, 4);
+		nl.pitchRelative(-7);
+		nl.swingNote(66, -1);
+		nl.toggleRest();
+		long p = PackedNote.place(PackedNote.pack(nl), 4, 0x2a5);
+
+		assertEquals(Pitch.R, PackedNote.pitchClass(p));
+		assertEquals(-7, PackedNote.pitchRelative(p));
+		assertEquals(4, PackedNote.octave(p));
+		assertEquals(Rhythm.QUAVER, PackedNote.rhythm(p));
+		assertEquals(66, PackedNote.swingPercent(p));
+		assertTrue(PackedNote.rest(p));
+		assertEquals(Mutable.ALL, PackedNote.mutable(p));
+		assertEquals(4, PackedNote.depth(p));
+		assertEquals(0x2a5, PackedNote.position(p));
+		assertEquals(nl.contentHash(), PackedNote.unpack(p).contentHash());
+
+		// Unset values survive too.
+		p = PackedNote.pack(new NoteLeaf(Rhythm.MINIM));
+		assertNull(PackedNote.pitchClass(p));
+		assertEquals(-2, PackedNote.octave(p));
+	}
+
+	/**
+	 * A tree rebuilt from its packed leaves has the same shape
+	 * and plays the same.
+	 */
+	public void testRoundTrip() throws Exception
+	{
+		NoteTree _nt = TreeFixture.fullTree(0);
+		_nt.leaves()[4].lockMask(Mutable.PITCH, true);
+		NoteArray na = new NoteArray(_nt);
+		assertEquals(_nt.leaves().length, na.length());
+
+		NoteTree rebuilt = na.toTree();
+		assertEquals(_nt.contentHash(), rebuilt.contentHash());
+		assertEquals(Mutable.PITCH, rebuilt.leaves()[4].mutable());
+		for (int i = 0; i < na.length(); i++)
+			assertEquals(_nt.leaves()[i]._parent.path().length + 1, PackedNote.depth(na.notes()[i]));
+		assertTrue(Arrays.equals(na.notes(), new NoteArray(rebuilt).notes()));
+	}
+
+	/**
+	 * A subtree grafted into a different slot is packed where it
+	 * is now, not where its parent links say it came from.
+	 */
+	public void testPackGrafted() throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		NoteTree source = TreeFixture.fullTree(1);
+		NoteTree target = TreeFixture.fullTree(0);
+		source.setSequenceParameters(sp);
+		target.setSequenceParameters(sp);
+		NoteTree crotchets = (NoteTree) source.nodeAt(new int[] { 1, 1 });
+		NoteTree grafted = target.graft(new int[] { 2, 0 }, crotchets);
+		assertNotNull(grafted);
+		assertSame(crotchets, grafted.nodeAt(new int[] { 2, 0 }));
+
+		NoteArray na = new NoteArray(grafted);
+		assertEquals(grafted.leaves().length, na.length());
+		assertTrue(Arrays.equals(new int[] { 2, 0, 0, 0 }, PackedNote.path(na.notes()[7])));
+		assertTrue(Arrays.equals(new int[] { 2, 0, 0, 1 }, PackedNote.path(na.notes()[8])));
+		for (int n = 1; n < na.length(); n++)
+			assertTrue(PackedNote.position(na.notes()[n - 1]) < PackedNote.position(na.notes()[n]));
+		assertEquals(grafted.contentHash(), na.toTree().contentHash());
+
+		// Validating the graft copies the shared crotchets rather
+		// than writing to the source's leaves.
+		grafted.validateNotes();
+		assertNotSame(crotchets, grafted.nodeAt(new int[] { 2, 0 }));
+		assertEquals(na.contentHash(), new NoteArray(grafted).contentHash());
+		assertSame(crotchets, source.nodeAt(new int[] { 1, 1 }));
+	}
+
+	/**
+	 * Crossover swaps whole nodes, so the children still pack
+	 * trees of the right shape, and nothing is lost.
+	 */
+	public void testRecombine() throws Exception
+	{
+		RandomSource.begin(0);
+		ArrayBreeder breeder = new ArrayBreeder();
+		long[] notes1 = new NoteArray(TreeFixture.fullTree(0)).notes();
+		long[] notes2 = new NoteArray(TreeFixture.fullTree(1)).notes();
+		long[] copy1 = notes1.clone();
+		for (int i = 0; i < 50; i++)
+		{
+			long[][] children = breeder.recombine(notes1, notes2);
+			assertNotNull(children);
+			assertEquals(notes1.length + notes2.length, children[0].length + children[1].length);
+			for (long[] child : children)
+			{
+				NoteArray na = new NoteArray(child, new SequenceParameters());
+				assertTrue(Arrays.equals(child, new NoteArray(na.toTree()).notes()));
+				for (int n = 1; n < child.length; n++)
+					assertTrue(PackedNote.position(child[n - 1]) + PackedNote.span(PackedNote.depth(child[n - 1]))
+							<= PackedNote.position(child[n]));
+			}
+		}
+		assertTrue(Arrays.equals(copy1, notes1));
+
+		// Locked notes are never swapped.
+		NoteTree locked = TreeFixture.fullTree(2);
+		for (NoteLeaf nl : locked.leaves())
+			nl.lockMask(Mutable.NONE, true);
+		assertNull(breeder.recombine(new NoteArray(locked).notes(), notes2));
+	}
+
+	public void testMutate() throws Exception
+	{
+		MersenneTwisterFast mt = new MersenneTwisterFast(3);
+		ArrayBreeder breeder = new ArrayBreeder();
+		long[] notes = new NoteArray(TreeFixture.fullTree(0)).notes();
+		long[] copy = notes.clone();
+		int changed = 0;
+		for (int i = 0; i < 20; i++)
+			if (breeder.mutate(copy, i, mt) && copy[i] != notes[i])
+			{
+				changed++;
+				assertEquals(PackedNote.position(notes[i]), PackedNote.position(copy[i]));
+				assertEquals(PackedNote.rhythm(notes[i]), PackedNote.rhythm(copy[i]));
+			}
+		assertTrue(changed > 0);
+	}
+
+	/**
+	 * A whole step past B or C carries into the next octave.
+	 */
+	public void testMutateOctave() throws Exception
+	{
+		MersenneTwisterFast mt = new MersenneTwisterFast(5);
+		ArrayBreeder breeder = new ArrayBreeder();
+		long b = PackedNote.mutable(PackedNote.pack(new NoteLeaf(Pitch.B, Rhythm.CROTCHET, 5)), Mutable.PITCH);
+		long c = PackedNote.mutable(PackedNote.pack(new NoteLeaf(Pitch.C, Rhythm.CROTCHET, 5)), Mutable.PITCH);
+		boolean up = false, down = false;
+		for (int i = 0; i < 50; i++)
+		{
+			long[] notes = new long[] { b, c };
+			if (breeder.mutate(notes, 0, mt) && PackedNote.pitchClass(notes[0]) == Pitch.Db)
+			{
+				assertEquals(6, PackedNote.octave(notes[0]));
+				up = true;
+			}
+			if (breeder.mutate(notes, 1, mt) && PackedNote.pitchClass(notes[1]) == Pitch.Bb)
+			{
+				assertEquals(4, PackedNote.octave(notes[1]));
+				down = true;
+			}
+		}
+		assertTrue(up && down);
+	}
+}
@@ -0,0 +1,165 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.concurrent.ForkJoinPool;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteLeaf;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.evolution.Genotype;
+import net.parallaxed.bluejam.evolution.TreeBreeder;
+import net.parallaxed.bluejam.util.RandomSource;
+import junit.framework.TestCase;
+
+public class PersistentTreeTest extends TestCase {
+
+	/**
+	 * Parents bred from, and the size of the generation they fill,
+	 * for the benchmark.
+	 */
+	private static final int POOL = 15;
+	private static final int POPULATION = 250;
+
+	/**
+	 * A grafted tree copies the path to the new node, shares
+	 * everything else, and leaves the original alone.
+	 */
+	public void testGraft() throws Exception
+	{
+		NoteTree _nt1 = TreeFixture.fullTree(0);
+		NoteTree _nt2 = TreeFixture.fullTree(1);
+		long hash = _nt1.contentHash();
+		int[] path = new int[] { 1, 0 };
+		NoteSequence subTree = _nt2.nodeAt(path);
+
+		NoteTree grafted = _nt1.graft(path, subTree);
+		assertNotNull(grafted);
+		assertNotSame(_nt1, grafted);
+		assertSame(subTree, grafted.nodeAt(path));
+		assertNotSame(_nt1.nodeAt(new int[] { 1 }), grafted.nodeAt(new int[] { 1 }));
+		assertSame(_nt1.nodeAt(new int[] { 0 }), grafted.nodeAt(new int[] { 0 }));
+		assertSame(_nt1.nodeAt(new int[] { 1, 1 }), grafted.nodeAt(new int[] { 1, 1 }));
+		assertEquals(_nt1.leaves().length, grafted.leaves().length);
+		assertEquals(hash, _nt1.contentHash());
+		assertFalse(hash == grafted.contentHash());
+
+		// Subtrees only go in at their own depth.
+		assertNull(_nt1.graft(new int[] { 1 }, subTree));
+		assertNull(_nt1.graft(new int[0], subTree));
+	}
+
+	/**
+	 * A mutated leaf is a copy, placed in a copy of its path.
+	 */
+	public void testGraftLeaf() throws Exception
+	{
+		NoteTree _nt = TreeFixture.fullTree(0);
+		NoteLeaf[] leaves = _nt.leaves();
+		int[] path = leaves[3]._parent.path();
+		int slot = leaves[3]._parent.getChild(0) == leaves[3] ? 0 : 1;
+		int[] leafPath = new int[path.length + 1];
+		System.arraycopy(path, 0, leafPath, 0, path.length);
+		leafPath[path.length] = slot;
+
+		NoteLeaf copy = leaves[3].clone();
+		copy.toggleRest();
+		NoteTree grafted = _nt.graft(leafPath, copy);
+		assertSame(copy, grafted.leaves()[3]);
+		assertSame(leaves[3], _nt.leaves()[3]);
+		assertSame(grafted.nodeAt(path), copy._parent);
+	}
+
+	/**
+	 * Fills a generation from the same pool with each tree
+	 * genotype, and compares the bytes allocated.
+	 */
+	public void testBreedingAllocation() throws Exception
+	{
+		com.sun.management.ThreadMXBean bean = TreeFixture.allocationCounters();
+		if (bean == null)
+			return;
+		NoteTree[] pool = new NoteTree[POOL];
+		for (int i = 0; i < POOL; i++)
+		{
+			pool[i] = TreeFixture.fullTree(i);
+			// Parents are indexed once, whichever genotype breeds them.
+			pool[i].index();
+			pool[i].leaves();
+		}
+
+		// Warm up, then measure.
+		breed(populate(pool, Genotype.NOTE_TREE));
+		breed(populate(pool, Genotype.PERSISTENT_TREE));
+		Population p = populate(pool, Genotype.NOTE_TREE);
+		long before = TreeFixture.allocated(bean);
+		breed(p);
+		long cloned = TreeFixture.allocated(bean) - before;
+
+		p = populate(pool, Genotype.PERSISTENT_TREE);
+		before = TreeFixture.allocated(bean);
+		breed(p);
+		long persistent = TreeFixture.allocated(bean) - before;
+
+		assertEquals(POPULATION, p.populationSize());
+		assertTrue(persistent * 5 < cloned);
+
+		// The parents are untouched.
+		for (int i = 0; i < POOL; i++)
+			assertEquals(TreeFixture.fullTree(i).contentHash(), pool[i].contentHash());
+	}
+
+	/**
+	 * Persistent trees are never changed, so they can be bred from
+	 * directly; the others are changed in place by mutation.
+	 */
+	private static Population populate(NoteTree[] pool, Genotype genotype) throws Exception
+	{
+		Population p = new Population(TreeFixture.sequenceParameters(), POPULATION);
+		p.setParameter(PopulationParameters.GENOTYPE, genotype);
+		for (NoteTree nt : pool)
+			p.addIndividual(new Individual(genotype == Genotype.PERSISTENT_TREE ? nt : nt.clone(), (Heuristic) null));
+		return p;
+	}
+
+	/**
+	 * A generation comes out the same from the same seed, however
+	 * many threads breed it.
+	 */
+	public void testReproducibleBreeding() throws Exception
+	{
+		NoteTree[] pool = new NoteTree[POOL];
+		for (int i = 0; i < POOL; i++)
+			pool[i] = TreeFixture.fullTree(i);
+		ForkJoinPool one = new ForkJoinPool(1);
+		ForkJoinPool many = new ForkJoinPool(4);
+		for (Genotype genotype : new Genotype[] { Genotype.NOTE_TREE, Genotype.PERSISTENT_TREE })
+		{
+			Population p1 = populate(pool, genotype);
+			RandomSource.begin(0);
+			new TreeBreeder(5, 0.9, one).breed(p1);
+			Population p2 = populate(pool, genotype);
+			RandomSource.begin(0);
+			new TreeBreeder(5, 0.9, many).breed(p2);
+
+			assertEquals(POPULATION, p1.populationSize());
+			assertEquals(POPULATION, p2.populationSize());
+			for (int i = 0; i < POPULATION; i++)
+				assertEquals(((NoteTree) p1.getIndividual(i).getNoteSequence()).contentHash(),
+						((NoteTree) p2.getIndividual(i).getNoteSequence()).contentHash());
+		}
+		// The parents are untouched.
+		for (int i = 0; i < POOL; i++)
+			assertEquals(TreeFixture.fullTree(i).contentHash(), pool[i].contentHash());
+		one.shutdown();
+		many.shutdown();
+	}
+
+	private static void breed(Population p)
+	{
+		RandomSource.begin(0);
+		new TreeBreeder().breed(p);
+	}
+}
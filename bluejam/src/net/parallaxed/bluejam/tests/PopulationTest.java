@@ -0,0 +1,96 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import junit.framework.TestCase;
+
+public class PopulationTest extends TestCase {
+
+	private static Individual individual() {
+		return new Individual(new NoteTree(), (Heuristic) null);
+	}
+
+	public void testConcurrentAdd() throws Exception
+	{
+		final Population p = new Population(new SequenceParameters(), 10000);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread() {
+				public void run() {
+					// More than there's room for between them.
+					for (int i = 0; i < 2000; i++)
+						try { p.addIndividual(individual()); }
+						catch (IndividualAddException e) { }
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+
+		assertEquals(10000, p.populationSize());
+		assertEquals(0, p.getEmptySlots().size());
+		IdentityHashMap<Individual, Boolean> seen = new IdentityHashMap<Individual, Boolean>();
+		for (Individual i : p)
+			assertNull(seen.put(i, true));
+		assertEquals(10000, seen.size());
+	}
+
+	public void testReserve() throws Exception
+	{
+		Population p = new Population(new SequenceParameters(), 4);
+		int a = p.reserve(), b = p.reserve();
+		assertEquals(0, a);
+		assertEquals(1, b);
+		Individual i = individual();
+		p.setIndividual(b, i);
+
+		// Reserved slots are skipped until filled.
+		int n = 0;
+		for (Individual j : p) {
+			assertSame(i, j);
+			n++;
+		}
+		assertEquals(1, n);
+		assertSame(i, p.getRandomIndividual());
+
+		ArrayList<Individual> more = new ArrayList<Individual>();
+		for (int j = 0; j < 3; j++)
+			more.add(individual());
+		try {
+			p.addIndividuals(more);
+			fail();
+		}
+		catch (IndividualAddException e) {
+			assertEquals(1, e.getFailed().size());
+		}
+		assertEquals(3, p.populationSize());
+		assertEquals(-1, p.reserve());
+	}
+
+	public void testSnapshot() throws Exception
+	{
+		Population p = new Population(new SequenceParameters(), 4);
+		for (int j = 0; j < 4; j++)
+			p.addIndividual(individual());
+		p.fitness(new double[] { 1, 2, 3, 4 });
+		Population copy = p.snapshot();
+		Individual first = p.getIndividual(0);
+
+		// Replacing a member of one leaves the other alone.
+		p.replaceIndividual(0, individual(), 5);
+		assertSame(first, copy.getIndividual(0));
+		assertEquals(1.0, copy.fitness()[0]);
+		assertEquals(5.0, p.fitness()[0]);
+		assertEquals(4, copy.populationSize());
+		assertEquals(-1, copy.reserve());
+	}
+}
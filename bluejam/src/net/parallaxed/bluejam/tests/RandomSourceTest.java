@@ -0,0 +1,76 @@
+package net.parallaxed.bluejam.tests;
+
+import ec.util.MersenneTwisterFast;
+import net.parallaxed.bluejam.util.RandomSource;
+import junit.framework.TestCase;
+
+public class RandomSourceTest extends TestCase {
+
+	private static double[] draw(long key, int n)
+	{
+		MersenneTwisterFast mt = RandomSource.enter(key);
+		double[] d = new double[n];
+		try {
+			for (int i = 0; i < n; i++)
+				d[i] = mt.nextDouble();
+		}
+		finally {
+			RandomSource.exit();
+		}
+		return d;
+	}
+
+	/**
+	 * The same key gives the same stream, on any thread.
+	 */
+	public void testKeyedStreamsReproduce() throws InterruptedException
+	{
+		RandomSource.seed(42);
+		final double[] here = draw(RandomSource.key(3, 7), 16);
+		final double[][] there = new double[1][];
+		Thread t = new Thread() {
+			public void run() { there[0] = draw(RandomSource.key(3, 7), 16); }
+		};
+		t.start();
+		t.join();
+		for (int i = 0; i < here.length; i++)
+			assertEquals(here[i], there[0][i]);
+
+		double[] other = draw(RandomSource.key(3, 8), 16);
+		boolean differs = false;
+		for (int i = 0; i < here.length; i++)
+			differs |= here[i] != other[i];
+		assertTrue(differs);
+	}
+
+	/**
+	 * Entering a keyed stream leaves the thread's own stream alone.
+	 */
+	public void testEnterDoesNotDisturbOwnStream()
+	{
+		RandomSource.seed(7);
+		RandomSource.begin(0);
+		double first = RandomSource.current().nextDouble();
+		double second = RandomSource.current().nextDouble();
+
+		RandomSource.begin(0);
+		assertEquals(first, RandomSource.current().nextDouble());
+		draw(RandomSource.key(1, 1), 100);
+		assertEquals(second, RandomSource.current().nextDouble());
+	}
+
+	/**
+	 * Session 1, island 1 and evaluation round 1 each get a
+	 * stream of their own.
+	 */
+	public void testPurposes()
+	{
+		RandomSource.seed(3);
+		double session = RandomSource.begin(RandomSource.key(RandomSource.SESSION, 1, 0)).nextDouble();
+		double island = RandomSource.begin(RandomSource.key(RandomSource.ISLAND, 1, 0)).nextDouble();
+		double evaluation = draw(RandomSource.key(RandomSource.EVALUATION, 1, 0), 1)[0];
+		assertFalse(session == island);
+		assertFalse(session == evaluation);
+		assertFalse(island == evaluation);
+	}
+}
@@ -0,0 +1,70 @@
+package net.parallaxed.bluejam.tests;
+
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.FitnessCache;
+import net.parallaxed.bluejam.evolution.FitnessInterval;
+import net.parallaxed.bluejam.evolution.FitnessType;
+import net.parallaxed.bluejam.evolution.ParallelEvaluator;
+import net.parallaxed.bluejam.evolution.RemoteEvaluator;
+import net.parallaxed.bluejam.evolution.StrategyRegistry;
+import junit.framework.TestCase;
+
+public class RemoteEvaluatorTest extends TestCase {
+
+	private Population population(int size) throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		Population p = new Population(sp, size, null);
+		p.setParameter(PopulationParameters.FITNESS_TYPE, FitnessType.INTERVAL);
+		return TreeFixture.populate(p, sp, size, 0);
+	}
+
+	/**
+	 * A generation scored in two workers, through the registry.
+	 */
+	public void testWorkers() throws Exception
+	{
+		Population p = population(20);
+		RemoteEvaluator remote = new RemoteEvaluator(FitnessType.INTERVAL, 2, 20000);
+		FitnessCache.getInstance().clear();
+		StrategyRegistry.getInstance().register(FitnessType.INTERVAL, remote);
+		try {
+			remote.start();
+			double[] scores = new ParallelEvaluator().evaluate(p);
+			assertEquals(20, remote.remote());
+			assertEquals(0, remote.fallbacks());
+			for (int i = 0; i < 20; i++)
+			{
+				// Interval fitness is randomised; the scores kept are the workers'.
+				assertTrue(scores[i] > 0);
+				assertTrue(p.getIndividual(i).evaluated());
+				assertEquals(scores[i], p.getIndividual(i).evaluate());
+			}
+		}
+		finally {
+			StrategyRegistry.getInstance().register(FitnessType.INTERVAL, FitnessInterval.getInstance());
+			FitnessCache.getInstance().clear();
+			remote.close();
+		}
+	}
+
+	/**
+	 * Nothing arrives in time, so every score is computed here.
+	 */
+	public void testFallback() throws Exception
+	{
+		Population p = population(4);
+		RemoteEvaluator remote = new RemoteEvaluator(FitnessType.INTERVAL, 1, 0);
+		try {
+			for (int i = 0; i < 4; i++)
+				assertTrue(remote.evaluate(p.getIndividual(i)) > 0);
+			assertEquals(4, remote.fallbacks());
+			assertEquals(0, remote.remote());
+		}
+		finally {
+			remote.close();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.HashMap;
+
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteLeaf;
+import net.parallaxed.bluejam.NoteLeafSet;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.PackedNote;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.ScaledSet;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.Terminal;
+import net.parallaxed.bluejam.grammar.ModelParser;
+import net.parallaxed.bluejam.grammar.PitchModel;
+import junit.framework.TestCase;
+
+public class ScaledSetTest extends TestCase {
+
+	public void testShared()
+	{
+		Scale blues = Scale.BLUES.getInstance();
+		ScaledSet s = ScaledSet.getInstance(Pitch.C, blues, 5, 6);
+		assertSame(s, ScaledSet.getInstance(Pitch.C, blues, 5, 6));
+		assertNotSame(s, ScaledSet.getInstance(Pitch.D, blues, 5, 6));
+
+		// The same notes as a set built by hand.
+		ScaledSet built = new ScaledSet(Pitch.C, blues, 5, 6);
+		assertEquals(built.size(), s.size());
+		for (int i = 0; i < s.size(); i++)
+		{
+			assertEquals(((NoteLeaf) built.get(i)).pitchClass(), ((NoteLeaf) s.get(i)).pitchClass());
+			assertEquals(((NoteLeaf) built.get(i)).octave(), ((NoteLeaf) s.get(i)).octave());
+		}
+
+		// Changing key looks the set up.
+		JamParamters jam = new JamParamters(Pitch.C, blues, 120);
+		assertSame(s, jam.getScaledSet());
+		jam.rootPitch(Pitch.G);
+		assertSame(ScaledSet.getInstance(Pitch.G, blues, 5, 6), jam.getScaledSet());
+		jam.rootPitch(Pitch.C);
+		assertSame(s, jam.getScaledSet());
+	}
+
+	public void testImmutable() throws Exception
+	{
+		ScaledSet s = ScaledSet.getInstance(Pitch.A, Scale.BLUES.getInstance(), 4, 5);
+		int size = s.size();
+		try {
+			s.add(new NoteLeaf(Pitch.Gs, 4));
+			fail();
+		}
+		catch (RuntimeException e) { }
+		try {
+			s.setModel(null);
+			fail();
+		}
+		catch (RuntimeException e) { }
+		assertEquals(size, s.size());
+		// Sets built by hand can still be changed.
+		new ScaledSet(Pitch.A, Scale.BLUES.getInstance(), 4, 5).octaveChangeProbability(50);
+	}
+
+	public void testModels() throws Exception
+	{
+		PitchModel model = new ModelParser("conf/bluesModel-C.m").getModel();
+		ScaledSet s = ScaledSet.getInstance(Pitch.C, Scale.BLUES.getInstance(), 5, 6);
+		ScaledSet m = s.withModel(model);
+		assertNotSame(s, m);
+		assertSame(m, s.withModel(model));
+		assertSame(m, m.withModel(model));
+		assertSame(s, m.withModel(null));
+		assertEquals(s.size(), m.size());
+
+		HashMap<Pitch, PitchModel> models = new HashMap<Pitch, PitchModel>();
+		models.put(Pitch.C, model);
+		JamParamters jam = new JamParamters(Pitch.C, Scale.BLUES.getInstance(), 120);
+		jam.models(models);
+		assertSame(m, jam.getScaledSet());
+		// No model for G.
+		jam.rootPitch(Pitch.G);
+		assertSame(ScaledSet.getInstance(Pitch.G, Scale.BLUES.getInstance(), 5, 6), jam.getScaledSet());
+	}
+
+	/**
+	 * Threads asking for the same model at once get the same set.
+	 */
+	public void testModelsConcurrent() throws Exception
+	{
+		final PitchModel model = new ModelParser("conf/bluesModel-C.m").getModel();
+		final ScaledSet s = ScaledSet.getInstance(Pitch.D, Scale.BLUES.getInstance(), 3, 4);
+		final ScaledSet[] found = new ScaledSet[8];
+		Thread[] threads = new Thread[found.length];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int i = t;
+			threads[t] = new Thread() {
+				public void run() { found[i] = s.withModel(model); }
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		for (ScaledSet f : found)
+			assertSame(found[0], f);
+		assertSame(found[0], s.withModel(model));
+	}
+
+	public void testRandomNote()
+	{
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		ScaledSet s = sp.Jam.getScaledSet();
+		NoteTree n = new NoteTree(sp);
+		for (int i = 0; i < 200; i++)
+		{
+			long p = s.randomNote(n);
+			assertTrue(p != NoteLeafSet.NO_NOTE);
+			boolean found = false;
+			for (Terminal t : s)
+				if (((NoteLeaf) t).pitchClass() == PackedNote.pitchClass(p))
+				{
+					found = true;
+					// Only ever an octave either way of the set's.
+					assertTrue(Math.abs(((NoteLeaf) t).octave() - PackedNote.octave(p)) <= 1);
+				}
+			assertTrue(found);
+		}
+		// Leaves are new, never the set's own.
+		NoteLeaf l = s.getRandom(n);
+		for (Terminal t : s)
+			assertNotSame(t, l);
+	}
+}
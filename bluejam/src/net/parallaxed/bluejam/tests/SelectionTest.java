@@ -1,5 +1,6 @@
 package net.parallaxed.bluejam.tests;
 
+import java.util.Arrays;
 
 import net.parallaxed.bluejam.JamParamters;
 import net.parallaxed.bluejam.Pitch;
@@ -7,8 +8,13 @@ import net.parallaxed.bluejam.Population;
 import net.parallaxed.bluejam.Scale;
 import net.parallaxed.bluejam.SequenceParameters;
 import net.parallaxed.bluejam.evolution.Breeder;
+import net.parallaxed.bluejam.evolution.SelectProportional;
+import net.parallaxed.bluejam.evolution.SelectRank;
+import net.parallaxed.bluejam.evolution.SelectSampled;
+import net.parallaxed.bluejam.evolution.SelectStochasticUniversal;
 import net.parallaxed.bluejam.evolution.SelectTournament;
 import net.parallaxed.bluejam.evolution.TreeBreeder;
+import ec.util.MersenneTwisterFast;
 import junit.framework.TestCase;
 
 public class SelectionTest extends TestCase {
@@ -39,4 +45,65 @@ public class SelectionTest extends TestCase {
 		b.breed(q);
 		assertEquals(0, q.getEmptySlots().size());
 	}
+	
+	public void testTournamentKernel()
+	{
+		SelectTournament _st = SelectTournament.getInstance();
+		MersenneTwisterFast mt = new MersenneTwisterFast(7);
+		// The zeros are knocked out, then the best two win.
+		double[] fitness = { 0, 0, 0, 5, 3, 3 };
+		int[] w = _st.select(fitness, 2, 6, mt);
+		assertEquals(3, w[0]);
+		assertTrue(w[1] == 4 || w[1] == 5);
+		
+		// Equal scores are kept, and nobody wins twice.
+		fitness = new double[10000];
+		Arrays.fill(fitness, 0.5);
+		w = _st.select(fitness, 5000, 15, mt);
+		assertEquals(5000, w.length);
+		boolean[] won = new boolean[fitness.length];
+		for (int i : w) {
+			assertFalse(won[i]);
+			won[i] = true;
+		}
+		
+		// No more winners than members.
+		assertEquals(6, _st.select(new double[] { 1, 2, 3, 4, 5, 6 }, 10, 15, mt).length);
+	}
+	
+	public void testSampledSelectors()
+	{
+		SelectSampled[] selectors = { SelectProportional.getInstance(),
+				SelectRank.getInstance(), SelectStochasticUniversal.getInstance() };
+		MersenneTwisterFast mt = new MersenneTwisterFast(11);
+		double[] fitness = new double[10000];
+		for (int i = 0; i < fitness.length; i++)
+			fitness[i] = (i % 2 == 0) ? 0 : i / (double) fitness.length;
+		
+		for (SelectSampled s : selectors)
+		{
+			// Distinct winners, even when the fitter half runs out.
+			int[] w = s.select(fitness, 8000, mt);
+			assertEquals(8000, w.length);
+			boolean[] won = new boolean[fitness.length];
+			for (int i : w) {
+				assertFalse(won[i]);
+				won[i] = true;
+			}
+			
+			// The fit are favoured.
+			w = s.select(fitness, 2000, mt);
+			int fit = 0;
+			for (int i : w)
+				if (fitness[i] > 0)
+					fit++;
+			assertTrue(s.getClass().getSimpleName(), fit > 1060);
+			
+			// Nothing to go on: drawn uniformly.
+			assertEquals(3, s.select(new double[3], 5, mt).length);
+		}
+		// Zero fitness has no place on the wheel.
+		for (int i : SelectProportional.getInstance().select(fitness, 1000, mt))
+			assertTrue(fitness[i] > 0);
+	}
 }
@@ -0,0 +1,104 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.parallaxed.bluejam.Evolve;
+import net.parallaxed.bluejam.HeuristicCollection;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.ReplacementType;
+import net.parallaxed.bluejam.playback.Listener;
+import junit.framework.TestCase;
+
+public class SpeculationTest extends TestCase {
+
+	/**
+	 * Waits for the given number of cycles to be bred ahead.
+	 */
+	private static void _awaitBredAhead(Evolve evolve, int cycles) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (evolve.bredAhead() < cycles)
+		{
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static class Recorder implements Listener
+	{
+		final LinkedBlockingQueue<NoteSequence> heard = new LinkedBlockingQueue<NoteSequence>();
+
+		public void listen(NoteSequence n) {
+			if (n != null)
+				heard.add(n);
+		}
+
+		NoteSequence next() throws InterruptedException {
+			NoteSequence n = heard.poll(10, TimeUnit.SECONDS);
+			assertNotNull(n);
+			return n;
+		}
+	}
+
+	public void testSpeculate() throws Exception
+	{
+		Evolve evolve = _evolve();
+		evolve.speculate(3);
+		assertEquals(0, evolve.speculate());
+		_speculate(evolve);
+	}
+
+	public void testSpeculateSteadyState() throws Exception
+	{
+		Evolve evolve = _evolve();
+		evolve.steadyState(2, ReplacementType.WORST);
+		_speculate(evolve);
+	}
+
+	private static Evolve _evolve()
+	{
+		SequenceParameters sp = new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+		return new Evolve(sp, 50, HeuristicCollection.loadHeuristics("conf"));
+	}
+
+	private static void _speculate(Evolve evolve) throws Exception
+	{
+		evolve.speculate(2);
+		evolve.generations(20);
+		Recorder r = new Recorder();
+		evolve.addListener(r);
+		Thread t = new Thread(evolve);
+		t.start();
+
+		// The listen buffer, played before waiting on feedback.
+		NoteSequence last = null;
+		for (int i = 0; i < 5; i++)
+			last = r.next();
+		assertEquals(0, evolve.committed());
+
+		// Neutral feedback plays the first bred ahead.
+		_awaitBredAhead(evolve, 2);
+		evolve.feedback(0, last);
+		last = r.next();
+		assertEquals(1, evolve.committed());
+		assertEquals(0, evolve.discarded());
+
+		// Positive feedback keeps only the first, as the rest were
+		// bred without the new elite.
+		_awaitBredAhead(evolve, 2);
+		evolve.feedback(1, last);
+		r.next();
+		assertEquals(2, evolve.committed());
+		assertEquals(1, evolve.discarded());
+
+		evolve.running = false;
+		evolve.feedback(0, last);
+		t.join(10000);
+		assertFalse(t.isAlive());
+	}
+}
@@ -0,0 +1,108 @@
+package net.parallaxed.bluejam.tests;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.PopulationParameters;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.Breeder;
+import net.parallaxed.bluejam.evolution.FitnessType;
+import net.parallaxed.bluejam.evolution.Genotype;
+import net.parallaxed.bluejam.evolution.ReplacementType;
+import net.parallaxed.bluejam.evolution.SteadyState;
+import net.parallaxed.bluejam.evolution.TreeBreeder;
+import net.parallaxed.bluejam.exceptions.IndividualAddException;
+import net.parallaxed.bluejam.util.RandomSource;
+import junit.framework.TestCase;
+
+public class SteadyStateTest extends TestCase {
+
+	private static final int POPULATION = 30;
+
+	private static Population populate(Genotype genotype) throws Exception
+	{
+		SequenceParameters sp = TreeFixture.sequenceParameters();
+		Population p = new Population(sp, POPULATION);
+		p.setParameter(PopulationParameters.GENOTYPE, genotype);
+		p.setParameter(PopulationParameters.FITNESS_TYPE, FitnessType.INTERVAL);
+		return TreeFixture.populate(p, sp, POPULATION, 0);
+	}
+
+	public void testStep() throws Exception
+	{
+		for (ReplacementType replacement : ReplacementType.values())
+		{
+			RandomSource.begin(0);
+			Population p = populate(Genotype.PERSISTENT_TREE);
+			SteadyState steadyState = new SteadyState(4, replacement);
+			double[] scores = SteadyState.scores(p);
+			Individual[] populous = p.populous;
+
+			for (int step = 0; step < 20; step++)
+			{
+				Individual[] offspring = steadyState.step(p, new TreeBreeder());
+				assertEquals(4, offspring.length);
+				for (Individual o : offspring)
+					assertSame(p.getParameters(), o.getParameters());
+			}
+			// Nothing is regrown or rescored.
+			assertEquals(POPULATION, p.populationSize());
+			assertSame(populous, p.populous);
+			assertSame(scores, p.fitness());
+			for (int i = 0; i < POPULATION; i++)
+				assertEquals(p.getIndividual(i).evaluate(), scores[i], 1e-9);
+		}
+	}
+
+	/**
+	 * A breeder that passes the parents through unchanged still
+	 * puts new individuals into the population.
+	 */
+	public void testDistinctOffspring() throws Exception
+	{
+		RandomSource.begin(0);
+		Population p = populate(Genotype.NOTE_TREE);
+		Individual[] before = p.populous.clone();
+		Breeder reproduce = new Breeder() {
+			public void breed(Population brood) {
+				try {
+					while (brood.populationSize() < brood.memberCount)
+						brood.addIndividual(brood.getIndividual(brood.populationSize() % 2));
+				}
+				catch (IndividualAddException e) { fail(e.getMessage()); }
+			}
+		};
+
+		Individual[] offspring = new SteadyState(4, ReplacementType.WORST).step(p, reproduce);
+		assertEquals(4, offspring.length);
+		for (Individual o : offspring)
+		{
+			int slot = -1;
+			for (int i = 0; i < POPULATION; i++)
+			{
+				assertNotSame(before[i], o);
+				if (p.getIndividual(i) == o)
+					slot = i;
+			}
+			assertTrue(slot >= 0);
+			assertNotSame(before[slot], p.getIndividual(slot));
+		}
+	}
+
+	public void testReplaceWorst() throws Exception
+	{
+		RandomSource.begin(0);
+		Population p = populate(Genotype.NOTE_TREE);
+		double[] scores = SteadyState.scores(p);
+		int worst = 0;
+		for (int i = 1; i < scores.length; i++)
+			if (scores[i] < scores[worst])
+				worst = i;
+
+		Individual elite = new Individual(((NoteTree) p.getIndividual(0).getNoteSequence()).clone(), (Heuristic) null);
+		assertEquals(worst, new SteadyState(1, ReplacementType.WORST).replace(p, elite));
+		assertSame(elite, p.getIndividual(worst));
+		assertEquals(elite.evaluate(), scores[worst], 1e-9);
+	}
+}
@@ -0,0 +1,74 @@
+package net.parallaxed.bluejam.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.SequenceParameters;
+import net.parallaxed.bluejam.evolution.FitnessInterval;
+import net.parallaxed.bluejam.evolution.FitnessType;
+import net.parallaxed.bluejam.evolution.Genotype;
+import net.parallaxed.bluejam.evolution.IndividualEvaluator;
+import net.parallaxed.bluejam.evolution.InitializationType;
+import net.parallaxed.bluejam.evolution.InitializeGrow;
+import net.parallaxed.bluejam.evolution.SelectTournament;
+import net.parallaxed.bluejam.evolution.SelectionType;
+import net.parallaxed.bluejam.evolution.StrategyProvider;
+import net.parallaxed.bluejam.evolution.StrategyRegistry;
+import junit.framework.TestCase;
+
+public class StrategyRegistryTest extends TestCase {
+
+	private static final IndividualEvaluator CONSTANT = new IndividualEvaluator() {
+		public double evaluate(Individual individual) { return 0.5; }
+	};
+
+	/**
+	 * Registered by ServiceLoader in testProviders().
+	 */
+	public static class ConstantProvider implements StrategyProvider {
+		public void register(StrategyRegistry registry) {
+			registry.register(FitnessType.RANDOM, CONSTANT);
+		}
+	}
+
+	public void testBuiltIns()
+	{
+		StrategyRegistry registry = new StrategyRegistry();
+		assertSame(FitnessInterval.getInstance(), registry.evaluator(FitnessType.INTERVAL));
+		assertSame(InitializeGrow.getInstance(), registry.initializer(InitializationType.GROW));
+		assertSame(SelectTournament.getInstance(), registry.selector(SelectionType.TOURNAMENT));
+		// Resolved once.
+		assertSame(registry.selector(SelectionType.PROPORTIONAL), registry.selector(SelectionType.PROPORTIONAL));
+		for (FitnessType t : FitnessType.values())
+			assertSame(t.eval(), registry.evaluator(t).getClass());
+		for (Genotype g : Genotype.values())
+			assertEquals(NoteTree.class, registry.genotype(g).create(new SequenceParameters()).getClass());
+	}
+
+	public void testRegister()
+	{
+		StrategyRegistry registry = new StrategyRegistry();
+		registry.register(FitnessType.INTERVAL, CONSTANT);
+		assertSame(CONSTANT, registry.evaluator(FitnessType.INTERVAL));
+		assertSame(FitnessInterval.getInstance(), new StrategyRegistry().evaluator(FitnessType.INTERVAL));
+	}
+
+	public void testProviders() throws Exception
+	{
+		File dir = new File(System.getProperty("java.io.tmpdir"), "strategy-registry-test");
+		File services = new File(dir, "META-INF/services");
+		services.mkdirs();
+		FileWriter w = new FileWriter(new File(services, StrategyProvider.class.getName()));
+		w.write(ConstantProvider.class.getName()+"\n");
+		w.close();
+
+		StrategyRegistry registry = new StrategyRegistry();
+		registry.loadProviders(new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader()));
+		assertSame(CONSTANT, registry.evaluator(FitnessType.RANDOM));
+		assertNotSame(CONSTANT, registry.evaluator(FitnessType.INTERVAL));
+	}
+}
@@ -0,0 +1,119 @@
+package net.parallaxed.bluejam.tests;
+
+import java.util.Iterator;
+
+import net.parallaxed.bluejam.Note;
+import net.parallaxed.bluejam.NoteCollection;
+import net.parallaxed.bluejam.NoteLeaf;
+import net.parallaxed.bluejam.NoteSequence;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.NoteVisitor;
+import net.parallaxed.bluejam.Pitch;
+import junit.framework.TestCase;
+
+public class TraversalTest extends TestCase {
+	
+	/**
+	 * Trees per generation, and evaluations of each tree,
+	 * for the benchmark.
+	 */
+	private static final int POPULATION = 50;
+	private static final int PASSES = 4;
+	
+	NoteTree _nt = null;
+	
+	protected void setUp() throws Exception
+	{
+		_nt = TreeFixture.fullTree(0);
+	}
+	
+	/**
+	 * The traversal getNotes() used to do, copying each
+	 * level of the tree into a new collection.
+	 */
+	private static Iterator<Note> legacyNotes(NoteSequence notes)
+	{
+		if (notes.getClass() != NoteTree.class)
+			return notes.getNotes();
+		NoteTree tree = (NoteTree) notes;
+		NoteCollection n = new NoteCollection();
+		for (int i = 0; i < tree.getNumChildren(); i++)
+			if (tree.getChild(i) != null)
+				for (Iterator<Note> c = legacyNotes(tree.getChild(i)); c.hasNext(); )
+					n.add(c.next());
+		return n.iterator();
+	}
+	
+	public void testSameOrder()
+	{
+		Iterator<Note> legacy = legacyNotes(_nt);
+		Iterator<Note> notes = _nt.getNotes();
+		int count = 0;
+		while (legacy.hasNext())
+		{
+			assertTrue(notes.hasNext());
+			assertSame(legacy.next(), notes.next());
+			count++;
+		}
+		assertFalse(notes.hasNext());
+		assertEquals(count, _nt.collectNotes().size());
+		
+		final int[] visited = new int[1];
+		assertTrue(_nt.walk(new NoteVisitor() {
+			public boolean visit(Note note) { visited[0]++; return true; }
+		}));
+		assertEquals(count, visited[0]);
+	}
+	
+	/**
+	 * The leaf array is kept between reads and rebuilt after
+	 * the tree is restructured below the root.
+	 */
+	public void testLeavesInvalidated() throws Exception
+	{
+		NoteLeaf[] leaves = _nt.leaves();
+		assertSame(leaves, _nt.leaves());
+		
+		NoteLeaf last = leaves[leaves.length - 1];
+		NoteLeaf swapped = new NoteLeaf(Pitch.A, last.rhythm(), 5);
+		assertTrue(_nt.swapNotes(last, swapped));
+		
+		NoteLeaf[] after = _nt.leaves();
+		assertNotSame(leaves, after);
+		assertEquals(leaves.length, after.length);
+		assertSame(swapped, after[after.length - 1]);
+		assertSame(swapped, _nt.collectNotes().get(after.length - 1));
+	}
+	
+	/**
+	 * Compares the bytes allocated reading a generation's worth
+	 * of trees the old way and the new way.
+	 */
+	public void testAllocationPerGeneration()
+	{
+		com.sun.management.ThreadMXBean bean = TreeFixture.allocationCounters();
+		if (bean == null)
+			return;
+		
+		// Warm up both paths first.
+		int sink = 0;
+		for (int i = 0; i < 1000; i++)
+		{
+			for (Iterator<Note> n = legacyNotes(_nt); n.hasNext(); n.next()) sink++;
+			for (Iterator<Note> n = _nt.getNotes(); n.hasNext(); n.next()) sink++;
+		}
+		
+		long before = TreeFixture.allocatedHere(bean);
+		for (int i = 0; i < POPULATION * PASSES; i++)
+			for (Iterator<Note> n = legacyNotes(_nt); n.hasNext(); n.next()) sink++;
+		long legacy = TreeFixture.allocatedHere(bean) - before;
+		
+		before = TreeFixture.allocatedHere(bean);
+		for (int i = 0; i < POPULATION * PASSES; i++)
+			for (Iterator<Note> n = _nt.getNotes(); n.hasNext(); n.next()) sink++;
+		long stacked = TreeFixture.allocatedHere(bean) - before;
+		
+		assertTrue(sink > 0);
+		assertTrue(stacked * 4 < legacy);
+	}
+}
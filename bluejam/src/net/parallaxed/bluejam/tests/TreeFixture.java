@@ -0,0 +1,133 @@
+package net.parallaxed.bluejam.tests;
+
+import java.lang.management.ManagementFactory;
+
+import net.parallaxed.bluejam.Heuristic;
+import net.parallaxed.bluejam.Individual;
+import net.parallaxed.bluejam.JamParamters;
+import net.parallaxed.bluejam.NoteLeaf;
+import net.parallaxed.bluejam.NoteTree;
+import net.parallaxed.bluejam.Pitch;
+import net.parallaxed.bluejam.Population;
+import net.parallaxed.bluejam.Rhythm;
+import net.parallaxed.bluejam.Scale;
+import net.parallaxed.bluejam.SequenceParameters;
+
+/**
+ * Trees, populations and allocation counters shared by the tests.
+ */
+final class TreeFixture
+{
+	static final Pitch[] PITCHES = new Pitch[] { Pitch.C, Pitch.Eb, Pitch.F, Pitch.G, Pitch.Bb };
+
+	private TreeFixture() { }
+
+	/**
+	 * @return Parameters for a blues in C at 120 BPM.
+	 */
+	static SequenceParameters sequenceParameters() {
+		return new SequenceParameters(new JamParamters(Pitch.C,Scale.BLUES.getInstance(),120));
+	}
+
+	/**
+	 * Grows a tree of a semibreve, two minims, two crotchets and
+	 * four quavers, filled out with semiquavers.
+	 * @param seed The index of the first pitch played.
+	 * @return The complete tree, without sequence parameters.
+	 */
+	static NoteTree fullTree(int seed) throws Exception
+	{
+		NoteTree _nt = new NoteTree();
+		int i = seed;
+		for (Rhythm r : new Rhythm[] { Rhythm.SEMIBREVE, Rhythm.MINIM, Rhythm.MINIM, Rhythm.CROTCHET,
+				Rhythm.CROTCHET, Rhythm.QUAVER, Rhythm.QUAVER, Rhythm.QUAVER, Rhythm.QUAVER })
+			_nt.addNotes(new NoteLeaf(PITCHES[i++ % PITCHES.length], r, 5));
+		return fill(_nt, i, Rhythm.SEMIQUAVER);
+	}
+
+	/**
+	 * Grows a tree of two minims and two crotchets filled out
+	 * with quavers, whose pitches step by the seed, so different
+	 * seeds give different trees.
+	 * @param sp The parameters of the tree.
+	 * @param seed The step between pitches.
+	 * @param offset Shifts every pitch, e.g. by island.
+	 * @return The complete tree.
+	 */
+	static NoteTree tree(SequenceParameters sp, int seed, int offset) throws Exception
+	{
+		NoteTree nt = new NoteTree(sp);
+		int i = seed + offset;
+		for (Rhythm r : new Rhythm[] { Rhythm.MINIM, Rhythm.MINIM, Rhythm.CROTCHET, Rhythm.CROTCHET })
+			nt.addNotes(new NoteLeaf(PITCHES[(i += seed) % PITCHES.length], r, 5));
+		while (nt.getIncompleteReferences().length > 0)
+			nt.addNotes(new NoteLeaf(PITCHES[(i += seed + 1) % PITCHES.length], Rhythm.QUAVER, 5));
+		return nt;
+	}
+
+	/**
+	 * Fills every empty slot of a tree with notes of one rhythm.
+	 * @param nt The tree to fill.
+	 * @param first The index of the first pitch added.
+	 * @param rhythm The rhythm of the notes added.
+	 * @return The tree.
+	 */
+	static NoteTree fill(NoteTree nt, int first, Rhythm rhythm) throws Exception
+	{
+		int i = first;
+		while (nt.getIncompleteReferences().length > 0)
+			nt.addNotes(new NoteLeaf(PITCHES[i++ % PITCHES.length], rhythm, 5));
+		return nt;
+	}
+
+	/**
+	 * Adds size individuals to a population, grown by tree()
+	 * with seeds 0 to size - 1.
+	 * @param p The population to fill.
+	 * @param sp The parameters of the trees.
+	 * @param size The number of individuals to add.
+	 * @param offset The offset passed to tree().
+	 * @return The population.
+	 */
+	static Population populate(Population p, SequenceParameters sp, int size, int offset) throws Exception
+	{
+		for (int seed = 0; seed < size; seed++)
+			p.addIndividual(new Individual(tree(sp, seed, offset), (Heuristic) null));
+		return p;
+	}
+
+	/**
+	 * @return The JVM's per-thread allocation counters, or null
+	 * if it doesn't keep them.
+	 */
+	static com.sun.management.ThreadMXBean allocationCounters()
+	{
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+		if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled())
+			return null;
+		return bean;
+	}
+
+	/**
+	 * @return The bytes allocated so far by the calling thread.
+	 */
+	static long allocatedHere(com.sun.management.ThreadMXBean bean) {
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @return The bytes allocated so far by every live thread, so
+	 * work handed to a pool is counted too.
+	 */
+	static long allocated(com.sun.management.ThreadMXBean bean)
+	{
+		long total = 0;
+		for (long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds()))
+			if (bytes > 0)
+				total += bytes;
+		return total;
+	}
+}
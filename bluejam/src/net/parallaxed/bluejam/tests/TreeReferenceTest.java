@@ -1,12 +1,18 @@
 package net.parallaxed.bluejam.tests;
 
 
+import java.util.Arrays;
+import java.util.List;
+
+import ec.util.MersenneTwisterFast;
 import net.parallaxed.bluejam.Mutable;
 import net.parallaxed.bluejam.NoteLeaf;
 import net.parallaxed.bluejam.NoteSequence;
 import net.parallaxed.bluejam.NoteTree;
 import net.parallaxed.bluejam.Pitch;
 import net.parallaxed.bluejam.Rhythm;
+import net.parallaxed.bluejam.TreeIndex;
+import net.parallaxed.bluejam.evolution.TreeBreeder;
 import net.parallaxed.bluejam.exceptions.ErrorFeedback;
 import net.parallaxed.bluejam.exceptions.SequenceException;
 import junit.framework.TestCase;
@@ -84,6 +90,105 @@ public class TreeReferenceTest extends TestCase {
 		}
 	}
 	
+	public void testIndex() throws Exception
+	{
+		NoteTree _nt = new NoteTree();
+		_nt.addNotes(_nlC);
+		_nt.addNotes(_nlD);
+		_nt.addNotes(_nlE);
+		_nt.addNotes(_nlF);
+		_nt.addNotes(_nlG);
+		_nt.addNotes(_nlA);
+		
+		TreeIndex index = _nt.index();
+		assertSame(index, _nt.index());
+		// Nothing is locked, so every subtree is free.
+		int[] byDepth = new int[NoteTree.MAX_DEPTH + 1];
+		for (NoteSequence ns : _nt.getSubTrees())
+			byDepth[((NoteTree) ns).depth()]++;
+		for (int depth = 0; depth <= NoteTree.MAX_DEPTH; depth++)
+			assertEquals(byDepth[depth], index.freeSubTrees(depth));
+		assertEquals(6, index.mutableLeaves());
+		
+		// The same node can be found in a clone by its path.
+		MersenneTwisterFast mt = new MersenneTwisterFast(1);
+		NoteTree clone = _nt.clone();
+		for (int i = 0; i < 20; i++)
+		{
+			int[] path = index.randomFreeSubTree(mt);
+			NoteTree nt = (NoteTree) _nt.nodeAt(path);
+			NoteSequence copy = clone.nodeAt(path);
+			assertNotNull(copy);
+			assertNotSame(nt, copy);
+			assertEquals(path.length, nt.depth());
+			assertEquals(nt.depth(), ((NoteTree) copy).depth());
+			assertEquals(nt.contentHash(), ((NoteTree) copy).contentHash());
+		}
+		
+		// Locking a leaf changes the crossover points, so the index is rebuilt.
+		_nlA.lockMask(Mutable.NONE,true);
+		assertNotSame(index, _nt.index());
+	}
+	
+	public void testExchange() throws Exception
+	{
+		NoteTree _nt1 = new NoteTree();
+		NoteTree _nt2 = new NoteTree();
+		_nt1.addNotes(_nlC);
+		_nt1.addNotes(_nlD);
+		_nt2.addNotes(_nlE);
+		_nt2.addNotes(_nlF);
+		_nt2.addNotes(_nlG);
+		_nt2.addNotes(_nlA);
+		
+		NoteLeaf[] leaves1 = _nt1.leaves();
+		NoteTree crotchets = _nlC._parent;
+		NoteTree quavers = _nlE._parent;
+		int[] path1 = crotchets.path();
+		int[] path2 = quavers.path();
+		
+		assertTrue(NoteTree.exchange(crotchets, quavers));
+		assertSame(quavers, _nt1.nodeAt(path1));
+		assertSame(crotchets, _nt2.nodeAt(path2));
+		assertEquals(path1.length, quavers.depth());
+		assertEquals(path2.length, crotchets.depth());
+		assertNotSame(leaves1, _nt1.leaves());
+		assertSame(_nlE, _nt1.leaves()[0]);
+		
+		// The root, and a node with its own ancestor, can't be exchanged.
+		assertFalse(NoteTree.exchange(_nt1, _nlC));
+		assertFalse(NoteTree.exchange(quavers, _nlE));
+		
+		// A single swap finds the node through its parent.
+		NoteLeaf _nlX = new NoteLeaf(Pitch.Bb,Rhythm.QUAVER,5);
+		assertTrue(_nt1.swapNotes(_nlF, _nlX));
+		assertSame(quavers, _nlX._parent);
+		assertSame(_nlX, _nt1.leaves()[1]);
+	}
+	
+	/**
+	 * With nothing locked the only crossover point is the root,
+	 * and breeding crosses over below it, swapping notes between
+	 * the trees (their content may still hash the same, as the
+	 * fixture trees repeat pitches).
+	 */
+	public void testRecombineUnlocked() throws Exception
+	{
+		NoteTree _nt1 = TreeFixture.fullTree(0);
+		NoteTree _nt2 = TreeFixture.fullTree(1);
+		List<NoteLeaf> before = Arrays.asList(_nt1.leaves());
+		assertEquals(1, _nt1.index().crossoverPoints());
+		assertEquals(0, _nt1.index().randomCrossoverPoint(new MersenneTwisterFast(1)).length);
+		
+		int count = _nt1.leaves().length + _nt2.leaves().length;
+		new TreeBreeder().recombine(_nt1, _nt2);
+		assertEquals(count, _nt1.leaves().length + _nt2.leaves().length);
+		boolean swapped = false;
+		for (NoteLeaf leaf : _nt1.leaves())
+			swapped |= !before.contains(leaf);
+		assertTrue(swapped);
+	}
+	
 	public void testMutationRefs()
 	{
 		NoteTree _nt = new NoteTree();
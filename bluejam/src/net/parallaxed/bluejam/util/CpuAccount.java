@@ -0,0 +1,93 @@
+package net.parallaxed.bluejam.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Charges the CPU time of work spread over a fork-join pool to 
+ * whoever it's done for, a task at a time, so one pool can do the
+ * work of many accounts (such as EvolutionService's sessions).
+ * 
+ * An account is owned by the thread that enter()s it. Tasks created
+ * on that thread capture the account with current(), and charge() 
+ * it the CPU time of their own work as they finish it. Work on the
+ * owner's thread is left to the owner to measure, with used(); work
+ * it does for other accounts meanwhile (helping their tasks while
+ * it joins its own) is taken off, so nothing is charged twice.
+ * 
+ * Where the VM doesn't measure thread CPU time, the wall clock is
+ * used instead.
+ */
+public final class CpuAccount
+{
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final ThreadLocal<CpuAccount> _current = new ThreadLocal<CpuAccount>();
+	
+	/**
+	 * CPU time (ns) charged by tasks run on other threads.
+	 */
+	private final AtomicLong _charged = new AtomicLong();
+	/**
+	 * CPU time (ns) the owner's thread spent on other accounts' tasks.
+	 */
+	private final AtomicLong _lent = new AtomicLong();
+	
+	/**
+	 * @return The account the calling thread owns, or null.
+	 */
+	public static CpuAccount current() {
+		return _current.get();
+	}
+	
+	/**
+	 * @return The calling thread's CPU time (ns), or the wall clock
+	 * if the VM doesn't measure it.
+	 */
+	public static long time()
+	{
+		if (THREADS.isCurrentThreadCpuTimeSupported())
+			return THREADS.getCurrentThreadCpuTime();
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Makes the calling thread the owner of this account, until exit().
+	 */
+	public void enter() {
+		_current.set(this);
+	}
+	
+	/**
+	 * Gives up ownership of the account.
+	 */
+	public void exit() {
+		_current.remove();
+	}
+	
+	/**
+	 * Charges the account for a task's work on the calling thread.
+	 * @param start The thread's time() when the work started.
+	 */
+	public void charge(long start)
+	{
+		CpuAccount owner = _current.get();
+		// The owner's own time is measured by used().
+		if (owner == this)
+			return;
+		long nanos = Math.max(0, time() - start);
+		_charged.addAndGet(nanos);
+		if (owner != null)
+			owner._lent.addAndGet(nanos);
+	}
+	
+	/**
+	 * Called on the owner's thread. The difference between two calls
+	 * is what the account spent in between, on every thread.
+	 * @return The CPU time (ns) charged to the account, counting the
+	 * owner's thread's own.
+	 */
+	public long used() {
+		return time() - _lent.get() + _charged.get();
+	}
+}
@@ -1,21 +1,25 @@
 package net.parallaxed.bluejam.util;
 
 /**
- * Singleton wrapper for ec.util.MersenneTwisterFast
- * FIXME Update to use MersenneTwister class, since MersenneTwisterFast is not threadsafe.
+ * Wrapper for ec.util.MersenneTwisterFast, kept for older callers.
+ * 
+ * MersenneTwisterFast is not threadsafe, so there is no longer a
+ * single shared instance; getInstance() returns the calling thread's
+ * stream from RandomSource. Don't hold on to it across threads.
+ * 
+ * @see RandomSource
+ * @deprecated Use RandomSource.current()
  * @author Ciarn Rowe (csr2@kent.ac.uk)
  *
  */
+@Deprecated
 public class MersenneTwisterFast {
 	
-	public static ec.util.MersenneTwisterFast _instance = null;
 	private MersenneTwisterFast() {
 		
 	}
 	public static ec.util.MersenneTwisterFast getInstance()
 	{
-		if (_instance == null)
-			_instance = new ec.util.MersenneTwisterFast();
-		return _instance;		
+		return RandomSource.current();		
 	}
 }
@@ -0,0 +1,173 @@
+package net.parallaxed.bluejam.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Hands out random number streams derived from a single master seed.
+ *
+ * Every thread owns its own ec.util.MersenneTwisterFast, so operators
+ * can draw from current() without contention or locking. Work that is
+ * split across threads should call enter() with a key naming the unit
+ * of work (e.g. generation and slot) before drawing, and exit() when
+ * done; the stream is then a function of the master seed and that key
+ * alone, so a run reproduces exactly from the seed however many
+ * threads carry it out.
+ *
+ * Threads outside enter() draw from their own stream, seeded by the
+ * order in which they first asked for it, or by begin() for threads
+ * (like the evolution thread) that need to be reproducible themselves.
+ *
+ * Keys are salted by purpose (SESSION, ISLAND, EVALUATION, BREEDING),
+ * so that, say, session 1 and island 1 don't share a stream.
+ */
+public final class RandomSource
+{
+	// Stafford's mix13 constants, as used by SplitMix64.
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final long MIX_1 = 0xbf58476d1ce4e5b9L;
+	private static final long MIX_2 = 0x94d049bb133111ebL;
+
+	/**
+	 * The purposes streams are keyed for; see key(long, long, long).
+	 */
+	public static final long SESSION = 1;
+	public static final long ISLAND = 2;
+	public static final long EVALUATION = 3;
+	public static final long BREEDING = 4;
+
+	private static volatile long _seed = System.nanoTime();
+	/**
+	 * Bumped whenever the master seed changes, so threads know
+	 * to reseed their generator.
+	 */
+	private static volatile int _epoch = 0;
+	private static final AtomicLong _threads = new AtomicLong();
+
+	/**
+	 * A thread's own generator, the generator it uses inside enter(),
+	 * and the master seed epoch it was seeded in.
+	 */
+	private static final class Stream
+	{
+		final MersenneTwisterFast own = new MersenneTwisterFast(0);
+		final MersenneTwisterFast task = new MersenneTwisterFast(0);
+		final long thread = _threads.getAndIncrement();
+		MersenneTwisterFast active = own;
+		int epoch = -1;
+	}
+
+	private static final ThreadLocal<Stream> _stream = new ThreadLocal<Stream>() {
+		protected Stream initialValue() {
+			return new Stream();
+		}
+	};
+
+	private RandomSource() { }
+
+	/**
+	 * @return The master seed streams are currently derived from.
+	 */
+	public static long seed() {
+		return _seed;
+	}
+
+	/**
+	 * Sets the master seed. Every thread's stream is reseeded
+	 * from it at that thread's next draw.
+	 * @param masterSeed The new master seed.
+	 */
+	public static synchronized void seed(long masterSeed)
+	{
+		_seed = masterSeed;
+		_epoch++;
+	}
+
+	/**
+	 * Returns the calling thread's generator. The instance must
+	 * not be handed to other threads.
+	 * @return This thread's stream.
+	 */
+	public static MersenneTwisterFast current()
+	{
+		Stream s = _stream.get();
+		if (s.epoch != _epoch)
+		{
+			s.epoch = _epoch;
+			s.own.setSeed(mix(_seed ^ mix(~s.thread)));
+		}
+		return s.active;
+	}
+
+	/**
+	 * Reseeds the calling thread's own stream from key, so the
+	 * thread's draws outside enter() are reproducible.
+	 * @param key The key of the stream, see key().
+	 * @return This thread's stream.
+	 */
+	public static MersenneTwisterFast begin(long key)
+	{
+		Stream s = _stream.get();
+		s.epoch = _epoch;
+		s.own.setSeed(mix(_seed ^ mix(key)));
+		return s.active;
+	}
+
+	/**
+	 * Switches the calling thread to the stream identified by key,
+	 * starting from its beginning, until exit() is called. The
+	 * thread's own stream is left where it was.
+	 * 
+	 * Calls don't nest; a unit of work should enter and exit once.
+	 * @param key The key of the stream, see key().
+	 * @return The stream, which current() now also returns.
+	 */
+	public static MersenneTwisterFast enter(long key)
+	{
+		Stream s = _stream.get();
+		s.task.setSeed(mix(_seed ^ mix(key)));
+		return (s.active = s.task);
+	}
+
+	/**
+	 * Returns the calling thread to its own stream.
+	 */
+	public static void exit() {
+		Stream s = _stream.get();
+		s.active = s.own;
+	}
+
+	/**
+	 * Combines two numbers into a stream key, for example a
+	 * generation count and a population slot.
+	 * @param a The outer component.
+	 * @param b The inner component.
+	 * @return The stream key.
+	 */
+	public static long key(long a, long b) {
+		return mix(a * GOLDEN_GAMMA + 1) + b * GOLDEN_GAMMA;
+	}
+
+	/**
+	 * Combines two numbers into a stream key for a purpose, so
+	 * streams of different purposes differ for the same numbers.
+	 * @param purpose The purpose, e.g. SESSION or EVALUATION.
+	 * @param a The outer component.
+	 * @param b The inner component.
+	 * @return The stream key.
+	 */
+	public static long key(long purpose, long a, long b) {
+		return key(a, b) ^ mix(~purpose * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * The SplitMix64 finalizer.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * MIX_1;
+		z = (z ^ (z >>> 27)) * MIX_2;
+		return z ^ (z >>> 31);
+	}
+}